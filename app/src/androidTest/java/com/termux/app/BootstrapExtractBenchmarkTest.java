@@ -0,0 +1,91 @@
+package com.termux.app;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of extracting the bootstrap zip embedded in the app natively with
+ * {@link TermuxInstaller#extractZipNative(String, BootstrapZipExtractor.ProgressListener)} compared
+ * to the {@link BootstrapZipExtractor} java fallback, into a new directory in the cache directory
+ * of the app for each iteration.
+ *
+ * The results are logged with the {@link #LOG_TAG} tag, run with:
+ * {@code ./gradlew :app:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.termux.app.BootstrapExtractBenchmarkTest}
+ */
+@RunWith(AndroidJUnit4.class)
+public class BootstrapExtractBenchmarkTest {
+
+    private static final int WARMUP_ITERATIONS = 1;
+    private static final int ITERATIONS = 5;
+
+    private static final String LOG_TAG = "BootstrapExtractBenchmark";
+
+    /** Extracts the zip into the directory at the path. */
+    private interface Extraction {
+        void extract(String targetDirectoryPath) throws Exception;
+    }
+
+    @Test
+    public void benchmarkExtraction() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File targetDirectory = new File(context.getCacheDir(), "bootstrap-extract-benchmark");
+
+        long[] progressCalls = new long[1];
+        long[] nativeTimes = benchmark(targetDirectory, targetDirectoryPath -> {
+            TermuxInstaller.NativeExtractResult result = TermuxInstaller.extractZipNative(targetDirectoryPath,
+                (phase, done, total) -> progressCalls[0]++);
+            assertTrue(result.toString(), result.isSuccessful());
+        });
+        // The progress must have been reported for each iteration
+        assertTrue(progressCalls[0] >= WARMUP_ITERATIONS + ITERATIONS);
+
+        long[] javaTimes = benchmark(targetDirectory, targetDirectoryPath ->
+            new BootstrapZipExtractor(TermuxInstaller.loadZipBuffer(), targetDirectoryPath,
+                BootstrapZipExtractor.getDefaultThreads(), null).extract());
+
+        Log.i(LOG_TAG, String.format(Locale.US, "Bootstrap extraction (%d iterations):\n%s\n%s",
+            ITERATIONS, getTimesString("native", nativeTimes),
+            getTimesString("java " + BootstrapZipExtractor.getDefaultThreads() + " threads", javaTimes)));
+    }
+
+    /** Run the extraction for all iterations and return the time of each in milliseconds. */
+    private static long[] benchmark(File targetDirectory, Extraction extraction) throws Exception {
+        long[] times = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            Error error = FileUtils.deleteFile("benchmark directory", targetDirectory.getAbsolutePath(), true);
+            assertNull(error == null ? null : error.toString(), error);
+            assertTrue(targetDirectory.mkdirs());
+
+            long startTime = SystemClock.elapsedRealtime();
+            extraction.extract(targetDirectory.getAbsolutePath());
+            long time = SystemClock.elapsedRealtime() - startTime;
+            if (i >= 0) times[i] = time;
+        }
+        FileUtils.deleteFile("benchmark directory", targetDirectory.getAbsolutePath(), true);
+        return times;
+    }
+
+    private static String getTimesString(String label, long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return String.format(Locale.US, "  %s: median %d ms, min %d ms, max %d ms",
+            label, sorted[sorted.length / 2], sorted[0], sorted[sorted.length - 1]);
+    }
+
+}
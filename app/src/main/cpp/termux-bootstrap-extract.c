@@ -0,0 +1,486 @@
+#define _GNU_SOURCE
+
+#include <errno.h>
+#include <fcntl.h>
+#include <stdarg.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/stat.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#include <zlib.h>
+
+#include "termux-bootstrap-extract.h"
+
+#define LOCAL_FILE_HEADER_SIGNATURE 0x04034b50
+#define CENTRAL_DIRECTORY_SIGNATURE 0x02014b50
+#define END_OF_CENTRAL_DIRECTORY_SIGNATURE 0x06054b50
+#define LOCAL_FILE_HEADER_SIZE 30
+#define CENTRAL_DIRECTORY_HEADER_SIZE 46
+#define END_OF_CENTRAL_DIRECTORY_SIZE 22
+#define METHOD_STORED 0
+#define METHOD_DEFLATED 8
+
+#define SYMLINKS_ENTRY_NAME "SYMLINKS.txt"
+/* The "←" separator of the old and new paths in SYMLINKS.txt, in UTF-8. */
+#define SYMLINKS_SEPARATOR "\xe2\x86\x90"
+
+/* The size of the buffer that inflated data is collected in before writing it. */
+#define WRITE_BUFFER_SIZE (256 * 1024)
+#define MAX_PATH_LENGTH 4096
+
+struct zip_entry {
+    char name[MAX_PATH_LENGTH];
+    int method;
+    uint32_t crc;
+    const unsigned char *data;
+    uint32_t compressed_size;
+    uint32_t size;
+};
+
+struct extractor {
+    const unsigned char *zip;
+    size_t zip_size;
+    int dir_fd;
+    /* Whether files are created with O_TMPFILE and linked once they have been written. */
+    int use_tmpfile;
+    /* The last directory that was created, so that it is not created again for each of its files. */
+    char last_directory[MAX_PATH_LENGTH];
+    z_stream stream;
+    unsigned char *buffer;
+    termux_bootstrap_extract_progress_callback progress_callback;
+    void *progress_arg;
+    /* The uncompressed bytes of all the files, which is the total of the extract files phase. */
+    long long total_bytes;
+    struct termux_bootstrap_extract_result *result;
+};
+
+static uint16_t get_u16(const unsigned char *p)
+{
+    return (uint16_t) (p[0] | (p[1] << 8));
+}
+
+static uint32_t get_u32(const unsigned char *p)
+{
+    return (uint32_t) p[0] | ((uint32_t) p[1] << 8) | ((uint32_t) p[2] << 16) | ((uint32_t) p[3] << 24);
+}
+
+static void on_progress(struct extractor *extractor, enum termux_bootstrap_extract_phase phase, long long done, long long total)
+{
+    if (extractor->progress_callback != NULL)
+        extractor->progress_callback(extractor->progress_arg, phase, done, total);
+}
+
+__attribute__((__format__(__printf__, 3, 4)))
+static int set_error(struct extractor *extractor, int error_number, const char *format, ...)
+{
+    va_list args;
+    va_start(args, format);
+    vsnprintf(extractor->result->error_message, sizeof(extractor->result->error_message), format, args);
+    va_end(args);
+    extractor->result->error_number = error_number;
+    return -1;
+}
+
+/* Check that the path is relative and does not contain ".." components. */
+static int is_path_valid(const char *path)
+{
+    if (path[0] == '\0' || path[0] == '/') return 0;
+    for (const char *component = path; component != NULL; ) {
+        if (strncmp(component, "..", 2) == 0 && (component[2] == '/' || component[2] == '\0')) return 0;
+        component = strchr(component, '/');
+        if (component != NULL) component++;
+    }
+    return 1;
+}
+
+/*
+ * Read the central directory header at offset into entry and set offset to the next header.
+ */
+static int read_entry(struct extractor *extractor, size_t *offset, struct zip_entry *entry)
+{
+    const unsigned char *zip = extractor->zip;
+    size_t zip_size = extractor->zip_size;
+    size_t header = *offset;
+
+    if (header + CENTRAL_DIRECTORY_HEADER_SIZE > zip_size || get_u32(zip + header) != CENTRAL_DIRECTORY_SIGNATURE)
+        return set_error(extractor, EINVAL, "Invalid central directory entry at offset %zu in bootstrap zip", header);
+
+    size_t name_length = get_u16(zip + header + 28);
+    size_t extra_length = get_u16(zip + header + 30);
+    size_t comment_length = get_u16(zip + header + 32);
+    uint32_t local_header_offset = get_u32(zip + header + 42);
+    if (header + CENTRAL_DIRECTORY_HEADER_SIZE + name_length > zip_size || name_length >= sizeof(entry->name))
+        return set_error(extractor, EINVAL, "Invalid name of central directory entry at offset %zu in bootstrap zip", header);
+
+    memcpy(entry->name, zip + header + CENTRAL_DIRECTORY_HEADER_SIZE, name_length);
+    entry->name[name_length] = '\0';
+    entry->method = get_u16(zip + header + 10);
+    entry->crc = get_u32(zip + header + 16);
+    entry->compressed_size = get_u32(zip + header + 20);
+    entry->size = get_u32(zip + header + 24);
+
+    if (entry->compressed_size == UINT32_MAX || entry->size == UINT32_MAX || local_header_offset == UINT32_MAX)
+        return set_error(extractor, ENOTSUP, "Zip64 entry \"%s\" in bootstrap zip is not supported", entry->name);
+    if (entry->method != METHOD_STORED && entry->method != METHOD_DEFLATED)
+        return set_error(extractor, ENOTSUP, "Unsupported compression method %d of entry \"%s\" in bootstrap zip", entry->method, entry->name);
+    if (!is_path_valid(entry->name))
+        return set_error(extractor, EINVAL, "Invalid entry name \"%s\" in bootstrap zip", entry->name);
+
+    size_t local_header = local_header_offset;
+    if (local_header + LOCAL_FILE_HEADER_SIZE > zip_size || get_u32(zip + local_header) != LOCAL_FILE_HEADER_SIGNATURE)
+        return set_error(extractor, EINVAL, "Invalid local header of entry \"%s\" in bootstrap zip", entry->name);
+    size_t data_offset = local_header + LOCAL_FILE_HEADER_SIZE + get_u16(zip + local_header + 26) + get_u16(zip + local_header + 28);
+    if (data_offset + entry->compressed_size > zip_size)
+        return set_error(extractor, EINVAL, "Data of entry \"%s\" is outside bootstrap zip", entry->name);
+    entry->data = zip + data_offset;
+
+    *offset = header + CENTRAL_DIRECTORY_HEADER_SIZE + name_length + extra_length + comment_length;
+    return 0;
+}
+
+/* Create the directory at path relative to the target directory and all its missing parents. */
+static int create_directories(struct extractor *extractor, const char *path)
+{
+    if (path[0] == '\0' || strcmp(path, extractor->last_directory) == 0) return 0;
+
+    char directory[MAX_PATH_LENGTH];
+    snprintf(directory, sizeof(directory), "%s", path);
+    for (char *end = directory; ; end++) {
+        if (*end != '/' && *end != '\0') continue;
+
+        char c = *end;
+        *end = '\0';
+        if (mkdirat(extractor->dir_fd, directory, 0777) == 0)
+            extractor->result->directories++;
+        else if (errno != EEXIST)
+            return set_error(extractor, errno, "Failed to create directory \"%s\": %s", directory, strerror(errno));
+        *end = c;
+        if (c == '\0') break;
+    }
+
+    snprintf(extractor->last_directory, sizeof(extractor->last_directory), "%s", path);
+    return 0;
+}
+
+/* Create the parent directories of path relative to the target directory. */
+static int create_parent_directories(struct extractor *extractor, const char *path)
+{
+    char parent[MAX_PATH_LENGTH];
+    snprintf(parent, sizeof(parent), "%s", path);
+    char *separator = strrchr(parent, '/');
+    if (separator == NULL) return 0;
+    *separator = '\0';
+    return create_directories(extractor, parent);
+}
+
+static int write_fully(int fd, const unsigned char *data, size_t length)
+{
+    while (length > 0) {
+        ssize_t written = write(fd, data, length);
+        if (written < 0) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+        data += written;
+        length -= (size_t) written;
+    }
+    return 0;
+}
+
+/*
+ * Inflate the data of the entry and pass each chunk to the callback. The data is inflated straight
+ * from the zip in memory without copying it first.
+ */
+static int inflate_entry(struct extractor *extractor, const struct zip_entry *entry,
+                         int (*callback)(void *arg, const unsigned char *data, size_t length), void *arg)
+{
+    uLong crc = crc32(0L, Z_NULL, 0);
+
+    if (entry->method == METHOD_STORED) {
+        if (entry->compressed_size != entry->size)
+            return set_error(extractor, EINVAL, "Invalid size of stored entry \"%s\" in bootstrap zip", entry->name);
+        crc = crc32(crc, entry->data, entry->size);
+        if (callback(arg, entry->data, entry->size) != 0)
+            return set_error(extractor, errno, "Failed to write \"%s\": %s", entry->name, strerror(errno));
+    } else {
+        z_stream *stream = &extractor->stream;
+        if (inflateReset(stream) != Z_OK)
+            return set_error(extractor, EIO, "Failed to reset inflater for \"%s\"", entry->name);
+        stream->next_in = (Bytef *) entry->data;
+        stream->avail_in = entry->compressed_size;
+
+        int ret;
+        do {
+            stream->next_out = extractor->buffer;
+            stream->avail_out = WRITE_BUFFER_SIZE;
+            ret = inflate(stream, Z_NO_FLUSH);
+            if (ret != Z_OK && ret != Z_STREAM_END)
+                return set_error(extractor, EIO, "Failed to inflate entry \"%s\" in bootstrap zip: %s", entry->name,
+                                 stream->msg != NULL ? stream->msg : "Truncated data");
+
+            size_t length = WRITE_BUFFER_SIZE - stream->avail_out;
+            crc = crc32(crc, extractor->buffer, (uInt) length);
+            if (length > 0 && callback(arg, extractor->buffer, length) != 0)
+                return set_error(extractor, errno, "Failed to write \"%s\": %s", entry->name, strerror(errno));
+        } while (ret != Z_STREAM_END);
+
+        if (stream->total_out != entry->size)
+            return set_error(extractor, EIO, "Size mismatch of entry \"%s\" in bootstrap zip", entry->name);
+    }
+
+    if ((uint32_t) crc != entry->crc)
+        return set_error(extractor, EIO, "CRC mismatch of entry \"%s\" in bootstrap zip", entry->name);
+    return 0;
+}
+
+static int write_callback(void *arg, const unsigned char *data, size_t length)
+{
+    return write_fully(*(int *) arg, data, length);
+}
+
+/* Get whether the file extracted from the entry should be executable, same as TermuxInstaller. */
+static int is_executable(const char *name)
+{
+    return strncmp(name, "bin/", 4) == 0 || strncmp(name, "libexec", 7) == 0 ||
+        strncmp(name, "lib/apt/apt-helper", 18) == 0 || strncmp(name, "lib/apt/methods", 15) == 0;
+}
+
+/* Link the O_TMPFILE fd at path. */
+static int link_tmpfile(struct extractor *extractor, int fd, const char *path)
+{
+    // Linking with AT_EMPTY_PATH requires CAP_DAC_READ_SEARCH, so link the /proc/self/fd symlink instead
+    char proc_path[64];
+    snprintf(proc_path, sizeof(proc_path), "/proc/self/fd/%d", fd);
+    return linkat(AT_FDCWD, proc_path, extractor->dir_fd, path, AT_SYMLINK_FOLLOW);
+}
+
+/*
+ * Check if files can be created with O_TMPFILE in the target directory and then linked, since it
+ * is not supported by all filesystems and the /proc/self/fd link may be denied by SELinux.
+ */
+static int is_tmpfile_supported(struct extractor *extractor)
+{
+#ifdef O_TMPFILE
+    int fd = openat(extractor->dir_fd, ".", O_TMPFILE | O_WRONLY | O_CLOEXEC, 0600);
+    if (fd < 0) return 0;
+
+    const char *probe = ".termux-bootstrap-tmpfile-probe";
+    int supported = link_tmpfile(extractor, fd, probe) == 0;
+    if (supported) unlinkat(extractor->dir_fd, probe, 0);
+    close(fd);
+    return supported;
+#else
+    (void) extractor;
+    return 0;
+#endif
+}
+
+static int extract_file(struct extractor *extractor, const struct zip_entry *entry)
+{
+    if (create_parent_directories(extractor, entry->name) != 0) return -1;
+
+    int fd = -1;
+#ifdef O_TMPFILE
+    if (extractor->use_tmpfile) {
+        // Create the file unnamed so that it only appears once it has been completely written
+        char *separator = strrchr(entry->name, '/');
+        char parent[MAX_PATH_LENGTH] = ".";
+        if (separator != NULL) snprintf(parent, sizeof(parent), "%.*s", (int) (separator - entry->name), entry->name);
+        fd = openat(extractor->dir_fd, parent, O_TMPFILE | O_WRONLY | O_CLOEXEC, 0666);
+    }
+#endif
+    if (fd < 0)
+        fd = openat(extractor->dir_fd, entry->name, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0666);
+    if (fd < 0)
+        return set_error(extractor, errno, "Failed to create \"%s\": %s", entry->name, strerror(errno));
+
+    // Preallocate the file so that the filesystem can allocate it contiguously, which is only a
+    // hint so failures like EOPNOTSUPP are ignored
+    if (entry->size > 0)
+        fallocate(fd, 0, 0, (off_t) entry->size);
+
+    int ret = inflate_entry(extractor, entry, write_callback, &fd);
+    if (ret == 0 && is_executable(entry->name) && fchmod(fd, 0700) != 0)
+        ret = set_error(extractor, errno, "Failed to set permissions of \"%s\": %s", entry->name, strerror(errno));
+    if (ret == 0 && extractor->use_tmpfile && link_tmpfile(extractor, fd, entry->name) != 0)
+        ret = set_error(extractor, errno, "Failed to link \"%s\": %s", entry->name, strerror(errno));
+    close(fd);
+    if (ret != 0) return -1;
+
+    extractor->result->files++;
+    extractor->result->bytes += entry->size;
+    on_progress(extractor, TERMUX_BOOTSTRAP_EXTRACT_PHASE_EXTRACT_FILES, extractor->result->bytes, extractor->total_bytes);
+    return 0;
+}
+
+struct memory_buffer {
+    unsigned char *data;
+    size_t length;
+    size_t capacity;
+};
+
+static int memory_callback(void *arg, const unsigned char *data, size_t length)
+{
+    struct memory_buffer *buffer = arg;
+    if (buffer->length + length > buffer->capacity) {
+        errno = EOVERFLOW;
+        return -1;
+    }
+    memcpy(buffer->data + buffer->length, data, length);
+    buffer->length += length;
+    return 0;
+}
+
+/* Create the symlinks from the "oldPath←newPath" lines of the SYMLINKS.txt entry. */
+static int create_symlinks(struct extractor *extractor, const struct zip_entry *entry)
+{
+    struct memory_buffer buffer = { malloc((size_t) entry->size + 1), 0, entry->size };
+    if (buffer.data == NULL)
+        return set_error(extractor, ENOMEM, "Failed to allocate %u bytes for " SYMLINKS_ENTRY_NAME, entry->size);
+
+    int ret = inflate_entry(extractor, entry, memory_callback, &buffer);
+    buffer.data[buffer.length] = '\0';
+
+    long long total = 0;
+    for (const char *c = (const char *) buffer.data; *c != '\0'; c++) {
+        if (*c == '\n' && c[1] != '\0') total++;
+    }
+    if (buffer.length > 0) total++;
+    on_progress(extractor, TERMUX_BOOTSTRAP_EXTRACT_PHASE_CREATE_SYMLINKS, 0, total);
+
+    for (char *line = (char *) buffer.data; ret == 0 && *line != '\0'; ) {
+        char *end = strchr(line, '\n');
+        if (end != NULL) *end = '\0';
+        size_t length = strlen(line);
+        if (length > 0 && line[length - 1] == '\r') line[length - 1] = '\0';
+
+        char *separator = strstr(line, SYMLINKS_SEPARATOR);
+        char *new_path = separator != NULL ? separator + strlen(SYMLINKS_SEPARATOR) : NULL;
+        if (separator == NULL || *new_path == '\0' || strstr(new_path, SYMLINKS_SEPARATOR) != NULL || !is_path_valid(new_path)) {
+            ret = set_error(extractor, EINVAL, "Malformed symlink line: %s", line);
+            break;
+        }
+        *separator = '\0';
+
+        ret = create_parent_directories(extractor, new_path);
+        if (ret == 0 && symlinkat(line, extractor->dir_fd, new_path) != 0)
+            ret = set_error(extractor, errno, "Failed to create symlink \"%s\" -> \"%s\": %s", new_path, line, strerror(errno));
+        if (ret == 0) {
+            extractor->result->symlinks++;
+            on_progress(extractor, TERMUX_BOOTSTRAP_EXTRACT_PHASE_CREATE_SYMLINKS, extractor->result->symlinks, total);
+        }
+
+        if (end == NULL) break;
+        line = end + 1;
+    }
+
+    free(buffer.data);
+    return ret;
+}
+
+static int extract(struct extractor *extractor)
+{
+    const unsigned char *zip = extractor->zip;
+    size_t zip_size = extractor->zip_size;
+
+    // The end of central directory record may be followed by a comment of up to 65535 bytes
+    if (zip_size < END_OF_CENTRAL_DIRECTORY_SIZE)
+        return set_error(extractor, EINVAL, "Bootstrap zip is too small");
+    size_t end_of_central_directory = SIZE_MAX;
+    size_t min_offset = zip_size > END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF ? zip_size - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF : 0;
+    for (size_t i = zip_size - END_OF_CENTRAL_DIRECTORY_SIZE + 1; i-- > min_offset; ) {
+        if (get_u32(zip + i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+            end_of_central_directory = i;
+            break;
+        }
+    }
+    if (end_of_central_directory == SIZE_MAX)
+        return set_error(extractor, EINVAL, "End of central directory not found in bootstrap zip");
+
+    size_t count = get_u16(zip + end_of_central_directory + 10);
+    uint32_t central_directory_offset = get_u32(zip + end_of_central_directory + 16);
+    if (count == 0xFFFF || central_directory_offset == UINT32_MAX)
+        return set_error(extractor, ENOTSUP, "Zip64 bootstrap zip is not supported");
+
+    struct zip_entry entry;
+    struct zip_entry symlinks_entry;
+    int symlinks_found = 0;
+    size_t offset = central_directory_offset;
+
+    // Sum the sizes of the files first, so that progress can be reported in bytes
+    if (extractor->progress_callback != NULL) {
+        for (size_t i = 0; i < count; i++) {
+            if (read_entry(extractor, &offset, &entry) != 0) return -1;
+            size_t name_length = strlen(entry.name);
+            if (strcmp(entry.name, SYMLINKS_ENTRY_NAME) != 0 && entry.name[name_length - 1] != '/')
+                extractor->total_bytes += entry.size;
+        }
+        offset = central_directory_offset;
+    }
+    on_progress(extractor, TERMUX_BOOTSTRAP_EXTRACT_PHASE_EXTRACT_FILES, 0, extractor->total_bytes);
+
+    for (size_t i = 0; i < count; i++) {
+        if (read_entry(extractor, &offset, &entry) != 0) return -1;
+
+        size_t name_length = strlen(entry.name);
+        if (strcmp(entry.name, SYMLINKS_ENTRY_NAME) == 0) {
+            symlinks_entry = entry;
+            symlinks_found = 1;
+        } else if (entry.name[name_length - 1] == '/') {
+            entry.name[name_length - 1] = '\0';
+            if (create_directories(extractor, entry.name) != 0) return -1;
+        } else {
+            if (extract_file(extractor, &entry) != 0) return -1;
+        }
+    }
+
+    if (!symlinks_found)
+        return set_error(extractor, EINVAL, "No " SYMLINKS_ENTRY_NAME " encountered");
+    if (create_symlinks(extractor, &symlinks_entry) != 0) return -1;
+    if (extractor->result->symlinks == 0)
+        return set_error(extractor, EINVAL, "No symlinks in " SYMLINKS_ENTRY_NAME);
+
+    // Sync the filesystem once instead of each file, syncfs() is not declared by older NDK headers
+    if (syscall(SYS_syncfs, extractor->dir_fd) != 0)
+        return set_error(extractor, errno, "Failed to sync bootstrap files: %s", strerror(errno));
+
+    return 0;
+}
+
+int termux_bootstrap_extract(const unsigned char *zip, size_t zip_size, const char *target_dir_path,
+                             termux_bootstrap_extract_progress_callback progress_callback, void *progress_arg,
+                             struct termux_bootstrap_extract_result *result)
+{
+    memset(result, 0, sizeof(*result));
+
+    struct extractor extractor;
+    memset(&extractor, 0, sizeof(extractor));
+    extractor.zip = zip;
+    extractor.zip_size = zip_size;
+    extractor.progress_callback = progress_callback;
+    extractor.progress_arg = progress_arg;
+    extractor.result = result;
+
+    extractor.dir_fd = open(target_dir_path, O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (extractor.dir_fd < 0)
+        return set_error(&extractor, errno, "Failed to open \"%s\": %s", target_dir_path, strerror(errno));
+
+    int ret = -1;
+    extractor.buffer = malloc(WRITE_BUFFER_SIZE);
+    if (extractor.buffer == NULL) {
+        set_error(&extractor, ENOMEM, "Failed to allocate write buffer");
+    } else if (inflateInit2(&extractor.stream, -MAX_WBITS) != Z_OK) {
+        set_error(&extractor, ENOMEM, "Failed to initialize inflater");
+    } else {
+        extractor.use_tmpfile = is_tmpfile_supported(&extractor);
+        ret = extract(&extractor);
+        inflateEnd(&extractor.stream);
+    }
+
+    free(extractor.buffer);
+    close(extractor.dir_fd);
+    return ret;
+}
@@ -0,0 +1,48 @@
+#ifndef TERMUX_BOOTSTRAP_EXTRACT_H
+#define TERMUX_BOOTSTRAP_EXTRACT_H
+
+#include <stddef.h>
+
+/* The result of termux_bootstrap_extract(). */
+struct termux_bootstrap_extract_result {
+    /* The number of regular files extracted. */
+    long files;
+    /* The number of directories created. */
+    long directories;
+    /* The number of symlinks created from SYMLINKS.txt. */
+    long symlinks;
+    /* The uncompressed bytes written. */
+    long long bytes;
+    /* The errno of the failure if any, otherwise 0. */
+    int error_number;
+    /* The message of the failure if any, otherwise an empty string. */
+    char error_message[512];
+};
+
+/* The phases reported to the progress callback, in the same order as BootstrapZipExtractor.Phase. */
+enum termux_bootstrap_extract_phase {
+    TERMUX_BOOTSTRAP_EXTRACT_PHASE_READ_ENTRIES,
+    TERMUX_BOOTSTRAP_EXTRACT_PHASE_CREATE_DIRECTORIES,
+    TERMUX_BOOTSTRAP_EXTRACT_PHASE_EXTRACT_FILES,
+    TERMUX_BOOTSTRAP_EXTRACT_PHASE_CREATE_SYMLINKS,
+};
+
+/*
+ * Called when progress is made in a phase. The done and total units are bytes for the extract files
+ * phase and symlinks for the create symlinks phase, the other phases are not reported.
+ */
+typedef void (*termux_bootstrap_extract_progress_callback)(void *arg, enum termux_bootstrap_extract_phase phase,
+                                                            long long done, long long total);
+
+/*
+ * Extract the bootstrap zip in memory at zip into the existing target_dir_path directory and create
+ * the symlinks listed in its SYMLINKS.txt entry. The optional progress_callback is called with
+ * progress_arg after each file and symlink.
+ *
+ * Returns 0 on success, otherwise -1 with the error_number and error_message of the result set.
+ */
+int termux_bootstrap_extract(const unsigned char *zip, size_t zip_size, const char *target_dir_path,
+                             termux_bootstrap_extract_progress_callback progress_callback, void *progress_arg,
+                             struct termux_bootstrap_extract_result *result);
+
+#endif
@@ -1,5 +1,7 @@
 #include <jni.h>
 
+#include "termux-bootstrap-extract.h"
+
 extern jbyte blob[];
 extern int blob_size;
 
@@ -9,3 +11,60 @@ JNIEXPORT jbyteArray JNICALL Java_com_termux_app_TermuxInstaller_getZip(JNIEnv *
     (*env)->SetByteArrayRegion(env, ret, 0, blob_size, blob);
     return ret;
 }
+
+/*
+ * Return a direct ByteBuffer over the embedded zip, so that it can be read without copying it to
+ * the Java heap. The blob is in read-only memory, so the buffer must not be written to.
+ */
+JNIEXPORT jobject JNICALL Java_com_termux_app_TermuxInstaller_getZipBuffer(JNIEnv *env, __attribute__((__unused__)) jobject This)
+{
+    return (*env)->NewDirectByteBuffer(env, blob, blob_size);
+}
+
+struct progress_listener {
+    JNIEnv *env;
+    jclass clazz;
+    jmethodID method;
+    jobject listener;
+};
+
+static void on_progress(void *arg, enum termux_bootstrap_extract_phase phase, long long done, long long total)
+{
+    struct progress_listener *progress_listener = arg;
+    JNIEnv *env = progress_listener->env;
+    // Do not call into java again once it has thrown, the exception is rethrown on return
+    if ((*env)->ExceptionCheck(env)) return;
+    (*env)->CallStaticVoidMethod(env, progress_listener->clazz, progress_listener->method,
+                                 progress_listener->listener, (jint) phase, (jlong) done, (jlong) total);
+}
+
+/*
+ * Extract the embedded zip natively into the targetDirectoryPath directory and create its symlinks.
+ * The files, directories, symlinks and bytes extracted and the errno of the failure are set in the
+ * stats array. The progress is reported to the optional progressListener with
+ * TermuxInstaller.onExtractZipProgress(). Returns the error message if extraction failed, otherwise NULL.
+ */
+JNIEXPORT jstring JNICALL Java_com_termux_app_TermuxInstaller_extractZip(JNIEnv *env, jclass clazz,
+                                                                         jstring targetDirectoryPath, jlongArray stats,
+                                                                         jobject progressListener)
+{
+    struct progress_listener progress_listener = { env, clazz, NULL, progressListener };
+    if (progressListener != NULL) {
+        progress_listener.method = (*env)->GetStaticMethodID(env, clazz, "onExtractZipProgress",
+                                                             "(Lcom/termux/app/BootstrapZipExtractor$ProgressListener;IJJ)V");
+        if (progress_listener.method == NULL) return NULL;
+    }
+
+    const char *target_dir_path = (*env)->GetStringUTFChars(env, targetDirectoryPath, NULL);
+    if (target_dir_path == NULL) return NULL;
+
+    struct termux_bootstrap_extract_result result;
+    int ret = termux_bootstrap_extract((const unsigned char *) blob, (size_t) blob_size, target_dir_path,
+                                       progressListener != NULL ? on_progress : NULL, &progress_listener, &result);
+    (*env)->ReleaseStringUTFChars(env, targetDirectoryPath, target_dir_path);
+    if ((*env)->ExceptionCheck(env)) return NULL;
+
+    jlong values[] = { result.files, result.directories, result.symlinks, result.bytes, result.error_number };
+    (*env)->SetLongArrayRegion(env, stats, 0, sizeof(values) / sizeof(values[0]), values);
+    return ret == 0 ? NULL : (*env)->NewStringUTF(env, result.error_message);
+}
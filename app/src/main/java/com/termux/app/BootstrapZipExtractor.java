@@ -0,0 +1,547 @@
+package com.termux.app;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
+
+import com.termux.R;
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.logger.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Extract the bootstrap zip from a {@link ByteBuffer}, like the direct buffer over the zip embedded
+ * in the termux-bootstrap library, without copying the whole zip to the Java heap.
+ *
+ * Instead of reading the zip sequentially with a {@link java.util.zip.ZipInputStream}, the central
+ * directory is read first, so that the entries can be inflated independently on a bounded thread
+ * pool. The extraction is done in phases:
+ * 1. {@link Phase#READ_ENTRIES}: Read the central directory and the `SYMLINKS.txt` entry.
+ * 2. {@link Phase#CREATE_DIRECTORIES}: Create all the directories of files and symlinks, so that
+ *    the workers do not race to create them.
+ * 3. {@link Phase#EXTRACT_FILES}: Extract the files in batches. Each batch is written with large
+ *    writes and its files are only synced once all of them have been written, so that the storage
+ *    can flush them together instead of one file at a time.
+ * 4. {@link Phase#CREATE_SYMLINKS}: Create the symlinks from `SYMLINKS.txt` in parallel.
+ */
+final class BootstrapZipExtractor {
+
+    /**
+     * The phases of the extraction, for which progress is reported. The native extractor reports
+     * its phases with their ordinals, so their order must match termux-bootstrap-extract.h.
+     */
+    enum Phase {
+        READ_ENTRIES(R.string.bootstrap_installer_phase_read_entries),
+        CREATE_DIRECTORIES(R.string.bootstrap_installer_phase_create_directories),
+        EXTRACT_FILES(R.string.bootstrap_installer_phase_extract_files),
+        CREATE_SYMLINKS(R.string.bootstrap_installer_phase_create_symlinks);
+
+        @StringRes final int labelResId;
+
+        Phase(@StringRes int labelResId) {
+            this.labelResId = labelResId;
+        }
+    }
+
+    /** The listener for the progress of the extraction. It may be called from any thread. */
+    interface ProgressListener {
+        /**
+         * Called when progress is made in a phase.
+         *
+         * @param phase The current {@link Phase}.
+         * @param done The units done in the phase, which are bytes for {@link Phase#EXTRACT_FILES}
+         *             and items for other phases.
+         * @param total The total units of the phase.
+         */
+        void onProgress(@NonNull Phase phase, long done, long total);
+    }
+
+    /** The name of the entry containing the symlinks to create. */
+    static final String SYMLINKS_ENTRY_NAME = "SYMLINKS.txt";
+
+    /** The maximum number of files in a batch whose writes are synced together. */
+    private static final int SYNC_BATCH_MAX_FILES = 64;
+    /** The maximum uncompressed bytes of a batch whose writes are synced together. */
+    private static final long SYNC_BATCH_MAX_BYTES = 8 * 1024 * 1024;
+    /** The size of the buffer of each worker that inflated data is collected in before writing it. */
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    /** The size of the buffer of each worker for compressed input. */
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final ByteBuffer mZip;
+    private final String mTargetDirectoryPath;
+    private final int mThreads;
+    @Nullable private final ProgressListener mProgressListener;
+
+    /** The {@link Worker} of each worker thread, which is ended when the thread finishes. */
+    private final ThreadLocal<Worker> mWorkers = new ThreadLocal<>();
+
+    private static final String LOG_TAG = "BootstrapZipExtractor";
+
+    /**
+     * @param zip The buffer containing the zip. It is not modified.
+     * @param targetDirectoryPath The path of the directory to extract into.
+     * @param threads The number of threads to extract files with.
+     * @param progressListener The optional {@link ProgressListener}.
+     */
+    BootstrapZipExtractor(@NonNull ByteBuffer zip, @NonNull String targetDirectoryPath, int threads,
+                          @Nullable ProgressListener progressListener) {
+        mZip = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        mTargetDirectoryPath = targetDirectoryPath;
+        mThreads = Math.max(1, threads);
+        mProgressListener = progressListener;
+    }
+
+    /** Get the default number of threads to extract with. */
+    static int getDefaultThreads() {
+        return Math.min(4, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Extract the zip into the target directory and create the symlinks. */
+    void extract() throws Exception {
+        long startTime = System.currentTimeMillis();
+
+        onProgress(Phase.READ_ENTRIES, 0, 1);
+        List<ZipEntryInfo> entries = readEntries();
+        List<ZipEntryInfo> files = new ArrayList<>();
+        List<String[]> symlinks = null;
+        for (ZipEntryInfo entry : entries) {
+            if (entry.name.equals(SYMLINKS_ENTRY_NAME))
+                symlinks = readSymlinks(entry);
+            else if (!entry.isDirectory())
+                files.add(entry);
+        }
+        if (symlinks == null || symlinks.isEmpty())
+            throw new RuntimeException("No " + SYMLINKS_ENTRY_NAME + " encountered");
+        onProgress(Phase.READ_ENTRIES, 1, 1);
+        long readTime = System.currentTimeMillis();
+
+        createDirectories(entries, symlinks);
+        long directoriesTime = System.currentTimeMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads, new WorkerThreadFactory());
+        try {
+            extractFiles(executor, files);
+            long filesTime = System.currentTimeMillis();
+
+            createSymlinks(executor, symlinks);
+            long symlinksTime = System.currentTimeMillis();
+
+            Logger.logInfo(LOG_TAG, "Extracted " + files.size() + " files and " + symlinks.size() + " symlinks with " +
+                mThreads + " threads in " + (symlinksTime - startTime) + "ms (read entries " + (readTime - startTime) +
+                "ms, create directories " + (directoriesTime - readTime) + "ms, extract files " + (filesTime - directoriesTime) +
+                "ms, create symlinks " + (symlinksTime - filesTime) + "ms)");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Read the entries from the central directory of the zip. */
+    @NonNull
+    List<ZipEntryInfo> readEntries() throws IOException {
+        int endOfCentralDirectory = -1;
+        // The end of central directory record may be followed by a comment of up to 65535 bytes
+        int minOffset = Math.max(0, mZip.limit() - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF);
+        for (int i = mZip.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= minOffset; i--) {
+            if (mZip.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endOfCentralDirectory = i;
+                break;
+            }
+        }
+        if (endOfCentralDirectory < 0)
+            throw new IOException("End of central directory not found in bootstrap zip");
+
+        int count = mZip.getShort(endOfCentralDirectory + 10) & 0xFFFF;
+        long centralDirectoryOffset = mZip.getInt(endOfCentralDirectory + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL)
+            throw new IOException("Zip64 bootstrap zip is not supported");
+
+        List<ZipEntryInfo> entries = new ArrayList<>(count);
+        int offset = (int) centralDirectoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (mZip.getInt(offset) != CENTRAL_DIRECTORY_SIGNATURE)
+                throw new IOException("Invalid central directory entry " + i + " at offset " + offset + " in bootstrap zip");
+
+            int method = mZip.getShort(offset + 10) & 0xFFFF;
+            int crc = mZip.getInt(offset + 16);
+            long compressedSize = mZip.getInt(offset + 20) & 0xFFFFFFFFL;
+            long size = mZip.getInt(offset + 24) & 0xFFFFFFFFL;
+            int nameLength = mZip.getShort(offset + 28) & 0xFFFF;
+            int extraLength = mZip.getShort(offset + 30) & 0xFFFF;
+            int commentLength = mZip.getShort(offset + 32) & 0xFFFF;
+            long localHeaderOffset = mZip.getInt(offset + 42) & 0xFFFFFFFFL;
+            String name = getString(offset + 46, nameLength);
+
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL)
+                throw new IOException("Zip64 entry \"" + name + "\" in bootstrap zip is not supported");
+            if (method != METHOD_STORED && method != METHOD_DEFLATED)
+                throw new IOException("Unsupported compression method " + method + " of entry \"" + name + "\" in bootstrap zip");
+            if (name.startsWith("/") || ("/" + name + "/").contains("/../"))
+                throw new IOException("Invalid entry name \"" + name + "\" in bootstrap zip");
+
+            int localOffset = (int) localHeaderOffset;
+            if (mZip.getInt(localOffset) != LOCAL_FILE_HEADER_SIGNATURE)
+                throw new IOException("Invalid local header of entry \"" + name + "\" in bootstrap zip");
+            long dataOffset = localOffset + 30L + (mZip.getShort(localOffset + 26) & 0xFFFF) + (mZip.getShort(localOffset + 28) & 0xFFFF);
+            if (dataOffset + compressedSize > mZip.limit())
+                throw new IOException("Data of entry \"" + name + "\" is outside bootstrap zip");
+
+            entries.add(new ZipEntryInfo(name, method, crc, (int) dataOffset, (int) compressedSize, size));
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    /** Read the `oldPath←newPath` lines of the symlinks entry, with newPath made absolute. */
+    @NonNull
+    private List<String[]> readSymlinks(@NonNull ZipEntryInfo entry) throws IOException {
+        List<String[]> symlinks = new ArrayList<>(50);
+        // Closing an InflaterInputStream does not end an Inflater passed to it
+        Inflater inflater = new Inflater(true);
+        try (BufferedReader symlinksReader = new BufferedReader(new InputStreamReader(
+            openEntry(entry, inflater), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = symlinksReader.readLine()) != null) {
+                String[] parts = line.split("←");
+                if (parts.length != 2)
+                    throw new RuntimeException("Malformed symlink line: " + line);
+                symlinks.add(new String[]{parts[0], mTargetDirectoryPath + "/" + parts[1]});
+            }
+        } finally {
+            inflater.end();
+        }
+        return symlinks;
+    }
+
+    private void createDirectories(@NonNull List<ZipEntryInfo> entries, @NonNull List<String[]> symlinks) throws IOException {
+        Set<String> directories = new LinkedHashSet<>();
+        for (ZipEntryInfo entry : entries) {
+            if (entry.name.equals(SYMLINKS_ENTRY_NAME)) continue;
+            File file = new File(mTargetDirectoryPath, entry.name);
+            directories.add(entry.isDirectory() ? file.getAbsolutePath() : file.getParent());
+        }
+        for (String[] symlink : symlinks)
+            directories.add(new File(symlink[1]).getParent());
+
+        int done = 0;
+        for (String directory : directories) {
+            Error error = FileUtils.createDirectoryFile(directory);
+            if (error != null)
+                throw new IOException(error.getErrorLogString());
+            onProgress(Phase.CREATE_DIRECTORIES, ++done, directories.size());
+        }
+    }
+
+    private void extractFiles(@NonNull ExecutorService executor, @NonNull List<ZipEntryInfo> files) throws Exception {
+        long totalBytes = 0;
+        for (ZipEntryInfo file : files)
+            totalBytes += file.size;
+        final long total = totalBytes;
+
+        // Start the largest files first so that a large file at the end does not leave the other
+        // workers idle, and group the rest into batches that are synced together
+        List<ZipEntryInfo> sorted = new ArrayList<>(files);
+        Collections.sort(sorted, (a, b) -> Long.compare(b.size, a.size));
+
+        List<List<ZipEntryInfo>> batches = new ArrayList<>();
+        List<ZipEntryInfo> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (ZipEntryInfo file : sorted) {
+            if (!batch.isEmpty() && (batch.size() >= SYNC_BATCH_MAX_FILES || batchBytes + file.size > SYNC_BATCH_MAX_BYTES)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(file);
+            batchBytes += file.size;
+        }
+        if (!batch.isEmpty()) batches.add(batch);
+
+        final AtomicLong extractedBytes = new AtomicLong();
+
+        onProgress(Phase.EXTRACT_FILES, 0, total);
+        List<Future<?>> futures = new ArrayList<>(batches.size());
+        for (final List<ZipEntryInfo> entries : batches) {
+            futures.add(executor.submit(() -> {
+                getWorker().extractBatch(entries, extractedBytes, total);
+                return null;
+            }));
+        }
+        waitForAll(futures);
+    }
+
+    private void createSymlinks(@NonNull ExecutorService executor, @NonNull final List<String[]> symlinks) throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final int total = symlinks.size();
+        onProgress(Phase.CREATE_SYMLINKS, 0, total);
+
+        List<Future<?>> futures = new ArrayList<>(mThreads);
+        int chunkSize = (total + mThreads - 1) / mThreads;
+        for (int start = 0; start < total; start += chunkSize) {
+            final List<String[]> chunk = symlinks.subList(start, Math.min(total, start + chunkSize));
+            futures.add(executor.submit(() -> {
+                for (String[] symlink : chunk) {
+                    Os.symlink(symlink[0], symlink[1]);
+                    onProgress(Phase.CREATE_SYMLINKS, created.incrementAndGet(), total);
+                }
+                return null;
+            }));
+        }
+        waitForAll(futures);
+    }
+
+    /** Get the {@link Worker} of the current worker thread, creating it if needed. */
+    @NonNull
+    private Worker getWorker() {
+        Worker worker = mWorkers.get();
+        if (worker == null) {
+            worker = new Worker();
+            mWorkers.set(worker);
+        }
+        return worker;
+    }
+
+    /** Wait for all the futures, and if any of them failed, cancel the rest and throw its cause. */
+    private static void waitForAll(@NonNull List<Future<?>> futures) throws Exception {
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (ExecutionException e) {
+            for (Future<?> future : futures)
+                future.cancel(true);
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    /** Open an {@link InputStream} for the uncompressed data of the entry. */
+    @NonNull
+    private InputStream openEntry(@NonNull ZipEntryInfo entry, @NonNull Inflater inflater) {
+        ByteBuffer data = mZip.duplicate();
+        data.limit(entry.dataOffset + entry.compressedSize).position(entry.dataOffset);
+        InputStream inputStream = new ByteBufferInputStream(data.slice());
+        if (entry.method == METHOD_STORED) return inputStream;
+        return new InflaterInputStream(inputStream, inflater, INPUT_BUFFER_SIZE);
+    }
+
+    @NonNull
+    private String getString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = mZip.duplicate();
+        buffer.position(offset);
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void onProgress(@NonNull Phase phase, long done, long total) {
+        if (mProgressListener != null)
+            mProgressListener.onProgress(phase, done, total);
+    }
+
+    /** Get whether the file extracted from the entry should be executable. */
+    static boolean isExecutable(@NonNull String zipEntryName) {
+        return zipEntryName.startsWith("bin/") || zipEntryName.startsWith("libexec") ||
+            zipEntryName.startsWith("lib/apt/apt-helper") || zipEntryName.startsWith("lib/apt/methods");
+    }
+
+
+
+
+
+    /** The state of a worker thread that is reused for all the files it extracts. */
+    private final class Worker {
+
+        private final byte[] mBuffer = new byte[WRITE_BUFFER_SIZE];
+        private final Inflater mInflater = new Inflater(true);
+        private final CRC32 mCrc = new CRC32();
+
+        void extractBatch(@NonNull List<ZipEntryInfo> entries, @NonNull AtomicLong extractedBytes, long total)
+            throws IOException, ErrnoException {
+            List<FileOutputStream> outputStreams = new ArrayList<>(entries.size());
+            try {
+                for (ZipEntryInfo entry : entries) {
+                    if (Thread.currentThread().isInterrupted())
+                        throw new IOException("Extraction cancelled");
+
+                    FileOutputStream outputStream = new FileOutputStream(new File(mTargetDirectoryPath, entry.name));
+                    outputStreams.add(outputStream);
+                    extractEntry(entry, outputStream);
+                    onProgress(Phase.EXTRACT_FILES, extractedBytes.addAndGet(entry.size), total);
+                }
+
+                // Sync the batch only after all of its files have been written, so that their
+                // writeback can be done together instead of waiting for each file in turn
+                for (FileOutputStream outputStream : outputStreams)
+                    outputStream.getFD().sync();
+            } finally {
+                for (FileOutputStream outputStream : outputStreams) {
+                    try {
+                        outputStream.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+
+            for (ZipEntryInfo entry : entries) {
+                if (isExecutable(entry.name)) {
+                    //noinspection OctalInteger
+                    Os.chmod(new File(mTargetDirectoryPath, entry.name).getAbsolutePath(), 0700);
+                }
+            }
+        }
+
+        private void extractEntry(@NonNull ZipEntryInfo entry, @NonNull FileOutputStream outputStream) throws IOException {
+            mInflater.reset();
+            mCrc.reset();
+            InputStream inputStream = openEntry(entry, mInflater);
+
+            long remaining = entry.size;
+            while (remaining > 0) {
+                // Fill the buffer before writing, so that files are written with few large writes
+                int length = 0;
+                int maxLength = (int) Math.min(mBuffer.length, remaining);
+                while (length < maxLength) {
+                    int read = inputStream.read(mBuffer, length, maxLength - length);
+                    if (read < 0)
+                        throw new IOException("Unexpected end of data of entry \"" + entry.name + "\" in bootstrap zip");
+                    length += read;
+                }
+                mCrc.update(mBuffer, 0, length);
+                outputStream.write(mBuffer, 0, length);
+                remaining -= length;
+            }
+
+            if ((int) mCrc.getValue() != entry.crc)
+                throw new IOException("CRC mismatch of entry \"" + entry.name + "\" in bootstrap zip");
+        }
+
+        /** Free the native memory of the inflater, after which the worker must not be used. */
+        void end() {
+            mInflater.end();
+        }
+
+    }
+
+
+
+    /** The info of an entry read from the central directory. */
+    static final class ZipEntryInfo {
+
+        final String name;
+        final int method;
+        final int crc;
+        final int dataOffset;
+        final int compressedSize;
+        final long size;
+
+        ZipEntryInfo(String name, int method, int crc, int dataOffset, int compressedSize, long size) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.dataOffset = dataOffset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+    }
+
+
+
+    /** An {@link InputStream} over the remaining bytes of a {@link ByteBuffer}. */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] bytes, int offset, int length) {
+            if (length == 0) return 0;
+            if (!mBuffer.hasRemaining()) return -1;
+            length = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+    }
+
+
+
+    /** Starts worker threads that end their {@link Worker} when they finish. */
+    private final class WorkerThreadFactory implements java.util.concurrent.ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            return new Thread(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    // The inflater holds native zlib memory that would otherwise only be freed
+                    // whenever it is finalized
+                    Worker worker = mWorkers.get();
+                    if (worker != null) {
+                        worker.end();
+                        mWorkers.remove();
+                    }
+                }
+            }, "BootstrapZipExtractor-" + mCount.incrementAndGet());
+        }
+
+    }
+
+}
@@ -61,6 +61,11 @@ public class TermuxApplication extends Application {
 
             // Setup termux-am-socket server
             TermuxAmSocketServer.setupTermuxAmSocketServer(context);
+
+            // Reload termux.properties when it is changed the same way as termux-reload-settings,
+            // so that the activity applies the new values to the UI built from the old ones
+            properties.startWatchingPropertiesFiles(() ->
+                TermuxActivity.updateTermuxActivityStyling(context, true));
         } else {
             Logger.logErrorExtended(LOG_TAG, "Termux files directory is not accessible\n" + error);
         }
@@ -69,14 +74,15 @@ public class TermuxApplication extends Application {
         TermuxShellEnvironment.init(this);
 
         if (isTermuxFilesDirectoryAccessible) {
-            TermuxShellEnvironment.writeEnvironmentToFile(this);
+            TermuxShellEnvironment.writeEnvironmentToFileInBackground(this);
         }
     }
 
     public static void setLogConfig(Context context) {
         Logger.setDefaultLogTag(TermuxConstants.TERMUX_APP_NAME);
 
-        // Load the log level from shared preferences and set it to the {@link Logger.CURRENT_LOG_LEVEL}
+        // Load the log level from shared preferences and set it to the {@link Logger.CURRENT_LOG_LEVEL},
+        // which also enables the recent logs buffer for debug log levels
         TermuxAppSharedPreferences preferences = TermuxAppSharedPreferences.build(context);
         if (preferences == null) return;
         preferences.setLogLevel(null, preferences.getLogLevel());
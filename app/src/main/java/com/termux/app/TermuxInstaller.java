@@ -7,9 +7,13 @@ import android.content.Context;
 import android.os.Build;
 import android.os.Environment;
 import android.system.Os;
-import android.util.Pair;
+import android.os.SystemClock;
 import android.view.WindowManager;
 
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.termux.R;
 import com.termux.shared.file.FileUtils;
 import com.termux.shared.termux.crash.TermuxCrashUtils;
@@ -23,15 +27,8 @@ import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.nio.ByteBuffer;
 
 import static com.termux.shared.termux.TermuxConstants.TERMUX_PREFIX_DIR;
 import static com.termux.shared.termux.TermuxConstants.TERMUX_PREFIX_DIR_PATH;
@@ -48,14 +45,22 @@ import static com.termux.shared.termux.TermuxConstants.TERMUX_STAGING_PREFIX_DIR
  * <p/>
  * (3) A staging directory, $STAGING_PREFIX, is cleared if left over from broken installation below.
  * <p/>
- * (4) The zip file is loaded from a shared library.
+ * (4) The zip file is embedded in a shared library, from which it is read without copying it to the java heap.
+ * <p/>
+ * (5) The zip, containing entries relative to the $PREFIX, is extracted natively into $STAGING_PREFIX
+ * by {@link #extractZipNative(String, BootstrapZipExtractor.ProgressListener)}. If that fails,
+ * $STAGING_PREFIX is cleared and the zip is extracted by the {@link BootstrapZipExtractor} instead,
+ * which reads the zip central directory and then:
+ * <p/>
+ * (5.1) Goes through SYMLINKS.txt and remembers all symlinks to setup.
+ * <p/>
+ * (5.2) Creates all the directories of the zip entries and symlinks.
  * <p/>
- * (5) The zip, containing entries relative to the $PREFIX, is is downloaded and extracted by a zip input stream
- * continuously encountering zip file entries:
+ * (5.3) Extracts the files in parallel in batches that are synced together and sets execute permissions if necessary.
  * <p/>
- * (5.1) If the zip entry encountered is SYMLINKS.txt, go through it and remember all symlinks to setup.
+ * (5.4) Creates the symlinks in parallel.
  * <p/>
- * (5.2) For every other zip entry, extract it into $STAGING_PREFIX and set execute permissions if necessary.
+ * The progress dialog message is updated with the current phase and its progress.
  */
 final class TermuxInstaller {
 
@@ -153,61 +158,26 @@ final class TermuxInstaller {
 
                     Logger.logInfo(LOG_TAG, "Extracting bootstrap zip to prefix staging directory \"" + TERMUX_STAGING_PREFIX_DIR_PATH + "\".");
 
-                    final byte[] buffer = new byte[8096];
-                    final List<Pair<String, String>> symlinks = new ArrayList<>(50);
-
-                    final byte[] zipBytes = loadZipBytes();
-                    try (ZipInputStream zipInput = new ZipInputStream(new ByteArrayInputStream(zipBytes))) {
-                        ZipEntry zipEntry;
-                        while ((zipEntry = zipInput.getNextEntry()) != null) {
-                            if (zipEntry.getName().equals("SYMLINKS.txt")) {
-                                BufferedReader symlinksReader = new BufferedReader(new InputStreamReader(zipInput));
-                                String line;
-                                while ((line = symlinksReader.readLine()) != null) {
-                                    String[] parts = line.split("←");
-                                    if (parts.length != 2)
-                                        throw new RuntimeException("Malformed symlink line: " + line);
-                                    String oldPath = parts[0];
-                                    String newPath = TERMUX_STAGING_PREFIX_DIR_PATH + "/" + parts[1];
-                                    symlinks.add(Pair.create(oldPath, newPath));
-
-                                    error = ensureDirectoryExists(new File(newPath).getParentFile());
-                                    if (error != null) {
-                                        showBootstrapErrorDialog(activity, whenDone, Error.getErrorMarkdownString(error));
-                                        return;
-                                    }
-                                }
-                            } else {
-                                String zipEntryName = zipEntry.getName();
-                                File targetFile = new File(TERMUX_STAGING_PREFIX_DIR_PATH, zipEntryName);
-                                boolean isDirectory = zipEntry.isDirectory();
-
-                                error = ensureDirectoryExists(isDirectory ? targetFile : targetFile.getParentFile());
-                                if (error != null) {
-                                    showBootstrapErrorDialog(activity, whenDone, Error.getErrorMarkdownString(error));
-                                    return;
-                                }
-
-                                if (!isDirectory) {
-                                    try (FileOutputStream outStream = new FileOutputStream(targetFile)) {
-                                        int readBytes;
-                                        while ((readBytes = zipInput.read(buffer)) != -1)
-                                            outStream.write(buffer, 0, readBytes);
-                                    }
-                                    if (zipEntryName.startsWith("bin/") || zipEntryName.startsWith("libexec") ||
-                                        zipEntryName.startsWith("lib/apt/apt-helper") || zipEntryName.startsWith("lib/apt/methods")) {
-                                        //noinspection OctalInteger
-                                        Os.chmod(targetFile.getAbsolutePath(), 0700);
-                                    }
-                                }
-                            }
+                    final BootstrapProgressUpdater progressUpdater = new BootstrapProgressUpdater(activity, progress);
+
+                    long startTime = SystemClock.elapsedRealtime();
+                    NativeExtractResult nativeExtractResult = extractZipNative(TERMUX_STAGING_PREFIX_DIR_PATH, progressUpdater);
+                    if (nativeExtractResult.isSuccessful()) {
+                        Logger.logInfo(LOG_TAG, "Extracted bootstrap zip natively in " + (SystemClock.elapsedRealtime() - startTime) + "ms: " + nativeExtractResult);
+                    } else {
+                        // Fall back to extracting in java into a clean prefix staging directory
+                        Logger.logError(LOG_TAG, "Native bootstrap zip extraction failed, falling back to java extraction: " + nativeExtractResult);
+
+                        error = FileUtils.deleteFile("termux prefix staging directory", TERMUX_STAGING_PREFIX_DIR_PATH, true);
+                        if (error == null)
+                            error = TermuxFileUtils.isTermuxPrefixStagingDirectoryAccessible(true, true);
+                        if (error != null) {
+                            showBootstrapErrorDialog(activity, whenDone, Error.getErrorMarkdownString(error));
+                            return;
                         }
-                    }
 
-                    if (symlinks.isEmpty())
-                        throw new RuntimeException("No SYMLINKS.txt encountered");
-                    for (Pair<String, String> symlink : symlinks) {
-                        Os.symlink(symlink.first, symlink.second);
+                        new BootstrapZipExtractor(loadZipBuffer(), TERMUX_STAGING_PREFIX_DIR_PATH,
+                            BootstrapZipExtractor.getDefaultThreads(), progressUpdater).extract();
                     }
 
                     Logger.logInfo(LOG_TAG, "Moving termux prefix staging to prefix directory.");
@@ -371,16 +341,156 @@ final class TermuxInstaller {
         }.start();
     }
 
-    private static Error ensureDirectoryExists(File directory) {
-        return FileUtils.createDirectoryFile(directory.getAbsolutePath());
-    }
-
     public static byte[] loadZipBytes() {
         // Only load the shared library when necessary to save memory usage.
         System.loadLibrary("termux-bootstrap");
         return getZip();
     }
 
+    /**
+     * Get a read only {@link ByteBuffer} over the zip embedded in the shared library, without
+     * copying it to the java heap like {@link #loadZipBytes()} does.
+     */
+    public static ByteBuffer loadZipBuffer() {
+        // Only load the shared library when necessary to save memory usage.
+        System.loadLibrary("termux-bootstrap");
+        // The buffer is over the read only data of the library, so writing to it would crash
+        return getZipBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Extract the zip embedded in the shared library natively into the {@code targetDirectoryPath}
+     * directory and create the symlinks of its SYMLINKS.txt entry. The zip is inflated straight from
+     * the shared library with zlib, without copying it to the java heap.
+     *
+     * @param targetDirectoryPath The path of the existing directory to extract into.
+     * @param progressListener The optional {@link BootstrapZipExtractor.ProgressListener}, which is
+     *                         called on the calling thread after each file and symlink.
+     * @return Returns the {@link NativeExtractResult}.
+     */
+    static NativeExtractResult extractZipNative(String targetDirectoryPath,
+                                                @Nullable BootstrapZipExtractor.ProgressListener progressListener) {
+        // Only load the shared library when necessary to save memory usage.
+        System.loadLibrary("termux-bootstrap");
+        long[] stats = new long[5];
+        String errorMessage = extractZip(targetDirectoryPath, stats, progressListener);
+        return new NativeExtractResult(stats[0], stats[1], stats[2], stats[3], (int) stats[4], errorMessage);
+    }
+
     public static native byte[] getZip();
 
+    public static native ByteBuffer getZipBuffer();
+
+    /**
+     * Extract the embedded zip into the {@code targetDirectoryPath} directory and set the files,
+     * directories, symlinks, bytes and errno in {@code stats}. The progress is reported to
+     * {@code progressListener} with {@link #onExtractZipProgress}.
+     *
+     * @return Returns the error message if extraction failed, otherwise {@code null}.
+     */
+    private static native String extractZip(String targetDirectoryPath, long[] stats,
+                                            @Nullable BootstrapZipExtractor.ProgressListener progressListener);
+
+    /**
+     * Called by {@link #extractZip(String, long[], BootstrapZipExtractor.ProgressListener)} with the
+     * ordinal of the {@link BootstrapZipExtractor.Phase}, which the native phases are in the same order as.
+     */
+    @Keep
+    private static void onExtractZipProgress(@NonNull BootstrapZipExtractor.ProgressListener progressListener,
+                                             int phase, long done, long total) {
+        progressListener.onProgress(BootstrapZipExtractor.Phase.values()[phase], done, total);
+    }
+
+
+
+
+
+    /** The result of {@link #extractZipNative(String, BootstrapZipExtractor.ProgressListener)}. */
+    static final class NativeExtractResult {
+
+        /** The number of regular files extracted. */
+        final long files;
+        /** The number of directories created. */
+        final long directories;
+        /** The number of symlinks created. */
+        final long symlinks;
+        /** The uncompressed bytes written. */
+        final long bytes;
+        /** The errno of the failure if any, otherwise 0. */
+        final int errno;
+        /** The message of the failure if any, otherwise {@code null}. */
+        @Nullable final String errorMessage;
+
+        NativeExtractResult(long files, long directories, long symlinks, long bytes, int errno, @Nullable String errorMessage) {
+            this.files = files;
+            this.directories = directories;
+            this.symlinks = symlinks;
+            this.bytes = bytes;
+            this.errno = errno;
+            this.errorMessage = errorMessage;
+        }
+
+        boolean isSuccessful() {
+            return errorMessage == null;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            String string = "files=" + files + ", directories=" + directories + ", symlinks=" + symlinks + ", bytes=" + bytes;
+            if (!isSuccessful())
+                string += ", errno=" + errno + ", error=\"" + errorMessage + "\"";
+            return string;
+        }
+
+    }
+
+
+
+
+
+    /**
+     * Update the message of the bootstrap {@link ProgressDialog} with the progress of the
+     * {@link BootstrapZipExtractor}. The updates are throttled to {@link #UPDATE_INTERVAL_MS} so that
+     * the extractor threads do not flood the main thread.
+     */
+    private static final class BootstrapProgressUpdater implements BootstrapZipExtractor.ProgressListener {
+
+        private static final long UPDATE_INTERVAL_MS = 100;
+
+        private final Activity mActivity;
+        private final ProgressDialog mProgress;
+        private BootstrapZipExtractor.Phase mLastPhase;
+        private int mLastPercent = -1;
+        private long mLastUpdateTime;
+
+        BootstrapProgressUpdater(Activity activity, ProgressDialog progress) {
+            mActivity = activity;
+            mProgress = progress;
+        }
+
+        @Override
+        public synchronized void onProgress(@NonNull BootstrapZipExtractor.Phase phase, long done, long total) {
+            int percent = total > 0 ? (int) (done * 100 / total) : 100;
+            long currentTime = SystemClock.elapsedRealtime();
+            if (phase == mLastPhase && (percent == mLastPercent || (percent < 100 && currentTime - mLastUpdateTime < UPDATE_INTERVAL_MS)))
+                return;
+
+            mLastPhase = phase;
+            mLastPercent = percent;
+            mLastUpdateTime = currentTime;
+
+            final String message = mActivity.getString(R.string.bootstrap_installer_progress,
+                mActivity.getString(phase.labelResId), percent);
+            mActivity.runOnUiThread(() -> {
+                try {
+                    mProgress.setMessage(message);
+                } catch (RuntimeException e) {
+                    // Activity already dismissed - ignore.
+                }
+            });
+        }
+
+    }
+
 }
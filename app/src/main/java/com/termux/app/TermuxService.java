@@ -26,9 +26,13 @@ import com.termux.shared.termux.plugins.TermuxPluginUtils;
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.net.uri.UriUtils;
 import com.termux.shared.errors.Errno;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.file.filesystem.FileType;
 import com.termux.shared.shell.ShellUtils;
 import com.termux.shared.shell.command.runner.app.AppShell;
+import com.termux.shared.shell.command.runner.app.AppShellScheduler;
 import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
+import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
 import com.termux.shared.termux.shell.TermuxShellUtils;
 import com.termux.shared.termux.TermuxConstants;
@@ -48,9 +52,15 @@ import com.termux.shared.shell.command.ExecutionCommand.ShellCreateMode;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
+import com.termux.terminal.TerminalSpawner;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A service holding a list of {@link TermuxSession} in {@link TermuxShellManager#mTermuxSessions} and background {@link AppShell}
@@ -65,7 +75,8 @@ import java.util.List;
  * Optionally may hold a wake and a wifi lock, in which case that is shown in the notification - see
  * {@link #buildNotification()}.
  */
-public final class TermuxService extends Service implements AppShell.AppShellClient, TermuxSession.TermuxSessionClient {
+public final class TermuxService extends Service implements AppShell.AppShellClient, AppShellScheduler.AppShellSchedulerClient,
+    TermuxSession.TermuxSessionClient {
 
     /** This service is only bound from inside the same process and never uses IPC. */
     class LocalBinder extends Binder {
@@ -98,10 +109,24 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
      */
     private TermuxShellManager mShellManager;
 
+    /**
+     * The scheduler that limits how many TermuxTasks run at the same time.
+     */
+    private AppShellScheduler mAppShellScheduler;
+
     /** The wake lock and wifi lock are always acquired and released together. */
     private PowerManager.WakeLock mWakeLock;
     private WifiManager.WifiLock mWifiLock;
 
+    /**
+     * The executor that periodically deletes old files from $TMPDIR while the service is running,
+     * since it may not be stopped for a long time.
+     */
+    private ScheduledExecutorService mTMPDIRCleanupExecutor;
+
+    /** The interval between the deletion of old files from $TMPDIR while the service is running. */
+    private static final long TMPDIR_CLEANUP_INTERVAL_HOURS = 6;
+
     /** If the user has executed the {@link TERMUX_SERVICE#ACTION_STOP_SERVICE} intent. */
     boolean mWantsToStop = false;
 
@@ -117,9 +142,21 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         mShellManager = TermuxShellManager.getShellManager();
 
+        // Commands are started on the main thread, like the other TermuxTask callbacks
+        mAppShellScheduler = new AppShellScheduler(mProperties.getMaxConcurrentBackgroundTasks(), this, mHandler::post);
+
         runStartForeground();
 
         SystemEventReceiver.registerPackageUpdateEvents(this);
+
+        mTMPDIRCleanupExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "TermuxTMPDIRCleanup"));
+        mTMPDIRCleanupExecutor.scheduleWithFixedDelay(this::deleteOldTMPDIRFiles,
+            TMPDIR_CLEANUP_INTERVAL_HOURS, TMPDIR_CLEANUP_INTERVAL_HOURS, TimeUnit.HOURS);
+
+        // Fork the session spawner in the background so that it is ready before the first session is created. If
+        // it is not, sessions are created directly by the app process.
+        if (mProperties.shouldUseTerminalSessionSpawner())
+            new Thread(() -> TerminalSpawner.start(mTermuxTerminalSessionServiceClient), "TermuxSpawnerStarter").start();
     }
 
     @SuppressLint("Wakelock")
@@ -132,7 +169,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         String action = null;
         if (intent != null) {
-            Logger.logVerboseExtended(LOG_TAG, "Intent Received:\n" + IntentUtils.getIntentString(intent));
+            Logger.logVerboseExtended(LOG_TAG, () -> "Intent Received:\n" + IntentUtils.getIntentString(intent));
             action = intent.getAction();
         }
 
@@ -169,7 +206,11 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     public void onDestroy() {
         Logger.logVerbose(LOG_TAG, "onDestroy");
 
-        TermuxShellUtils.clearTermuxTMPDIR(true);
+        // Clear $TMPDIR on exit with the periodic cleanup executor, so that it runs after a running
+        // periodic cleanup finishes instead of walking and deleting the same files at the same time,
+        // and the main thread is not blocked. The periodic cleanup is cancelled by the shutdown.
+        mTMPDIRCleanupExecutor.execute(() -> TermuxShellUtils.clearTermuxTMPDIR(true));
+        mTMPDIRCleanupExecutor.shutdown();
 
         actionReleaseWakeLock(false);
         if (!mWantsToStop)
@@ -177,6 +218,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         TermuxShellManager.onAppExit(this);
 
+        TerminalSpawner.stop();
+
         SystemEventReceiver.unregisterPackageUpdateEvents(this);
 
         runStopForeground();
@@ -200,6 +243,45 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         return false;
     }
 
+    /**
+     * Dump the I/O throughput and latency metrics of all sessions for profiling with
+     * `adb shell dumpsys activity service com.termux/.app.TermuxService`.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        List<TermuxSession> termuxSessions;
+        synchronized (this) {
+            termuxSessions = new ArrayList<>(mShellManager.mTermuxSessions);
+        }
+
+        writer.println("TermuxSessions: " + termuxSessions.size());
+        for (TermuxSession termuxSession : termuxSessions) {
+            TerminalSession session = termuxSession.getTerminalSession();
+            writer.println();
+            writer.println("TerminalSession: handle=" + session.mHandle + ", name=" + session.mSessionName + ", pid=" + session.getPid());
+            writer.println(session.getMetrics());
+        }
+
+        writer.println();
+        writer.println(mAppShellScheduler);
+    }
+
+    /**
+     * Delete regular files under $TMPDIR older than the days set by
+     * {@link TermuxPropertyConstants#KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY} if it is
+     * greater than 0, otherwise $TMPDIR is only cleared on exit.
+     *
+     * Unlike on exit, other file types are not deleted, since sockets and fifos, like of tmux or
+     * ssh-agent, may still be in use by processes that are running, even if they are old.
+     */
+    private void deleteOldTMPDIRFiles() {
+        int days = mProperties.getDeleteTMPDIRFilesOlderThanXDaysPeriodically();
+        if (days <= 0 || !FileUtils.directoryFileExists(TermuxConstants.TERMUX_TMP_PREFIX_DIR_PATH, false))
+            return;
+
+        TermuxShellUtils.deleteTermuxTMPDIRFilesOlderThanXDays(days, FileType.REGULAR.getValue(), false);
+    }
+
     /** Make service run in foreground mode. */
     private void runStartForeground() {
         setupNotificationChannel();
@@ -267,6 +349,10 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             ", TermuxTasks=" + mShellManager.mTermuxTasks.size() +
             ", PendingPluginExecutionCommands=" + mShellManager.mPendingPluginExecutionCommands.size());
 
+        // Queued TermuxTasks must not be started anymore. The plugin ones are still in the
+        // pending plugin execution commands list and are cancelled below.
+        mAppShellScheduler.clear();
+
         List<TermuxSession> termuxSessions = new ArrayList<>(mShellManager.mTermuxSessions);
         List<AppShell> termuxTasks = new ArrayList<>(mShellManager.mTermuxTasks);
         List<ExecutionCommand> pendingPluginExecutionCommands = new ArrayList<>(mShellManager.mPendingPluginExecutionCommands);
@@ -386,6 +472,12 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             if (Runner.APP_SHELL.equalsRunner(executionCommand.runner))
                 executionCommand.stdin = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_STDIN, null);
             executionCommand.backgroundCustomLogLevel = IntentUtils.getIntegerExtraIfSet(intent, TERMUX_SERVICE.EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL, null);
+            executionCommand.taskPriority = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_TASK_PRIORITY, null);
+            // Termux:Boot runs the scripts in the boot scripts directory, so tag them as boot commands if no
+            // priority was passed. Their path is not canonicalized, since the scripts are commonly symlinks.
+            if (executionCommand.taskPriority == null && executionCommand.executable != null &&
+                FileUtils.normalizePath(executionCommand.executable).startsWith(TermuxConstants.TERMUX_BOOT_SCRIPTS_DIR_PATH + "/"))
+                executionCommand.taskPriority = ExecutionCommand.TaskPriority.BOOT.getName();
         }
 
         executionCommand.workingDirectory = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_WORKDIR, null);
@@ -406,6 +498,12 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             executionCommand.resultConfig.resultFileErrorFormat = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_FILE_ERROR_FORMAT, null);
             executionCommand.resultConfig.resultFilesSuffix = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_FILES_SUFFIX, null);
         }
+        executionCommand.resultConfig.resultStreaming = intent.getBooleanExtra(TERMUX_SERVICE.EXTRA_RESULT_STREAMING, false);
+        executionCommand.resultConfig.resultSocketPath = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_SOCKET_PATH, null);
+        // The result directory is normally only resolved once the command has finished, but it is
+        // needed before the command starts if the output will be streamed to it
+        if (executionCommand.resultConfig.resultStreaming && executionCommand.resultConfig.resultDirectoryPath != null)
+            TermuxPluginUtils.setPluginResultDirectoryVariables(executionCommand);
 
         if (executionCommand.shellCreateMode == null)
             executionCommand.shellCreateMode = ShellCreateMode.ALWAYS.getMode();
@@ -445,12 +543,40 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             newTermuxTask = getTermuxTaskForShellName(executionCommand.shellName);
             if (newTermuxTask != null)
                 Logger.logVerbose(LOG_TAG, "Existing TermuxTask with \"" + executionCommand.shellName + "\" shell name found for shell create mode \"" + shellCreateMode.getMode() + "\"");
-            else
+            else if (mAppShellScheduler.getQueuedExecutionCommandForShellName(executionCommand.shellName) != null) {
+                Logger.logVerbose(LOG_TAG, "Queued TermuxTask with \"" + executionCommand.shellName + "\" shell name found for shell create mode \"" + shellCreateMode.getMode() + "\"");
+                return;
+            } else
                 Logger.logVerbose(LOG_TAG, "No existing TermuxTask with \"" + executionCommand.shellName + "\" shell name found for shell create mode \"" + shellCreateMode.getMode() + "\"");
         }
 
         if (newTermuxTask == null)
-            newTermuxTask = createTermuxTask(executionCommand);
+            scheduleTermuxTask(executionCommand);
+    }
+
+    /**
+     * Schedule a TermuxTask with {@link #mAppShellScheduler}. It is created immediately unless the
+     * maximum number of concurrent TermuxTasks are already running, in which case it is queued.
+     */
+    public void scheduleTermuxTask(ExecutionCommand executionCommand) {
+        if (executionCommand == null) return;
+
+        // Apply the current limit, since properties may have been reloaded by the activity
+        mAppShellScheduler.setMaxConcurrentTasks(mProperties.getMaxConcurrentBackgroundTasks());
+        mAppShellScheduler.schedule(executionCommand);
+
+        int queueSize = mAppShellScheduler.getQueueSize();
+        if (queueSize > 0) {
+            Logger.logDebug(LOG_TAG, queueSize + " TermuxTasks queued while " + mAppShellScheduler.getRunningCount() +
+                " scheduled TermuxTasks are running");
+            updateNotification();
+        }
+    }
+
+    /** Callback received when the {@link #mAppShellScheduler} starts a TermuxTask. */
+    @Override
+    public boolean onStartExecutionCommand(@NonNull ExecutionCommand executionCommand) {
+        return createTermuxTask(executionCommand) != null;
     }
 
     /** Create a TermuxTask. */
@@ -478,7 +604,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             Logger.logVerboseExtended(LOG_TAG, executionCommand.toString());
 
         AppShell newTermuxTask = AppShell.execute(this, executionCommand, this,
-            new TermuxShellEnvironment(), null,false);
+            new TermuxShellEnvironment(), null,false, mAppShellScheduler.getExecutor());
         if (newTermuxTask == null) {
             Logger.logError(LOG_TAG, "Failed to execute new TermuxTask command for:\n" + executionCommand.getCommandIdAndLabelLogString());
             // If the execution command was started for a plugin, then process the error
@@ -517,6 +643,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
                     TermuxPluginUtils.processPluginExecutionCommandResult(this, LOG_TAG, executionCommand);
 
                 mShellManager.mTermuxTasks.remove(termuxTask);
+
+                if (executionCommand != null)
+                    mAppShellScheduler.onExecutionCommandFinished(executionCommand);
             }
 
             updateNotification();
@@ -790,10 +919,14 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         // Set notification text
         int sessionCount = getTermuxSessionsSize();
         int taskCount = mShellManager.mTermuxTasks.size();
+        int queuedTaskCount = mAppShellScheduler != null ? mAppShellScheduler.getQueueSize() : 0;
         String notificationText = sessionCount + " session" + (sessionCount == 1 ? "" : "s");
         if (taskCount > 0) {
             notificationText += ", " + taskCount + " task" + (taskCount == 1 ? "" : "s");
         }
+        if (queuedTaskCount > 0) {
+            notificationText += ", " + queuedTaskCount + " queued";
+        }
 
         final boolean wakeLockHeld = mWakeLock != null;
         if (wakeLockHeld) notificationText += " (wake lock held)";
@@ -850,7 +983,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
     /** Update the shown foreground service notification after making any changes that affect it. */
     private synchronized void updateNotification() {
-        if (mWakeLock == null && mShellManager.mTermuxSessions.isEmpty() && mShellManager.mTermuxTasks.isEmpty()) {
+        if (mWakeLock == null && mShellManager.mTermuxSessions.isEmpty() && mShellManager.mTermuxTasks.isEmpty() &&
+            mAppShellScheduler.getQueueSize() == 0) {
             // Exit if we are updating after the user disabled all locks with no sessions or tasks running.
             requestStopService();
         } else {
@@ -0,0 +1,487 @@
+package com.termux.app.api.file;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.AssetFileDescriptor;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.text.format.Formatter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.R;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.notification.NotificationUtils;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.notification.TermuxNotificationUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports files shared with {@link FileReceiverActivity} on a bounded background executor, while
+ * showing the progress in a notification from which the import can be cancelled.
+ *
+ * If the source is a regular file, like for most file uris and many content providers, then it is
+ * copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * which uses `sendfile()` to copy in the kernel without copying the data to java. Otherwise, like
+ * for pipes returned by content providers that generate their content, it is copied through a
+ * large direct {@link ByteBuffer}.
+ *
+ * The source is copied to a hidden partial file in the directory of the file to save it to, which is
+ * only renamed to it once the copy has finished, so that if the app is killed during the import,
+ * an incomplete file is not left under the name of the imported file. Partial files left by killed
+ * imports are deleted by later imports.
+ */
+public class FileImporter {
+
+    /** Listener for {@link #copy(Source, FileOutputStream, ProgressListener, AtomicBoolean)} progress. */
+    interface ProgressListener {
+        void onProgress(long copiedBytes);
+    }
+
+    /** The file descriptor operations used by {@link #copy(Source, FileOutputStream, ProgressListener, AtomicBoolean, FileDescriptorOps)}. */
+    interface FileDescriptorOps {
+        /** Get whether the file descriptor is of a regular file, which can be seeked. */
+        boolean isRegularFile(@NonNull FileDescriptor fileDescriptor);
+        /** Allocate size bytes for the file of the file descriptor, if supported. */
+        void preallocate(@NonNull FileDescriptor fileDescriptor, long size);
+    }
+
+    /** The {@link FileDescriptorOps} that use {@link Os}. */
+    private static final FileDescriptorOps OS_FILE_DESCRIPTOR_OPS = new FileDescriptorOps() {
+        @Override
+        public boolean isRegularFile(@NonNull FileDescriptor fileDescriptor) {
+            try {
+                StructStat stat = Os.fstat(fileDescriptor);
+                return OsConstants.S_ISREG(stat.st_mode);
+            } catch (ErrnoException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void preallocate(@NonNull FileDescriptor fileDescriptor, long size) {
+            try {
+                Os.posix_fallocate(fileDescriptor, 0, size);
+            } catch (ErrnoException e) {
+                // Not all filesystems support it, the file will just grow as it is written
+            }
+        }
+    };
+
+    /** Callback for when an import started with {@link #importAsync(Context, Source, File, ImportCallback)} has finished. */
+    public interface ImportCallback {
+        /** Called on the import thread after the file has been saved. */
+        void onImported(@NonNull File outFile);
+    }
+
+    /** The source to import from. It is closed by the import. */
+    public static class Source implements Closeable {
+
+        private final ParcelFileDescriptor mParcelFileDescriptor;
+        private final InputStream mInputStream;
+        private final byte[] mBytes;
+        /** The offset in the file descriptor at which the content starts. */
+        private final long mStartOffset;
+        /** The length of the content in the file descriptor, or -1 if it extends to its end. */
+        private final long mLength;
+        /** The expected size of the content for the progress, or -1 if it is not known. */
+        private long mSize;
+
+        private Source(ParcelFileDescriptor parcelFileDescriptor, InputStream inputStream, byte[] bytes,
+                       long startOffset, long length) {
+            mParcelFileDescriptor = parcelFileDescriptor;
+            mInputStream = inputStream;
+            mBytes = bytes;
+            mStartOffset = startOffset;
+            mLength = length;
+            mSize = length;
+        }
+
+        /** Create a {@link Source} for the whole content of a file descriptor. */
+        public static Source fromParcelFileDescriptor(@NonNull ParcelFileDescriptor parcelFileDescriptor) {
+            return new Source(parcelFileDescriptor, null, null, 0, -1);
+        }
+
+        /**
+         * Create a {@link Source} for an {@link AssetFileDescriptor}, like returned by
+         * {@link android.content.ContentResolver#openAssetFileDescriptor(android.net.Uri, String)},
+         * which may only be a part of its file descriptor.
+         */
+        public static Source fromAssetFileDescriptor(@NonNull AssetFileDescriptor assetFileDescriptor) {
+            long length = assetFileDescriptor.getDeclaredLength();
+            return new Source(assetFileDescriptor.getParcelFileDescriptor(), null, null,
+                Math.max(0, assetFileDescriptor.getStartOffset()), length >= 0 ? length : -1);
+        }
+
+        /** Create a {@link Source} for an {@link InputStream} that is not backed by a file descriptor. */
+        public static Source fromInputStream(@NonNull InputStream inputStream) {
+            return new Source(null, inputStream, null, 0, -1);
+        }
+
+        /** Create a {@link Source} for bytes in memory, like shared text. */
+        public static Source fromBytes(@NonNull byte[] bytes) {
+            return new Source(null, null, bytes, 0, bytes.length);
+        }
+
+        /** Set the size of the content if it is not known from the source, like from {@link android.provider.OpenableColumns#SIZE}. */
+        public void setSizeIfUnknown(long size) {
+            if (mSize < 0 && size >= 0) mSize = size;
+        }
+
+        /** Get the size of the content, or -1 if it is not known. */
+        public long getSize() {
+            return mSize;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (mParcelFileDescriptor != null) mParcelFileDescriptor.close();
+                if (mInputStream != null) mInputStream.close();
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close import source", e);
+            }
+        }
+
+    }
+
+    /** The number of imports that can run at the same time. */
+    private static final int MAX_IMPORT_THREADS = 2;
+
+    /** The number of imports that can wait for a thread before new imports are rejected. */
+    private static final int MAX_QUEUED_IMPORTS = 8;
+
+    /** The max number of bytes copied in one call, so that progress and cancellation are checked. */
+    private static final long MAX_TRANSFER_SIZE = 8 * 1024 * 1024;
+
+    /** The size of the buffer for sources that are not regular files. */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /** The prefix and suffix of the partial files that imports are copied to before being renamed. */
+    private static final String PARTIAL_FILE_PREFIX = ".import-";
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
+
+    /**
+     * The time since the last modification after which a partial file is considered to have been
+     * left by a killed import, since running imports keep writing to theirs.
+     */
+    private static final long STALE_PARTIAL_FILE_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /** The min time between notification updates, since the notification manager is rate limited. */
+    private static final long NOTIFICATION_UPDATE_INTERVAL_MILLIS = 500;
+
+    private static final String ACTION_CANCEL_IMPORT = TermuxConstants.TERMUX_PACKAGE_NAME + ".app.api.file.CANCEL_IMPORT";
+    private static final String EXTRA_IMPORT_TOKEN = TermuxConstants.TERMUX_PACKAGE_NAME + ".app.api.file.IMPORT_TOKEN";
+
+    private static final ThreadPoolExecutor IMPORT_EXECUTOR;
+    static {
+        final AtomicInteger threadCount = new AtomicInteger();
+        IMPORT_EXECUTOR = new ThreadPoolExecutor(MAX_IMPORT_THREADS, MAX_IMPORT_THREADS,
+            30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_IMPORTS),
+            runnable -> new Thread(runnable, "FileImporter-" + threadCount.incrementAndGet()));
+        IMPORT_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static final String LOG_TAG = "FileImporter";
+
+    /**
+     * Import a {@link Source} to a file in the background. The progress is shown in a notification
+     * from which the import can be cancelled, and failures are also shown in it.
+     *
+     * @param context The {@link Context} for operations.
+     * @param source The {@link Source} to import. It will be closed when the import finishes.
+     * @param outFile The file to save the source to.
+     * @param callback The optional {@link ImportCallback} to call after the file has been saved.
+     * @return Returns {@code true} if the import was started, otherwise {@code false} if too many
+     * imports are already running, in which case the source is closed.
+     */
+    public static boolean importAsync(@NonNull Context context, @NonNull Source source, @NonNull File outFile,
+                                      @Nullable ImportCallback callback) {
+        final Context appContext = context.getApplicationContext();
+        try {
+            IMPORT_EXECUTOR.execute(() -> runImport(appContext, source, outFile, callback));
+            return true;
+        } catch (RejectedExecutionException e) {
+            Logger.logError(LOG_TAG, "Rejecting import of \"" + outFile.getAbsolutePath() + "\" since too many imports are running");
+            source.close();
+            return false;
+        }
+    }
+
+    private static void runImport(@NonNull Context context, @NonNull Source source, @NonNull File outFile,
+                                  @Nullable ImportCallback callback) {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final String token = UUID.randomUUID().toString();
+        final BroadcastReceiver cancelReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (token.equals(intent.getStringExtra(EXTRA_IMPORT_TOKEN))) {
+                    Logger.logInfo(LOG_TAG, "Cancelling import of \"" + outFile.getAbsolutePath() + "\"");
+                    cancelled.set(true);
+                }
+            }
+        };
+        context.registerReceiver(cancelReceiver, new IntentFilter(ACTION_CANCEL_IMPORT));
+
+        final ImportNotification notification = new ImportNotification(context, outFile.getName(), source.getSize(), token);
+        final File outDir = outFile.getAbsoluteFile().getParentFile();
+        File partialFile = null;
+        boolean success = false;
+        long startTime = SystemClock.elapsedRealtime();
+        try {
+            deleteStalePartialFiles(outDir);
+            partialFile = File.createTempFile(PARTIAL_FILE_PREFIX, PARTIAL_FILE_SUFFIX, outDir);
+            long copiedBytes;
+            try (FileOutputStream out = new FileOutputStream(partialFile)) {
+                notification.update(0);
+                copiedBytes = copy(source, out, notification::update, cancelled);
+            }
+            if (!cancelled.get()) {
+                if (!partialFile.renameTo(outFile))
+                    throw new IOException("Failed to rename \"" + partialFile.getAbsolutePath() + "\" to \"" + outFile.getAbsolutePath() + "\"");
+                success = true;
+                Logger.logInfo(LOG_TAG, "Saved " + copiedBytes + " bytes to \"" + outFile.getAbsolutePath() + "\" in " +
+                    (SystemClock.elapsedRealtime() - startTime) + "ms");
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Error saving file \"" + outFile.getAbsolutePath() + "\"", e);
+            notification.showError(e.getMessage());
+        } finally {
+            source.close();
+            context.unregisterReceiver(cancelReceiver);
+            if (!success && partialFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                partialFile.delete();
+            }
+            if (success || cancelled.get())
+                notification.cancel();
+        }
+
+        if (success && callback != null)
+            callback.onImported(outFile);
+    }
+
+    /** Delete the partial files in directory that were left by imports killed before they finished. */
+    private static void deleteStalePartialFiles(@NonNull File directory) {
+        File[] partialFiles = directory.listFiles((dir, name) ->
+            name.startsWith(PARTIAL_FILE_PREFIX) && name.endsWith(PARTIAL_FILE_SUFFIX));
+        if (partialFiles == null) return;
+
+        long now = System.currentTimeMillis();
+        for (File partialFile : partialFiles) {
+            if (now - partialFile.lastModified() >= STALE_PARTIAL_FILE_AGE_MILLIS && partialFile.delete())
+                Logger.logInfo(LOG_TAG, "Deleted partial file \"" + partialFile.getAbsolutePath() + "\" of an import that did not finish");
+        }
+    }
+
+    /**
+     * Copy a {@link Source} to a file.
+     *
+     * @param source The {@link Source} to copy.
+     * @param out The {@link FileOutputStream} to copy to.
+     * @param progressListener The optional {@link ProgressListener} called after each chunk is copied.
+     * @param cancelled The flag checked after each chunk is copied to stop the copy.
+     * @return Returns the number of bytes copied.
+     */
+    static long copy(@NonNull Source source, @NonNull FileOutputStream out, @Nullable ProgressListener progressListener,
+                     @NonNull AtomicBoolean cancelled) throws IOException {
+        return copy(source, out, progressListener, cancelled, OS_FILE_DESCRIPTOR_OPS);
+    }
+
+    /** Copy a {@link Source} to a file with the {@link FileDescriptorOps}, which tests replace since they cannot use {@link Os}. */
+    static long copy(@NonNull Source source, @NonNull FileOutputStream out, @Nullable ProgressListener progressListener,
+                     @NonNull AtomicBoolean cancelled, @NonNull FileDescriptorOps fileDescriptorOps) throws IOException {
+        FileChannel outChannel = out.getChannel();
+        long copiedBytes = 0;
+
+        if (source.mBytes != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(source.mBytes);
+            while (buffer.position() < buffer.capacity() && !cancelled.get()) {
+                buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + MAX_TRANSFER_SIZE));
+                copiedBytes += outChannel.write(buffer);
+                if (progressListener != null) progressListener.onProgress(copiedBytes);
+            }
+            return copiedBytes;
+        }
+
+        FileInputStream fileInputStream = null;
+        if (source.mParcelFileDescriptor != null) {
+            fileInputStream = new FileInputStream(source.mParcelFileDescriptor.getFileDescriptor());
+        } else if (source.mInputStream instanceof FileInputStream) {
+            fileInputStream = (FileInputStream) source.mInputStream;
+        }
+
+        if (fileInputStream != null) {
+            FileChannel inChannel = fileInputStream.getChannel();
+            if (fileDescriptorOps.isRegularFile(fileInputStream.getFD())) {
+                // Preallocate so that the file is not fragmented and running out of space fails early
+                long size = source.mLength >= 0 ? source.mLength : Math.max(0, inChannel.size() - source.mStartOffset);
+                if (size > 0)
+                    fileDescriptorOps.preallocate(out.getFD(), size);
+
+                long position = source.mStartOffset;
+                long end = position + size;
+                while (position < end && !cancelled.get()) {
+                    long transferred = inChannel.transferTo(position, Math.min(MAX_TRANSFER_SIZE, end - position), outChannel);
+                    if (transferred <= 0) break;
+                    position += transferred;
+                    copiedBytes += transferred;
+                    if (progressListener != null) progressListener.onProgress(copiedBytes);
+                }
+                // The preallocation extended the file to the expected size, so if the source was
+                // shorter than that, then drop the zero filled tail that was not copied
+                if (copiedBytes < size)
+                    outChannel.truncate(copiedBytes);
+                return copiedBytes;
+            }
+
+            // Pipes and sockets cannot be seeked, so the start offset must be skipped by reading
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long skipBytes = source.mStartOffset;
+            long remainingBytes = source.mLength >= 0 ? source.mLength : Long.MAX_VALUE;
+            while (remainingBytes > 0 && !cancelled.get()) {
+                buffer.clear();
+                if (skipBytes > 0)
+                    buffer.limit((int) Math.min(buffer.capacity(), skipBytes));
+                else if (remainingBytes < buffer.capacity())
+                    buffer.limit((int) remainingBytes);
+                int readBytes = inChannel.read(buffer);
+                if (readBytes < 0) break;
+                if (skipBytes > 0) {
+                    skipBytes -= readBytes;
+                    continue;
+                }
+
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    outChannel.write(buffer);
+                copiedBytes += readBytes;
+                remainingBytes -= readBytes;
+                if (progressListener != null) progressListener.onProgress(copiedBytes);
+            }
+            return copiedBytes;
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int readBytes;
+        while (!cancelled.get() && (readBytes = source.mInputStream.read(buffer)) >= 0) {
+            out.write(buffer, 0, readBytes);
+            copiedBytes += readBytes;
+            if (progressListener != null) progressListener.onProgress(copiedBytes);
+        }
+        return copiedBytes;
+    }
+
+
+
+    /** The progress notification of an import. */
+    private static class ImportNotification {
+
+        private final Context mContext;
+        private final NotificationManager mNotificationManager;
+        private final int mNotificationId;
+        private final String mFileName;
+        private final long mSize;
+        private final PendingIntent mCancelIntent;
+        private long mLastUpdateTime;
+
+        ImportNotification(@NonNull Context context, @NonNull String fileName, long size, @NonNull String token) {
+            mContext = context;
+            mNotificationManager = NotificationUtils.getNotificationManager(context);
+            mNotificationId = TermuxNotificationUtils.getNextNotificationId(context);
+            mFileName = fileName;
+            mSize = size;
+
+            Intent cancelIntent = new Intent(ACTION_CANCEL_IMPORT).setPackage(context.getPackageName())
+                .putExtra(EXTRA_IMPORT_TOKEN, token);
+            mCancelIntent = PendingIntent.getBroadcast(context, mNotificationId, cancelIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                NotificationUtils.setupNotificationChannel(context, TermuxConstants.TERMUX_APP_NOTIFICATION_CHANNEL_ID,
+                    TermuxConstants.TERMUX_APP_NOTIFICATION_CHANNEL_NAME, NotificationManager.IMPORTANCE_LOW);
+            }
+        }
+
+        void update(long copiedBytes) {
+            long now = SystemClock.elapsedRealtime();
+            if (copiedBytes != 0 && now - mLastUpdateTime < NOTIFICATION_UPDATE_INTERVAL_MILLIS) return;
+            mLastUpdateTime = now;
+
+            String text;
+            if (mSize > 0) {
+                text = mContext.getString(R.string.msg_file_import_progress,
+                    Formatter.formatShortFileSize(mContext, copiedBytes), Formatter.formatShortFileSize(mContext, mSize));
+            } else {
+                text = Formatter.formatShortFileSize(mContext, copiedBytes);
+            }
+
+            Notification.Builder builder = getNotificationBuilder(mContext.getString(R.string.title_file_import_progress, mFileName), text);
+            if (builder == null) return;
+            builder.setOngoing(true);
+            builder.setOnlyAlertOnce(true);
+            if (mSize > 0)
+                builder.setProgress(1000, (int) Math.min(1000, copiedBytes * 1000 / mSize), false);
+            else
+                builder.setProgress(0, 0, true);
+            builder.addAction(android.R.drawable.ic_delete, mContext.getString(android.R.string.cancel), mCancelIntent);
+            notify(builder);
+        }
+
+        void showError(String message) {
+            Notification.Builder builder = getNotificationBuilder(mContext.getString(R.string.title_file_import_failed, mFileName), message);
+            if (builder == null) return;
+            builder.setAutoCancel(true);
+            notify(builder);
+        }
+
+        void cancel() {
+            if (mNotificationManager != null)
+                mNotificationManager.cancel(mNotificationId);
+        }
+
+        @Nullable
+        private Notification.Builder getNotificationBuilder(String title, String text) {
+            Notification.Builder builder = NotificationUtils.geNotificationBuilder(mContext,
+                TermuxConstants.TERMUX_APP_NOTIFICATION_CHANNEL_ID, Notification.PRIORITY_LOW,
+                title, text, text, null, null, NotificationUtils.NOTIFICATION_MODE_SILENT);
+            if (builder == null) return null;
+            builder.setSmallIcon(R.drawable.ic_service_notification);
+            builder.setColor(0xFF607D8B);
+            return builder;
+        }
+
+        private void notify(@NonNull Notification.Builder builder) {
+            if (mNotificationManager != null)
+                mNotificationManager.notify(mNotificationId, builder.build());
+        }
+
+    }
+
+}
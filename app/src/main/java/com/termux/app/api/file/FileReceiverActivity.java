@@ -3,7 +3,10 @@ package com.termux.app.api.file;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.provider.OpenableColumns;
 import android.util.Patterns;
 
@@ -26,13 +29,8 @@ import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
 import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.regex.Pattern;
 
@@ -50,6 +48,13 @@ public class FileReceiverActivity extends AppCompatActivity {
      */
     boolean mFinishOnDismissNameDialog = true;
 
+    /**
+     * The source of the received file. It is opened before showing the name input dialog, since
+     * the uri permission granted to the activity may be revoked once it finishes, and it is closed
+     * by {@link FileImporter} once it has been passed to it, otherwise in {@link #onDestroy()}.
+     */
+    private FileImporter.Source mSource;
+
     private static final String API_TAG = TermuxConstants.TERMUX_APP_NAME + "FileReceiver";
 
     private static final String LOG_TAG = "FileReceiverActivity";
@@ -85,7 +90,7 @@ public class FileReceiverActivity extends AppCompatActivity {
                     String subject = IntentUtils.getStringExtraIfSet(intent, Intent.EXTRA_SUBJECT, null);
                     if (subject == null) subject = sharedTitle;
                     if (subject != null) subject += ".txt";
-                    promptNameAndSave(new ByteArrayInputStream(sharedText.getBytes(StandardCharsets.UTF_8)), subject);
+                    promptNameAndSave(FileImporter.Source.fromBytes(sharedText.getBytes(StandardCharsets.UTF_8)), subject);
                 }
             } else {
                 showErrorDialogAndQuit("Send action without content - nothing to save.");
@@ -112,8 +117,8 @@ public class FileReceiverActivity extends AppCompatActivity {
 
                 File file = new File(path);
                 try {
-                    FileInputStream in = new FileInputStream(file);
-                    promptNameAndSave(in, file.getName());
+                    ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+                    promptNameAndSave(FileImporter.Source.fromParcelFileDescriptor(pfd), file.getName());
                 } catch (FileNotFoundException e) {
                     showErrorDialogAndQuit("Cannot open file: " + e.getMessage() + ".");
                 }
@@ -123,6 +128,16 @@ public class FileReceiverActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (mSource != null) {
+            mSource.close();
+            mSource = null;
+        }
+    }
+
     void showErrorDialogAndQuit(String message) {
         mFinishOnDismissNameDialog = false;
         MessageDialogUtils.showMessage(this,
@@ -137,34 +152,46 @@ public class FileReceiverActivity extends AppCompatActivity {
             Logger.logVerbose(LOG_TAG, "uri: \"" + uri + "\", path: \"" + uri.getPath() + "\", fragment: \"" + uri.getFragment() + "\"");
 
             String attachmentFileName = null;
+            long size = -1;
 
-            String[] projection = new String[]{OpenableColumns.DISPLAY_NAME};
+            String[] projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
             try (Cursor c = getContentResolver().query(uri, projection, null, null, null)) {
                 if (c != null && c.moveToFirst()) {
                     final int fileNameColumnId = c.getColumnIndex(OpenableColumns.DISPLAY_NAME);
                     if (fileNameColumnId >= 0) attachmentFileName = c.getString(fileNameColumnId);
+                    final int sizeColumnId = c.getColumnIndex(OpenableColumns.SIZE);
+                    if (sizeColumnId >= 0 && !c.isNull(sizeColumnId)) size = c.getLong(sizeColumnId);
                 }
             }
 
             if (attachmentFileName == null) attachmentFileName = subjectFromIntent;
             if (attachmentFileName == null) attachmentFileName = UriUtils.getUriFileBasename(uri, true);
 
-            InputStream in = getContentResolver().openInputStream(uri);
-            promptNameAndSave(in, attachmentFileName);
+            // Open the file descriptor instead of an InputStream so that it can be copied in the
+            // kernel if the provider returns a regular file
+            AssetFileDescriptor afd = getContentResolver().openAssetFileDescriptor(uri, "r");
+            if (afd == null) {
+                showErrorDialogAndQuit("Unable to open shared content.");
+                return;
+            }
+            FileImporter.Source source = FileImporter.Source.fromAssetFileDescriptor(afd);
+            source.setSizeIfUnknown(size);
+            promptNameAndSave(source, attachmentFileName);
         } catch (Exception e) {
             showErrorDialogAndQuit("Unable to handle shared content:\n\n" + e.getMessage());
             Logger.logStackTraceWithMessage(LOG_TAG, "handleContentUri(uri=" + uri + ") failed", e);
         }
     }
 
-    void promptNameAndSave(final InputStream in, final String attachmentFileName) {
+    void promptNameAndSave(final FileImporter.Source source, final String attachmentFileName) {
+        mSource = source;
+
         TextInputDialogUtils.textInput(this, R.string.title_file_received, attachmentFileName,
             R.string.action_file_received_edit, text -> {
-                File outFile = saveStreamWithName(in, text);
-                if (outFile == null) return;
-
                 final File editorProgramFile = new File(EDITOR_PROGRAM);
                 if (!editorProgramFile.isFile()) {
+                    // Still save the file like if the editor had been run
+                    if (!importWithName(text, null)) return;
                     showErrorDialogAndQuit("The following file does not exist:\n$HOME/bin/termux-file-editor\n\n"
                         + "Create this file as a script or a symlink - it will be called with the received file as only argument.");
                     return;
@@ -174,21 +201,25 @@ public class FileReceiverActivity extends AppCompatActivity {
                 //noinspection ResultOfMethodCallIgnored
                 editorProgramFile.setExecutable(true);
 
-                final Uri scriptUri = UriUtils.getFileUri(EDITOR_PROGRAM);
+                final Context context = getApplicationContext();
+                if (!importWithName(text, outFile -> {
+                    final Uri scriptUri = UriUtils.getFileUri(EDITOR_PROGRAM);
 
-                Intent executeIntent = new Intent(TERMUX_SERVICE.ACTION_SERVICE_EXECUTE, scriptUri);
-                executeIntent.setClass(FileReceiverActivity.this, TermuxService.class);
-                executeIntent.putExtra(TERMUX_SERVICE.EXTRA_ARGUMENTS, new String[]{outFile.getAbsolutePath()});
-                startService(executeIntent);
+                    Intent executeIntent = new Intent(TERMUX_SERVICE.ACTION_SERVICE_EXECUTE, scriptUri);
+                    executeIntent.setClass(context, TermuxService.class);
+                    executeIntent.putExtra(TERMUX_SERVICE.EXTRA_ARGUMENTS, new String[]{outFile.getAbsolutePath()});
+                    startTermuxService(context, executeIntent);
+                })) return;
                 finish();
             },
             R.string.action_file_received_open_directory, text -> {
-                if (saveStreamWithName(in, text) == null) return;
-
-                Intent executeIntent = new Intent(TERMUX_SERVICE.ACTION_SERVICE_EXECUTE);
-                executeIntent.putExtra(TERMUX_SERVICE.EXTRA_WORKDIR, TERMUX_RECEIVEDIR);
-                executeIntent.setClass(FileReceiverActivity.this, TermuxService.class);
-                startService(executeIntent);
+                final Context context = getApplicationContext();
+                if (!importWithName(text, outFile -> {
+                    Intent executeIntent = new Intent(TERMUX_SERVICE.ACTION_SERVICE_EXECUTE);
+                    executeIntent.putExtra(TERMUX_SERVICE.EXTRA_WORKDIR, TERMUX_RECEIVEDIR);
+                    executeIntent.setClass(context, TermuxService.class);
+                    startTermuxService(context, executeIntent);
+                })) return;
                 finish();
             },
             android.R.string.cancel, text -> finish(), dialog -> {
@@ -196,33 +227,50 @@ public class FileReceiverActivity extends AppCompatActivity {
             });
     }
 
-    public File saveStreamWithName(InputStream in, String attachmentFileName) {
+    /**
+     * Start importing {@link #mSource} to a file in {@link #TERMUX_RECEIVEDIR} with
+     * {@link FileImporter}, which shows the progress in a notification, so that the activity does
+     * not need to wait for large files to be copied.
+     *
+     * @param attachmentFileName The name of the file.
+     * @param callback The optional {@link FileImporter.ImportCallback} to call after the file has been saved.
+     * @return Returns {@code true} if the import was started, otherwise {@code false} after
+     * showing an error dialog.
+     */
+    boolean importWithName(String attachmentFileName, FileImporter.ImportCallback callback) {
         File receiveDir = new File(TERMUX_RECEIVEDIR);
 
         if (DataUtils.isNullOrEmpty(attachmentFileName)) {
             showErrorDialogAndQuit("File name cannot be null or empty");
-            return null;
+            return false;
         }
 
         if (!receiveDir.isDirectory() && !receiveDir.mkdirs()) {
             showErrorDialogAndQuit("Cannot create directory: " + receiveDir.getAbsolutePath());
-            return null;
+            return false;
         }
 
-        try {
-            final File outFile = new File(receiveDir, attachmentFileName);
-            try (FileOutputStream f = new FileOutputStream(outFile)) {
-                byte[] buffer = new byte[4096];
-                int readBytes;
-                while ((readBytes = in.read(buffer)) > 0) {
-                    f.write(buffer, 0, readBytes);
-                }
-            }
-            return outFile;
-        } catch (IOException e) {
-            showErrorDialogAndQuit("Error saving file:\n\n" + e);
-            Logger.logStackTraceWithMessage(LOG_TAG, "Error saving file", e);
-            return null;
+        if (mSource == null) {
+            showErrorDialogAndQuit("The file has already been saved.");
+            return false;
+        }
+
+        final File outFile = new File(receiveDir, attachmentFileName);
+        FileImporter.Source source = mSource;
+        mSource = null;
+        if (!FileImporter.importAsync(this, source, outFile, callback)) {
+            showErrorDialogAndQuit("Too many files are already being saved, try again later.");
+            return false;
+        }
+        return true;
+    }
+
+    private static void startTermuxService(Context context, Intent executeIntent) {
+        // The activity may have finished before the import did, so the app may be in the background
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(executeIntent);
+        } else {
+            context.startService(executeIntent);
         }
     }
 
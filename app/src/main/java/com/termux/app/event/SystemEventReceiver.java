@@ -9,8 +9,10 @@ import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.termux.shared.android.PackageMetadataCache;
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.environment.ShellEnvironmentCache;
 import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.file.TermuxFileUtils;
 import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
@@ -44,6 +46,7 @@ public class SystemEventReceiver extends BroadcastReceiver {
             case Intent.ACTION_PACKAGE_ADDED:
             case Intent.ACTION_PACKAGE_REMOVED:
             case Intent.ACTION_PACKAGE_REPLACED:
+            case Intent.ACTION_PACKAGE_CHANGED:
                 onActionPackageUpdated(context, intent);
                 break;
             default:
@@ -57,11 +60,15 @@ public class SystemEventReceiver extends BroadcastReceiver {
 
     public synchronized void onActionPackageUpdated(@NonNull Context context, @NonNull Intent intent) {
         Uri data = intent.getData();
+        if (data != null && data.getSchemeSpecificPart() != null)
+            PackageMetadataCache.invalidate(data.getSchemeSpecificPart());
+
         if (data != null && TermuxUtils.isUriDataForTermuxPluginPackage(data)) {
             Logger.logDebug(LOG_TAG, intent.getAction().replaceAll("^android.intent.action.", "") +
                 " event received for \"" + data.toString().replaceAll("^package:", "") + "\"");
+            ShellEnvironmentCache.invalidate();
             if (TermuxFileUtils.isTermuxFilesDirectoryAccessible(context, false, false) == null)
-                TermuxShellEnvironment.writeEnvironmentToFile(context);
+                TermuxShellEnvironment.writeEnvironmentToFileInBackground(context);
         }
     }
 
@@ -69,7 +76,9 @@ public class SystemEventReceiver extends BroadcastReceiver {
 
     /**
      * Register {@link SystemEventReceiver} to listen to {@link Intent#ACTION_PACKAGE_ADDED},
-     * {@link Intent#ACTION_PACKAGE_REMOVED} and {@link Intent#ACTION_PACKAGE_REPLACED} broadcasts.
+     * {@link Intent#ACTION_PACKAGE_REMOVED}, {@link Intent#ACTION_PACKAGE_REPLACED} and
+     * {@link Intent#ACTION_PACKAGE_CHANGED} broadcasts, and enable the {@link PackageMetadataCache}
+     * while they are registered.
      * They must be registered dynamically and cannot be registered implicitly in
      * the AndroidManifest.xml due to Android 8+ restrictions.
      *
@@ -80,11 +89,17 @@ public class SystemEventReceiver extends BroadcastReceiver {
         intentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
         intentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
         intentFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
         intentFilter.addDataScheme("package");
         context.registerReceiver(getInstance(), intentFilter);
+        PackageMetadataCache.setEnabled(true);
+
+        // Plugin packages may have changed while not registered
+        ShellEnvironmentCache.invalidate();
     }
 
     public synchronized static void unregisterPackageUpdateEvents(@NonNull Context context) {
+        PackageMetadataCache.setEnabled(false);
         context.unregisterReceiver(getInstance());
     }
 
@@ -191,11 +191,23 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
     public void onPasteTextFromClipboard(@Nullable TerminalSession session) {
         if (!mActivity.isVisible()) return;
 
+        if (session != null && session.isInputBackpressured()) {
+            mActivity.showToast(mActivity.getString(R.string.msg_paste_input_backpressured), false);
+            return;
+        }
+
         String text = ShareUtils.getTextStringFromClipboardIfSet(mActivity, true);
         if (text != null)
             mActivity.getTerminalView().mEmulator.paste(text);
     }
 
+    @Override
+    public void onInputDropped(@NonNull TerminalSession session, int droppedBytes) {
+        if (!mActivity.isVisible()) return;
+
+        mActivity.showToast(mActivity.getString(R.string.msg_input_dropped), true);
+    }
+
     @Override
     public void onBell(@NonNull TerminalSession session) {
         if (!mActivity.isVisible()) return;
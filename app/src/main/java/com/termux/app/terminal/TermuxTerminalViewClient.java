@@ -138,6 +138,7 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
      */
     public void onReloadProperties() {
         setSessionShortcuts();
+        mActivity.getTerminalView().setMetricsOverlayEnabled(mActivity.getProperties().shouldShowTerminalMetricsOverlay());
     }
 
     /**
@@ -794,6 +795,11 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         if (session == null) return;
         if (!session.isRunning()) return;
 
+        if (session.isInputBackpressured()) {
+            mActivity.showToast(mActivity.getString(R.string.msg_paste_input_backpressured), false);
+            return;
+        }
+
         String text = ShareUtils.getTextStringFromClipboardIfSet(mActivity, true);
         if (text != null)
             session.getEmulator().paste(text);
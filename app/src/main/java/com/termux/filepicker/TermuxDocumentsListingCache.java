@@ -0,0 +1,75 @@
+package com.termux.filepicker;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.file.filesystem.DirectoryListing;
+import com.termux.shared.file.filesystem.FileAttributes;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the {@link DirectoryListing} of recently listed directories for
+ * {@link TermuxDocumentsProvider#queryChildDocuments}, since the picker queries the same directory
+ * again whenever it is shown, like when navigating back to it.
+ *
+ * A cached listing is only used while {@link DirectoryListing#isValid(FileAttributes, long, long)}
+ * for {@link #MAX_AGE_MILLIS}, which checks with a single stat that the directory has not changed.
+ */
+final class TermuxDocumentsListingCache {
+
+    /** The max number of directories whose listings are cached. */
+    static final int MAX_DIRECTORIES = 32;
+
+    /** The max age of a cached listing. */
+    static final long MAX_AGE_MILLIS = 5000;
+
+    private final Map<String, DirectoryListing> mListings = new LinkedHashMap<String, DirectoryListing>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DirectoryListing> eldest) {
+            return size() > MAX_DIRECTORIES;
+        }
+    };
+
+    /**
+     * Get the {@link DirectoryListing} for a directory from the cache if it is still valid,
+     * otherwise list it.
+     *
+     * @param dirPath The absolute path of the directory.
+     * @return Returns the {@link DirectoryListing}.
+     */
+    @NonNull
+    DirectoryListing get(@NonNull String dirPath) throws IOException {
+        FileAttributes directoryAttributes = FileAttributes.get(dirPath, true);
+        long now = System.currentTimeMillis();
+
+        DirectoryListing listing;
+        synchronized (mListings) {
+            listing = mListings.get(dirPath);
+        }
+        if (listing != null && listing.isValid(directoryAttributes, now, MAX_AGE_MILLIS))
+            return listing;
+
+        listing = DirectoryListing.get(dirPath, true);
+        synchronized (mListings) {
+            mListings.put(dirPath, listing);
+        }
+        return listing;
+    }
+
+    /** Remove the listing of a directory, like after the provider has modified it. */
+    void invalidate(@NonNull String dirPath) {
+        synchronized (mListings) {
+            mListings.remove(dirPath);
+        }
+    }
+
+    /** Remove all listings to free their memory. */
+    void clear() {
+        synchronized (mListings) {
+            mListings.clear();
+        }
+    }
+
+}
@@ -1,24 +1,35 @@
 package com.termux.filepicker;
 
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
 import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.graphics.Point;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
 import android.provider.DocumentsContract.Root;
 import android.provider.DocumentsProvider;
 import android.webkit.MimeTypeMap;
 
+import androidx.annotation.RequiresApi;
+
 import com.termux.R;
+import com.termux.shared.file.filesystem.DirectoryListing;
+import com.termux.shared.file.filesystem.FileAttributes;
 import com.termux.shared.termux.TermuxConstants;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A document provider for the Storage Access Framework which exposes the files in the
@@ -37,6 +48,20 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
 
     private static final File BASE_DIR = TermuxConstants.TERMUX_HOME_DIR;
 
+    /** The default max number of search results if the caller does not request a limit. */
+    private static final int DEFAULT_SEARCH_RESULTS_LIMIT = 50;
+    /** The max number of search results returned at once, even if the caller requests more. */
+    private static final int MAX_SEARCH_RESULTS_LIMIT = 1000;
+
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    /** The memoized mime types for lower case file extensions, since MimeTypeMap lookups are slow. */
+    private static final ConcurrentHashMap<String, String> MIME_TYPES_FOR_EXTENSIONS = new ConcurrentHashMap<>();
+
+    private String mAuthority;
+    private TermuxDocumentsSearchIndex mSearchIndex;
+    private final TermuxDocumentsListingCache mListingCache = new TermuxDocumentsListingCache();
+
 
     // The default columns to return information about a root if no specific
     // columns are requested in a query.
@@ -90,8 +115,20 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
     public Cursor queryChildDocuments(String parentDocumentId, String[] projection, String sortOrder) throws FileNotFoundException {
         final MatrixCursor result = new MatrixCursor(projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION);
         final File parent = getFileForDocId(parentDocumentId);
-        for (File file : parent.listFiles()) {
-            includeFile(result, null, file);
+
+        // Read the entries and their stats in one pass instead of stat-ing each file separately
+        // for each column, and reuse the listing if the directory has not changed
+        final DirectoryListing listing;
+        try {
+            listing = mListingCache.get(parent.getAbsolutePath());
+        } catch (IOException e) {
+            throw new FileNotFoundException("Failed to list document with id " + parentDocumentId + ": " + e.getMessage());
+        }
+
+        final String parentDocId = getDocIdForFile(parent);
+        for (int i = 0; i < listing.size(); i++) {
+            includeFile(result, parentDocId + "/" + listing.getName(i), listing.getName(i),
+                listing.getFileAttributes(i), listing.isWritable(i), listing.isDirectoryWritable());
         }
         return result;
     }
@@ -110,11 +147,31 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
         return new AssetFileDescriptor(pfd, 0, file.length());
     }
 
+    @Override
+    public void attachInfo(Context context, ProviderInfo info) {
+        mAuthority = info.authority;
+        super.attachInfo(context, info);
+    }
+
     @Override
     public boolean onCreate() {
+        // The index is only built by the first search
+        mSearchIndex = new TermuxDocumentsSearchIndex(BASE_DIR, () -> {
+            // Notify search cursors returned while the index was loading so that they are requeried
+            getContext().getContentResolver().notifyChange(getSearchNotificationUri(getDocIdForFile(BASE_DIR)), null, false);
+        });
         return true;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mSearchIndex.clear();
+            mListingCache.clear();
+        }
+    }
+
     @Override
     public String createDocument(String parentDocumentId, String mimeType, String displayName) throws FileNotFoundException {
         File newFile = new File(parentDocumentId, displayName);
@@ -135,6 +192,8 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
         } catch (IOException e) {
             throw new FileNotFoundException("Failed to create document with id " + newFile.getPath());
         }
+        mSearchIndex.requestRefresh();
+        mListingCache.invalidate(newFile.getParentFile().getAbsolutePath());
         return newFile.getPath();
     }
 
@@ -144,6 +203,8 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
         if (!file.delete()) {
             throw new FileNotFoundException("Failed to delete document with id " + documentId);
         }
+        mSearchIndex.requestRefresh();
+        mListingCache.invalidate(file.getAbsoluteFile().getParent());
     }
 
     @Override
@@ -154,41 +215,56 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
 
     @Override
     public Cursor querySearchDocuments(String rootId, String query, String[] projection) throws FileNotFoundException {
+        return querySearchDocuments(rootId, query, projection, 0, DEFAULT_SEARCH_RESULTS_LIMIT, false);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    @Override
+    public Cursor querySearchDocuments(String rootId, String[] projection, Bundle queryArgs) throws FileNotFoundException {
+        // Callers on android >= 10 can request pages of results beyond the default limit
+        String query = DocumentsContract.getSearchDocumentsQuery(queryArgs);
+        int offset = queryArgs.getInt(ContentResolver.QUERY_ARG_OFFSET, 0);
+        int limit = queryArgs.getInt(ContentResolver.QUERY_ARG_LIMIT, DEFAULT_SEARCH_RESULTS_LIMIT);
+        return querySearchDocuments(rootId, query != null ? query : "", projection, offset, limit, true);
+    }
+
+    private Cursor querySearchDocuments(String rootId, String query, String[] projection, int offset, int limit,
+                                        boolean addPagingExtras) throws FileNotFoundException {
         final MatrixCursor result = new MatrixCursor(projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION);
         final File parent = getFileForDocId(rootId);
 
-        // This example implementation searches file names for the query and doesn't rank search
-        // results, so we can stop as soon as we find a sufficient number of matches.  Other
-        // implementations might rank results and use other data about files, rather than the file
-        // name, to produce a match.
-        final LinkedList<File> pending = new LinkedList<>();
-        pending.add(parent);
-
-        final int MAX_SEARCH_RESULTS = 50;
-        while (!pending.isEmpty() && result.getCount() < MAX_SEARCH_RESULTS) {
-            final File file = pending.removeFirst();
-            // Avoid directories outside the $HOME directory linked with symlinks (to avoid e.g. search
-            // through the whole SD card).
-            boolean isInsideHome;
-            try {
-                isInsideHome = file.getCanonicalPath().startsWith(TermuxConstants.TERMUX_HOME_DIR_PATH);
-            } catch (IOException e) {
-                isInsideHome = true;
-            }
-            if (isInsideHome) {
-                if (file.isDirectory()) {
-                    Collections.addAll(pending, file.listFiles());
-                } else {
-                    if (file.getName().toLowerCase().contains(query)) {
-                        includeFile(result, null, file);
-                    }
-                }
-            }
+        // Search file names in the index instead of walking the directory tree for each query,
+        // since that could take seconds for directories like node_modules or git checkouts
+        final TermuxDocumentsSearchIndex.SearchResults searchResults = mSearchIndex.search(parent.getAbsolutePath(),
+            query, offset, Math.max(0, Math.min(limit, MAX_SEARCH_RESULTS_LIMIT)));
+        for (File file : searchResults.files) {
+            // The index may be older than the file system
+            if (file.exists())
+                includeFile(result, null, file);
+        }
+
+        final Bundle extras = new Bundle();
+        if (searchResults.loading) {
+            // The picker shows a progress bar and requeries when the index is updated
+            extras.putBoolean(DocumentsContract.EXTRA_LOADING, true);
+            result.setNotificationUri(getContext().getContentResolver(), getSearchNotificationUri(rootId));
+        }
+        if (addPagingExtras) {
+            extras.putInt(ContentResolver.EXTRA_TOTAL_COUNT, searchResults.totalCount);
+            extras.putStringArray(ContentResolver.EXTRA_HONORED_ARGS,
+                new String[]{ContentResolver.QUERY_ARG_OFFSET, ContentResolver.QUERY_ARG_LIMIT});
         }
+        result.setExtras(extras);
 
         return result;
     }
 
+    /** Get the {@link Uri} that is notified when the search index for a root is updated. */
+    private Uri getSearchNotificationUri(String rootId) {
+        // Observers are matched by path, so the query parameter is not needed
+        return DocumentsContract.buildSearchDocumentsUri(mAuthority, rootId, "").buildUpon().clearQuery().build();
+    }
+
     @Override
     public boolean isChildDocument(String parentDocumentId, String documentId) {
         return documentId.startsWith(parentDocumentId);
@@ -214,17 +290,25 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
     }
 
     private static String getMimeType(File file) {
-        if (file.isDirectory()) {
+        return getMimeType(file.getName(), file.isDirectory());
+    }
+
+    private static String getMimeType(String name, boolean isDirectory) {
+        if (isDirectory) {
             return Document.MIME_TYPE_DIR;
         } else {
-            final String name = file.getName();
             final int lastDot = name.lastIndexOf('.');
             if (lastDot >= 0) {
                 final String extension = name.substring(lastDot + 1).toLowerCase();
-                final String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
-                if (mime != null) return mime;
+                String mime = MIME_TYPES_FOR_EXTENSIONS.get(extension);
+                if (mime == null) {
+                    mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+                    if (mime == null) mime = DEFAULT_MIME_TYPE;
+                    MIME_TYPES_FOR_EXTENSIONS.put(extension, mime);
+                }
+                return mime;
             }
-            return "application/octet-stream";
+            return DEFAULT_MIME_TYPE;
         }
     }
 
@@ -243,24 +327,53 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
             file = getFileForDocId(docId);
         }
 
+        FileAttributes fileAttributes;
+        try {
+            fileAttributes = FileAttributes.get(file.getAbsolutePath(), true);
+        } catch (IOException e) {
+            // Broken symlinks are returned as the symlink itself
+            try {
+                fileAttributes = FileAttributes.get(file.getAbsolutePath(), false);
+            } catch (IOException e2) {
+                throw new FileNotFoundException(file.getAbsolutePath() + " not found");
+            }
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        includeFile(result, docId, file.getName(), fileAttributes, file.canWrite(), parent != null && parent.canWrite());
+    }
+
+    /**
+     * Add a representation of a file to a cursor from its already read attributes.
+     *
+     * @param result the cursor to modify
+     * @param docId the document ID representing the file
+     * @param displayName the name of the file
+     * @param fileAttributes the {@link FileAttributes} of the file
+     * @param writable whether the file is writable
+     * @param parentWritable whether the parent directory of the file is writable
+     */
+    private void includeFile(MatrixCursor result, String docId, String displayName, FileAttributes fileAttributes,
+                             boolean writable, boolean parentWritable) {
+        final boolean isDirectory = fileAttributes.isDirectory();
+
         int flags = 0;
-        if (file.isDirectory()) {
-            if (file.canWrite()) flags |= Document.FLAG_DIR_SUPPORTS_CREATE;
-        } else if (file.canWrite()) {
+        if (isDirectory) {
+            if (writable) flags |= Document.FLAG_DIR_SUPPORTS_CREATE;
+        } else if (writable) {
             flags |= Document.FLAG_SUPPORTS_WRITE;
         }
-        if (file.getParentFile().canWrite()) flags |= Document.FLAG_SUPPORTS_DELETE;
+        if (parentWritable) flags |= Document.FLAG_SUPPORTS_DELETE;
 
-        final String displayName = file.getName();
-        final String mimeType = getMimeType(file);
+        final String mimeType = getMimeType(displayName, isDirectory);
         if (mimeType.startsWith("image/")) flags |= Document.FLAG_SUPPORTS_THUMBNAIL;
 
         final MatrixCursor.RowBuilder row = result.newRow();
         row.add(Document.COLUMN_DOCUMENT_ID, docId);
         row.add(Document.COLUMN_DISPLAY_NAME, displayName);
-        row.add(Document.COLUMN_SIZE, file.length());
+        row.add(Document.COLUMN_SIZE, fileAttributes.size());
         row.add(Document.COLUMN_MIME_TYPE, mimeType);
-        row.add(Document.COLUMN_LAST_MODIFIED, file.lastModified());
+        row.add(Document.COLUMN_LAST_MODIFIED, fileAttributes.lastModifiedTime().toMillis());
         row.add(Document.COLUMN_FLAGS, flags);
         row.add(Document.COLUMN_ICON, R.mipmap.ic_launcher);
     }
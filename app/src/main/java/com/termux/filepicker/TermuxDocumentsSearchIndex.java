@@ -0,0 +1,498 @@
+package com.termux.filepicker;
+
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import androidx.annotation.VisibleForTesting;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An in-memory index of the names of the files under a root directory that is used by
+ * {@link TermuxDocumentsProvider} for searches, so that a search does not need to walk the whole
+ * directory tree, which can take seconds for directories like `node_modules` or git checkouts.
+ *
+ * The index is built on a background thread on first use and stores the entry names of each
+ * directory along with the directory's mtime. Since adding, removing or renaming an entry updates
+ * the mtime of its parent directory, a refresh only needs to stat each directory and only lists
+ * the directories whose mtime has changed. Searches are answered from the last published index,
+ * and request a refresh if it is older than {@link #REFRESH_INTERVAL_MILLIS}.
+ *
+ * Symlinks are only indexed if their target is under the root directory, like the previous
+ * search did, and each directory is only indexed once so that symlink loops are not followed.
+ *
+ * The directories are indexed breadth first and indexing stops once {@link #DEFAULT_MAX_ENTRIES}
+ * entries have been indexed, so that a huge tree cannot use unbounded memory, in which case only
+ * the shallower directories are searched.
+ */
+final class TermuxDocumentsSearchIndex {
+
+    /** Listener for when a new index has been published. */
+    interface IndexListener {
+        void onIndexUpdated();
+    }
+
+    /** The file system calls used to build the index, which are replaced in tests. */
+    @VisibleForTesting
+    interface FileSystem {
+        /**
+         * Stat the file at {@code path}.
+         *
+         * @param path The path of the file.
+         * @param followSymlinks If symlinks should be followed like {@link Os#stat(String)},
+         *                       otherwise they are not like {@link Os#lstat(String)}.
+         * @return Returns the {@link FileStat}, or {@code null} if the stat failed.
+         */
+        @Nullable
+        FileStat stat(@NonNull String path, boolean followSymlinks);
+
+        /** Get the entry names of the directory at {@code path}, or {@code null} if it failed. */
+        @Nullable
+        String[] list(@NonNull String path);
+
+        /** Get the canonical path of {@code path}, or {@code null} if it failed. */
+        @Nullable
+        String getCanonicalPath(@NonNull String path);
+    }
+
+    /** The attributes of a file returned by {@link FileSystem#stat(String, boolean)}. */
+    @VisibleForTesting
+    static final class FileStat {
+        final long dev;
+        final long ino;
+        /** The modification time in seconds. */
+        final long mtime;
+        final boolean isDirectory;
+        final boolean isSymlink;
+
+        FileStat(long dev, long ino, long mtime, boolean isDirectory, boolean isSymlink) {
+            this.dev = dev;
+            this.ino = ino;
+            this.mtime = mtime;
+            this.isDirectory = isDirectory;
+            this.isSymlink = isSymlink;
+        }
+    }
+
+    /** The {@link FileSystem} of the device. */
+    private static final FileSystem OS_FILE_SYSTEM = new FileSystem() {
+        @Nullable
+        @Override
+        public FileStat stat(@NonNull String path, boolean followSymlinks) {
+            try {
+                StructStat stat = followSymlinks ? Os.stat(path) : Os.lstat(path);
+                return new FileStat(stat.st_dev, stat.st_ino, stat.st_mtime,
+                    OsConstants.S_ISDIR(stat.st_mode), OsConstants.S_ISLNK(stat.st_mode));
+            } catch (ErrnoException e) {
+                return null;
+            }
+        }
+
+        @Nullable
+        @Override
+        public String[] list(@NonNull String path) {
+            return new File(path).list();
+        }
+
+        @Nullable
+        @Override
+        public String getCanonicalPath(@NonNull String path) {
+            try {
+                return new File(path).getCanonicalPath();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    };
+
+    /** The results of a {@link #search(String, String, int, int)}. */
+    static final class SearchResults {
+        /** The files in the requested page, from best to worst match. */
+        @NonNull final List<File> files;
+        /** The total number of files that matched. */
+        final int totalCount;
+        /** Whether the index is being built or refreshed, and the results may change. */
+        final boolean loading;
+
+        SearchResults(@NonNull List<File> files, int totalCount, boolean loading) {
+            this.files = files;
+            this.totalCount = totalCount;
+            this.loading = loading;
+        }
+    }
+
+    /** The max age of the index after which a search requests a refresh. */
+    static final long REFRESH_INTERVAL_MILLIS = 10 * 1000;
+
+    /**
+     * The max number of file and directory entries to index. Each entry takes around 100 bytes,
+     * so this bounds the index to around 10MB. Indexing stops after the directory that reaches it,
+     * so the entries of that directory may go over it.
+     */
+    static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    /** Match ranks returned by {@link #getMatchRank(String, String)}, lower is better. */
+    static final int MATCH_RANK_EXACT = 0;
+    static final int MATCH_RANK_PREFIX = 1;
+    static final int MATCH_RANK_WORD_PREFIX = 2;
+    static final int MATCH_RANK_SUBSTRING = 3;
+    static final int MATCH_RANK_NONE = -1;
+
+    private final String mRootDirPath;
+    private final IndexListener mIndexListener;
+    private final FileSystem mFileSystem;
+    private final int mMaxEntries;
+
+    private volatile Snapshot mSnapshot;
+    /**
+     * Incremented by {@link #clear()} so that a refresh that was running while the index was
+     * cleared does not publish its index. The {@link #mSnapshot} is only published or cleared
+     * while synchronized on the index so that checking the generation and publishing are atomic.
+     */
+    private int mGeneration;
+    private final AtomicBoolean mRefreshPending = new AtomicBoolean();
+    private volatile boolean mRefreshing;
+    private final ExecutorService mExecutor;
+
+    private static final String LOG_TAG = "TermuxDocumentsSearchIndex";
+
+    TermuxDocumentsSearchIndex(@NonNull File rootDir, @Nullable IndexListener indexListener) {
+        this(rootDir, indexListener, OS_FILE_SYSTEM, DEFAULT_MAX_ENTRIES);
+    }
+
+    @VisibleForTesting
+    TermuxDocumentsSearchIndex(@NonNull File rootDir, @Nullable IndexListener indexListener,
+                               @NonNull FileSystem fileSystem, int maxEntries) {
+        String rootDirPath = fileSystem.getCanonicalPath(rootDir.getAbsolutePath());
+        mRootDirPath = rootDirPath != null ? rootDirPath : rootDir.getAbsolutePath();
+        mIndexListener = indexListener;
+        mFileSystem = fileSystem;
+        mMaxEntries = maxEntries;
+        mExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, LOG_TAG);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Search the index for files whose name contains {@code query}, regardless of case. Files are
+     * ranked by {@link #getMatchRank(String, String)}, then by shorter names and then by shallower
+     * paths.
+     *
+     * If the index has not been built yet, then it is started and no results are returned with
+     * {@link SearchResults#loading} set, and the {@link IndexListener} is called when it is ready.
+     *
+     * @param parentPath The path of the directory under which to search.
+     * @param query The query to search for.
+     * @param offset The number of results to skip.
+     * @param limit The max number of results to return.
+     * @return Returns the {@link SearchResults}.
+     */
+    @NonNull
+    SearchResults search(@NonNull String parentPath, @NonNull String query, int offset, int limit) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || SystemClock.elapsedRealtime() - snapshot.createdTime > REFRESH_INTERVAL_MILLIS)
+            requestRefresh();
+        if (snapshot == null)
+            return new SearchResults(Collections.emptyList(), 0, true);
+
+        String lowerQuery = query.toLowerCase();
+        String parentPathPrefix = parentPath.endsWith("/") ? parentPath : parentPath + "/";
+        boolean searchAll = parentPathPrefix.equals(mRootDirPath + "/");
+
+        List<Match> matches = new ArrayList<>();
+        for (DirectoryNode node : snapshot.directories) {
+            if (!searchAll && !(node.path + "/").startsWith(parentPathPrefix)) continue;
+            for (int i = 0; i < node.lowerFileNames.length; i++) {
+                int rank = getMatchRank(node.lowerFileNames[i], lowerQuery);
+                if (rank != MATCH_RANK_NONE)
+                    matches.add(new Match(rank, node, i));
+            }
+        }
+
+        Collections.sort(matches, (a, b) -> {
+            if (a.rank != b.rank) return Integer.compare(a.rank, b.rank);
+            int aLength = a.node.fileNames[a.index].length();
+            int bLength = b.node.fileNames[b.index].length();
+            if (aLength != bLength) return Integer.compare(aLength, bLength);
+            if (a.node.depth != b.node.depth) return Integer.compare(a.node.depth, b.node.depth);
+            int result = a.node.path.compareTo(b.node.path);
+            return result != 0 ? result : a.node.fileNames[a.index].compareTo(b.node.fileNames[b.index]);
+        });
+
+        List<File> files = new ArrayList<>();
+        for (int i = Math.max(0, offset); i < matches.size() && files.size() < limit; i++) {
+            Match match = matches.get(i);
+            files.add(new File(match.node.path, match.node.fileNames[match.index]));
+        }
+        return new SearchResults(files, matches.size(), mRefreshing || mRefreshPending.get());
+    }
+
+    /**
+     * Get the rank of how well a file name matches a query.
+     *
+     * @param lowerName The lower case file name.
+     * @param lowerQuery The lower case query.
+     * @return Returns {@link #MATCH_RANK_EXACT} if the name equals the query, {@link #MATCH_RANK_PREFIX}
+     * if it starts with it, {@link #MATCH_RANK_WORD_PREFIX} if a word in it after a character that
+     * is not a letter or digit starts with it, {@link #MATCH_RANK_SUBSTRING} if it contains it,
+     * otherwise {@link #MATCH_RANK_NONE}.
+     */
+    static int getMatchRank(@NonNull String lowerName, @NonNull String lowerQuery) {
+        int index = lowerName.indexOf(lowerQuery);
+        if (index < 0) return MATCH_RANK_NONE;
+        if (index == 0) return lowerName.length() == lowerQuery.length() ? MATCH_RANK_EXACT : MATCH_RANK_PREFIX;
+
+        int rank = MATCH_RANK_SUBSTRING;
+        while (index > 0) {
+            if (!Character.isLetterOrDigit(lowerName.charAt(index - 1))) {
+                rank = MATCH_RANK_WORD_PREFIX;
+                break;
+            }
+            index = lowerName.indexOf(lowerQuery, index + 1);
+        }
+        return rank;
+    }
+
+    /**
+     * Request the index to be refreshed on the background thread. If a refresh is already pending,
+     * then this is a no-op, but if one is running then another will be done after it, so that
+     * changes made during it are not missed.
+     */
+    void requestRefresh() {
+        if (mRefreshPending.compareAndSet(false, true))
+            mExecutor.execute(this::refresh);
+    }
+
+    /**
+     * Drop the index to free its memory. It will be rebuilt by the next search. If a refresh is
+     * running, then its index is dropped too instead of being published when it finishes.
+     */
+    void clear() {
+        synchronized (this) {
+            mGeneration++;
+            mSnapshot = null;
+        }
+    }
+
+    private void refresh() {
+        mRefreshing = true;
+        mRefreshPending.set(false);
+        try {
+            long startTime = SystemClock.elapsedRealtime();
+            int generation;
+            Snapshot previousSnapshot;
+            synchronized (this) {
+                generation = mGeneration;
+                previousSnapshot = mSnapshot;
+            }
+            int[] listedCount = new int[1];
+            Snapshot snapshot = buildSnapshot(previousSnapshot, listedCount);
+            boolean cleared;
+            synchronized (this) {
+                cleared = generation != mGeneration;
+                if (!cleared)
+                    mSnapshot = snapshot;
+            }
+
+            if (cleared) {
+                // The listener is still called below so that a search waiting for the index requeries
+                Logger.logVerbose(LOG_TAG, "Dropped the index of \"" + mRootDirPath + "\" since it was cleared while refreshing");
+            } else {
+                Logger.logVerbose(LOG_TAG, () -> "Indexed " + snapshot.directories.length + " directories under \"" +
+                    mRootDirPath + "\" in " + (SystemClock.elapsedRealtime() - startTime) + "ms, " +
+                    listedCount[0] + " listed");
+                if (snapshot.truncated)
+                    Logger.logWarn(LOG_TAG, "Stopped indexing \"" + mRootDirPath + "\" after " + mMaxEntries +
+                        " entries, deeper directories will not be searched");
+            }
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to index \"" + mRootDirPath + "\"", e);
+        } finally {
+            mRefreshing = false;
+        }
+
+        if (mIndexListener != null)
+            mIndexListener.onIndexUpdated();
+    }
+
+    @NonNull
+    private Snapshot buildSnapshot(@Nullable Snapshot previousSnapshot, @NonNull int[] listedCount) {
+        Map<String, DirectoryNode> previousNodes = new HashMap<>();
+        if (previousSnapshot != null) {
+            for (DirectoryNode node : previousSnapshot.directories)
+                previousNodes.put(node.path, node);
+        }
+
+        List<DirectoryNode> nodes = new ArrayList<>();
+        Set<String> visitedDirectories = new HashSet<>();
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.add(mRootDirPath);
+        int entryCount = 0;
+
+        while (!pending.isEmpty()) {
+            if (entryCount >= mMaxEntries)
+                return new Snapshot(nodes.toArray(new DirectoryNode[0]), SystemClock.elapsedRealtime(), true);
+
+            String path = pending.removeFirst();
+
+            FileStat stat = mFileSystem.stat(path, true);
+            if (stat == null || !stat.isDirectory) continue;
+            // Do not index the same directory twice if it is reachable through symlinks
+            if (!visitedDirectories.add(stat.dev + ":" + stat.ino)) continue;
+
+            DirectoryNode node = previousNodes.get(path);
+            if (node == null || !node.isValid(stat)) {
+                node = listDirectory(path, stat);
+                listedCount[0]++;
+            }
+            nodes.add(node);
+            entryCount += node.fileNames.length + node.directoryNames.length;
+
+            for (String directoryName : node.directoryNames)
+                pending.add(path + "/" + directoryName);
+        }
+
+        return new Snapshot(nodes.toArray(new DirectoryNode[0]), SystemClock.elapsedRealtime(), false);
+    }
+
+    @NonNull
+    private DirectoryNode listDirectory(@NonNull String path, @NonNull FileStat stat) {
+        // Record the time before listing so that changes made during the same second as the
+        // listing are detected by DirectoryNode.isValid(), since st_mtime only has seconds precision
+        long listedTime = System.currentTimeMillis() / 1000;
+
+        String[] names = mFileSystem.list(path);
+        List<String> fileNames = new ArrayList<>();
+        List<String> directoryNames = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                String childPath = path + "/" + name;
+                FileStat childStat = mFileSystem.stat(childPath, false);
+                if (childStat != null && childStat.isSymlink) {
+                    // Avoid targets outside the root directory, like to avoid searching
+                    // through the whole sd card from $HOME/storage
+                    if (!isUnderRootDir(childPath)) continue;
+                    childStat = mFileSystem.stat(childPath, true);
+                }
+                if (childStat == null) continue;
+
+                if (childStat.isDirectory)
+                    directoryNames.add(name);
+                else
+                    fileNames.add(name);
+            }
+        }
+
+        return new DirectoryNode(path, getDepth(path), stat, listedTime,
+            fileNames.toArray(new String[0]), directoryNames.toArray(new String[0]));
+    }
+
+    /** Get the number of directories between the root directory and {@code path}. */
+    private int getDepth(@NonNull String path) {
+        int depth = 0;
+        for (int i = mRootDirPath.length(); i < path.length(); i++) {
+            if (path.charAt(i) == '/') depth++;
+        }
+        return depth;
+    }
+
+    private boolean isUnderRootDir(@NonNull String path) {
+        String canonicalPath = mFileSystem.getCanonicalPath(path);
+        return canonicalPath != null &&
+            (canonicalPath.equals(mRootDirPath) || canonicalPath.startsWith(mRootDirPath + "/"));
+    }
+
+
+
+    /** An immutable published index. */
+    private static final class Snapshot {
+
+        final DirectoryNode[] directories;
+        final long createdTime;
+        /** Whether indexing stopped at the max entries before all directories were indexed. */
+        final boolean truncated;
+
+        Snapshot(@NonNull DirectoryNode[] directories, long createdTime, boolean truncated) {
+            this.directories = directories;
+            this.createdTime = createdTime;
+            this.truncated = truncated;
+        }
+
+    }
+
+    /** The indexed entries of a directory. */
+    private static final class DirectoryNode {
+
+        final String path;
+        final int depth;
+        final long dev;
+        final long ino;
+        final long mtime;
+        final long listedTime;
+        final String[] fileNames;
+        final String[] lowerFileNames;
+        final String[] directoryNames;
+
+        DirectoryNode(@NonNull String path, int depth, @NonNull FileStat stat, long listedTime,
+                      @NonNull String[] fileNames, @NonNull String[] directoryNames) {
+            this.path = path;
+            this.depth = depth;
+            this.dev = stat.dev;
+            this.ino = stat.ino;
+            this.mtime = stat.mtime;
+            this.listedTime = listedTime;
+            this.fileNames = fileNames;
+            this.directoryNames = directoryNames;
+            this.lowerFileNames = new String[fileNames.length];
+            for (int i = 0; i < fileNames.length; i++)
+                this.lowerFileNames[i] = fileNames[i].toLowerCase();
+        }
+
+        /**
+         * Check if the entries are still current for the directory {@code stat}. If the directory
+         * was modified in the same second that it was listed, then it is always listed again.
+         */
+        boolean isValid(@NonNull FileStat stat) {
+            return stat.dev == dev && stat.ino == ino && stat.mtime == mtime && mtime < listedTime;
+        }
+
+    }
+
+    private static final class Match {
+
+        final int rank;
+        final DirectoryNode node;
+        final int index;
+
+        Match(int rank, @NonNull DirectoryNode node, int index) {
+            this.rank = rank;
+            this.node = node;
+            this.index = index;
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Host benchmark of the native bootstrap extractor in termux-bootstrap-extract.c.
+ *
+ * Extracts a bootstrap zip, like the app/src/main/cpp/bootstrap-*.zip files downloaded by the
+ * build, into a new temp directory for each iteration and prints the time taken. Build and run with:
+ *
+ *   cc -std=c11 -O2 -I app/src/main/cpp -o /tmp/termux-bootstrap-extract-benchmark \
+ *       app/src/test/cpp/termux-bootstrap-extract-benchmark.c app/src/main/cpp/termux-bootstrap-extract.c -lz
+ *   /tmp/termux-bootstrap-extract-benchmark app/src/main/cpp/bootstrap-aarch64.zip 5
+ *
+ * To compare with the java BootstrapZipExtractor that TermuxInstaller falls back to, run the
+ * com.termux.app.BootstrapExtractBenchmarkTest instrumented test on a device, which extracts the
+ * zip embedded in the app with both.
+ */
+
+#define _GNU_SOURCE
+
+#include <fcntl.h>
+#include <ftw.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <time.h>
+#include <unistd.h>
+
+#include "termux-bootstrap-extract.h"
+
+static int remove_file(const char *path, __attribute__((__unused__)) const struct stat *st,
+                       __attribute__((__unused__)) int type, __attribute__((__unused__)) struct FTW *ftw)
+{
+    return remove(path);
+}
+
+static double get_time_ms(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1e3 + ts.tv_nsec / 1e6;
+}
+
+int main(int argc, char **argv)
+{
+    if (argc < 2) {
+        fprintf(stderr, "usage: %s <bootstrap-zip> [iterations]\n", argv[0]);
+        return 1;
+    }
+    int iterations = argc > 2 ? atoi(argv[2]) : 5;
+
+    int fd = open(argv[1], O_RDONLY | O_CLOEXEC);
+    struct stat st;
+    if (fd < 0 || fstat(fd, &st) != 0) {
+        perror(argv[1]);
+        return 1;
+    }
+    const unsigned char *zip = mmap(NULL, (size_t) st.st_size, PROT_READ, MAP_PRIVATE, fd, 0);
+    if (zip == MAP_FAILED) {
+        perror("mmap");
+        return 1;
+    }
+    close(fd);
+
+    double total_ms = 0;
+    double min_ms = 0;
+    for (int i = 0; i < iterations; i++) {
+        char target_dir_path[] = "/tmp/termux-bootstrap-extract-XXXXXX";
+        if (mkdtemp(target_dir_path) == NULL) {
+            perror("mkdtemp");
+            return 1;
+        }
+
+        struct termux_bootstrap_extract_result result;
+        double start_ms = get_time_ms();
+        int ret = termux_bootstrap_extract(zip, (size_t) st.st_size, target_dir_path, NULL, NULL, &result);
+        double elapsed_ms = get_time_ms() - start_ms;
+        nftw(target_dir_path, remove_file, 64, FTW_DEPTH | FTW_PHYS);
+
+        if (ret != 0) {
+            fprintf(stderr, "Extraction failed (errno %d): %s\n", result.error_number, result.error_message);
+            return 1;
+        }
+
+        printf("iteration %d: %.1f ms (%ld files, %ld directories, %ld symlinks, %lld bytes, %.1f MiB/s)\n",
+               i + 1, elapsed_ms, result.files, result.directories, result.symlinks, result.bytes,
+               result.bytes / (1024.0 * 1024.0) / (elapsed_ms / 1e3));
+        total_ms += elapsed_ms;
+        if (i == 0 || elapsed_ms < min_ms) min_ms = elapsed_ms;
+    }
+
+    printf("average %.1f ms, min %.1f ms over %d iterations\n", iterations > 0 ? total_ms / iterations : 0, min_ms, iterations);
+    return 0;
+}
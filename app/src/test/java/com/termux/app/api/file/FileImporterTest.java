@@ -0,0 +1,215 @@
+package com.termux.app.api.file;
+
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileImporterTest {
+
+    /** The {@link FileImporter.FileDescriptorOps} for tests, since {@link android.system.Os} cannot be used. */
+    private class TestFileDescriptorOps implements FileImporter.FileDescriptorOps {
+
+        private final boolean mRegularFile;
+        private long mPreallocatedSize = -1;
+
+        TestFileDescriptorOps(boolean regularFile) {
+            mRegularFile = regularFile;
+        }
+
+        @Override
+        public boolean isRegularFile(@NonNull FileDescriptor fileDescriptor) {
+            return mRegularFile;
+        }
+
+        @Override
+        public void preallocate(@NonNull FileDescriptor fileDescriptor, long size) {
+            mPreallocatedSize = size;
+            // Extend the file like posix_fallocate() does
+            try (RandomAccessFile file = new RandomAccessFile(mOutFile, "rw")) {
+                file.setLength(size);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mOutFile;
+    private final List<Long> mProgress = new ArrayList<>();
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+    @Before
+    public void setUp() throws IOException {
+        mOutFile = new File(mTemporaryFolder.getRoot(), "out");
+    }
+
+    private static byte[] newBytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = (byte) (i * 31 + i / 251);
+        return bytes;
+    }
+
+    private File newSourceFile(@NonNull byte[] bytes) throws IOException {
+        File file = mTemporaryFolder.newFile();
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private FileImporter.Source newAssetFileDescriptorSource(@NonNull File file, long startOffset, long length) throws IOException {
+        ParcelFileDescriptor parcelFileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        return FileImporter.Source.fromAssetFileDescriptor(new AssetFileDescriptor(parcelFileDescriptor, startOffset, length));
+    }
+
+    private long copy(@NonNull FileImporter.Source source, @NonNull FileImporter.FileDescriptorOps fileDescriptorOps) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mOutFile)) {
+            return FileImporter.copy(source, out, mProgress::add, mCancelled, fileDescriptorOps);
+        } finally {
+            source.close();
+        }
+    }
+
+    private byte[] readOutFile() throws IOException {
+        return Files.readAllBytes(mOutFile.toPath());
+    }
+
+    @Test
+    public void testCopyRegularFileRange() throws IOException {
+        byte[] bytes = newBytes(100);
+        TestFileDescriptorOps fileDescriptorOps = new TestFileDescriptorOps(true);
+
+        // Only the part of the file descriptor of the asset is copied
+        long copiedBytes = copy(newAssetFileDescriptorSource(newSourceFile(bytes), 10, 50), fileDescriptorOps);
+        Assert.assertEquals(50, copiedBytes);
+        Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 10, 60), readOutFile());
+        Assert.assertEquals(50, fileDescriptorOps.mPreallocatedSize);
+        Assert.assertEquals(Arrays.asList(50L), mProgress);
+    }
+
+    @Test
+    public void testCopyWholeRegularFile() throws IOException {
+        byte[] bytes = newBytes(100);
+        ParcelFileDescriptor parcelFileDescriptor = ParcelFileDescriptor.open(newSourceFile(bytes), ParcelFileDescriptor.MODE_READ_ONLY);
+        TestFileDescriptorOps fileDescriptorOps = new TestFileDescriptorOps(true);
+
+        Assert.assertEquals(100, copy(FileImporter.Source.fromParcelFileDescriptor(parcelFileDescriptor), fileDescriptorOps));
+        Assert.assertArrayEquals(bytes, readOutFile());
+        Assert.assertEquals(100, fileDescriptorOps.mPreallocatedSize);
+    }
+
+    @Test
+    public void testCopyShortRegularFileIsTruncated() throws IOException {
+        byte[] bytes = newBytes(100);
+        TestFileDescriptorOps fileDescriptorOps = new TestFileDescriptorOps(true);
+
+        // The declared length is longer than the file, so the preallocated tail must be dropped
+        long copiedBytes = copy(newAssetFileDescriptorSource(newSourceFile(bytes), 10, 200), fileDescriptorOps);
+        Assert.assertEquals(200, fileDescriptorOps.mPreallocatedSize);
+        Assert.assertEquals(90, copiedBytes);
+        Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 10, 100), readOutFile());
+    }
+
+    @Test
+    public void testCopyPipeSkipsStartOffset() throws IOException {
+        // The start offset and length are larger than the buffer, so they take multiple reads
+        byte[] bytes = newBytes(3 * 1024 * 1024 + 7);
+        int startOffset = 1024 * 1024 + 3;
+        int length = 1024 * 1024 + 5;
+        TestFileDescriptorOps fileDescriptorOps = new TestFileDescriptorOps(false);
+
+        long copiedBytes = copy(newAssetFileDescriptorSource(newSourceFile(bytes), startOffset, length), fileDescriptorOps);
+        Assert.assertEquals(length, copiedBytes);
+        Assert.assertArrayEquals(Arrays.copyOfRange(bytes, startOffset, startOffset + length), readOutFile());
+        // Pipes cannot be preallocated for since their size is not known
+        Assert.assertEquals(-1, fileDescriptorOps.mPreallocatedSize);
+        Assert.assertEquals(2, mProgress.size());
+        Assert.assertEquals(Long.valueOf(length), mProgress.get(mProgress.size() - 1));
+    }
+
+    @Test
+    public void testCopyBytes() throws IOException {
+        // Larger than the max transfer size, so copied in multiple chunks
+        byte[] bytes = newBytes(9 * 1024 * 1024);
+
+        Assert.assertEquals(bytes.length, copy(FileImporter.Source.fromBytes(bytes), new TestFileDescriptorOps(true)));
+        Assert.assertArrayEquals(bytes, readOutFile());
+        Assert.assertEquals(Arrays.asList(8L * 1024 * 1024, (long) bytes.length), mProgress);
+    }
+
+    @Test
+    public void testCopyInputStream() throws IOException {
+        byte[] bytes = newBytes(1000);
+
+        Assert.assertEquals(bytes.length, copy(FileImporter.Source.fromInputStream(new ByteArrayInputStream(bytes)), new TestFileDescriptorOps(true)));
+        Assert.assertArrayEquals(bytes, readOutFile());
+    }
+
+    @Test
+    public void testCancelInputStream() throws IOException {
+        // An endless stream is only stopped by the cancellation
+        InputStream inputStream = new InputStream() {
+            @Override
+            public int read() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                int readBytes = Math.min(length, 1000);
+                Arrays.fill(buffer, offset, offset + readBytes, (byte) 1);
+                return readBytes;
+            }
+        };
+
+        try (FileOutputStream out = new FileOutputStream(mOutFile)) {
+            long copiedBytes = FileImporter.copy(FileImporter.Source.fromInputStream(inputStream), out,
+                progress -> mCancelled.set(true), mCancelled, new TestFileDescriptorOps(true));
+            Assert.assertEquals(1000, copiedBytes);
+        }
+        Assert.assertEquals(1000, mOutFile.length());
+    }
+
+    @Test
+    public void testCancelRegularFile() throws IOException {
+        // Larger than the max transfer size, so the cancellation is checked before it is all copied
+        byte[] bytes = newBytes(9 * 1024 * 1024);
+        TestFileDescriptorOps fileDescriptorOps = new TestFileDescriptorOps(true);
+        ParcelFileDescriptor parcelFileDescriptor = ParcelFileDescriptor.open(newSourceFile(bytes), ParcelFileDescriptor.MODE_READ_ONLY);
+        FileImporter.Source source = FileImporter.Source.fromParcelFileDescriptor(parcelFileDescriptor);
+
+        try (FileOutputStream out = new FileOutputStream(mOutFile)) {
+            long copiedBytes = FileImporter.copy(source, out, progress -> mCancelled.set(true), mCancelled, fileDescriptorOps);
+            Assert.assertEquals(8 * 1024 * 1024, copiedBytes);
+        } finally {
+            source.close();
+        }
+        // The preallocated tail that was not copied is dropped
+        Assert.assertArrayEquals(Arrays.copyOf(bytes, 8 * 1024 * 1024), readOutFile());
+    }
+
+}
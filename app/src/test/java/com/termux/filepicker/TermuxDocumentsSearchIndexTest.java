@@ -0,0 +1,269 @@
+package com.termux.filepicker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class TermuxDocumentsSearchIndexTest {
+
+    /** A {@link TermuxDocumentsSearchIndex.FileSystem} of the host file system. */
+    private static class HostFileSystem implements TermuxDocumentsSearchIndex.FileSystem {
+
+        @Nullable
+        @Override
+        public TermuxDocumentsSearchIndex.FileStat stat(@NonNull String path, boolean followSymlinks) {
+            try {
+                LinkOption[] options = followSymlinks ? new LinkOption[0] : new LinkOption[]{LinkOption.NOFOLLOW_LINKS};
+                Map<String, Object> attributes = Files.readAttributes(new File(path).toPath(),
+                    "unix:dev,ino,mode,lastModifiedTime", options);
+                int fileType = (Integer) attributes.get("mode") & 0170000;
+                return new TermuxDocumentsSearchIndex.FileStat((Long) attributes.get("dev"), (Long) attributes.get("ino"),
+                    ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.SECONDS),
+                    fileType == 0040000, fileType == 0120000);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Nullable
+        @Override
+        public String[] list(@NonNull String path) {
+            return new File(path).list();
+        }
+
+        @Nullable
+        @Override
+        public String getCanonicalPath(@NonNull String path) {
+            try {
+                return new File(path).getCanonicalPath();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+    }
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mRootDir;
+    private final Semaphore mIndexUpdated = new Semaphore(0);
+
+    @Before
+    public void setUp() throws IOException {
+        mRootDir = mTemporaryFolder.newFolder("home").getCanonicalFile();
+    }
+
+    private TermuxDocumentsSearchIndex newIndex(@NonNull TermuxDocumentsSearchIndex.FileSystem fileSystem, int maxEntries) {
+        return new TermuxDocumentsSearchIndex(mRootDir, mIndexUpdated::release, fileSystem, maxEntries);
+    }
+
+    private void refresh(@NonNull TermuxDocumentsSearchIndex index) throws InterruptedException {
+        index.requestRefresh();
+        awaitIndexUpdated();
+    }
+
+    private void awaitIndexUpdated() throws InterruptedException {
+        Assert.assertTrue("The index was not updated", mIndexUpdated.tryAcquire(10, TimeUnit.SECONDS));
+    }
+
+    private File newFile(@NonNull String path) throws IOException {
+        File file = new File(mRootDir, path);
+        Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Assert.assertTrue(file.createNewFile());
+        return file;
+    }
+
+    private List<File> search(@NonNull TermuxDocumentsSearchIndex index, @NonNull String query) {
+        TermuxDocumentsSearchIndex.SearchResults results = index.search(mRootDir.getAbsolutePath(), query, 0, Integer.MAX_VALUE);
+        Assert.assertEquals(results.totalCount, results.files.size());
+        return results.files;
+    }
+
+    private static void setMtime(@NonNull File file, long mtime) throws IOException {
+        Files.setLastModifiedTime(file.toPath(), FileTime.from(mtime, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGetMatchRank() {
+        Assert.assertEquals(TermuxDocumentsSearchIndex.MATCH_RANK_EXACT, TermuxDocumentsSearchIndex.getMatchRank("readme", "readme"));
+        Assert.assertEquals(TermuxDocumentsSearchIndex.MATCH_RANK_PREFIX, TermuxDocumentsSearchIndex.getMatchRank("readme.md", "readme"));
+        Assert.assertEquals(TermuxDocumentsSearchIndex.MATCH_RANK_WORD_PREFIX, TermuxDocumentsSearchIndex.getMatchRank("project-readme.md", "readme"));
+        // A later word prefix match is found after an earlier substring match
+        Assert.assertEquals(TermuxDocumentsSearchIndex.MATCH_RANK_WORD_PREFIX, TermuxDocumentsSearchIndex.getMatchRank("xreadme_readme", "readme"));
+        Assert.assertEquals(TermuxDocumentsSearchIndex.MATCH_RANK_SUBSTRING, TermuxDocumentsSearchIndex.getMatchRank("xreadme", "readme"));
+        Assert.assertEquals(TermuxDocumentsSearchIndex.MATCH_RANK_NONE, TermuxDocumentsSearchIndex.getMatchRank("notes.txt", "readme"));
+    }
+
+    @Test
+    public void testFirstSearchBuildsIndex() throws Exception {
+        File readme = newFile("project/docs/README.md");
+        newFile("project/notes.txt");
+        TermuxDocumentsSearchIndex index = newIndex(new HostFileSystem(), TermuxDocumentsSearchIndex.DEFAULT_MAX_ENTRIES);
+
+        TermuxDocumentsSearchIndex.SearchResults results = index.search(mRootDir.getAbsolutePath(), "readme", 0, 10);
+        Assert.assertTrue(results.loading);
+        Assert.assertEquals(0, results.totalCount);
+
+        awaitIndexUpdated();
+        Assert.assertEquals(Arrays.asList(readme), search(index, "readme"));
+        // Only files are matched
+        Assert.assertEquals(0, search(index, "docs").size());
+        // Only files under the parent path are returned
+        Assert.assertEquals(0, index.search(new File(mRootDir, "project/other").getAbsolutePath(), "readme", 0, 10).totalCount);
+    }
+
+    @Test
+    public void testRefreshRevalidatesDirectoriesByMtime() throws Exception {
+        long now = System.currentTimeMillis() / 1000;
+        File dir = new File(mRootDir, "dir");
+        newFile("dir/old.txt");
+        setMtime(dir, now - 100);
+        TermuxDocumentsSearchIndex index = newIndex(new HostFileSystem(), TermuxDocumentsSearchIndex.DEFAULT_MAX_ENTRIES);
+        refresh(index);
+
+        // An unchanged mtime means the previous entries of the directory are reused without listing it
+        File newFile = newFile("dir/new.txt");
+        setMtime(dir, now - 100);
+        refresh(index);
+        Assert.assertEquals(0, search(index, "new").size());
+
+        // A changed mtime means it is listed again
+        setMtime(dir, now - 50);
+        refresh(index);
+        Assert.assertEquals(Arrays.asList(newFile), search(index, "new"));
+
+        // A directory with an mtime that is not before the time it was listed is always listed
+        // again, since a modification in the same second as the listing may have been missed
+        setMtime(dir, now + 100);
+        refresh(index);
+        newFile("dir/newer.txt");
+        setMtime(dir, now + 100);
+        refresh(index);
+        Assert.assertEquals(1, search(index, "newer").size());
+    }
+
+    @Test
+    public void testSearchPaging() throws Exception {
+        List<File> expected = new ArrayList<>();
+        // Files are ranked by match rank, then by shorter names, then by shallower paths
+        expected.add(newFile("a/log"));
+        expected.add(newFile("log.txt"));
+        expected.add(newFile("a/log.txt"));
+        expected.add(newFile("a/b/log.txt"));
+        expected.add(newFile("build-log.txt"));
+        expected.add(newFile("catalog.txt"));
+        newFile("unrelated.txt");
+        TermuxDocumentsSearchIndex index = newIndex(new HostFileSystem(), TermuxDocumentsSearchIndex.DEFAULT_MAX_ENTRIES);
+        refresh(index);
+
+        Assert.assertEquals(expected, search(index, "LOG"));
+
+        TermuxDocumentsSearchIndex.SearchResults results = index.search(mRootDir.getAbsolutePath(), "log", 2, 3);
+        Assert.assertEquals(6, results.totalCount);
+        Assert.assertEquals(expected.subList(2, 5), results.files);
+        Assert.assertFalse(results.loading);
+
+        results = index.search(mRootDir.getAbsolutePath(), "log", 5, 3);
+        Assert.assertEquals(expected.subList(5, 6), results.files);
+
+        results = index.search(mRootDir.getAbsolutePath(), "log", 10, 3);
+        Assert.assertEquals(6, results.totalCount);
+        Assert.assertEquals(0, results.files.size());
+    }
+
+    @Test
+    public void testSymlinks() throws Exception {
+        File file = newFile("dir/file.txt");
+        File outsideDir = mTemporaryFolder.newFolder("outside");
+        Assert.assertTrue(new File(outsideDir, "outside.txt").createNewFile());
+        // Loops back to an ancestor directory
+        Files.createSymbolicLink(new File(mRootDir, "dir/loop").toPath(), mRootDir.toPath());
+        Files.createSymbolicLink(new File(mRootDir, "dir/self").toPath(), new File(mRootDir, "dir").toPath());
+        // Targets outside the root directory are not indexed
+        Files.createSymbolicLink(new File(mRootDir, "storage").toPath(), outsideDir.toPath());
+        // Files under the root directory are indexed through symlinks
+        Files.createSymbolicLink(new File(mRootDir, "link.txt").toPath(), file.toPath());
+        TermuxDocumentsSearchIndex index = newIndex(new HostFileSystem(), TermuxDocumentsSearchIndex.DEFAULT_MAX_ENTRIES);
+        refresh(index);
+
+        Assert.assertEquals(Arrays.asList(file), search(index, "file.txt"));
+        Assert.assertEquals(0, search(index, "outside").size());
+        Assert.assertEquals(0, search(index, "storage").size());
+        Assert.assertEquals(Arrays.asList(new File(mRootDir, "link.txt")), search(index, "link"));
+    }
+
+    @Test
+    public void testIndexIsBounded() throws Exception {
+        File shallow = newFile("shallow.txt");
+        newFile("dir/deep.txt");
+        newFile("dir/sub/deeper.txt");
+        // The root directory has 2 entries, so its subdirectory is indexed too since it is under
+        // the max, but indexing stops after it
+        TermuxDocumentsSearchIndex index = newIndex(new HostFileSystem(), 3);
+        refresh(index);
+
+        Assert.assertEquals(Arrays.asList(shallow), search(index, "shallow"));
+        Assert.assertEquals(1, search(index, "deep.txt").size());
+        Assert.assertEquals(0, search(index, "deeper").size());
+    }
+
+    @Test
+    public void testClearDropsRunningRefresh() throws Exception {
+        newFile("file.txt");
+        CountDownLatch listing = new CountDownLatch(1);
+        CountDownLatch cleared = new CountDownLatch(1);
+        TermuxDocumentsSearchIndex index = newIndex(new HostFileSystem() {
+            @Nullable
+            @Override
+            public String[] list(@NonNull String path) {
+                // Only block the first refresh
+                if (listing.getCount() > 0) {
+                    listing.countDown();
+                    try {
+                        cleared.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.list(path);
+            }
+        }, TermuxDocumentsSearchIndex.DEFAULT_MAX_ENTRIES);
+
+        index.requestRefresh();
+        Assert.assertTrue(listing.await(10, TimeUnit.SECONDS));
+        index.clear();
+        cleared.countDown();
+        awaitIndexUpdated();
+
+        // The index of the refresh must not have been published, so a new one is built
+        TermuxDocumentsSearchIndex.SearchResults results = index.search(mRootDir.getAbsolutePath(), "file", 0, 10);
+        Assert.assertTrue(results.loading);
+        Assert.assertEquals(0, results.totalCount);
+
+        awaitIndexUpdated();
+        Assert.assertEquals(1, search(index, "file").size());
+    }
+
+}
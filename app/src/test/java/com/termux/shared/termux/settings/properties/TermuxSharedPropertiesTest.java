@@ -0,0 +1,158 @@
+package com.termux.shared.termux.settings.properties;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests of the reloading and watching of the properties files of {@link TermuxSharedProperties}.
+ * They are in the app module since they need Robolectric.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TermuxSharedPropertiesTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Context mContext;
+    private File mHomeDir;
+    private File mTermuxDir;
+    private File mPropertiesFile;
+    private int mChangedCount;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.getApplication();
+        mHomeDir = mTemporaryFolder.newFolder("home").getCanonicalFile();
+        mTermuxDir = new File(mHomeDir, ".termux");
+        mPropertiesFile = new File(mTermuxDir, "termux.properties");
+    }
+
+    private TermuxSharedProperties newProperties() {
+        return new TermuxSharedProperties(mContext, "Test",
+            Arrays.asList(mPropertiesFile.getPath(), new File(mHomeDir, ".config/termux/termux.properties").getPath()),
+            TermuxPropertyConstants.TERMUX_APP_PROPERTIES_LIST, new TermuxSharedProperties.SharedPropertiesParserClient()) {};
+    }
+
+    private void writeProperties(@NonNull String properties) throws IOException {
+        Assert.assertTrue(mTermuxDir.isDirectory() || mTermuxDir.mkdirs());
+        try (FileOutputStream out = new FileOutputStream(mPropertiesFile)) {
+            out.write(properties.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void startWatching(@NonNull TermuxSharedProperties properties) {
+        properties.startWatchingPropertiesFiles(() -> mChangedCount++);
+    }
+
+    private void idleMainLooper() {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(TermuxSharedProperties.PROPERTIES_FILES_CHANGED_DELAY_MILLIS));
+    }
+
+    @Test
+    public void testReloadPublishesNewValues() throws IOException {
+        writeProperties(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL + "=10\n");
+        TermuxSharedProperties properties = newProperties();
+        Assert.assertEquals(10, properties.getTerminalMarginHorizontal());
+        Map<String, Object> internalProperties = properties.getInternalProperties();
+
+        // The cached values do not change until the properties are reloaded
+        writeProperties(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL + "=5\n");
+        Assert.assertEquals(10, properties.getTerminalMarginHorizontal());
+        Assert.assertEquals("5", properties.getPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL, null, false));
+
+        properties.loadTermuxPropertiesFromDisk();
+        Assert.assertEquals(5, properties.getTerminalMarginHorizontal());
+        Assert.assertEquals("5", properties.getPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL, null, true));
+        // A copy returned before the reload is not modified by it
+        Assert.assertEquals(10, internalProperties.get(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL));
+
+        // Defaults are used once the file is deleted
+        Assert.assertTrue(mPropertiesFile.delete());
+        properties.loadTermuxPropertiesFromDisk();
+        Assert.assertEquals(TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MARGIN_HORIZONTAL, properties.getTerminalMarginHorizontal());
+    }
+
+    @Test
+    public void testPropertiesFileChangesNotifyOnce() throws IOException {
+        writeProperties(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL + "=10\n");
+        TermuxSharedProperties properties = newProperties();
+        startWatching(properties);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(mTermuxDir.getPath(), mHomeDir.getPath())),
+            properties.getWatchedDirectoryPaths());
+
+        // Other files do not notify
+        properties.onPropertiesDirectoryEvent(mTermuxDir.getPath(), FileObserver.CLOSE_WRITE, "colors.properties");
+        properties.onPropertiesDirectoryEvent(mHomeDir.getPath(), FileObserver.CLOSE_WRITE, "termux.properties");
+        idleMainLooper();
+        Assert.assertEquals(0, mChangedCount);
+
+        // The events of a single save only notify once, and the properties are only reloaded by the listener
+        properties.onPropertiesDirectoryEvent(mTermuxDir.getPath(), FileObserver.CREATE, "termux.properties");
+        properties.onPropertiesDirectoryEvent(mTermuxDir.getPath(), FileObserver.CLOSE_WRITE, "termux.properties");
+        Assert.assertEquals(0, mChangedCount);
+        idleMainLooper();
+        Assert.assertEquals(1, mChangedCount);
+        Assert.assertEquals(10, properties.getTerminalMarginHorizontal());
+    }
+
+    @Test
+    public void testMissingDirectoryIsWatchedUntilCreated() throws IOException {
+        TermuxSharedProperties properties = newProperties();
+        startWatching(properties);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(mHomeDir.getPath())), properties.getWatchedDirectoryPaths());
+
+        // Directories that are not ancestors of the properties directories are ignored
+        Assert.assertTrue(new File(mHomeDir, "downloads").mkdir());
+        properties.onPropertiesDirectoryEvent(mHomeDir.getPath(), FileObserver.CREATE, "downloads");
+        idleMainLooper();
+        Assert.assertEquals(0, mChangedCount);
+
+        writeProperties(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL + "=10\n");
+        // Directory events have the IN_ISDIR flag set
+        properties.onPropertiesDirectoryEvent(mHomeDir.getPath(), FileObserver.CREATE | 0x40000000, ".termux");
+        Assert.assertEquals(new HashSet<>(Arrays.asList(mTermuxDir.getPath(), mHomeDir.getPath())),
+            properties.getWatchedDirectoryPaths());
+        // The properties file may have been created along with its directory
+        idleMainLooper();
+        Assert.assertEquals(1, mChangedCount);
+
+        // The ancestor is watched again once the directory is deleted
+        Assert.assertTrue(mPropertiesFile.delete());
+        Assert.assertTrue(mTermuxDir.delete());
+        properties.onPropertiesDirectoryEvent(mTermuxDir.getPath(), FileObserver.DELETE_SELF, null);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(mHomeDir.getPath())), properties.getWatchedDirectoryPaths());
+        idleMainLooper();
+        Assert.assertEquals(2, mChangedCount);
+    }
+
+    @Test
+    public void testGetNearestExistingDirectoryPath() {
+        Assert.assertEquals(mHomeDir.getPath(), TermuxSharedProperties.getNearestExistingDirectoryPath(mHomeDir.getPath()));
+        Assert.assertEquals(mHomeDir.getPath(), TermuxSharedProperties.getNearestExistingDirectoryPath(
+            new File(mHomeDir, ".config/termux").getPath()));
+    }
+
+}
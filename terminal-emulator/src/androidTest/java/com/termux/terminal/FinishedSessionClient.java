@@ -0,0 +1,87 @@
+package com.termux.terminal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.CountDownLatch;
+
+/** A {@link TerminalSessionClient} that ignores all callbacks except counting down a latch when the session finishes. */
+class FinishedSessionClient implements TerminalSessionClient {
+
+    private final CountDownLatch mFinished;
+
+    FinishedSessionClient(@NonNull CountDownLatch finished) {
+        mFinished = finished;
+    }
+
+    @Override
+    public void onSessionFinished(@NonNull TerminalSession finishedSession) {
+        mFinished.countDown();
+    }
+
+    @Override
+    public void onTextChanged(@NonNull TerminalSession changedSession) {
+    }
+
+    @Override
+    public void onTitleChanged(@NonNull TerminalSession changedSession) {
+    }
+
+    @Override
+    public void onCopyTextToClipboard(@NonNull TerminalSession session, String text) {
+    }
+
+    @Override
+    public void onPasteTextFromClipboard(@Nullable TerminalSession session) {
+    }
+
+    @Override
+    public void onBell(@NonNull TerminalSession session) {
+    }
+
+    @Override
+    public void onColorsChanged(@NonNull TerminalSession session) {
+    }
+
+    @Override
+    public void onTerminalCursorStateChange(boolean state) {
+    }
+
+    @Override
+    public void setTerminalShellPid(@NonNull TerminalSession session, int pid) {
+    }
+
+    @Override
+    public Integer getTerminalCursorStyle() {
+        return null;
+    }
+
+    @Override
+    public void logError(String tag, String message) {
+    }
+
+    @Override
+    public void logWarn(String tag, String message) {
+    }
+
+    @Override
+    public void logInfo(String tag, String message) {
+    }
+
+    @Override
+    public void logDebug(String tag, String message) {
+    }
+
+    @Override
+    public void logVerbose(String tag, String message) {
+    }
+
+    @Override
+    public void logStackTraceWithMessage(String tag, String message, Exception e) {
+    }
+
+    @Override
+    public void logStackTrace(String tag, Exception e) {
+    }
+
+}
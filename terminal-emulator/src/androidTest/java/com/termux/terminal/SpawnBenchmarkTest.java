@@ -0,0 +1,101 @@
+package com.termux.terminal;
+
+import android.app.Instrumentation;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of the process spawn latency of {@link TerminalSession} with and without the {@link TerminalSpawner}.
+ * The AppShell path is benchmarked by {@code com.termux.shared.shell.command.runner.app.AppShellSpawnBenchmarkTest},
+ * which logs with the same tag. The native fork() and vfork() spawns are compared on the host by
+ * {@code terminal-emulator/src/test/cpp/termux-spawn-benchmark.c}.
+ *
+ * The results are logged with the {@link #LOG_TAG} tag, run with:
+ * {@code ./gradlew :terminal-emulator:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.termux.terminal.SpawnBenchmarkTest}
+ */
+@RunWith(AndroidJUnit4.class)
+public class SpawnBenchmarkTest {
+
+    private static final String EXECUTABLE = "/system/bin/true";
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 50;
+
+    private static final String LOG_TAG = "SpawnBenchmark";
+
+    @Test
+    public void benchmarkTerminalSession() throws Exception {
+        runTerminalSessionBenchmark("TerminalSession");
+    }
+
+    @Test
+    public void benchmarkTerminalSessionWithSpawner() throws Exception {
+        assertTrue(TerminalSpawner.start(null));
+        try {
+            runTerminalSessionBenchmark("TerminalSession with spawner");
+        } finally {
+            TerminalSpawner.stop();
+        }
+    }
+
+    /**
+     * Start sessions running {@link #EXECUTABLE} and measure both the time the main thread spends in
+     * {@link TerminalSession#updateSize(int, int)}, which forks the process, and the time until the session
+     * has finished.
+     */
+    private static void runTerminalSessionBenchmark(String label) throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+
+        long[] spawnTimes = new long[ITERATIONS];
+        long[] exitTimes = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            final CountDownLatch finished = new CountDownLatch(1);
+            final TerminalSession[] session = new TerminalSession[1];
+            final long[] times = new long[2];
+
+            instrumentation.runOnMainSync(() -> {
+                session[0] = new TerminalSession(EXECUTABLE, "/", new String[]{"true"}, new String[0], null,
+                    new FinishedSessionClient(finished));
+                times[0] = System.nanoTime();
+                session[0].updateSize(80, 24);
+                times[1] = System.nanoTime();
+            });
+
+            assertTrue(label + " did not finish", finished.await(10, TimeUnit.SECONDS));
+            long finishTime = System.nanoTime();
+            assertEquals(0, session[0].getExitStatus());
+            if (i >= 0) {
+                spawnTimes[i] = times[1] - times[0];
+                exitTimes[i] = finishTime - times[0];
+            }
+        }
+
+        logResults(label, spawnTimes, exitTimes);
+    }
+
+    private static void logResults(String label, long[] spawnTimes, long[] exitTimes) {
+        StringBuilder result = new StringBuilder(label).append(" (").append(ITERATIONS).append(" iterations):");
+        if (spawnTimes != null) result.append("\n  spawn: ").append(getSummary(spawnTimes));
+        result.append("\n  spawn to exit: ").append(getSummary(exitTimes));
+        Log.i(LOG_TAG, result.toString());
+    }
+
+    private static String getSummary(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return String.format(Locale.US, "median %.3f ms, p90 %.3f ms, max %.3f ms",
+            sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 9 / 10] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.termux.terminal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link TerminalSpawner}, which is forked from the multithreaded app process and must
+ * still be able to fork and exec sessions, and of the fallback when it dies.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TerminalSpawnerTest {
+
+    private static final String SHELL = "/system/bin/sh";
+
+    @After
+    public void tearDown() {
+        TerminalSpawner.stop();
+    }
+
+    @Test
+    public void testSessionsAreSpawnedBySpawner() throws Exception {
+        assertTrue(TerminalSpawner.start(null));
+        int spawnerPid = TerminalSpawner.getProcessId();
+
+        // The exit code tells whether the session is a child of the spawner
+        TerminalSession session = runSession("exit $(( PPID == " + spawnerPid + " ? 3 : 4 ))");
+        assertEquals(3, session.getExitStatus());
+    }
+
+    @Test
+    public void testForkWhileOtherThreadsRun() throws Exception {
+        // Fork the spawner and sessions while other threads allocate and hold locks, like the
+        // ART heap and runtime threads do, which the forked spawner must not depend on
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+        final Object lock = new Object();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                List<byte[]> allocations = new ArrayList<>();
+                while (running.get()) {
+                    synchronized (lock) {
+                        allocations.add(new byte[16 * 1024]);
+                        if (allocations.size() > 256) allocations.clear();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        try {
+            assertTrue(TerminalSpawner.start(null));
+            int spawnerPid = TerminalSpawner.getProcessId();
+            for (int i = 0; i < 20; i++) {
+                TerminalSession session = runSession("exit $(( PPID == " + spawnerPid + " ? 3 : 4 ))");
+                assertEquals(3, session.getExitStatus());
+            }
+        } finally {
+            running.set(false);
+            for (Thread thread : threads)
+                thread.join();
+        }
+    }
+
+    @Test
+    public void testSpawnerDied() throws Exception {
+        assertTrue(TerminalSpawner.start(null));
+        int spawnerPid = TerminalSpawner.getProcessId();
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        TerminalSession session = startSession("/system/bin/sleep 30", finished);
+        android.os.Process.sendSignal(spawnerPid, android.os.Process.SIGNAL_KILL);
+
+        assertTrue("Session did not finish", finished.await(10, TimeUnit.SECONDS));
+        assertEquals(TerminalSession.EXIT_STATUS_SPAWNER_DIED, session.getExitStatus());
+
+        // Later sessions must be created directly by the app process
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (TerminalSpawner.isRunning() && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertFalse(TerminalSpawner.isRunning());
+        assertEquals(3, runSession("exit $(( PPID == " + android.os.Process.myPid() + " ? 3 : 4 ))").getExitStatus());
+    }
+
+    private static TerminalSession runSession(String script) throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        TerminalSession session = startSession(script, finished);
+        assertTrue("Session did not finish", finished.await(10, TimeUnit.SECONDS));
+        return session;
+    }
+
+    private static TerminalSession startSession(String script, final CountDownLatch finished) {
+        final TerminalSession[] session = new TerminalSession[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            session[0] = new TerminalSession(SHELL, "/", new String[]{"sh", "-c", script}, new String[0], null,
+                new FinishedSessionClient(finished));
+            session[0].updateSize(80, 24);
+        });
+        return session[0];
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * A bounded queue of byte chunks allowing one producer and one consumer thread, where the producer never blocks.
+ * <p/>
+ * Writes are appended to the last chunk and spill over into new chunks, and large writes are split into chunks of
+ * up to {@link #MAX_CHUNK_SIZE}. The consumer takes several chunks at once with {@link #takeBatch(int, long)} so they
+ * can be flushed with a single gathering write, and gives them back with {@link #release(ByteBuffer[])} once
+ * written, so that chunks of the default size are reused instead of allocating one for every key press. Bytes which
+ * have been written but not released yet count towards the high water mark, above which {@link #isBackpressured()}
+ * returns true until the consumer has drained the queue to half of it, and towards the capacity, above which writes
+ * are rejected.
+ */
+final class BatchingByteQueue {
+
+    /** The largest chunk a single large write is split into. */
+    static final int MAX_CHUNK_SIZE = 64 * 1024;
+    /** The maximum number of released chunks kept for reuse. */
+    static final int MAX_FREE_CHUNKS = 4;
+
+    private final int mChunkSize;
+    private final long mHighWaterMark;
+    private final long mCapacity;
+
+    private final ArrayDeque<ByteBuffer> mChunks = new ArrayDeque<>();
+    /** Released chunks of {@link #mChunkSize} bytes to reuse. */
+    private final ArrayDeque<ByteBuffer> mFreeChunks = new ArrayDeque<>();
+    /** The last chunk in {@link #mChunks} if small writes may still be appended to it. */
+    private ByteBuffer mCurrentChunk;
+    /** The number of bytes stored in {@link #mChunks}. */
+    private long mStoredBytes;
+    /** The number of bytes taken by the consumer but not released yet. */
+    private long mTakenBytes;
+    private long mLastTakeTime;
+    private boolean mBackpressured;
+    private boolean mOpen = true;
+
+    /**
+     * @param chunkSize     The size of the chunks small writes are coalesced into, which is also the number of stored
+     *                      bytes at which {@link #takeBatch(int, long)} stops lingering.
+     * @param highWaterMark The number of pending bytes above which the queue is considered backpressured.
+     * @param capacity      The maximum number of pending bytes, above which writes are rejected.
+     */
+    public BatchingByteQueue(int chunkSize, long highWaterMark, long capacity) {
+        mChunkSize = chunkSize;
+        mHighWaterMark = highWaterMark;
+        mCapacity = capacity;
+    }
+
+    public synchronized void close() {
+        mOpen = false;
+        mChunks.clear();
+        mFreeChunks.clear();
+        mCurrentChunk = null;
+        notify();
+    }
+
+    /**
+     * Copy the specified portion of the provided buffer to the queue without blocking.
+     *
+     * @return false if the queue was closed or the write was rejected since it would exceed the capacity, true
+     * otherwise. Writes are never partially queued.
+     */
+    public synchronized boolean write(byte[] buffer, int offset, int lengthToWrite) {
+        if (lengthToWrite + offset > buffer.length) {
+            throw new IllegalArgumentException("length + offset > buffer.length");
+        } else if (lengthToWrite <= 0) {
+            throw new IllegalArgumentException("length <= 0");
+        }
+        if (!mOpen) return false;
+        if (mStoredBytes + mTakenBytes + lengthToWrite > mCapacity) return false;
+
+        final long storedBytesBefore = mStoredBytes;
+        mStoredBytes += lengthToWrite;
+
+        // Fill the last chunk first so that small writes do not each take a chunk of their own.
+        if (mCurrentChunk != null) {
+            int length = Math.min(lengthToWrite, mCurrentChunk.remaining());
+            mCurrentChunk.put(buffer, offset, length);
+            offset += length;
+            lengthToWrite -= length;
+        }
+        while (lengthToWrite > 0) {
+            int chunkLength = Math.min(lengthToWrite, MAX_CHUNK_SIZE);
+            ByteBuffer chunk = chunkLength <= mChunkSize ? newChunk() : ByteBuffer.allocate(chunkLength);
+            chunk.put(buffer, offset, chunkLength);
+            mChunks.addLast(chunk);
+            offset += chunkLength;
+            lengthToWrite -= chunkLength;
+        }
+        ByteBuffer lastChunk = mChunks.peekLast();
+        mCurrentChunk = lastChunk != null && lastChunk.hasRemaining() ? lastChunk : null;
+
+        if (mStoredBytes + mTakenBytes > mHighWaterMark) mBackpressured = true;
+        // Wake the consumer if it is waiting for data or lingering for a full batch.
+        if (storedBytesBefore == 0 || (storedBytesBefore < mChunkSize && mStoredBytes >= mChunkSize)) notify();
+        return true;
+    }
+
+    private ByteBuffer newChunk() {
+        ByteBuffer chunk = mFreeChunks.pollFirst();
+        return chunk != null ? chunk : ByteBuffer.allocate(mChunkSize);
+    }
+
+    /**
+     * Block until data is available and take up to maxBytes of it, but at least one chunk, as buffers ready to be
+     * written with a gathering write.
+     * <p/>
+     * If the previous batch was taken less than lingerNanos ago input is arriving in a burst, so up to lingerNanos is
+     * spent waiting for {@code chunkSize} bytes to accumulate before taking the batch. Isolated writes like single
+     * key presses are taken immediately.
+     *
+     * @return the batch, or null if the queue was closed.
+     */
+    public synchronized ByteBuffer[] takeBatch(int maxBytes, long lingerNanos) {
+        while (mStoredBytes == 0 && mOpen) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // Ignore.
+            }
+        }
+
+        long now = System.nanoTime();
+        if (mOpen && mStoredBytes < mChunkSize && now - mLastTakeTime < lingerNanos) {
+            final long deadline = now + lingerNanos;
+            long remaining;
+            while (mOpen && mStoredBytes < mChunkSize && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    wait(remaining / 1000000, (int) (remaining % 1000000));
+                } catch (InterruptedException e) {
+                    // Ignore.
+                }
+            }
+        }
+        if (!mOpen) return null;
+
+        ArrayList<ByteBuffer> batch = new ArrayList<>();
+        long batchBytes = 0;
+        while (!mChunks.isEmpty() && (batch.isEmpty() || batchBytes + mChunks.peekFirst().position() <= maxBytes)) {
+            ByteBuffer chunk = mChunks.pollFirst();
+            if (chunk == mCurrentChunk) mCurrentChunk = null;
+            chunk.flip();
+            batch.add(chunk);
+            batchBytes += chunk.remaining();
+        }
+        mStoredBytes -= batchBytes;
+        mTakenBytes += batchBytes;
+        mLastTakeTime = System.nanoTime();
+        return batch.toArray(new ByteBuffer[0]);
+    }
+
+    /**
+     * Report that the consumer has finished writing a batch it has taken with {@link #takeBatch(int, long)}. The
+     * chunks of the batch must not be used anymore, since they are reused for later writes.
+     */
+    public synchronized void release(ByteBuffer[] batch) {
+        for (ByteBuffer chunk : batch) {
+            mTakenBytes -= chunk.limit();
+            if (chunk.capacity() == mChunkSize && mFreeChunks.size() < MAX_FREE_CHUNKS) {
+                chunk.clear();
+                mFreeChunks.addLast(chunk);
+            }
+        }
+        if (mBackpressured && mStoredBytes + mTakenBytes <= mHighWaterMark / 2) mBackpressured = false;
+    }
+
+    /** Whether more than the high water mark of bytes were pending and have not been drained to half of it yet. */
+    public synchronized boolean isBackpressured() {
+        return mBackpressured;
+    }
+
+    /** The number of bytes stored or taken but not released yet. */
+    public synchronized long getPendingBytes() {
+        return mStoredBytes + mTakenBytes;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A circular direct byte buffer allowing one producer and one consumer thread, where both sides operate in place on
+ * the backing {@link ByteBuffer} instead of copying into and out of it like {@link ByteQueue} does.
+ * <p/>
+ * The producer asks for a contiguous free run with {@link #awaitWritableRun()}, fills it starting at
+ * {@link #getTail()} and publishes it with {@link #commitWrite(int)}. The consumer asks for a contiguous stored run
+ * with {@link #getReadableRun()}, processes it starting at {@link #getHead()} and releases it with
+ * {@link #commitRead(int)}. Since the producer only touches free space and the consumer only touches stored data,
+ * neither holds the lock while accessing the buffer.
+ */
+final class DirectByteQueue {
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private int mHead;
+    private int mStoredBytes;
+    private boolean mOpen = true;
+
+    public DirectByteQueue(int size) {
+        mBuffer = ByteBuffer.allocateDirect(size);
+        mCapacity = size;
+    }
+
+    /** The backing direct buffer. Only access the region returned by a run method, using absolute positions. */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public synchronized void close() {
+        mOpen = false;
+        notify();
+    }
+
+    /**
+     * Block until there is free space in the queue.
+     *
+     * @return the length of the contiguous free region starting at {@link #getTail()}, or -1 if the queue was closed.
+     */
+    public synchronized int awaitWritableRun() {
+        while (mStoredBytes == mCapacity && mOpen) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // Ignore.
+            }
+        }
+        if (!mOpen) return -1;
+
+        int tail = mHead + mStoredBytes;
+        if (tail >= mCapacity) {
+            // Buffer: [....T______H....]
+            return mHead - (tail - mCapacity);
+        } else {
+            // Buffer: [____H....T______]
+            return mCapacity - tail;
+        }
+    }
+
+    /** The position in {@link #getBuffer()} at which the producer should write. */
+    public synchronized int getTail() {
+        int tail = mHead + mStoredBytes;
+        return tail >= mCapacity ? tail - mCapacity : tail;
+    }
+
+    /** Publish count bytes written by the producer at {@link #getTail()}. */
+    public synchronized void commitWrite(int count) {
+        if (count <= 0) return;
+        boolean wasEmpty = mStoredBytes == 0;
+        mStoredBytes += count;
+        if (wasEmpty) notify();
+    }
+
+    /**
+     * Get the stored data available to the consumer without blocking.
+     *
+     * @return the length of the contiguous stored region starting at {@link #getHead()}, 0 if the queue is empty or
+     * -1 if the queue was closed.
+     */
+    public synchronized int getReadableRun() {
+        if (!mOpen) return -1;
+        return Math.min(mCapacity - mHead, mStoredBytes);
+    }
+
+    /** The position in {@link #getBuffer()} at which the consumer should read. */
+    public synchronized int getHead() {
+        return mHead;
+    }
+
+    /** The number of bytes currently stored in the queue. */
+    public synchronized int getStoredBytes() {
+        return mStoredBytes;
+    }
+
+    /** Release count bytes processed by the consumer at {@link #getHead()}. */
+    public synchronized void commitRead(int count) {
+        if (count <= 0) return;
+        boolean wasFull = mStoredBytes == mCapacity;
+        mHead += count;
+        if (mHead >= mCapacity) mHead -= mCapacity;
+        mStoredBytes -= count;
+        if (wasFull) notify();
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.nio.ByteBuffer;
+
 /**
  * Native methods for creating and managing pseudoterminal subprocesses. C code is in jni/termux.c.
  */
@@ -25,6 +27,32 @@ final class JNI {
      */
     public static native int createSubprocess(String cmd, String cwd, String[] args, String[] envVars, int[] processId, int rows, int columns);
 
+    /**
+     * Start the session spawner process, which is forked from the app process once and then forks the processes
+     * created with {@link #createSubprocessWithSpawner(int, String, String, String[], String[], int[], int, int, int)}.
+     * The spawner exits once the returned file descriptor has been closed and all processes it spawned have exited.
+     *
+     * @param processId A one-element array to which the process ID of the spawner will be written.
+     * @return the file descriptor of the control socket of the spawner.
+     */
+    public static native int startSpawner(int[] processId);
+
+    /**
+     * Create a subprocess like {@link #createSubprocess(String, String, String[], String[], int[], int, int)}, but
+     * forked by the spawner started with {@link #startSpawner(int[])} instead of by the app process.
+     * <p/>
+     * Since the subprocess is not a child of the app process, {@link #waitFor(int)} cannot be used for it. Callers
+     * must call {@link #waitForSpawned(int)} on the returned status file descriptor instead, which also closes it.
+     *
+     * @param spawnerFd              The file descriptor returned by {@link #startSpawner(int[])}.
+     * @param processIdAndStatusFd   A two-element array to which the process ID of the started process and the
+     *                               status file descriptor will be written.
+     * @param timeoutMillis          The maximum time to wait for sending the request to the spawner and receiving its
+     *                               reply, after which a {@link RuntimeException} is thrown.
+     * @return the file descriptor of the pty master, like {@link #createSubprocess(String, String, String[], String[], int[], int, int)}.
+     */
+    public static native int createSubprocessWithSpawner(int spawnerFd, String cmd, String cwd, String[] args, String[] envVars, int[] processIdAndStatusFd, int rows, int columns, int timeoutMillis);
+
     /** Set the window size for a given pty, which allows connected programs to learn how large their screen is. */
     public static native void setPtyWindowSize(int fd, int rows, int cols);
 
@@ -35,6 +63,28 @@ final class JNI {
      */
     public static native int waitFor(int processId);
 
+    /**
+     * Causes the calling thread to wait for a process started with
+     * {@link #createSubprocessWithSpawner(int, String, String, String[], String[], int[], int, int, int)} to finish
+     * executing, and closes its status file descriptor.
+     *
+     * @return the same as {@link #waitFor(int)}, or {@link TerminalSession#EXIT_STATUS_SPAWNER_DIED} if the spawner died before the
+     * process exited so that its exit status is unknown.
+     */
+    public static native int waitForSpawned(int statusFd);
+
+    /**
+     * Read from a file descriptor through the read(2) system call directly into a direct {@link ByteBuffer},
+     * retrying if interrupted by a signal. The position and limit of the buffer are not used or changed.
+     *
+     * @param fileDescriptor The file descriptor to read from.
+     * @param buffer         The direct buffer to read into.
+     * @param offset         The absolute index in the buffer at which to store the first byte read.
+     * @param length         The maximum number of bytes to read.
+     * @return the number of bytes read, or -1 on end of file or error.
+     */
+    public static native int read(int fileDescriptor, ByteBuffer buffer, int offset, int length);
+
     /** Close a file descriptor through the close(2) system call. */
     public static native void close(int fileDescriptor);
 
@@ -2,6 +2,7 @@ package com.termux.terminal;
 
 import android.util.Base64;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Locale;
@@ -487,6 +488,20 @@ public final class TerminalEmulator {
             processByte(buffer[i]);
     }
 
+    /**
+     * Accept bytes (typically from the pseudo-teletype) and process them in place without copying them to an array
+     * first. The position and limit of the buffer are not used or changed.
+     *
+     * @param buffer a byte buffer, typically direct, containing the bytes to be processed
+     * @param offset the absolute index in the buffer of the first byte to process
+     * @param length the number of bytes in the buffer to process
+     */
+    public void append(ByteBuffer buffer, int offset, int length) {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++)
+            processByte(buffer.get(i));
+    }
+
     private void processByte(byte byteToProcess) {
         if (mUtf8ToFollow > 0) {
             if ((byteToProcess & 0b11000000) == 0b10000000) {
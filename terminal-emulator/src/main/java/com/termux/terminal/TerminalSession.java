@@ -9,13 +9,14 @@ import android.system.OsConstants;
 
 import java.io.File;
 import java.io.FileDescriptor;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A terminal session, consisting of a process coupled to a terminal interface.
@@ -32,6 +33,27 @@ public final class TerminalSession extends TerminalOutput {
 
     private static final int MSG_NEW_INPUT = 1;
     private static final int MSG_PROCESS_EXITED = 4;
+    private static final int MSG_UPDATE_METRICS = 5;
+
+    /** The number of bytes of input coalesced into a single chunk, and at which input bursts are flushed. */
+    private static final int INPUT_BATCH_SIZE = 4096;
+    /** The maximum number of bytes of input flushed with a single gathering write. */
+    private static final int INPUT_MAX_BATCH_BYTES = 256 * 1024;
+    /** How long to wait for more input to coalesce once input arrives in a burst. */
+    private static final long INPUT_BATCH_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    /** The number of bytes of pending input above which the session reports {@link #isInputBackpressured()}. */
+    private static final long INPUT_HIGH_WATER_MARK = 1024 * 1024;
+    /**
+     * The maximum number of bytes of pending input, above which input is dropped instead of queued and the
+     * {@link TerminalSessionClient#onInputDropped(TerminalSession, int)} is notified.
+     */
+    private static final long INPUT_CAPACITY = 16 * INPUT_HIGH_WATER_MARK;
+
+    /**
+     * The {@link #getExitStatus()} of a session whose process was created by the {@link TerminalSpawner} that died
+     * before the process exited, so that the actual exit status is unknown.
+     */
+    public static final int EXIT_STATUS_SPAWNER_DIED = Integer.MIN_VALUE;
 
     public final String mHandle = UUID.randomUUID().toString();
 
@@ -39,17 +61,34 @@ public final class TerminalSession extends TerminalOutput {
 
     /**
      * A queue written to from a separate thread when the process outputs, and read by main thread to process by
-     * terminal emulator.
+     * terminal emulator. The reader thread reads from the {@link #mTerminalFileDescriptor} directly into it and the
+     * emulator parses directly from it, so process output is not copied on its way to the emulator.
      */
-    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(4096);
+    final DirectByteQueue mProcessToTerminalIOQueue = new DirectByteQueue(4096);
     /**
      * A queue written to from the main thread due to user interaction, and read by another thread which forwards by
-     * writing to the {@link #mTerminalFileDescriptor}.
+     * writing to the {@link #mTerminalFileDescriptor}. Writing to it never blocks, so pasting a large amount of text
+     * while the process is not reading its input will not block the main thread, see {@link #isInputBackpressured()}.
+     * Input beyond {@link #INPUT_CAPACITY} is dropped so that it cannot grow without bounds, and the client is
+     * notified so that the user knows the input did not reach the process.
+     */
+    final BatchingByteQueue mTerminalToProcessIOQueue = new BatchingByteQueue(INPUT_BATCH_SIZE, INPUT_HIGH_WATER_MARK, INPUT_CAPACITY);
+    /**
+     * Whether input has been dropped since the last write that was queued, so that the client is only notified once
+     * for every run of dropped writes, like the lines of a large paste.
+     */
+    private boolean mInputDropped;
+    /**
+     * Whether the emulator is parsing process output on the main thread, during which input written are responses of
+     * the emulator, like cursor position reports, which are not counted as input for the echo latency.
      */
-    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(4096);
+    private boolean mAppendingProcessOutput;
     /** Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue */
     private final byte[] mUtf8InputBuffer = new byte[5];
 
+    /** The I/O throughput and latency counters of the session. */
+    final TerminalSessionMetrics mMetrics = new TerminalSessionMetrics();
+
     /** Callback which gets notified when a session finishes or changes title. */
     TerminalSessionClient mClient;
 
@@ -61,7 +100,8 @@ public final class TerminalSession extends TerminalOutput {
 
     /**
      * The file descriptor referencing the master half of a pseudo-terminal pair, resulting from calling
-     * {@link JNI#createSubprocess(String, String, String[], String[], int[], int, int)}.
+     * {@link JNI#createSubprocess(String, String, String[], String[], int[], int, int)} or through the
+     * {@link TerminalSpawner}.
      */
     private int mTerminalFileDescriptor;
 
@@ -123,22 +163,34 @@ public final class TerminalSession extends TerminalOutput {
     public void initializeEmulator(int columns, int rows) {
         mEmulator = new TerminalEmulator(this, columns, rows, mTranscriptRows, mClient);
 
-        int[] processId = new int[1];
-        mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns);
+        int[] processId = new int[2];
+        mTerminalFileDescriptor = TerminalSpawner.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns, mClient);
+        // The status file descriptor to wait on if the process was created by the spawner, otherwise -1.
+        final int spawnerStatusFd;
+        if (mTerminalFileDescriptor != -1) {
+            spawnerStatusFd = processId[1];
+        } else {
+            mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns);
+            spawnerStatusFd = -1;
+        }
         mShellPid = processId[0];
         mClient.setTerminalShellPid(this, mShellPid);
 
         final FileDescriptor terminalFileDescriptorWrapped = wrapFileDescriptor(mTerminalFileDescriptor, mClient);
 
+        final int terminalFileDescriptor = mTerminalFileDescriptor;
         new Thread("TermSessionInputReader[pid=" + mShellPid + "]") {
             @Override
             public void run() {
-                try (InputStream termIn = new FileInputStream(terminalFileDescriptorWrapped)) {
-                    final byte[] buffer = new byte[4096];
+                final ByteBuffer buffer = mProcessToTerminalIOQueue.getBuffer();
+                try {
                     while (true) {
-                        int read = termIn.read(buffer);
+                        int writable = mProcessToTerminalIOQueue.awaitWritableRun();
+                        if (writable == -1) return;
+                        int read = JNI.read(terminalFileDescriptor, buffer, mProcessToTerminalIOQueue.getTail(), writable);
                         if (read == -1) return;
-                        if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
+                        mMetrics.onProcessOutputRead(read);
+                        mProcessToTerminalIOQueue.commitWrite(read);
                         mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
                     }
                 } catch (Exception e) {
@@ -150,12 +202,19 @@ public final class TerminalSession extends TerminalOutput {
         new Thread("TermSessionOutputWriter[pid=" + mShellPid + "]") {
             @Override
             public void run() {
-                final byte[] buffer = new byte[4096];
-                try (FileOutputStream termOut = new FileOutputStream(terminalFileDescriptorWrapped)) {
+                try (FileOutputStream termOut = new FileOutputStream(terminalFileDescriptorWrapped);
+                     FileChannel termOutChannel = termOut.getChannel()) {
                     while (true) {
-                        int bytesToWrite = mTerminalToProcessIOQueue.read(buffer, true);
-                        if (bytesToWrite == -1) return;
-                        termOut.write(buffer, 0, bytesToWrite);
+                        ByteBuffer[] batch = mTerminalToProcessIOQueue.takeBatch(INPUT_MAX_BATCH_BYTES, INPUT_BATCH_LINGER_NANOS);
+                        if (batch == null) return;
+                        long bytesToWrite = 0;
+                        for (ByteBuffer chunk : batch) bytesToWrite += chunk.remaining();
+                        // Flush the whole batch with writev(2), which may need to be repeated if the pty buffer fills up.
+                        long bytesWritten = 0;
+                        while (bytesWritten < bytesToWrite)
+                            bytesWritten += termOutChannel.write(batch);
+                        mTerminalToProcessIOQueue.release(batch);
+                        mMetrics.onProcessInputWritten(bytesToWrite);
                     }
                 } catch (IOException e) {
                     // Ignore.
@@ -166,7 +225,7 @@ public final class TerminalSession extends TerminalOutput {
         new Thread("TermSessionWaiter[pid=" + mShellPid + "]") {
             @Override
             public void run() {
-                int processExitCode = JNI.waitFor(mShellPid);
+                int processExitCode = spawnerStatusFd != -1 ? JNI.waitForSpawned(spawnerStatusFd) : JNI.waitFor(mShellPid);
                 mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
             }
         }.start();
@@ -176,7 +235,28 @@ public final class TerminalSession extends TerminalOutput {
     /** Write data to the shell process. */
     @Override
     public void write(byte[] data, int offset, int count) {
-        if (mShellPid > 0) mTerminalToProcessIOQueue.write(data, offset, count);
+        if (mShellPid <= 0) return;
+        if (mTerminalToProcessIOQueue.write(data, offset, count)) {
+            mInputDropped = false;
+            if (!mAppendingProcessOutput) mMetrics.onKeystroke();
+        } else if (isRunning()) {
+            Logger.logWarn(mClient, LOG_TAG, "Dropped " + count + " bytes of input since " +
+                mTerminalToProcessIOQueue.getPendingBytes() + " bytes are still waiting for the process to read them");
+            if (!mInputDropped) {
+                mInputDropped = true;
+                mClient.onInputDropped(this, count);
+            }
+        }
+    }
+
+    /**
+     * Whether a large amount of input written with {@link #write(byte[], int, int)} is still waiting for the process
+     * to read it. Writing never blocks, so callers like paste actions can use this to avoid queueing up even more
+     * input while the process is not reading, since input is dropped once the queue is full, see
+     * {@link TerminalSessionClient#onInputDropped(TerminalSession, int)}.
+     */
+    public boolean isInputBackpressured() {
+        return mTerminalToProcessIOQueue.isBackpressured();
     }
 
     /** Write the Unicode code point to the terminal encoded in UTF-8. */
@@ -220,6 +300,27 @@ public final class TerminalSession extends TerminalOutput {
         return mEmulator;
     }
 
+    /** Get the I/O throughput and latency counters of the session. */
+    public TerminalSessionMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Update the per second rates of {@link #mMetrics} and notify the {@link #mClient} if they were updated, which
+     * happens at most every {@link TerminalSessionMetrics#RATE_INTERVAL_MILLIS}. Must be called on the main thread.
+     * <p/>
+     * While any rate is not zero, another update is scheduled after the interval, so that the rates decay to zero
+     * once the process stops doing I/O instead of reporting the last non-zero rates until the next output.
+     */
+    public void updateMetrics() {
+        if (!mMetrics.updateRates()) return;
+        mClient.onSessionMetricsUpdated(this, mMetrics);
+
+        mMainThreadHandler.removeMessages(MSG_UPDATE_METRICS);
+        if (mMetrics.hasNonZeroRates() && isRunning())
+            mMainThreadHandler.sendEmptyMessageDelayed(MSG_UPDATE_METRICS, TerminalSessionMetrics.RATE_INTERVAL_MILLIS);
+    }
+
     /** Notify the {@link #mClient} that the screen has changed. */
     protected void notifyScreenUpdate() {
         mClient.onTextChanged(this);
@@ -249,6 +350,8 @@ public final class TerminalSession extends TerminalOutput {
             mShellExitStatus = exitStatus;
         }
 
+        mMainThreadHandler.removeMessages(MSG_UPDATE_METRICS);
+
         // Stop the reader and writer threads, and close the I/O streams
         mTerminalToProcessIOQueue.close();
         mProcessToTerminalIOQueue.close();
@@ -336,22 +439,25 @@ public final class TerminalSession extends TerminalOutput {
     @SuppressLint("HandlerLeak")
     class MainThreadHandler extends Handler {
 
-        final byte[] mReceiveBuffer = new byte[4 * 1024];
-
         @Override
         public void handleMessage(Message msg) {
-            int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-            if (bytesRead > 0) {
-                mEmulator.append(mReceiveBuffer, bytesRead);
+            if (appendProcessOutput() > 0) {
                 notifyScreenUpdate();
+                updateMetrics();
+            } else if (msg.what == MSG_UPDATE_METRICS) {
+                updateMetrics();
             }
 
             if (msg.what == MSG_PROCESS_EXITED) {
                 int exitCode = (Integer) msg.obj;
+                if (exitCode == EXIT_STATUS_SPAWNER_DIED)
+                    Logger.logWarn(mClient, LOG_TAG, "The spawner of the process with pid " + mShellPid + " died before it exited");
                 cleanupResources(exitCode);
 
                 String exitDescription = "\r\n[Process completed";
-                if (exitCode > 0) {
+                if (exitCode == EXIT_STATUS_SPAWNER_DIED) {
+                    exitDescription = "\r\n[Process status unknown since the session spawner died";
+                } else if (exitCode > 0) {
                     // Non-zero process exit.
                     exitDescription += " (code " + exitCode + ")";
                 } else if (exitCode < 0) {
@@ -368,6 +474,35 @@ public final class TerminalSession extends TerminalOutput {
             }
         }
 
+        /**
+         * Let the emulator parse the process output currently stored in {@link #mProcessToTerminalIOQueue} in place.
+         * Data stored while parsing is left for the {@link #MSG_NEW_INPUT} message sent along with it.
+         *
+         * @return the number of bytes processed.
+         */
+        private int appendProcessOutput() {
+            final ByteBuffer buffer = mProcessToTerminalIOQueue.getBuffer();
+            int bytesToProcess = mProcessToTerminalIOQueue.getStoredBytes();
+            if (bytesToProcess <= 0) return 0;
+            final long startTime = System.nanoTime();
+            int bytesProcessed = 0;
+            mAppendingProcessOutput = true;
+            try {
+                while (bytesProcessed < bytesToProcess) {
+                    // The stored data may wrap around the end of the buffer, so it is processed in up to two runs.
+                    int run = Math.min(mProcessToTerminalIOQueue.getReadableRun(), bytesToProcess - bytesProcessed);
+                    if (run <= 0) break;
+                    mEmulator.append(buffer, mProcessToTerminalIOQueue.getHead(), run);
+                    mProcessToTerminalIOQueue.commitRead(run);
+                    bytesProcessed += run;
+                }
+            } finally {
+                mAppendingProcessOutput = false;
+            }
+            mMetrics.onProcessOutputParsed(bytesToProcess, buffer.capacity(), startTime);
+            return bytesProcessed;
+        }
+
     }
 
 }
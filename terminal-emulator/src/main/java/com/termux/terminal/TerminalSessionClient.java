@@ -28,6 +28,24 @@ public interface TerminalSessionClient {
 
     void setTerminalShellPid(@NonNull TerminalSession session, int pid);
 
+    /**
+     * Called with the updated {@link TerminalSession#getMetrics()} of the session. This is a no-op by
+     * default so that existing clients do not need to implement it.
+     */
+    default void onSessionMetricsUpdated(@NonNull TerminalSession session, @NonNull TerminalSessionMetrics metrics) {
+    }
+
+    /**
+     * Called on the thread that wrote to the session when input written with {@link TerminalSession#write(byte[],
+     * int, int)} was dropped since too much earlier input is still waiting for the process to read it. It is only
+     * called for the first dropped write until a write is queued again. This is a no-op by default so that existing
+     * clients do not need to implement it.
+     *
+     * @param droppedBytes The number of bytes of the first dropped write.
+     */
+    default void onInputDropped(@NonNull TerminalSession session, int droppedBytes) {
+    }
+
 
 
     Integer getTerminalCursorStyle();
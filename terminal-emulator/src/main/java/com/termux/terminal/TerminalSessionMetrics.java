@@ -0,0 +1,266 @@
+package com.termux.terminal;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Low overhead I/O throughput and latency counters of a {@link TerminalSession}.
+ * <p>
+ * Each counter is only updated from a single thread, the session reader thread, the session writer thread or the
+ * main thread, so they are kept in plain volatile fields instead of atomics. The per second rates are computed on the
+ * main thread by {@link #updateRates()}, which the session calls at most every {@link #RATE_INTERVAL_MILLIS} while
+ * the process is producing output, and once more every interval until the rates have decayed to zero, before
+ * notifying {@link TerminalSessionClient#onSessionMetricsUpdated(TerminalSession, TerminalSessionMetrics)}.
+ */
+public final class TerminalSessionMetrics {
+
+    /** The minimum interval between {@link #updateRates()} calls by the session. */
+    public static final long RATE_INTERVAL_MILLIS = 1000;
+
+    private static final long NANOS_PER_MILLI = 1000000;
+    private static final long NANOS_PER_SECOND = 1000000000;
+
+    private final long mStartTime = System.nanoTime();
+
+    /* Session reader thread */
+    private volatile long mBytesRead;
+    private volatile long mReadCount;
+
+    /* Session writer thread */
+    private volatile long mBytesWritten;
+    private volatile long mWriteCount;
+
+    /* Main thread */
+    private volatile long mAppendCount;
+    private volatile long mAppendTimeNanos;
+    private volatile long mMaxAppendTimeNanos;
+    private volatile long mQueuedBytesSum;
+    private volatile long mMaxQueuedBytes;
+    private volatile int mQueueCapacity;
+
+    private volatile long mFrameCount;
+    private volatile long mFrameTimeNanos;
+    private volatile long mMaxFrameTimeNanos;
+
+    /** The time the oldest input which has not been followed by process output yet was written, or 0. */
+    private long mPendingKeystrokeTime;
+    private volatile long mEchoCount;
+    private volatile long mEchoLatencyNanos;
+    private volatile long mMaxEchoLatencyNanos;
+    private volatile long mLastEchoLatencyNanos;
+
+    private long mLastRateUpdateTime = mStartTime;
+    private long mLastRateBytesRead, mLastRateReadCount, mLastRateBytesWritten;
+    private volatile float mBytesReadPerSecond, mReadsPerSecond, mBytesWrittenPerSecond;
+
+
+
+    /** Called on the reader thread after process output has been read. */
+    void onProcessOutputRead(int bytes) {
+        mBytesRead += bytes;
+        mReadCount++;
+    }
+
+    /** Called on the writer thread after input has been written to the process. */
+    void onProcessInputWritten(long bytes) {
+        mBytesWritten += bytes;
+        mWriteCount++;
+    }
+
+    /**
+     * Called on the main thread after input has been queued for the process, like a key press from the
+     * {@link KeyHandler}, a code point or text from the keyboard.
+     */
+    void onKeystroke() {
+        if (mPendingKeystrokeTime == 0)
+            mPendingKeystrokeTime = System.nanoTime();
+    }
+
+    /**
+     * Called on the main thread after process output has been parsed by the emulator.
+     *
+     * @param queuedBytes   The bytes that were stored in the process to terminal queue before parsing.
+     * @param queueCapacity The capacity of the process to terminal queue.
+     * @param startTime     The {@link System#nanoTime()} before parsing started.
+     */
+    void onProcessOutputParsed(int queuedBytes, int queueCapacity, long startTime) {
+        long now = System.nanoTime();
+        long appendTime = now - startTime;
+        mAppendCount++;
+        mAppendTimeNanos += appendTime;
+        if (appendTime > mMaxAppendTimeNanos) mMaxAppendTimeNanos = appendTime;
+        mQueuedBytesSum += queuedBytes;
+        if (queuedBytes > mMaxQueuedBytes) mMaxQueuedBytes = queuedBytes;
+        mQueueCapacity = queueCapacity;
+
+        if (mPendingKeystrokeTime != 0) {
+            // Output after input is assumed to be its echo, which is what matters for perceived latency.
+            long echoLatency = startTime - mPendingKeystrokeTime;
+            mPendingKeystrokeTime = 0;
+            mEchoCount++;
+            mEchoLatencyNanos += echoLatency;
+            mLastEchoLatencyNanos = echoLatency;
+            if (echoLatency > mMaxEchoLatencyNanos) mMaxEchoLatencyNanos = echoLatency;
+        }
+    }
+
+    /**
+     * Called on the main thread by the view after it has rendered a frame of the session.
+     *
+     * @param frameTimeNanos The time taken to render the frame.
+     */
+    public void onFrameRendered(long frameTimeNanos) {
+        mFrameCount++;
+        mFrameTimeNanos += frameTimeNanos;
+        if (frameTimeNanos > mMaxFrameTimeNanos) mMaxFrameTimeNanos = frameTimeNanos;
+    }
+
+    /**
+     * Update the per second rates from the counter changes since the last call. Must be called on the main thread.
+     *
+     * @return Returns {@code true} if the rates were updated, {@code false} if called again within
+     * {@link #RATE_INTERVAL_MILLIS}.
+     */
+    public boolean updateRates() {
+        long now = System.nanoTime();
+        long elapsed = now - mLastRateUpdateTime;
+        if (elapsed < RATE_INTERVAL_MILLIS * NANOS_PER_MILLI) return false;
+
+        long bytesRead = mBytesRead, readCount = mReadCount, bytesWritten = mBytesWritten;
+        float seconds = (float) elapsed / NANOS_PER_SECOND;
+        mBytesReadPerSecond = (bytesRead - mLastRateBytesRead) / seconds;
+        mReadsPerSecond = (readCount - mLastRateReadCount) / seconds;
+        mBytesWrittenPerSecond = (bytesWritten - mLastRateBytesWritten) / seconds;
+        mLastRateBytesRead = bytesRead;
+        mLastRateReadCount = readCount;
+        mLastRateBytesWritten = bytesWritten;
+        mLastRateUpdateTime = now;
+        return true;
+    }
+
+
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    public long getReadCount() {
+        return mReadCount;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    public long getWriteCount() {
+        return mWriteCount;
+    }
+
+    /** Whether any of the per second rates computed by the last {@link #updateRates()} call is not zero. */
+    public boolean hasNonZeroRates() {
+        return mBytesReadPerSecond != 0 || mReadsPerSecond != 0 || mBytesWrittenPerSecond != 0;
+    }
+
+    public float getBytesReadPerSecond() {
+        return mBytesReadPerSecond;
+    }
+
+    public float getReadsPerSecond() {
+        return mReadsPerSecond;
+    }
+
+    public float getBytesWrittenPerSecond() {
+        return mBytesWrittenPerSecond;
+    }
+
+    public long getAppendCount() {
+        return mAppendCount;
+    }
+
+    /** Get the average time in nanoseconds the emulator took to parse the output of a read. */
+    public long getAverageAppendTimeNanos() {
+        return average(mAppendTimeNanos, mAppendCount);
+    }
+
+    public long getMaxAppendTimeNanos() {
+        return mMaxAppendTimeNanos;
+    }
+
+    /** Get the average fill of the process to terminal queue in percent when its output was parsed. */
+    public float getAverageQueueOccupancy() {
+        return mAppendCount == 0 || mQueueCapacity == 0 ? 0 : 100f * mQueuedBytesSum / mAppendCount / mQueueCapacity;
+    }
+
+    /** Get the maximum fill of the process to terminal queue in percent when its output was parsed. */
+    public float getMaxQueueOccupancy() {
+        return mQueueCapacity == 0 ? 0 : 100f * mMaxQueuedBytes / mQueueCapacity;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getAverageFrameTimeNanos() {
+        return average(mFrameTimeNanos, mFrameCount);
+    }
+
+    public long getMaxFrameTimeNanos() {
+        return mMaxFrameTimeNanos;
+    }
+
+    public long getEchoCount() {
+        return mEchoCount;
+    }
+
+    public long getAverageEchoLatencyNanos() {
+        return average(mEchoLatencyNanos, mEchoCount);
+    }
+
+    public long getLastEchoLatencyNanos() {
+        return mLastEchoLatencyNanos;
+    }
+
+    public long getMaxEchoLatencyNanos() {
+        return mMaxEchoLatencyNanos;
+    }
+
+    /** Get the time in milliseconds since the session was created. */
+    public long getUptimeMillis() {
+        return (System.nanoTime() - mStartTime) / NANOS_PER_MILLI;
+    }
+
+    private static long average(long sum, long count) {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /** Convert nanoseconds to fractional milliseconds for display. */
+    public static float toMillis(long nanos) {
+        return (float) nanos / NANOS_PER_MILLI;
+    }
+
+
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+            "TerminalSessionMetrics {\n" +
+            "  uptime: %d ms\n" +
+            "  in: %d bytes in %d reads, %.0f B/s, %.1f reads/s\n" +
+            "  out: %d bytes in %d writes, %.0f B/s\n" +
+            "  queue occupancy: avg %.1f%%, max %.1f%%\n" +
+            "  parse: %d appends, avg %.3f ms, max %.3f ms\n" +
+            "  render: %d frames, avg %.3f ms, max %.3f ms\n" +
+            "  keystroke to echo: %d samples, last %.3f ms, avg %.3f ms, max %.3f ms\n" +
+            "}",
+            getUptimeMillis(),
+            mBytesRead, mReadCount, mBytesReadPerSecond, mReadsPerSecond,
+            mBytesWritten, mWriteCount, mBytesWrittenPerSecond,
+            getAverageQueueOccupancy(), getMaxQueueOccupancy(),
+            mAppendCount, toMillis(getAverageAppendTimeNanos()), toMillis(mMaxAppendTimeNanos),
+            mFrameCount, toMillis(getAverageFrameTimeNanos()), toMillis(mMaxFrameTimeNanos),
+            mEchoCount, toMillis(mLastEchoLatencyNanos), toMillis(getAverageEchoLatencyNanos()), toMillis(mMaxEchoLatencyNanos));
+    }
+
+}
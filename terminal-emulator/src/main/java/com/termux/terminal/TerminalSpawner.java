@@ -0,0 +1,113 @@
+package com.termux.terminal;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The session spawner mode, in which {@link TerminalSession} processes are forked by a small process that is forked
+ * once from the app process, instead of each one being forked from the app process itself. This avoids copying the
+ * page tables of the app heap and closing all its file descriptors for every new session. See
+ * {@link JNI#startSpawner(int[])} for details.
+ * <p>
+ * Sessions created while the spawner is not running, or for which spawning fails, are created directly by the app
+ * process as before.
+ */
+public final class TerminalSpawner {
+
+    /** The control socket of the running spawner, or -1 if not running. */
+    private static int sSpawnerFd = -1;
+    private static int sSpawnerPid = -1;
+
+    /**
+     * The maximum time to wait for the spawner to accept a request and reply to it. Sessions are usually created on the
+     * main thread while holding the class lock, so a spawner that is stuck must not block it for long. A working spawner
+     * replies within a few milliseconds, since it only has to fork a small process.
+     */
+    static final int SPAWN_TIMEOUT_MILLIS = 250;
+
+    private static final String LOG_TAG = "TerminalSpawner";
+
+    /**
+     * Start the spawner if it is not already running. Forking it costs as much as starting one session directly,
+     * so this should not be called on the main thread.
+     *
+     * @param client The {@link TerminalSessionClient} used for logging.
+     * @return Returns {@code true} if the spawner is running, otherwise {@code false}.
+     */
+    public static synchronized boolean start(@Nullable TerminalSessionClient client) {
+        if (sSpawnerFd != -1) return true;
+
+        final int[] processId = new int[1];
+        try {
+            sSpawnerFd = JNI.startSpawner(processId);
+        } catch (RuntimeException e) {
+            Logger.logStackTraceWithMessage(client, LOG_TAG, "Failed to start spawner", e);
+            return false;
+        }
+        sSpawnerPid = processId[0];
+        Logger.logDebug(client, LOG_TAG, "Started spawner with pid " + sSpawnerPid);
+
+        final int spawnerPid = sSpawnerPid;
+        new Thread("TermSpawnerWaiter[pid=" + spawnerPid + "]") {
+            @Override
+            public void run() {
+                int exitCode = JNI.waitFor(spawnerPid);
+                Logger.logDebug(client, LOG_TAG, "Spawner with pid " + spawnerPid + " exited with code " + exitCode);
+                synchronized (TerminalSpawner.class) {
+                    if (sSpawnerPid == spawnerPid) {
+                        // The spawner died while it was still in use, so stop using it.
+                        JNI.close(sSpawnerFd);
+                        sSpawnerFd = -1;
+                        sSpawnerPid = -1;
+                    }
+                }
+            }
+        }.start();
+
+        return true;
+    }
+
+    /**
+     * Stop the spawner. It will not spawn any more sessions, but will only exit once all the sessions it has spawned
+     * have exited, so that their exit status can still be reported.
+     */
+    public static synchronized void stop() {
+        if (sSpawnerFd == -1) return;
+        JNI.close(sSpawnerFd);
+        sSpawnerFd = -1;
+        sSpawnerPid = -1;
+    }
+
+    public static synchronized boolean isRunning() {
+        return sSpawnerFd != -1;
+    }
+
+    /** Get the process ID of the running spawner, or -1 if not running. */
+    public static synchronized int getProcessId() {
+        return sSpawnerPid;
+    }
+
+    /**
+     * Create a subprocess with the spawner if it is running.
+     *
+     * @param processIdAndStatusFd A two-element array to which the process ID of the started process and the file
+     *                             descriptor to pass to {@link JNI#waitForSpawned(int)} will be written.
+     * @return the file descriptor of the pty master, or -1 if the spawner is not running or failed, in which case the
+     * caller should create the subprocess directly. If the spawner failed, like if it did not reply within
+     * {@link #SPAWN_TIMEOUT_MILLIS}, it is stopped so that later sessions do not wait for it too.
+     */
+    static synchronized int createSubprocess(String cmd, String cwd, String[] args, String[] envVars, int[] processIdAndStatusFd,
+                                             int rows, int columns, @Nullable TerminalSessionClient client) {
+        // The lock is held while spawning so that the control socket cannot be closed by stop() in the meantime.
+        if (sSpawnerFd == -1) return -1;
+
+        try {
+            return JNI.createSubprocessWithSpawner(sSpawnerFd, cmd, cwd, args, envVars, processIdAndStatusFd, rows, columns,
+                SPAWN_TIMEOUT_MILLIS);
+        } catch (RuntimeException e) {
+            Logger.logWarn(client, LOG_TAG, "Failed to create subprocess with spawner, stopping it and creating the subprocess directly: " + e.getMessage());
+            stop();
+            return -1;
+        }
+    }
+
+}
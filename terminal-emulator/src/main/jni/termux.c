@@ -1,15 +1,31 @@
 #include <dirent.h>
+#include <errno.h>
 #include <fcntl.h>
 #include <jni.h>
+#include <paths.h>
+#include <pthread.h>
+#include <poll.h>
 #include <signal.h>
+#include <stdbool.h>
+#include <stdint.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
 #include <sys/ioctl.h>
+#include <sys/mman.h>
+#include <sys/socket.h>
+#include <sys/syscall.h>
+#include <sys/time.h>
+#include <sys/uio.h>
 #include <sys/wait.h>
+#include <time.h>
 #include <termios.h>
 #include <unistd.h>
 
+#ifdef __ANDROID__
+# include <android/api-level.h>
+#endif
+
 #define TERMUX_UNUSED(x) x __attribute__((__unused__))
 #ifdef __APPLE__
 # define LACKS_PTSNAME_R
@@ -22,32 +38,34 @@ static int throw_runtime_exception(JNIEnv* env, char const* message)
     return -1;
 }
 
-static int create_subprocess(JNIEnv* env,
-        char const* cmd,
-        char const* cwd,
-        char* const argv[],
-        char** envp,
-        int* pProcessId,
-        jint rows,
-        jint columns)
+/**
+ * Open a new pty master with UTF-8 mode, no flow control and the initial window size set, and store the name of its
+ * slave device in devname.
+ *
+ * @return the master file descriptor, or -1 with error_message set.
+ */
+static int open_pty_master(char* devname, size_t devname_size, jint rows, jint columns, char const** error_message)
 {
     int ptm = open("/dev/ptmx", O_RDWR | O_CLOEXEC);
-    if (ptm < 0) return throw_runtime_exception(env, "Cannot open /dev/ptmx");
+    if (ptm < 0) {
+        *error_message = "Cannot open /dev/ptmx";
+        return -1;
+    }
 
 #ifdef LACKS_PTSNAME_R
-    char* devname;
+    char* name;
+    if (grantpt(ptm) || unlockpt(ptm) || (name = ptsname(ptm)) == NULL) {
 #else
-    char devname[64];
+    if (grantpt(ptm) || unlockpt(ptm) || ptsname_r(ptm, devname, devname_size)) {
 #endif
-    if (grantpt(ptm) || unlockpt(ptm) ||
+        close(ptm);
+        *error_message = "Cannot grantpt()/unlockpt()/ptsname_r() on /dev/ptmx";
+        return -1;
+    }
 #ifdef LACKS_PTSNAME_R
-            (devname = ptsname(ptm)) == NULL
-#else
-            ptsname_r(ptm, devname, sizeof(devname))
+    strncpy(devname, name, devname_size - 1);
+    devname[devname_size - 1] = '\0';
 #endif
-       ) {
-        return throw_runtime_exception(env, "Cannot grantpt()/unlockpt()/ptsname_r() on /dev/ptmx");
-    }
 
     // Enable UTF-8 mode and disable flow control to prevent Ctrl+S from locking up the display.
     struct termios tios;
@@ -60,28 +78,40 @@ static int create_subprocess(JNIEnv* env,
     struct winsize sz = { .ws_row = (unsigned short) rows, .ws_col = (unsigned short) columns };
     ioctl(ptm, TIOCSWINSZ, &sz);
 
-    pid_t pid = fork();
-    if (pid < 0) {
-        return throw_runtime_exception(env, "Fork failed");
-    } else if (pid > 0) {
-        *pProcessId = (int) pid;
-        return ptm;
-    } else {
-        // Clear signals which the Android java process may have blocked:
-        sigset_t signals_to_unblock;
-        sigfillset(&signals_to_unblock);
-        sigprocmask(SIG_UNBLOCK, &signals_to_unblock, 0);
+    return ptm;
+}
 
-        close(ptm);
-        setsid();
+/**
+ * Make the forked child process the session leader of the pty slave devname and execute cmd in it. Never returns.
+ *
+ * @param close_fds Whether to close all inherited file descriptors above 2, which is not needed if the parent only
+ *                  has close-on-exec descriptors open.
+ */
+__attribute__((noreturn))
+static void exec_subprocess(int ptm,
+        char const* devname,
+        char const* cmd,
+        char const* cwd,
+        char* const argv[],
+        char** envp,
+        bool close_fds)
+{
+    // Clear signals which the Android java process may have blocked:
+    sigset_t signals_to_unblock;
+    sigfillset(&signals_to_unblock);
+    sigprocmask(SIG_UNBLOCK, &signals_to_unblock, 0);
+
+    close(ptm);
+    setsid();
 
-        int pts = open(devname, O_RDWR);
-        if (pts < 0) exit(-1);
+    int pts = open(devname, O_RDWR);
+    if (pts < 0) exit(-1);
 
-        dup2(pts, 0);
-        dup2(pts, 1);
-        dup2(pts, 2);
+    dup2(pts, 0);
+    dup2(pts, 1);
+    dup2(pts, 2);
 
+    if (close_fds) {
         DIR* self_dir = opendir("/proc/self/fd");
         if (self_dir != NULL) {
             int self_dir_fd = dirfd(self_dir);
@@ -92,24 +122,295 @@ static int create_subprocess(JNIEnv* env,
             }
             closedir(self_dir);
         }
+    } else if (pts > 2) {
+        close(pts);
+    }
 
-        clearenv();
-        if (envp) for (; *envp; ++envp) putenv(*envp);
+    clearenv();
+    if (envp) for (; *envp; ++envp) putenv(*envp);
 
-        if (chdir(cwd) != 0) {
-            char* error_message;
-            // No need to free asprintf()-allocated memory since doing execvp() or exit() below.
-            if (asprintf(&error_message, "chdir(\"%s\")", cwd) == -1) error_message = "chdir()";
-            perror(error_message);
-            fflush(stderr);
-        }
-        execvp(cmd, argv);
-        // Show terminal output about failing exec() call:
+    if (chdir(cwd) != 0) {
         char* error_message;
-        if (asprintf(&error_message, "exec(\"%s\")", cmd) == -1) error_message = "exec()";
+        // No need to free asprintf()-allocated memory since doing execvp() or exit() below.
+        if (asprintf(&error_message, "chdir(\"%s\")", cwd) == -1) error_message = "chdir()";
         perror(error_message);
-        _exit(1);
+        fflush(stderr);
     }
+    execvp(cmd, argv);
+    // Show terminal output about failing exec() call:
+    char* error_message;
+    if (asprintf(&error_message, "exec(\"%s\")", cmd) == -1) error_message = "exec()";
+    perror(error_message);
+    _exit(1);
+}
+
+/*
+ * The vfork() fast path.
+ *
+ * A fork() of the app process has to copy the page tables of the whole ART heap before the child can exec, which
+ * takes milliseconds and grows with the heap. A vfork() child instead borrows the memory of the parent, which is
+ * suspended until the child has called execve() or _exit(). The child must therefore only make async-signal-safe
+ * calls that do not modify memory shared with the parent, so everything that allocates, like looking up cmd in the
+ * PATH, is prepared by the parent beforehand, and the environment is passed to execve() instead of being set with
+ * clearenv() and putenv().
+ */
+
+#ifndef __NR_close_range
+# define __NR_close_range 436
+#endif
+
+struct linux_dirent64 {
+    uint64_t d_ino;
+    int64_t d_off;
+    unsigned short d_reclen;
+    unsigned char d_type;
+    char d_name[];
+};
+
+struct vfork_subprocess {
+    char const* devname;
+    char const* path;
+    char const* cwd;
+    char* const* argv;
+    char* const* envp;
+    /** The argv to run path with the shell if it is not an executable, as execvp() does. */
+    char* const* shell_argv;
+    bool use_close_range;
+};
+
+/** Write a NUL terminated string to stderr without allocating, for use in the vfork() child. */
+static void write_stderr(char const* string)
+{
+    size_t length = strlen(string);
+    while (length > 0) {
+        ssize_t written = write(2, string, length);
+        if (written < 0 && errno == EINTR) continue;
+        if (written <= 0) return;
+        string += written;
+        length -= (size_t) written;
+    }
+}
+
+/** Print "function(\"argument\"): error" to stderr like perror() does, for use in the vfork() child. */
+static void print_vfork_error(char const* function, char const* argument, int error)
+{
+    write_stderr(function);
+    write_stderr("(\"");
+    write_stderr(argument);
+    write_stderr("\"): ");
+    write_stderr(strerror(error));
+    write_stderr("\n");
+}
+
+/**
+ * Close all file descriptors from first up except keep, which is -1 to close all, with close_range(2) if supported or
+ * else by walking /proc/self/fd. Only async-signal-safe calls are used, so this can be called after fork() or vfork().
+ */
+static void close_fds_from(int first, int keep, bool use_close_range)
+{
+    if (use_close_range) {
+        if (keep < first) {
+            if (syscall(__NR_close_range, (unsigned int) first, ~0U, 0) == 0) return;
+        } else if ((keep == first || syscall(__NR_close_range, (unsigned int) first, (unsigned int) keep - 1, 0) == 0) &&
+                   syscall(__NR_close_range, (unsigned int) keep + 1, ~0U, 0) == 0) {
+            return;
+        }
+    }
+
+    // Read the directory with getdents64(2) into a stack buffer since opendir() allocates.
+    int dir_fd = open("/proc/self/fd", O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (dir_fd < 0) return;
+    char buffer[1024] __attribute__((aligned(8)));
+    long count;
+    while ((count = syscall(SYS_getdents64, dir_fd, buffer, sizeof(buffer))) > 0) {
+        for (long offset = 0; offset < count;) {
+            struct linux_dirent64* entry = (struct linux_dirent64*) (buffer + offset);
+            offset += entry->d_reclen;
+            char const* digit = entry->d_name;
+            if (*digit < '0' || *digit > '9') continue;
+            int fd = 0;
+            for (; *digit >= '0' && *digit <= '9'; digit++) fd = fd * 10 + (*digit - '0');
+            if (fd >= first && fd != dir_fd && fd != keep) close(fd);
+        }
+    }
+    close(dir_fd);
+}
+
+/** The vfork() child, doing what exec_subprocess() does using only async-signal-safe calls. Never returns. */
+__attribute__((noreturn, noinline))
+static void exec_vfork_subprocess(struct vfork_subprocess const* subprocess)
+{
+    setsid();
+
+    int pts = open(subprocess->devname, O_RDWR);
+    if (pts < 0) _exit(-1);
+
+    dup2(pts, 0);
+    dup2(pts, 1);
+    dup2(pts, 2);
+
+    // The pty master and all file descriptors of the app are closed here, including pts if it is above 2.
+    close_fds_from(3, -1, subprocess->use_close_range);
+
+    if (chdir(subprocess->cwd) != 0) print_vfork_error("chdir", subprocess->cwd, errno);
+
+    // Clear signals which the Android java process may have blocked. The parent blocked all signals before vfork()
+    // so that no handler of the app could run here, and none can be delivered between this and execve() since no
+    // other process knows of this new session leader yet. execve() resets the handlers to their defaults.
+    sigset_t signals_to_unblock;
+    sigemptyset(&signals_to_unblock);
+    sigprocmask(SIG_SETMASK, &signals_to_unblock, NULL);
+
+    execve(subprocess->path, subprocess->argv, subprocess->envp);
+    int error = errno;
+    if (error == ENOEXEC) {
+        execve(_PATH_BSHELL, subprocess->shell_argv, subprocess->envp);
+        error = errno;
+    }
+    // Show terminal output about failing exec() call:
+    print_vfork_error("exec", subprocess->path, error);
+    _exit(1);
+}
+
+/** Whether close_range(2) is supported, which is only checked once since it depends on the kernel. */
+static bool is_close_range_supported(void)
+{
+    static int supported = -1;
+    if (supported == -1) {
+#ifdef __ANDROID__
+        // Syscalls not in the allow list of the app seccomp filter kill the process instead of failing with ENOSYS,
+        // and close_range(2) is only allowed since Android 14, where bionic added it.
+        if (android_get_device_api_level() < 34) {
+            supported = 0;
+            return false;
+        }
+#endif
+        // The range is empty, so this only checks whether the syscall exists.
+        supported = syscall(__NR_close_range, ~0U, ~0U, 0) == 0 ? 1 : 0;
+    }
+    return supported == 1;
+}
+
+/**
+ * Find cmd in the PATH of envp like execvp() would do with envp as its environment after changing to cwd. Relative
+ * and empty PATH entries are checked in cwd, since the returned path is executed after chdir(cwd).
+ *
+ * Not inlined so that its locals are not in the frame of create_subprocess() that the vfork() child shares.
+ *
+ * @return a malloc()-allocated path to execute, which is cmd itself if it contains a slash or is not found.
+ */
+__attribute__((noinline))
+static char* find_executable(char const* cmd, char const* cwd, char* const* envp)
+{
+    if (strchr(cmd, '/') != NULL) return strdup(cmd);
+
+    char const* path_env = _PATH_DEFPATH;
+    if (envp) {
+        for (char* const* variable = envp; *variable; ++variable) {
+            if (strncmp(*variable, "PATH=", 5) == 0) {
+                path_env = *variable + 5;
+                break;
+            }
+        }
+    }
+
+    size_t cmd_length = strlen(cmd);
+    // Only opened if there is a relative PATH entry, and -1 if it could not be opened.
+    int cwd_fd = -2;
+    char* found_path = NULL;
+    for (char const* dir = path_env;; ) {
+        char const* dir_end = strchr(dir, ':');
+        if (dir_end == NULL) dir_end = dir + strlen(dir);
+        size_t dir_length = (size_t) (dir_end - dir);
+        char* path = malloc(dir_length + 1 + cmd_length + 1);
+        if (path == NULL) break;
+        if (dir_length == 0) {
+            // An empty PATH entry means the current directory.
+            memcpy(path, cmd, cmd_length + 1);
+        } else {
+            memcpy(path, dir, dir_length);
+            path[dir_length] = '/';
+            memcpy(path + dir_length + 1, cmd, cmd_length + 1);
+        }
+        int dir_fd = AT_FDCWD;
+        if (path[0] != '/') {
+            if (cwd_fd == -2) cwd_fd = open(cwd, O_PATH | O_DIRECTORY | O_CLOEXEC);
+            dir_fd = cwd_fd;
+        }
+        if (dir_fd != -1 && faccessat(dir_fd, path, X_OK, 0) == 0) {
+            found_path = path;
+            break;
+        }
+        free(path);
+        if (*dir_end == '\0') {
+            found_path = strdup(cmd);
+            break;
+        }
+        dir = dir_end + 1;
+    }
+    if (cwd_fd >= 0) close(cwd_fd);
+    return found_path;
+}
+
+static int create_subprocess(JNIEnv* env,
+        char const* cmd,
+        char const* cwd,
+        char* const argv[],
+        char** envp,
+        int* pProcessId,
+        jint rows,
+        jint columns)
+{
+    char devname[64];
+    char const* error_message;
+    int ptm = open_pty_master(devname, sizeof(devname), rows, columns, &error_message);
+    if (ptm < 0) return throw_runtime_exception(env, error_message);
+
+    char* path = find_executable(cmd, cwd, envp);
+    size_t argc = 0;
+    if (argv) while (argv[argc]) argc++;
+    // The shell gets the path and the arguments after argv[0], as execvp() does for files without a shebang.
+    char const** shell_argv = malloc((argc + 3) * sizeof(char*));
+    if (path == NULL || shell_argv == NULL) {
+        free(path);
+        free(shell_argv);
+        close(ptm);
+        return throw_runtime_exception(env, "Couldn't allocate exec arguments");
+    }
+    shell_argv[0] = "sh";
+    shell_argv[1] = path;
+    size_t shell_argc = 2;
+    for (size_t i = 1; i < argc; i++) shell_argv[shell_argc++] = argv[i];
+    shell_argv[shell_argc] = NULL;
+
+    static char* const empty_environment[] = { NULL };
+    struct vfork_subprocess subprocess = {
+        .devname = devname,
+        .path = path,
+        .cwd = cwd,
+        .argv = argv,
+        .envp = envp ? envp : empty_environment,
+        .shell_argv = (char* const*) shell_argv,
+        .use_close_range = is_close_range_supported()
+    };
+
+    sigset_t all_signals, old_signals;
+    sigfillset(&all_signals);
+    pthread_sigmask(SIG_SETMASK, &all_signals, &old_signals);
+
+    pid_t pid = vfork();
+    if (pid == 0) exec_vfork_subprocess(&subprocess);
+
+    pthread_sigmask(SIG_SETMASK, &old_signals, NULL);
+    free(path);
+    free(shell_argv);
+
+    if (pid < 0) {
+        close(ptm);
+        return throw_runtime_exception(env, "Fork failed");
+    }
+    *pProcessId = (int) pid;
+    return ptm;
 }
 
 JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_createSubprocess(
@@ -194,10 +495,9 @@ JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_setPtyUTF8Mode(JNIEnv* TERMU
     }
 }
 
-JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid)
+/** Convert a waitpid(2) status to the exit status or the negated signal that caused the process to stop. */
+static int exit_code_for_status(int status)
 {
-    int status;
-    waitpid(pid, &status, 0);
     if (WIFEXITED(status)) {
         return WEXITSTATUS(status);
     } else if (WIFSIGNALED(status)) {
@@ -208,7 +508,469 @@ JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSE
     }
 }
 
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid)
+{
+    int status;
+    waitpid(pid, &status, 0);
+    return exit_code_for_status(status);
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_read(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint fd, jobject buffer, jint offset, jint length)
+{
+    char* address = (char*) (*env)->GetDirectBufferAddress(env, buffer);
+    if (address == NULL) return throw_runtime_exception(env, "GetDirectBufferAddress() failed, buffer is not direct");
+    jlong capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+    if (offset < 0 || length < 0 || offset + (jlong) length > capacity) return throw_runtime_exception(env, "Read range out of buffer bounds");
+
+    ssize_t bytes_read;
+    do {
+        bytes_read = read(fd, address + offset, (size_t) length);
+    } while (bytes_read < 0 && errno == EINTR);
+    // Reading the master side of a pty returns EIO once the slave side has been closed, treat it like end of file.
+    return bytes_read > 0 ? (jint) bytes_read : -1;
+}
+
 JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_close(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint fileDescriptor)
 {
     close(fileDescriptor);
 }
+
+
+
+/*
+ * Session spawner.
+ *
+ * Forking the app process for every session has to copy the page tables of the whole ART heap, and the child then has
+ * to close every inherited file descriptor before it can exec the shell. The spawner is a process forked once from
+ * the app, which closes all inherited file descriptors, unmaps the ART heap regions it will never touch and then
+ * serves spawn requests over a SOCK_SEQPACKET control socket, so that new sessions are forked from a small process.
+ *
+ * A request is a struct spawner_request_header followed by the NUL terminated cmd, cwd, argv and envp strings, sent
+ * with the write end of a new per session status socket attached with SCM_RIGHTS. The spawner replies on the status
+ * socket with a struct spawner_reply with the pty master attached, and once the process has exited it sends its exit
+ * code as an int32_t on it and closes it. The spawner exits once the control socket is closed and all the processes
+ * it spawned have exited.
+ */
+
+#define SPAWNER_MAX_REQUEST_SIZE (256 * 1024)
+#define SPAWNER_MAX_STRINGS 4096
+#define SPAWNER_MAX_CHILDREN 1024
+#define SPAWNER_MAX_UNMAPPED_REGIONS_PER_PASS 1024
+/** Returned by waitForSpawned() if the spawner died without reporting the exit code, see TerminalSession.EXIT_STATUS_SPAWNER_DIED. */
+#define SPAWNER_EXIT_CODE_UNKNOWN INT32_MIN
+
+struct spawner_request_header {
+    int32_t rows;
+    int32_t columns;
+    int32_t argc;
+    int32_t envc;
+};
+
+struct spawner_reply {
+    /** The pid of the spawned process, or 0 if spawning failed. */
+    int32_t pid;
+    char error[124];
+};
+
+static struct {
+    pid_t pid;
+    int status_fd;
+} spawner_children[SPAWNER_MAX_CHILDREN];
+static int spawner_children_count;
+static int spawner_sigchld_pipe[2];
+
+static void spawner_sigchld_handler(int TERMUX_UNUSED(sig))
+{
+    int saved_errno = errno;
+    char byte = 0;
+    write(spawner_sigchld_pipe[1], &byte, 1);
+    errno = saved_errno;
+}
+
+/** Send a message on a socket with an optional file descriptor attached, without raising SIGPIPE. */
+static ssize_t send_with_fd(int socket_fd, void const* data, size_t length, int fd_to_send)
+{
+    struct iovec iov = { .iov_base = (void*) data, .iov_len = length };
+    struct msghdr msg = { .msg_iov = &iov, .msg_iovlen = 1 };
+    char control[CMSG_SPACE(sizeof(int))];
+    if (fd_to_send >= 0) {
+        memset(control, 0, sizeof(control));
+        msg.msg_control = control;
+        msg.msg_controllen = sizeof(control);
+        struct cmsghdr* cmsg = CMSG_FIRSTHDR(&msg);
+        cmsg->cmsg_level = SOL_SOCKET;
+        cmsg->cmsg_type = SCM_RIGHTS;
+        cmsg->cmsg_len = CMSG_LEN(sizeof(int));
+        memcpy(CMSG_DATA(cmsg), &fd_to_send, sizeof(int));
+    }
+    ssize_t result;
+    do {
+        result = sendmsg(socket_fd, &msg, MSG_NOSIGNAL);
+    } while (result < 0 && errno == EINTR);
+    return result;
+}
+
+/** Receive a message on a socket and a file descriptor possibly attached to it, which is set to -1 if none. */
+static ssize_t recv_with_fd(int socket_fd, void* data, size_t length, int* received_fd)
+{
+    struct iovec iov = { .iov_base = data, .iov_len = length };
+    char control[CMSG_SPACE(sizeof(int))];
+    struct msghdr msg = { .msg_iov = &iov, .msg_iovlen = 1, .msg_control = control, .msg_controllen = sizeof(control) };
+    ssize_t result;
+    do {
+        result = recvmsg(socket_fd, &msg, MSG_CMSG_CLOEXEC);
+    } while (result < 0 && errno == EINTR);
+
+    *received_fd = -1;
+    if (result >= 0) {
+        for (struct cmsghdr* cmsg = CMSG_FIRSTHDR(&msg); cmsg != NULL; cmsg = CMSG_NXTHDR(&msg, cmsg)) {
+            if (cmsg->cmsg_level == SOL_SOCKET && cmsg->cmsg_type == SCM_RIGHTS)
+                memcpy(received_fd, CMSG_DATA(cmsg), sizeof(int));
+        }
+    }
+    return result;
+}
+
+/**
+ * Unmap the ART heap and other regions of the runtime inherited from the app process. The spawner never runs java code,
+ * and these make up most of the memory whose page tables each fork() would otherwise have to copy.
+ */
+static void spawner_unmap_runtime_regions(void)
+{
+    static uintptr_t starts[SPAWNER_MAX_UNMAPPED_REGIONS_PER_PASS];
+    static uintptr_t ends[SPAWNER_MAX_UNMAPPED_REGIONS_PER_PASS];
+    static char buffer[4096];
+    static char line[512];
+
+    // Regions are collected before unmapping any since /proc/self/maps should not change while being read.
+    while (true) {
+        int maps_fd = open("/proc/self/maps", O_RDONLY | O_CLOEXEC);
+        if (maps_fd < 0) return;
+
+        int count = 0;
+        size_t line_length = 0;
+        ssize_t bytes_read;
+        while (count < SPAWNER_MAX_UNMAPPED_REGIONS_PER_PASS && (bytes_read = read(maps_fd, buffer, sizeof(buffer))) > 0) {
+            for (ssize_t i = 0; i < bytes_read && count < SPAWNER_MAX_UNMAPPED_REGIONS_PER_PASS; i++) {
+                if (buffer[i] != '\n') {
+                    if (line_length < sizeof(line) - 1) line[line_length++] = buffer[i];
+                    continue;
+                }
+                line[line_length] = '\0';
+                line_length = 0;
+                // Java heap spaces are named "[anon:dalvik-..." and on older Android versions "/dev/ashmem/dalvik-...".
+                if (strstr(line, "[anon:dalvik-") == NULL && strstr(line, "/dev/ashmem/dalvik-") == NULL) continue;
+                char* end_of_start;
+                uintptr_t start = (uintptr_t) strtoull(line, &end_of_start, 16);
+                if (*end_of_start != '-') continue;
+                uintptr_t end = (uintptr_t) strtoull(end_of_start + 1, NULL, 16);
+                if (end <= start) continue;
+                starts[count] = start;
+                ends[count] = end;
+                count++;
+            }
+        }
+        close(maps_fd);
+
+        for (int i = 0; i < count; i++)
+            munmap((void*) starts[i], ends[i] - starts[i]);
+        if (count < SPAWNER_MAX_UNMAPPED_REGIONS_PER_PASS) return;
+    }
+}
+
+/** Spawn the process described by a request, returning its pid and pty master, or an error message. */
+static char const* spawner_spawn(char* request, size_t request_length, pid_t* pid, int* ptm)
+{
+    static char* strings[SPAWNER_MAX_STRINGS + 2];
+
+    struct spawner_request_header header;
+    if (request_length < sizeof(header)) return "Invalid request";
+    memcpy(&header, request, sizeof(header));
+    if (header.argc < 0 || header.envc < 0 || header.argc + header.envc > SPAWNER_MAX_STRINGS - 2)
+        return "Invalid request argument counts";
+
+    // The strings are cmd, cwd, argc argv entries and envc envp entries, each NUL terminated.
+    int string_count = 2 + header.argc + header.envc;
+    char* position = request + sizeof(header);
+    char* request_end = request + request_length;
+    for (int i = 0; i < string_count; i++) {
+        char* string_end = memchr(position, '\0', (size_t) (request_end - position));
+        if (string_end == NULL) return "Invalid request strings";
+        strings[i] = position;
+        position = string_end + 1;
+    }
+
+    // Lay out argv and envp as NULL terminated arrays after cmd and cwd.
+    char const* cmd = strings[0];
+    char const* cwd = strings[1];
+    char** argv = &strings[2];
+    memmove(&strings[2 + header.argc + 1], &strings[2 + header.argc], (size_t) header.envc * sizeof(char*));
+    argv[header.argc] = NULL;
+    char** envp = &strings[2 + header.argc + 1];
+    envp[header.envc] = NULL;
+
+    if (spawner_children_count == SPAWNER_MAX_CHILDREN) return "Too many processes";
+
+    char devname[64];
+    char const* error_message;
+    *ptm = open_pty_master(devname, sizeof(devname), header.rows, header.columns, &error_message);
+    if (*ptm < 0) return error_message;
+
+    *pid = fork();
+    if (*pid < 0) {
+        close(*ptm);
+        return "Fork failed";
+    } else if (*pid == 0) {
+        // All file descriptors of the spawner are close-on-exec, so there is nothing to close.
+        exec_subprocess(*ptm, devname, cmd, cwd, header.argc > 0 ? argv : NULL, header.envc > 0 ? envp : NULL, false);
+    }
+    return NULL;
+}
+
+/** Handle a request on the control socket, returning false once it has been closed. */
+static bool spawner_handle_request(int control_fd)
+{
+    static char request[SPAWNER_MAX_REQUEST_SIZE];
+
+    int status_fd;
+    ssize_t request_length = recv_with_fd(control_fd, request, sizeof(request), &status_fd);
+    if (request_length <= 0) {
+        if (status_fd >= 0) close(status_fd);
+        return false;
+    }
+    if (status_fd < 0) return true;
+
+    struct spawner_reply reply;
+    memset(&reply, 0, sizeof(reply));
+    pid_t pid = 0;
+    int ptm = -1;
+    char const* error_message = spawner_spawn(request, (size_t) request_length, &pid, &ptm);
+    if (error_message != NULL) {
+        strncpy(reply.error, error_message, sizeof(reply.error) - 1);
+        send_with_fd(status_fd, &reply, sizeof(reply), -1);
+        close(status_fd);
+        return true;
+    }
+
+    reply.pid = (int32_t) pid;
+    send_with_fd(status_fd, &reply, sizeof(reply), ptm);
+    close(ptm);
+    spawner_children[spawner_children_count].pid = pid;
+    spawner_children[spawner_children_count].status_fd = status_fd;
+    spawner_children_count++;
+    return true;
+}
+
+/** Reap exited children and send their exit codes on their status sockets. */
+static void spawner_reap_children(void)
+{
+    char drained[64];
+    while (read(spawner_sigchld_pipe[0], drained, sizeof(drained)) > 0);
+
+    int status;
+    pid_t pid;
+    while ((pid = waitpid(-1, &status, WNOHANG)) > 0) {
+        for (int i = 0; i < spawner_children_count; i++) {
+            if (spawner_children[i].pid != pid) continue;
+            int32_t exit_code = (int32_t) exit_code_for_status(status);
+            send_with_fd(spawner_children[i].status_fd, &exit_code, sizeof(exit_code), -1);
+            close(spawner_children[i].status_fd);
+            spawner_children[i] = spawner_children[--spawner_children_count];
+            break;
+        }
+    }
+}
+
+__attribute__((noreturn))
+static void run_spawner(int control_fd, bool use_close_range)
+{
+    sigset_t signals_to_unblock;
+    sigfillset(&signals_to_unblock);
+    sigprocmask(SIG_UNBLOCK, &signals_to_unblock, 0);
+
+    // Close everything inherited from the app except the control socket, once, instead of in every spawned process.
+    // The app is multithreaded, so opendir() and anything else that may allocate must not be used after fork().
+    close_fds_from(3, control_fd, use_close_range);
+    int null_fd = open("/dev/null", O_RDWR);
+    if (null_fd >= 0) {
+        dup2(null_fd, 0);
+        dup2(null_fd, 1);
+        dup2(null_fd, 2);
+        if (null_fd > 2) close(null_fd);
+    }
+    setsid();
+
+    spawner_unmap_runtime_regions();
+
+    if (pipe2(spawner_sigchld_pipe, O_CLOEXEC | O_NONBLOCK) != 0) _exit(1);
+    struct sigaction action;
+    memset(&action, 0, sizeof(action));
+    action.sa_handler = spawner_sigchld_handler;
+    action.sa_flags = SA_RESTART | SA_NOCLDSTOP;
+    sigaction(SIGCHLD, &action, NULL);
+
+    bool control_open = true;
+    while (control_open || spawner_children_count > 0) {
+        struct pollfd fds[2] = {
+            { .fd = spawner_sigchld_pipe[0], .events = POLLIN },
+            { .fd = control_open ? control_fd : -1, .events = POLLIN }
+        };
+        if (poll(fds, 2, -1) < 0) {
+            if (errno == EINTR) continue;
+            _exit(1);
+        }
+        if (fds[0].revents & POLLIN) spawner_reap_children();
+        if (fds[1].revents & (POLLIN | POLLHUP | POLLERR)) {
+            if (!spawner_handle_request(control_fd)) {
+                close(control_fd);
+                control_open = false;
+            }
+        }
+    }
+    _exit(0);
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_startSpawner(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jintArray processIdArray)
+{
+    int sockets[2];
+    if (socketpair(AF_UNIX, SOCK_SEQPACKET | SOCK_CLOEXEC, 0, sockets) != 0)
+        return throw_runtime_exception(env, "socketpair() for spawner failed");
+
+    // Checked before fork() since the check may allocate on first use.
+    bool use_close_range = is_close_range_supported();
+    pid_t pid = fork();
+    if (pid < 0) {
+        close(sockets[0]);
+        close(sockets[1]);
+        return throw_runtime_exception(env, "Fork failed");
+    } else if (pid == 0) {
+        run_spawner(sockets[1], use_close_range);
+    }
+    close(sockets[1]);
+
+    jint spawner_pid = (jint) pid;
+    (*env)->SetIntArrayRegion(env, processIdArray, 0, 1, &spawner_pid);
+    return sockets[0];
+}
+
+/** Append the UTF-8 form of a java string with its NUL terminator to the request, returning false if it does not fit. */
+static bool append_request_string(JNIEnv* env, jstring string, char* request, size_t* request_length)
+{
+    if (string == NULL) return false;
+    char const* utf8 = (*env)->GetStringUTFChars(env, string, NULL);
+    if (!utf8) return false;
+    size_t length = strlen(utf8) + 1;
+    bool fits = *request_length + length <= SPAWNER_MAX_REQUEST_SIZE;
+    if (fits) {
+        memcpy(request + *request_length, utf8, length);
+        *request_length += length;
+    }
+    (*env)->ReleaseStringUTFChars(env, string, utf8);
+    return fits;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_createSubprocessWithSpawner(
+        JNIEnv* env,
+        jclass TERMUX_UNUSED(clazz),
+        jint spawnerFd,
+        jstring cmd,
+        jstring cwd,
+        jobjectArray args,
+        jobjectArray envVars,
+        jintArray processIdAndStatusFdArray,
+        jint rows,
+        jint columns,
+        jint timeoutMillis)
+{
+    struct spawner_request_header header = {
+        .rows = rows,
+        .columns = columns,
+        .argc = args ? (*env)->GetArrayLength(env, args) : 0,
+        .envc = envVars ? (*env)->GetArrayLength(env, envVars) : 0
+    };
+
+    char* request = malloc(SPAWNER_MAX_REQUEST_SIZE);
+    if (!request) return throw_runtime_exception(env, "malloc() for spawner request failed");
+    memcpy(request, &header, sizeof(header));
+    size_t request_length = sizeof(header);
+
+    bool fits = append_request_string(env, cmd, request, &request_length) &&
+        append_request_string(env, cwd, request, &request_length);
+    for (int i = 0; fits && i < header.argc; i++) {
+        jstring arg = (jstring) (*env)->GetObjectArrayElement(env, args, i);
+        fits = append_request_string(env, arg, request, &request_length);
+        (*env)->DeleteLocalRef(env, arg);
+    }
+    for (int i = 0; fits && i < header.envc; i++) {
+        jstring env_var = (jstring) (*env)->GetObjectArrayElement(env, envVars, i);
+        fits = append_request_string(env, env_var, request, &request_length);
+        (*env)->DeleteLocalRef(env, env_var);
+    }
+    if (!fits) {
+        free(request);
+        return throw_runtime_exception(env, "Spawner request too large");
+    }
+
+    int status_sockets[2];
+    if (socketpair(AF_UNIX, SOCK_SEQPACKET | SOCK_CLOEXEC, 0, status_sockets) != 0) {
+        free(request);
+        return throw_runtime_exception(env, "socketpair() for spawner status failed");
+    }
+
+    // The caller may be the main thread, so do not wait forever for a spawner that is stuck. The timeout covers the
+    // whole round trip, so the time taken to send the request is subtracted from the time to wait for the reply.
+    struct timespec start_time;
+    clock_gettime(CLOCK_MONOTONIC, &start_time);
+    struct timeval timeout = { .tv_sec = timeoutMillis / 1000, .tv_usec = (timeoutMillis % 1000) * 1000 };
+    setsockopt(spawnerFd, SOL_SOCKET, SO_SNDTIMEO, &timeout, sizeof(timeout));
+
+    ssize_t sent = send_with_fd(spawnerFd, request, request_length, status_sockets[1]);
+    free(request);
+    close(status_sockets[1]);
+    if (sent != (ssize_t) request_length) {
+        bool timed_out = sent < 0 && (errno == EAGAIN || errno == EWOULDBLOCK);
+        close(status_sockets[0]);
+        return throw_runtime_exception(env, timed_out ? "Sending request to spawner timed out" : "Sending request to spawner failed");
+    }
+
+    struct timespec sent_time;
+    clock_gettime(CLOCK_MONOTONIC, &sent_time);
+    long elapsed_millis = (sent_time.tv_sec - start_time.tv_sec) * 1000 + (sent_time.tv_nsec - start_time.tv_nsec) / 1000000;
+    long remaining_millis = timeoutMillis - elapsed_millis;
+    // A zero timeout would block forever.
+    if (remaining_millis < 1) remaining_millis = 1;
+    struct timeval reply_timeout = { .tv_sec = remaining_millis / 1000, .tv_usec = (remaining_millis % 1000) * 1000 };
+    setsockopt(status_sockets[0], SOL_SOCKET, SO_RCVTIMEO, &reply_timeout, sizeof(reply_timeout));
+
+    struct spawner_reply reply;
+    int ptm;
+    ssize_t received = recv_with_fd(status_sockets[0], &reply, sizeof(reply), &ptm);
+    if (received != (ssize_t) sizeof(reply) || reply.pid <= 0 || ptm < 0) {
+        bool timed_out = received < 0 && (errno == EAGAIN || errno == EWOULDBLOCK);
+        close(status_sockets[0]);
+        if (ptm >= 0) close(ptm);
+        if (timed_out) return throw_runtime_exception(env, "Waiting for spawner reply timed out");
+        reply.error[sizeof(reply.error) - 1] = '\0';
+        return throw_runtime_exception(env, received == (ssize_t) sizeof(reply) && reply.error[0] ? reply.error : "Spawner failed");
+    }
+
+    // waitForSpawned() must block until the process has exited.
+    struct timeval no_timeout = { 0, 0 };
+    setsockopt(status_sockets[0], SOL_SOCKET, SO_RCVTIMEO, &no_timeout, sizeof(no_timeout));
+
+    jint result[2] = { reply.pid, status_sockets[0] };
+    (*env)->SetIntArrayRegion(env, processIdAndStatusFdArray, 0, 2, result);
+    return ptm;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitForSpawned(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint statusFd)
+{
+    int32_t exit_code = 0;
+    ssize_t received;
+    do {
+        received = recv(statusFd, &exit_code, sizeof(exit_code), 0);
+    } while (received < 0 && errno == EINTR);
+    close(statusFd);
+    // The spawner went away without reporting the exit code, so it died or was killed while the process was running.
+    return received == (ssize_t) sizeof(exit_code) ? exit_code : SPAWNER_EXIT_CODE_UNKNOWN;
+}
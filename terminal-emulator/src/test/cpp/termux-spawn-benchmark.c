@@ -0,0 +1,144 @@
+/*
+ * Host benchmark of the native process spawn of terminal sessions in termux.c.
+ *
+ * Compares create_subprocess(), which uses vfork(), with a fork() of the whole process followed by
+ * exec_subprocess(), which create_subprocess() did before. The benchmark first allocates and touches a
+ * heap, like the ART heap of the app, whose page tables a fork() has to copy. Build and run with:
+ *
+ *   cc -std=c11 -O2 -I "$JAVA_HOME/include" -I "$JAVA_HOME/include/linux" -o /tmp/termux-spawn-benchmark \
+ *       terminal-emulator/src/test/cpp/termux-spawn-benchmark.c
+ *   /tmp/termux-spawn-benchmark 512 100
+ *
+ * The arguments are the heap size in MB and the number of iterations. To benchmark the TerminalSession and
+ * AppShell paths on a device, run the com.termux.terminal.SpawnBenchmarkTest and
+ * com.termux.shared.shell.command.runner.app.AppShellSpawnBenchmarkTest instrumented tests.
+ */
+
+#define _GNU_SOURCE
+
+#include "../../main/jni/termux.c"
+
+#define EXECUTABLE "true"
+#define WARMUP_ITERATIONS 5
+
+static jclass find_class(JNIEnv* TERMUX_UNUSED(env), char const* TERMUX_UNUSED(name))
+{
+    return NULL;
+}
+
+static jint throw_new(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), char const* message)
+{
+    fprintf(stderr, "%s\n", message);
+    exit(1);
+}
+
+static double get_time_ms(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1e3 + ts.tv_nsec / 1e6;
+}
+
+static int compare_doubles(void const* a, void const* b)
+{
+    double x = *(double const*) a;
+    double y = *(double const*) b;
+    return (x > y) - (x < y);
+}
+
+/** The spawn path that create_subprocess() used before vfork(). */
+static int create_subprocess_with_fork(JNIEnv* env, char const* cmd, char const* cwd, char* const argv[], char** envp,
+        int* pProcessId)
+{
+    char devname[64];
+    char const* error_message;
+    int ptm = open_pty_master(devname, sizeof(devname), 24, 80, &error_message);
+    if (ptm < 0) return throw_runtime_exception(env, error_message);
+
+    pid_t pid = fork();
+    if (pid < 0) {
+        close(ptm);
+        return throw_runtime_exception(env, "Fork failed");
+    } else if (pid == 0) {
+        exec_subprocess(ptm, devname, cmd, cwd, argv, envp, true);
+    }
+    *pProcessId = (int) pid;
+    return ptm;
+}
+
+static void print_times(char const* label, double* times, int iterations)
+{
+    qsort(times, (size_t) iterations, sizeof(double), compare_doubles);
+    printf("  %s: median %.3f ms, p90 %.3f ms, max %.3f ms\n", label,
+        times[iterations / 2], times[iterations * 9 / 10], times[iterations - 1]);
+}
+
+static void run_benchmark(char const* label, JNIEnv* env, bool use_vfork, int iterations)
+{
+    char* argv[] = { EXECUTABLE, NULL };
+    char* envp[] = { "PATH=/usr/bin:/bin", NULL };
+    double* spawn_times = malloc((size_t) iterations * sizeof(double));
+    double* exit_times = malloc((size_t) iterations * sizeof(double));
+    if (spawn_times == NULL || exit_times == NULL) {
+        perror("malloc");
+        exit(1);
+    }
+
+    for (int i = -WARMUP_ITERATIONS; i < iterations; i++) {
+        int pid = -1;
+        double start_ms = get_time_ms();
+        int ptm = use_vfork ? create_subprocess(env, EXECUTABLE, "/", argv, envp, &pid, 24, 80)
+                            : create_subprocess_with_fork(env, EXECUTABLE, "/", argv, envp, &pid);
+        double spawn_ms = get_time_ms() - start_ms;
+        int status;
+        if (waitpid(pid, &status, 0) != pid || !WIFEXITED(status) || WEXITSTATUS(status) != 0) {
+            fprintf(stderr, "%s: " EXECUTABLE " did not exit successfully\n", label);
+            exit(1);
+        }
+        double exit_ms = get_time_ms() - start_ms;
+        close(ptm);
+        if (i >= 0) {
+            spawn_times[i] = spawn_ms;
+            exit_times[i] = exit_ms;
+        }
+    }
+
+    printf("%s (%d iterations):\n", label, iterations);
+    print_times("spawn", spawn_times, iterations);
+    print_times("spawn to exit", exit_times, iterations);
+    free(spawn_times);
+    free(exit_times);
+}
+
+int main(int argc, char** argv)
+{
+    size_t heap_mb = argc > 1 ? (size_t) atol(argv[1]) : 512;
+    int iterations = argc > 2 ? atoi(argv[2]) : 100;
+    if (iterations <= 0) {
+        fprintf(stderr, "usage: %s [heap-mb] [iterations]\n", argv[0]);
+        return 1;
+    }
+
+    size_t heap_size = heap_mb * 1024 * 1024;
+    char* heap = NULL;
+    if (heap_size > 0) {
+        heap = mmap(NULL, heap_size, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+        if (heap == MAP_FAILED) {
+            perror("mmap");
+            return 1;
+        }
+        // Like the ART heap, which is not backed by huge pages that would make the page tables much smaller.
+        madvise(heap, heap_size, MADV_NOHUGEPAGE);
+        memset(heap, 1, heap_size);
+    }
+
+    struct JNINativeInterface_ functions = { .FindClass = find_class, .ThrowNew = throw_new };
+    JNIEnv env = &functions;
+
+    printf("Heap of %zu MB\n", heap_mb);
+    run_benchmark("fork()", &env, false, iterations);
+    run_benchmark("vfork()", &env, true, iterations);
+
+    if (heap != NULL) munmap(heap, heap_size);
+    return 0;
+}
@@ -0,0 +1,157 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+public class BatchingByteQueueTest extends TestCase {
+
+	private static byte[] drain(ByteBuffer[] batch) {
+		int length = 0;
+		for (ByteBuffer chunk : batch) length += chunk.remaining();
+		byte[] result = new byte[length];
+		int offset = 0;
+		for (ByteBuffer chunk : batch) {
+			int chunkLength = chunk.remaining();
+			chunk.get(result, offset, chunkLength);
+			offset += chunkLength;
+		}
+		return result;
+	}
+
+	public void testSmallWritesAreCoalesced() {
+		BatchingByteQueue q = new BatchingByteQueue(10, 100, Long.MAX_VALUE);
+		assertTrue(q.write(new byte[]{1, 2, 3}, 0, 3));
+		assertTrue(q.write(new byte[]{4, 5}, 0, 2));
+
+		ByteBuffer[] batch = q.takeBatch(100, 0);
+		assertEquals(1, batch.length);
+		assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, drain(batch));
+		assertEquals(5, q.getPendingBytes());
+		q.release(batch);
+		assertEquals(0, q.getPendingBytes());
+	}
+
+	public void testOrderIsKeptAcrossChunks() {
+		BatchingByteQueue q = new BatchingByteQueue(4, 1000, Long.MAX_VALUE);
+		q.write(new byte[]{1, 2, 3}, 0, 3);
+		q.write(new byte[]{4, 5, 6, 7, 8, 9}, 0, 6);
+		q.write(new byte[]{10}, 0, 1);
+
+		assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, drain(q.takeBatch(100, 0)));
+	}
+
+	public void testWritesFillTheLastChunk() {
+		BatchingByteQueue q = new BatchingByteQueue(4, 1000, Long.MAX_VALUE);
+		q.write(new byte[]{1, 2, 3}, 0, 3);
+		q.write(new byte[]{4, 5}, 0, 2);
+		q.write(new byte[]{6, 7, 8, 9}, 0, 4);
+
+		ByteBuffer[] batch = q.takeBatch(100, 0);
+		assertEquals(3, batch.length);
+		assertEquals(4, batch[0].remaining());
+		assertEquals(4, batch[1].remaining());
+		assertEquals(1, batch[2].remaining());
+		assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, drain(batch));
+	}
+
+	public void testReleasedChunksAreReused() {
+		BatchingByteQueue q = new BatchingByteQueue(4, 1000, Long.MAX_VALUE);
+		q.write(new byte[]{1}, 0, 1);
+		ByteBuffer[] first = q.takeBatch(100, 0);
+		assertArrayEquals(new byte[]{1}, drain(first));
+		q.release(first);
+
+		// A later key press is stored in the released chunk instead of a new one.
+		q.write(new byte[]{2}, 0, 1);
+		ByteBuffer[] second = q.takeBatch(100, 0);
+		assertSame(first[0], second[0]);
+		assertArrayEquals(new byte[]{2}, drain(second));
+		q.release(second);
+		assertEquals(0, q.getPendingBytes());
+	}
+
+	public void testCapacity() {
+		BatchingByteQueue q = new BatchingByteQueue(4, 8, 10);
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+		// Writes are rejected as a whole if they would exceed the capacity.
+		assertFalse(q.write(new byte[]{7, 8, 9, 10, 11}, 0, 5));
+		assertTrue(q.write(new byte[]{7, 8, 9, 10}, 0, 4));
+		assertFalse(q.write(new byte[]{11}, 0, 1));
+
+		ByteBuffer[] batch = q.takeBatch(100, 0);
+		assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, drain(batch));
+		// Taken bytes count until they are released.
+		assertFalse(q.write(new byte[]{11}, 0, 1));
+		q.release(batch);
+		assertTrue(q.write(new byte[]{11}, 0, 1));
+		assertArrayEquals(new byte[]{11}, drain(q.takeBatch(100, 0)));
+	}
+
+	public void testLargeWritesAreSplitAndBatchesBounded() {
+		int length = BatchingByteQueue.MAX_CHUNK_SIZE * 3 + 7;
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) data[i] = (byte) i;
+
+		BatchingByteQueue q = new BatchingByteQueue(16, Long.MAX_VALUE, Long.MAX_VALUE);
+		q.write(data, 0, length);
+
+		ByteBuffer[] first = q.takeBatch(BatchingByteQueue.MAX_CHUNK_SIZE * 2, 0);
+		assertEquals(2, first.length);
+		ByteBuffer[] second = q.takeBatch(BatchingByteQueue.MAX_CHUNK_SIZE * 2, 0);
+		assertEquals(2, second.length);
+
+		byte[] result = new byte[length];
+		byte[] firstBytes = drain(first);
+		byte[] secondBytes = drain(second);
+		System.arraycopy(firstBytes, 0, result, 0, firstBytes.length);
+		System.arraycopy(secondBytes, 0, result, firstBytes.length, secondBytes.length);
+		assertArrayEquals(data, result);
+	}
+
+	public void testBackpressure() {
+		BatchingByteQueue q = new BatchingByteQueue(4, 10, Long.MAX_VALUE);
+		q.write(new byte[8], 0, 8);
+		assertFalse(q.isBackpressured());
+		q.write(new byte[8], 0, 8);
+		assertTrue(q.isBackpressured());
+
+		ByteBuffer[] batch = q.takeBatch(100, 0);
+		// Taken but not written bytes still count.
+		assertTrue(q.isBackpressured());
+		drain(batch);
+		q.release(batch);
+		assertFalse(q.isBackpressured());
+	}
+
+	public void testClosing() {
+		BatchingByteQueue q = new BatchingByteQueue(10, 100, Long.MAX_VALUE);
+		q.write(new byte[]{1}, 0, 1);
+		q.close();
+		assertFalse(q.write(new byte[]{1, 2, 3}, 0, 3));
+		assertNull(q.takeBatch(100, 0));
+	}
+
+	public void testLingerWaitsForBurst() throws Exception {
+		final BatchingByteQueue q = new BatchingByteQueue(4, 100, Long.MAX_VALUE);
+		q.write(new byte[]{1}, 0, 1);
+		ByteBuffer[] first = q.takeBatch(100, 0);
+		drain(first);
+		q.release(first);
+
+		// The previous batch was just taken, so the next one lingers until the chunk size has accumulated.
+		q.write(new byte[]{2}, 0, 1);
+		Thread writer = new Thread(() -> q.write(new byte[]{3, 4, 5}, 0, 3));
+		writer.start();
+		ByteBuffer[] batch = q.takeBatch(100, 10_000_000_000L);
+		writer.join();
+		assertArrayEquals(new byte[]{2, 3, 4, 5}, drain(batch));
+	}
+
+	private static void assertArrayEquals(byte[] expected, byte[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals("index=" + i, expected[i], actual[i]);
+	}
+
+}
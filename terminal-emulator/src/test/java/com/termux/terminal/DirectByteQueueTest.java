@@ -0,0 +1,113 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class DirectByteQueueTest extends TestCase {
+
+	private static void write(DirectByteQueue q, byte[] data) {
+		int offset = 0;
+		while (offset < data.length) {
+			int writable = q.awaitWritableRun();
+			assertTrue(writable > 0);
+			int count = Math.min(writable, data.length - offset);
+			int tail = q.getTail();
+			for (int i = 0; i < count; i++)
+				q.getBuffer().put(tail + i, data[offset + i]);
+			q.commitWrite(count);
+			offset += count;
+		}
+	}
+
+	private static byte[] read(DirectByteQueue q) {
+		byte[] result = new byte[q.getStoredBytes()];
+		int offset = 0;
+		int run;
+		while ((run = q.getReadableRun()) > 0) {
+			int head = q.getHead();
+			for (int i = 0; i < run; i++)
+				result[offset++] = q.getBuffer().get(head + i);
+			q.commitRead(run);
+		}
+		assertEquals(result.length, offset);
+		return result;
+	}
+
+	public void testCompleteWrites() {
+		DirectByteQueue q = new DirectByteQueue(10);
+		assertEquals(10, q.awaitWritableRun());
+		write(q, new byte[]{1, 2, 3});
+		assertEquals(3, q.getStoredBytes());
+		assertEquals(3, q.getReadableRun());
+		assertArrayEquals(new byte[]{1, 2, 3}, read(q));
+
+		write(q, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+		assertEquals(10, q.getStoredBytes());
+		assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, read(q));
+	}
+
+	public void testQueueWraparound() {
+		DirectByteQueue q = new DirectByteQueue(10);
+
+		byte[] origArray = new byte[]{1, 2, 3, 4, 5, 6};
+		for (int i = 0; i < 20; i++) {
+			write(q, origArray);
+			assertArrayEquals(origArray, read(q));
+		}
+	}
+
+	public void testWritableRunStopsAtHead() {
+		DirectByteQueue q = new DirectByteQueue(10);
+		write(q, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+		q.commitRead(4);
+		// Two bytes free before the end of the buffer, then four more before the head once wrapped.
+		assertEquals(2, q.awaitWritableRun());
+		q.commitWrite(2);
+		assertEquals(0, q.getTail());
+		assertEquals(4, q.awaitWritableRun());
+		assertEquals(6, q.getReadableRun());
+	}
+
+	public void testClosing() {
+		DirectByteQueue q = new DirectByteQueue(10);
+		q.close();
+		assertEquals(-1, q.awaitWritableRun());
+		assertEquals(-1, q.getReadableRun());
+	}
+
+	public void testReadNonBlocking() {
+		DirectByteQueue q = new DirectByteQueue(10);
+		assertEquals(0, q.getReadableRun());
+	}
+
+	public void testBufferIsDirect() {
+		assertTrue(new DirectByteQueue(10).getBuffer().isDirect());
+	}
+
+	public void testAppendByteBufferInPlace() {
+		byte[] input = "aé€😀\r\nbc".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(input.length + 3);
+		for (int i = 0; i < input.length; i++)
+			buffer.put(3 + i, input[i]);
+
+		TerminalTestCase.MockTerminalOutput output = new TerminalTestCase.MockTerminalOutput();
+		TerminalEmulator fromArray = new TerminalEmulator(output, 5, 3, 100, null);
+		TerminalEmulator fromBuffer = new TerminalEmulator(output, 5, 3, 100, null);
+		fromArray.append(input, input.length);
+		// Split a multi-byte sequence across two calls to check that decoder state is kept.
+		fromBuffer.append(buffer, 3, 3);
+		fromBuffer.append(buffer, 6, input.length - 3);
+
+		assertEquals(fromArray.getScreen().getTranscriptText(), fromBuffer.getScreen().getTranscriptText());
+		assertEquals(0, buffer.position());
+	}
+
+	private static void assertArrayEquals(byte[] expected, byte[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals("index=" + i, expected[i], actual[i]);
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+public class TerminalSessionMetricsTest extends TestCase {
+
+	public void testCounters() {
+		TerminalSessionMetrics metrics = new TerminalSessionMetrics();
+		metrics.onProcessOutputRead(100);
+		metrics.onProcessOutputRead(50);
+		metrics.onProcessInputWritten(3);
+		assertEquals(150, metrics.getBytesRead());
+		assertEquals(2, metrics.getReadCount());
+		assertEquals(3, metrics.getBytesWritten());
+		assertEquals(1, metrics.getWriteCount());
+
+		metrics.onProcessOutputParsed(1024, 4096, System.nanoTime());
+		metrics.onProcessOutputParsed(3072, 4096, System.nanoTime());
+		assertEquals(2, metrics.getAppendCount());
+		assertEquals(50f, metrics.getAverageQueueOccupancy(), 0.001f);
+		assertEquals(75f, metrics.getMaxQueueOccupancy(), 0.001f);
+
+		metrics.onFrameRendered(2000000);
+		metrics.onFrameRendered(4000000);
+		assertEquals(2, metrics.getFrameCount());
+		assertEquals(3000000, metrics.getAverageFrameTimeNanos());
+		assertEquals(4000000, metrics.getMaxFrameTimeNanos());
+	}
+
+	public void testEchoLatencyIsMeasuredFromFirstPendingKeystroke() throws Exception {
+		TerminalSessionMetrics metrics = new TerminalSessionMetrics();
+		metrics.onProcessOutputParsed(1, 4096, System.nanoTime());
+		assertEquals(0, metrics.getEchoCount());
+
+		metrics.onKeystroke();
+		Thread.sleep(5);
+		metrics.onKeystroke();
+		metrics.onProcessOutputParsed(1, 4096, System.nanoTime());
+		assertEquals(1, metrics.getEchoCount());
+		assertTrue(metrics.getLastEchoLatencyNanos() >= 5000000);
+
+		// Output without a preceding key press is not an echo.
+		metrics.onProcessOutputParsed(1, 4096, System.nanoTime());
+		assertEquals(1, metrics.getEchoCount());
+	}
+
+	public void testRatesAreNotUpdatedWithinInterval() {
+		TerminalSessionMetrics metrics = new TerminalSessionMetrics();
+		assertFalse(metrics.updateRates());
+	}
+
+	public void testRatesDecayToZeroWithoutIO() throws Exception {
+		TerminalSessionMetrics metrics = new TerminalSessionMetrics();
+		metrics.onProcessOutputRead(1000);
+		Thread.sleep(TerminalSessionMetrics.RATE_INTERVAL_MILLIS);
+		assertTrue(metrics.updateRates());
+		assertTrue(metrics.hasNonZeroRates());
+		assertTrue(metrics.getBytesReadPerSecond() > 0);
+
+		Thread.sleep(TerminalSessionMetrics.RATE_INTERVAL_MILLIS);
+		assertTrue(metrics.updateRates());
+		assertFalse(metrics.hasNonZeroRates());
+		assertEquals(0f, metrics.getBytesReadPerSecond(), 0f);
+	}
+
+}
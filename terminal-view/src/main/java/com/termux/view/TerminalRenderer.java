@@ -1,6 +1,7 @@
 package com.termux.view;
 
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.Typeface;
@@ -8,9 +9,12 @@ import android.graphics.Typeface;
 import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalRow;
+import com.termux.terminal.TerminalSessionMetrics;
 import com.termux.terminal.TextStyle;
 import com.termux.terminal.WcWidth;
 
+import java.util.Locale;
+
 /**
  * Renderer of a {@link TerminalEmulator} into a {@link Canvas}.
  * <p/>
@@ -33,6 +37,9 @@ public final class TerminalRenderer {
 
     private final float[] asciiMeasures = new float[127];
 
+    /** The paint for {@link #renderMetricsOverlay(Canvas, TerminalSessionMetrics, int)}, created on first use. */
+    private Paint mMetricsOverlayPaint;
+
     public TerminalRenderer(int textSize, Typeface typeface) {
         mTextSize = textSize;
         mTypeface = typeface;
@@ -246,4 +253,42 @@ public final class TerminalRenderer {
     public int getFontLineSpacing() {
         return mFontLineSpacing;
     }
+
+    /**
+     * Render a summary of the session {@link TerminalSessionMetrics} in the top right corner of the canvas, on top of
+     * the already rendered terminal.
+     */
+    public void renderMetricsOverlay(Canvas canvas, TerminalSessionMetrics metrics, int viewWidth) {
+        if (mMetricsOverlayPaint == null) {
+            mMetricsOverlayPaint = new Paint();
+            mMetricsOverlayPaint.setTypeface(Typeface.MONOSPACE);
+            mMetricsOverlayPaint.setAntiAlias(true);
+            mMetricsOverlayPaint.setTextSize(mTextSize * 0.8f);
+        }
+
+        final String[] lines = new String[]{
+            String.format(Locale.US, "in %.1f KiB/s %.0f rd/s", metrics.getBytesReadPerSecond() / 1024, metrics.getReadsPerSecond()),
+            String.format(Locale.US, "out %.1f KiB/s", metrics.getBytesWrittenPerSecond() / 1024),
+            String.format(Locale.US, "queue %.0f%% max %.0f%%", metrics.getAverageQueueOccupancy(), metrics.getMaxQueueOccupancy()),
+            String.format(Locale.US, "parse %.2f ms max %.2f", TerminalSessionMetrics.toMillis(metrics.getAverageAppendTimeNanos()),
+                TerminalSessionMetrics.toMillis(metrics.getMaxAppendTimeNanos())),
+            String.format(Locale.US, "frame %.2f ms max %.2f", TerminalSessionMetrics.toMillis(metrics.getAverageFrameTimeNanos()),
+                TerminalSessionMetrics.toMillis(metrics.getMaxFrameTimeNanos())),
+            String.format(Locale.US, "echo %.1f ms avg %.1f", TerminalSessionMetrics.toMillis(metrics.getLastEchoLatencyNanos()),
+                TerminalSessionMetrics.toMillis(metrics.getAverageEchoLatencyNanos()))
+        };
+
+        float maxLineWidth = 0;
+        for (String line : lines)
+            maxLineWidth = Math.max(maxLineWidth, mMetricsOverlayPaint.measureText(line));
+        final float lineSpacing = mMetricsOverlayPaint.getFontSpacing();
+        final float left = viewWidth - maxLineWidth - lineSpacing / 2;
+
+        mMetricsOverlayPaint.setColor(0xC0000000);
+        canvas.drawRect(left - lineSpacing / 2, 0, viewWidth, lineSpacing * (lines.length + 0.5f), mMetricsOverlayPaint);
+        mMetricsOverlayPaint.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++)
+            canvas.drawText(lines[i], left, lineSpacing * (i + 1), mMetricsOverlayPaint);
+    }
+
 }
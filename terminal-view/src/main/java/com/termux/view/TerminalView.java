@@ -39,6 +39,7 @@ import androidx.annotation.RequiresApi;
 import com.termux.terminal.KeyHandler;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TerminalSessionMetrics;
 import com.termux.view.textselection.TextSelectionCursorController;
 
 /** View displaying and interacting with a {@link TerminalSession}. */
@@ -58,6 +59,10 @@ public final class TerminalView extends View {
 
     private TextSelectionCursorController mTextSelectionCursorController;
 
+    /** Whether to render the {@link TerminalSession#getMetrics()} of {@link #mTermSession} on top of the terminal. */
+    private boolean mMetricsOverlayEnabled;
+    private final Runnable mMetricsOverlayRefresher = this::invalidate;
+
     private Handler mTerminalCursorBlinkerHandler;
     private TerminalCursorBlinkerRunnable mTerminalCursorBlinkerRunnable;
     private int mTerminalCursorBlinkerRate;
@@ -975,7 +980,18 @@ public final class TerminalView extends View {
                 mTextSelectionCursorController.getSelectors(sel);
             }
 
+            long renderStartTime = System.nanoTime();
             mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+            if (mTermSession != null) {
+                mTermSession.getMetrics().onFrameRendered(System.nanoTime() - renderStartTime);
+                if (mMetricsOverlayEnabled) {
+                    mTermSession.updateMetrics();
+                    mRenderer.renderMetricsOverlay(canvas, mTermSession.getMetrics(), getWidth());
+                    // Keep refreshing so that the rates drop once the session is idle.
+                    removeCallbacks(mMetricsOverlayRefresher);
+                    postDelayed(mMetricsOverlayRefresher, TerminalSessionMetrics.RATE_INTERVAL_MILLIS);
+                }
+            }
 
             // render the text selection handles
             renderTextSelection();
@@ -986,6 +1002,17 @@ public final class TerminalView extends View {
         return mTermSession;
     }
 
+    /**
+     * Set whether a summary of the I/O throughput and latency metrics of the current session should be rendered on
+     * top of the terminal.
+     */
+    public void setMetricsOverlayEnabled(boolean enabled) {
+        if (mMetricsOverlayEnabled == enabled) return;
+        mMetricsOverlayEnabled = enabled;
+        if (!enabled) removeCallbacks(mMetricsOverlayRefresher);
+        invalidate();
+    }
+
     private CharSequence getText() {
         return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
     }
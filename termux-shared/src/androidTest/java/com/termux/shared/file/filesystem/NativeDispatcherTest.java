@@ -0,0 +1,120 @@
+package com.termux.shared.file.filesystem;
+
+import android.content.Context;
+import android.system.Os;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link NativeDispatcher#listDirectory(String, boolean)}, which need the native library
+ * built for the device, by comparing it with the {@link Os} fallback.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NativeDispatcherTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDir = new File(context.getCacheDir(), "NativeDispatcherTest");
+        if (mDir.exists()) NativeDispatcher.deleteTree(mDir.getAbsolutePath(), false);
+        assertTrue(mDir.mkdirs());
+
+        try (FileOutputStream out = new FileOutputStream(new File(mDir, "file"))) {
+            out.write(new byte[1234]);
+        }
+        assertTrue(new File(mDir, "dir").mkdir());
+        File readOnlyFile = new File(mDir, "read-only \u00e9t\u00e9");
+        assertTrue(readOnlyFile.createNewFile());
+        assertTrue(readOnlyFile.setWritable(false, false));
+        Os.symlink("file", new File(mDir, "link").getAbsolutePath());
+        Os.symlink("missing", new File(mDir, "broken-link").getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NativeDispatcher.deleteTree(mDir.getAbsolutePath(), false);
+    }
+
+    @Test
+    public void testListDirectory() throws IOException {
+        assertTrue(NativeDispatcher.isFileUtilsLibraryLoaded());
+
+        DirectoryListing listing = NativeDispatcher.listDirectory(mDir.getAbsolutePath(), false);
+        assertEquals(5, listing.size());
+        Map<String, Integer> indexes = getIndexes(listing);
+        assertTrue(listing.getFileAttributes(indexes.get("file")).isRegularFile());
+        assertEquals(1234, listing.getFileAttributes(indexes.get("file")).size());
+        assertTrue(listing.getFileAttributes(indexes.get("dir")).isDirectory());
+        assertTrue(listing.getFileAttributes(indexes.get("link")).isSymbolicLink());
+        assertTrue(listing.getFileAttributes(indexes.get("broken-link")).isSymbolicLink());
+        assertTrue(listing.isWritable(indexes.get("file")));
+        assertFalse(listing.isWritable(indexes.get("read-only \u00e9t\u00e9")));
+        assertTrue(listing.getDirectoryAttributes().isDirectory());
+        assertTrue(listing.isDirectoryWritable());
+
+        // Symlinks are listed with their target, unless it does not exist
+        listing = NativeDispatcher.listDirectory(mDir.getAbsolutePath(), true);
+        indexes = getIndexes(listing);
+        assertTrue(listing.getFileAttributes(indexes.get("link")).isRegularFile());
+        assertEquals(1234, listing.getFileAttributes(indexes.get("link")).size());
+        assertTrue(listing.getFileAttributes(indexes.get("broken-link")).isSymbolicLink());
+    }
+
+    @Test
+    public void testListDirectoryWithOsIsSame() throws IOException {
+        assertTrue(NativeDispatcher.isFileUtilsLibraryLoaded());
+
+        for (boolean followLinks : new boolean[]{false, true}) {
+            DirectoryListing nativeListing = NativeDispatcher.listDirectory(mDir.getAbsolutePath(), followLinks);
+            DirectoryListing osListing = NativeDispatcher.listDirectoryWithOs(mDir.getAbsolutePath(), followLinks, 0);
+
+            assertSameAttributes(osListing.getDirectoryAttributes(), nativeListing.getDirectoryAttributes());
+            assertEquals(osListing.isDirectoryWritable(), nativeListing.isDirectoryWritable());
+
+            assertEquals(osListing.size(), nativeListing.size());
+            Map<String, Integer> nativeIndexes = getIndexes(nativeListing);
+            for (int i = 0; i < osListing.size(); i++) {
+                String name = osListing.getName(i);
+                Integer nativeIndex = nativeIndexes.get(name);
+                assertNotNull(name, nativeIndex);
+                assertSameAttributes(osListing.getFileAttributes(i), nativeListing.getFileAttributes(nativeIndex));
+                assertEquals(name, osListing.isWritable(i), nativeListing.isWritable(nativeIndex));
+            }
+        }
+    }
+
+    private static Map<String, Integer> getIndexes(DirectoryListing listing) {
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < listing.size(); i++)
+            indexes.put(listing.getName(i), i);
+        return indexes;
+    }
+
+    private static void assertSameAttributes(FileAttributes expected, FileAttributes actual) {
+        String message = expected.file();
+        assertEquals(message, expected.file(), actual.file());
+        assertEquals(message, expected.mode(), actual.mode());
+        assertEquals(message, expected.ino(), actual.ino());
+        assertEquals(message, expected.dev(), actual.dev());
+        assertEquals(message, expected.size(), actual.size());
+        assertEquals(message, expected.lastModifiedTime().to(TimeUnit.NANOSECONDS), actual.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.termux.shared.net.socket.local;
+
+import android.content.Context;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.errors.Error;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of large payload transfers on a {@link LocalClientSocket}, with the byte at a time
+ * {@link LocalClientSocket#getInputStream()} and {@link LocalClientSocket#getOutputStream()} used
+ * before, and with the bulk {@link ByteBuffer} APIs.
+ *
+ * The results are logged with the {@link #LOG_TAG} tag, run with:
+ * {@code ./gradlew :termux-shared:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.termux.shared.net.socket.local.LocalSocketBenchmarkTest}
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocalSocketBenchmarkTest {
+
+    /** The byte at a time transfers are slow, so a smaller payload is used for them. */
+    private static final int BYTE_PAYLOAD_SIZE = 256 * 1024;
+    private static final int BULK_PAYLOAD_SIZE = 32 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String LOG_TAG = "LocalSocketBenchmark";
+
+    private interface ServerAction {
+        /** Transfer the payload on the client socket and return an error or null. */
+        Error run(@NonNull LocalClientSocket clientSocket) throws Exception;
+    }
+
+    private LocalSocketManager mLocalSocketManager;
+    private String mPath;
+    private volatile ServerAction mServerAction;
+    /** The elapsed nanoseconds of each server action, or -1 if it failed. */
+    private final SynchronousQueue<Long> mServerResults = new SynchronousQueue<>();
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mPath = new File(context.getCacheDir(), "local-socket-benchmark").getAbsolutePath();
+        //noinspection ResultOfMethodCallIgnored
+        new File(mPath).delete();
+
+        LocalSocketRunConfig runConfig = new LocalSocketRunConfig("LocalSocketBenchmark", mPath,
+            new LocalSocketManagerClientBase() {
+                @Override
+                public void onClientAccepted(@NonNull LocalSocketManager localSocketManager,
+                                             @NonNull LocalClientSocket clientSocket) {
+                    long result;
+                    try {
+                        long startTime = System.nanoTime();
+                        Error error = mServerAction.run(clientSocket);
+                        result = error == null ? System.nanoTime() - startTime : -1;
+                        if (error != null) Log.e(LOG_TAG, error.toString());
+                    } catch (Throwable t) {
+                        // Also catch assertion failures, since they would otherwise kill the server thread
+                        Log.e(LOG_TAG, "Server action failed", t);
+                        result = -1;
+                    }
+                    super.onClientAccepted(localSocketManager, clientSocket);
+                    try {
+                        mServerResults.offer(result, 30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                @Override
+                protected String getLogTag() {
+                    return LOG_TAG;
+                }
+            });
+        mLocalSocketManager = new LocalSocketManager(context, runConfig);
+        assertNull(mLocalSocketManager.start());
+    }
+
+    @After
+    public void tearDown() {
+        mLocalSocketManager.stop();
+    }
+
+    @Test
+    public void benchmarkReceive() throws Exception {
+        long byteTime = runReceive(BYTE_PAYLOAD_SIZE, clientSocket -> {
+            InputStream inputStream = clientSocket.getInputStream();
+            int total = 0;
+            while (inputStream.read() >= 0) total++;
+            assertEquals(BYTE_PAYLOAD_SIZE, total);
+            return null;
+        });
+
+        long heapTime = runReceive(BULK_PAYLOAD_SIZE, clientSocket -> receiveBulk(clientSocket, ByteBuffer.allocate(BUFFER_SIZE)));
+        long directTime = runReceive(BULK_PAYLOAD_SIZE, clientSocket -> receiveBulk(clientSocket, ByteBuffer.allocateDirect(BUFFER_SIZE)));
+
+        Log.i(LOG_TAG, "Receive:" +
+            "\n  byte at a time: " + getThroughput(BYTE_PAYLOAD_SIZE, byteTime) +
+            "\n  heap ByteBuffer: " + getThroughput(BULK_PAYLOAD_SIZE, heapTime) +
+            "\n  direct ByteBuffer: " + getThroughput(BULK_PAYLOAD_SIZE, directTime));
+    }
+
+    @Test
+    public void benchmarkSend() throws Exception {
+        long byteTime = runSend(BYTE_PAYLOAD_SIZE, clientSocket -> {
+            OutputStream outputStream = clientSocket.getOutputStream();
+            for (int i = 0; i < BYTE_PAYLOAD_SIZE; i++)
+                outputStream.write(i);
+            return null;
+        });
+
+        long heapTime = runSend(BULK_PAYLOAD_SIZE, clientSocket -> sendBulk(clientSocket, ByteBuffer.allocate(BUFFER_SIZE)));
+        long directTime = runSend(BULK_PAYLOAD_SIZE, clientSocket -> sendBulk(clientSocket, ByteBuffer.allocateDirect(BUFFER_SIZE)));
+
+        Log.i(LOG_TAG, "Send:" +
+            "\n  byte at a time: " + getThroughput(BYTE_PAYLOAD_SIZE, byteTime) +
+            "\n  heap ByteBuffer: " + getThroughput(BULK_PAYLOAD_SIZE, heapTime) +
+            "\n  direct ByteBuffer: " + getThroughput(BULK_PAYLOAD_SIZE, directTime));
+    }
+
+    @Test
+    public void testReadFullyAndGather() throws Exception {
+        runReceive(BUFFER_SIZE * 3, clientSocket -> {
+            ByteBuffer[] buffers = {ByteBuffer.allocateDirect(BUFFER_SIZE), ByteBuffer.allocateDirect(BUFFER_SIZE)};
+            LocalClientSocket.MutableInt bytesRead = new LocalClientSocket.MutableInt(0);
+            int total = 0;
+            while (total < BUFFER_SIZE * 2) {
+                assertNull(clientSocket.read(buffers, bytesRead));
+                assertTrue(bytesRead.value > 0);
+                total += bytesRead.value;
+            }
+            assertEquals(BUFFER_SIZE, buffers[1].position());
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            assertNull(clientSocket.readFully(buffer));
+            assertFalse(buffer.hasRemaining());
+            assertNotNull(clientSocket.readFully(ByteBuffer.allocate(1)));
+            return null;
+        });
+    }
+
+    private static Error receiveBulk(@NonNull LocalClientSocket clientSocket, @NonNull ByteBuffer buffer) {
+        LocalClientSocket.MutableInt bytesRead = new LocalClientSocket.MutableInt(0);
+        long total = 0;
+        while (true) {
+            buffer.clear();
+            Error error = clientSocket.read(buffer, bytesRead);
+            if (error != null) return error;
+            if (bytesRead.value == 0) break;
+            total += bytesRead.value;
+        }
+        assertEquals(BULK_PAYLOAD_SIZE, total);
+        return null;
+    }
+
+    private static Error sendBulk(@NonNull LocalClientSocket clientSocket, @NonNull ByteBuffer buffer) {
+        for (int sent = 0; sent < BULK_PAYLOAD_SIZE; sent += BUFFER_SIZE) {
+            buffer.clear();
+            Error error = clientSocket.send(buffer);
+            if (error != null) return error;
+        }
+        return null;
+    }
+
+    /** Send size bytes from a client to the server running action and return its elapsed time. */
+    private long runReceive(int size, @NonNull ServerAction action) throws Exception {
+        mServerAction = action;
+        try (LocalSocket socket = connect()) {
+            OutputStream outputStream = socket.getOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int sent = 0; sent < size; sent += buffer.length)
+                outputStream.write(buffer, 0, Math.min(buffer.length, size - sent));
+            socket.shutdownOutput();
+            return getServerResult();
+        }
+    }
+
+    /** Receive size bytes on a client from the server running action and return its elapsed time. */
+    private long runSend(int size, @NonNull ServerAction action) throws Exception {
+        mServerAction = action;
+        try (LocalSocket socket = connect()) {
+            InputStream inputStream = socket.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            int n;
+            while ((n = inputStream.read(buffer)) > 0)
+                total += n;
+            long time = getServerResult();
+            assertEquals(size, total);
+            return time;
+        }
+    }
+
+    private LocalSocket connect() throws Exception {
+        LocalSocket socket = new LocalSocket();
+        socket.connect(new LocalSocketAddress(mPath, LocalSocketAddress.Namespace.FILESYSTEM));
+        return socket;
+    }
+
+    private long getServerResult() throws InterruptedException {
+        Long result = mServerResults.poll(60, TimeUnit.SECONDS);
+        assertNotNull("Server did not finish", result);
+        assertTrue("Server action failed", result >= 0);
+        return result;
+    }
+
+    private static String getThroughput(long bytes, long nanos) {
+        return String.format(Locale.US, "%.1f MiB/s (%d bytes in %.1f ms)",
+            bytes / (1024.0 * 1024.0) / (nanos / 1e9), bytes, nanos / 1e6);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.termux.shared.shell.command.runner.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.shell.command.environment.AndroidShellEnvironment;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of the process spawn latency of the {@link AppShell} path, to compare with the TerminalSession paths
+ * benchmarked by {@code com.termux.terminal.SpawnBenchmarkTest} of the terminal-emulator module.
+ *
+ * The results are logged with the {@link #LOG_TAG} tag, run with:
+ * {@code ./gradlew :termux-shared:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.termux.shared.shell.command.runner.app.AppShellSpawnBenchmarkTest}
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppShellSpawnBenchmarkTest {
+
+    private static final String EXECUTABLE = "/system/bin/true";
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 50;
+
+    private static final String LOG_TAG = "SpawnBenchmark";
+
+    @Test
+    public void benchmarkAppShell() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AndroidShellEnvironment shellEnvironment = new AndroidShellEnvironment();
+
+        long[] exitTimes = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            ExecutionCommand executionCommand = new ExecutionCommand(i, EXECUTABLE, null, null, "/",
+                ExecutionCommand.Runner.APP_SHELL.getName(), false);
+            long startTime = System.nanoTime();
+            AppShell appShell = AppShell.execute(context, executionCommand, null, shellEnvironment, null, true);
+            long exitTime = System.nanoTime() - startTime;
+
+            assertNotNull(appShell);
+            assertEquals(Integer.valueOf(0), executionCommand.resultData.exitCode);
+            if (i >= 0) exitTimes[i] = exitTime;
+        }
+
+        // AppShell waits for the process in the calling thread, so only the time to exit is measured.
+        long[] sorted = exitTimes.clone();
+        Arrays.sort(sorted);
+        Log.i(LOG_TAG, String.format(Locale.US, "AppShell (%d iterations):\n  spawn to exit: median %.3f ms, p90 %.3f ms, max %.3f ms",
+            ITERATIONS, sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 9 / 10] / 1e6, sorted[sorted.length - 1] / 1e6));
+    }
+
+}
@@ -4,3 +4,8 @@ LOCAL_LDLIBS := -llog
 LOCAL_MODULE := local-socket
 LOCAL_SRC_FILES := local-socket.cpp
 include $(BUILD_SHARED_LIBRARY)
+
+include $(CLEAR_VARS)
+LOCAL_MODULE := file-utils
+LOCAL_SRC_FILES := file-utils.cpp file-tree.cpp
+include $(BUILD_SHARED_LIBRARY)
@@ -0,0 +1,860 @@
+#include "file-tree.h"
+
+#include <atomic>
+#include <cerrno>
+#include <condition_variable>
+#include <cstdint>
+#include <cstring>
+#include <deque>
+#include <dirent.h>
+#include <fcntl.h>
+#include <limits.h>
+#include <memory>
+#include <mutex>
+#include <pthread.h>
+#include <stdio.h>
+#include <sys/sendfile.h>
+#include <sys/stat.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#include <vector>
+
+using namespace std;
+
+#ifndef RENAME_NOREPLACE
+#define RENAME_NOREPLACE (1 << 0)
+#endif
+
+/* Buffer size for getdents64(). */
+#define DIRENT_BUFFER_SIZE (64 * 1024)
+
+/* The max bytes copied by one copy_file_range(), sendfile() or read() call. */
+#define COPY_CHUNK_SIZE (8 * 1024 * 1024)
+
+/* Buffer size for the read() and write() fallback of copies. */
+#define COPY_BUFFER_SIZE (128 * 1024)
+
+/* The flags used to open the directories of the tree, which must not be symlinks. */
+#define DIRECTORY_OPEN_FLAGS (O_RDONLY | O_DIRECTORY | O_NOFOLLOW | O_CLOEXEC)
+
+namespace {
+
+struct linux_dirent64 {
+    uint64_t d_ino;
+    int64_t d_off;
+    unsigned short d_reclen;
+    unsigned char d_type;
+    char d_name[];
+};
+
+struct dir_entry {
+    string name;
+    unsigned char type;
+};
+
+/*
+ * A directory of the tree. The pending count is 1 while the directory is being scanned plus the
+ * number of its subdirectories that are not finished yet, and the directory is finished when it
+ * drops to 0, so that it is only deleted or has its times set after everything under it is done.
+ */
+struct tree_node {
+    tree_node *parent;
+    string name;
+    /* The directory fd, or the source directory fd for copies. */
+    int fd = -1;
+    /* The destination directory fd for copies. */
+    int dest_fd = -1;
+    /* The stat of the source directory for copies. */
+    struct stat st;
+    atomic<long> pending{1};
+
+    tree_node(tree_node *parent, string name) : parent(parent), name(std::move(name)) {}
+};
+
+/* Whether copy_file_range() returned ENOSYS once, so that it is not tried again. */
+atomic<bool> copy_file_range_unsupported{false};
+
+/* Whether renameat2() returned ENOSYS once, so that it is not tried again. */
+atomic<bool> renameat2_unsupported{false};
+
+
+/*
+ * Call on_entry(name, d_type) for the entries of the directory fd except "." and "..", one
+ * getdents64() buffer at a time so that memory does not grow with the size of the directory. Stops
+ * if on_entry returns false. Returns 0 or -1 with errno set.
+ */
+template <typename F>
+int for_each_dir_entry(int fd, F on_entry) {
+    vector<char> buffer(DIRENT_BUFFER_SIZE);
+    while (true) {
+        long count = syscall(SYS_getdents64, fd, buffer.data(), buffer.size());
+        if (count == 0) return 0;
+        if (count < 0) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+
+        for (long offset = 0; offset < count;) {
+            struct linux_dirent64 *dirent = (struct linux_dirent64 *) (buffer.data() + offset);
+            offset += dirent->d_reclen;
+
+            const char *name = dirent->d_name;
+            if (name[0] == '.' && (name[1] == '\0' || (name[1] == '.' && name[2] == '\0')))
+                continue;
+            if (!on_entry(name, dirent->d_type)) return 0;
+        }
+    }
+}
+
+/* Read the entries of the directory fd except "." and "..". Returns 0 or -1 with errno set. */
+int read_dir_entries(int fd, vector<dir_entry> &entries) {
+    return for_each_dir_entry(fd, [&entries](const char *name, unsigned char type) {
+        entries.push_back({name, type});
+        return true;
+    });
+}
+
+/* Get the d_type of the file name under dir_fd from its stat. Returns DT_UNKNOWN on failure. */
+unsigned char get_file_type(int dir_fd, const char *name, struct stat *st) {
+    if (fstatat(dir_fd, name, st, AT_SYMLINK_NOFOLLOW) != 0) return DT_UNKNOWN;
+    return IFTODT(st->st_mode);
+}
+
+/* Write all of count bytes of buffer to fd. Returns 0 or -1 with errno set. */
+int write_fully(int fd, const char *buffer, size_t count) {
+    while (count > 0) {
+        ssize_t written = write(fd, buffer, count);
+        if (written < 0) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+        buffer += written;
+        count -= (size_t) written;
+    }
+    return 0;
+}
+
+/*
+ * Copy the data of in_fd to out_fd from their current offsets until the end of in_fd with
+ * copy_file_range() so that the kernel can copy without the data passing through userspace, or
+ * reflink it on filesystems that support it. Falls back to sendfile(), and then to read() and
+ * write(), if the previous call is not supported for the files. Returns the bytes copied or -1 with
+ * errno set.
+ */
+long long copy_file_data(int in_fd, int out_fd) {
+#ifdef __NR_copy_file_range
+    bool use_copy_file_range = !copy_file_range_unsupported.load(memory_order_relaxed);
+#else
+    bool use_copy_file_range = false;
+#endif
+    bool use_sendfile = true;
+    vector<char> buffer;
+    long long copied = 0;
+
+    while (true) {
+        ssize_t count;
+        if (use_copy_file_range) {
+#ifdef __NR_copy_file_range
+            count = syscall(__NR_copy_file_range, in_fd, NULL, out_fd, NULL, COPY_CHUNK_SIZE, 0);
+            if (count < 0 && (errno == ENOSYS || errno == EXDEV || errno == EINVAL ||
+                              errno == EOPNOTSUPP || errno == EPERM)) {
+                if (errno == ENOSYS) copy_file_range_unsupported.store(true, memory_order_relaxed);
+                use_copy_file_range = false;
+                continue;
+            }
+#endif
+        } else if (use_sendfile) {
+            count = sendfile(out_fd, in_fd, NULL, COPY_CHUNK_SIZE);
+            if (count < 0 && (errno == EINVAL || errno == ENOSYS)) {
+                use_sendfile = false;
+                continue;
+            }
+        } else {
+            if (buffer.empty()) buffer.resize(COPY_BUFFER_SIZE);
+            count = read(in_fd, buffer.data(), buffer.size());
+            if (count > 0 && write_fully(out_fd, buffer.data(), (size_t) count) != 0)
+                return -1;
+        }
+
+        if (count < 0) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+        if (count == 0) return copied;
+        copied += count;
+    }
+}
+
+/* Set the mode and the access and modification times of fd to those of st. */
+int copy_file_attributes(int fd, const struct stat &st) {
+    struct timespec times[2] = {st.st_atim, st.st_mtim};
+    if (fchmod(fd, st.st_mode & 07777) != 0) return -1;
+    return futimens(fd, times);
+}
+
+/* Split the absolute path into its parent directory path and name. Returns false if invalid. */
+bool split_path(const char *path, string &dir_path, string &name) {
+    string str(path);
+    while (str.size() > 1 && str.back() == '/') str.pop_back();
+    size_t index = str.rfind('/');
+    if (str.empty() || str[0] != '/' || index == string::npos || index == str.size() - 1)
+        return false;
+    dir_path = index == 0 ? "/" : str.substr(0, index);
+    name = str.substr(index + 1);
+    return name != "." && name != "..";
+}
+
+/* Set the result error to the message and errnum. */
+int set_error(file_tree_result *result, const string &message, int errnum) {
+    result->error_number = errnum;
+    result->error_message = message;
+    return -1;
+}
+
+
+
+/*
+ * Walks the directories of a tree with a work stealing pool of threads. Each thread scans the
+ * directories from the back of its own queue, so that it goes depth first and keeps few directory
+ * fds open, and pushes the subdirectories it finds to it. A thread with an empty queue steals from
+ * the front of the queues of the other threads, which has the directories closest to the root and
+ * so likely the largest subtrees. The helper threads are only started when the first subdirectory
+ * is found, so that flat directories are handled by the calling thread only.
+ */
+class tree_walker {
+
+public:
+
+    tree_walker(int threads, file_tree_result *result, const string &root_path)
+        : mThreads(threads < 1 ? 1 : threads), mResult(result), mRootPath(root_path) {
+        for (int i = 0; i < mThreads; i++)
+            mQueues.emplace_back(new worker_queue());
+    }
+
+    virtual ~tree_walker() = default;
+
+    /* Walk the tree under the already opened root directory whose parent is the anchor node. */
+    int run(tree_node *root) {
+        mRoot = root;
+        push(0, root);
+        work(0);
+
+        for (pthread_t thread : mHelpers)
+            pthread_join(thread, NULL);
+
+        mResult->files = mFiles.load();
+        mResult->directories = mDirectories.load();
+        mResult->bytes = mBytes.load();
+        return mResult->error_number != 0 ? -1 : 0;
+    }
+
+protected:
+
+    tree_node *mRoot = nullptr;
+    atomic<long> mFiles{0};
+    atomic<long> mDirectories{0};
+    atomic<long long> mBytes{0};
+
+    /* Process the entries of the directory node, opening it first if its fd is -1. */
+    virtual void scan(int worker, tree_node *node) = 0;
+
+    /* Finish the directory node after everything under it is done and close its fds. */
+    virtual void finish(tree_node *node) = 0;
+
+    /* Add the subdirectory child of parent to be scanned by the pool. */
+    void add_child(int worker, tree_node *child) {
+        child->parent->pending.fetch_add(1);
+        if (mThreads > 1 && !mHelpersStarted.load(memory_order_relaxed) && !mHelpersStarted.exchange(true))
+            start_helpers();
+        push(worker, child);
+    }
+
+    bool is_aborted() {
+        return mAborted.load(memory_order_relaxed);
+    }
+
+    /* Record the first failure and stop the walk. */
+    void fail(const string &message, int errnum) {
+        lock_guard<mutex> guard(mErrorLock);
+        if (mResult->error_number == 0)
+            set_error(mResult, message, errnum);
+        mAborted.store(true);
+    }
+
+    /* Get the path of name under the directory node, or of node itself if name is NULL. */
+    string get_path(const tree_node *node, const char *name, const string &root_path) {
+        string path;
+        for (; node != mRoot; node = node->parent)
+            path.insert(0, "/" + node->name);
+        path.insert(0, root_path);
+        if (name != NULL) path.append("/").append(name);
+        return path;
+    }
+
+    string get_path(const tree_node *node, const char *name) {
+        return get_path(node, name, mRootPath);
+    }
+
+private:
+
+    struct worker_queue {
+        mutex lock;
+        deque<tree_node *> nodes;
+    };
+
+    const int mThreads;
+    file_tree_result *mResult;
+    const string mRootPath;
+
+    vector<unique_ptr<worker_queue>> mQueues;
+    vector<pthread_t> mHelpers;
+    atomic<bool> mHelpersStarted{false};
+
+    /* The nodes in the queues, which may briefly be negative while a node is being pushed. */
+    atomic<long> mQueued{0};
+    /* The nodes in the queues or being scanned. The walk is done when it drops to 0. */
+    atomic<long> mOutstanding{0};
+    mutex mIdleLock;
+    condition_variable mIdleCond;
+
+    atomic<bool> mAborted{false};
+    mutex mErrorLock;
+
+    struct helper_args {
+        tree_walker *walker;
+        int worker;
+    };
+
+    static void *helper_main(void *arg) {
+        helper_args *args = (helper_args *) arg;
+        args->walker->work(args->worker);
+        delete args;
+        return NULL;
+    }
+
+    /* Start the helper threads. A thread that fails to start just leaves its worker unused. */
+    void start_helpers() {
+        for (int i = 1; i < mThreads; i++) {
+            pthread_t thread;
+            helper_args *args = new helper_args{this, i};
+            if (pthread_create(&thread, NULL, helper_main, args) == 0)
+                mHelpers.push_back(thread);
+            else
+                delete args;
+        }
+    }
+
+    void push(int worker, tree_node *node) {
+        mOutstanding.fetch_add(1);
+        {
+            lock_guard<mutex> guard(mQueues[worker]->lock);
+            mQueues[worker]->nodes.push_back(node);
+        }
+        mQueued.fetch_add(1);
+        if (mHelpersStarted.load(memory_order_relaxed)) {
+            // Lock so that the notify is not lost between the check and wait of an idle thread
+            { lock_guard<mutex> guard(mIdleLock); }
+            mIdleCond.notify_one();
+        }
+    }
+
+    tree_node *take(int worker) {
+        for (int i = 0; i < mThreads; i++) {
+            worker_queue *queue = mQueues[(worker + i) % mThreads].get();
+            lock_guard<mutex> guard(queue->lock);
+            if (queue->nodes.empty()) continue;
+
+            tree_node *node;
+            if (i == 0) {
+                node = queue->nodes.back();
+                queue->nodes.pop_back();
+            } else {
+                node = queue->nodes.front();
+                queue->nodes.pop_front();
+            }
+            mQueued.fetch_sub(1);
+            return node;
+        }
+        return nullptr;
+    }
+
+    void work(int worker) {
+        while (true) {
+            tree_node *node = take(worker);
+            if (node != nullptr) {
+                if (!is_aborted()) scan(worker, node);
+                release(node);
+                if (mOutstanding.fetch_sub(1) == 1) {
+                    { lock_guard<mutex> guard(mIdleLock); }
+                    mIdleCond.notify_all();
+                }
+                continue;
+            }
+
+            unique_lock<mutex> lock(mIdleLock);
+            mIdleCond.wait(lock, [this] { return mQueued.load() > 0 || mOutstanding.load() == 0; });
+            if (mOutstanding.load() == 0) return;
+        }
+    }
+
+    /* Drop a pending count of node and finish it and its parents whose count drops to 0. */
+    void release(tree_node *node) {
+        while (node->parent != nullptr && node->pending.fetch_sub(1) == 1) {
+            tree_node *parent = node->parent;
+            finish(node);
+            delete node;
+            node = parent;
+        }
+    }
+
+};
+
+
+
+class delete_walker : public tree_walker {
+
+public:
+
+    delete_walker(int threads, file_tree_result *result, const string &root_path, bool contents_only)
+        : tree_walker(threads, result, root_path), mContentsOnly(contents_only) {}
+
+protected:
+
+    void scan(int worker, tree_node *node) override {
+        if (node->fd == -1) {
+            node->fd = openat(node->parent->fd, node->name.c_str(), DIRECTORY_OPEN_FLAGS);
+            if (node->fd == -1) {
+                // Removed by something else while walking
+                if (errno == ENOENT) return;
+                fail("Failed to open directory \"" + get_path(node, NULL) + "\"", errno);
+                return;
+            }
+        }
+
+        vector<dir_entry> entries;
+        if (read_dir_entries(node->fd, entries) != 0) {
+            fail("Failed to read directory \"" + get_path(node, NULL) + "\"", errno);
+            return;
+        }
+
+        // Entries are deleted after reading all of them since some filesystems skip entries if
+        // the directory is modified while reading it
+        for (dir_entry &entry : entries) {
+            if (is_aborted()) return;
+
+            const char *name = entry.name.c_str();
+            if (entry.type != DT_DIR) {
+                if (unlinkat(node->fd, name, 0) == 0) {
+                    mFiles.fetch_add(1, memory_order_relaxed);
+                    continue;
+                }
+
+                int errnum = errno;
+                struct stat st;
+                if (errnum == ENOENT) continue;
+                if ((errnum != EISDIR && errnum != EPERM) || get_file_type(node->fd, name, &st) != DT_DIR) {
+                    fail("Failed to delete file \"" + get_path(node, name) + "\"", errnum);
+                    return;
+                }
+            }
+
+            add_child(worker, new tree_node(node, entry.name));
+        }
+    }
+
+    void finish(tree_node *node) override {
+        if (node->fd != -1) close(node->fd);
+        if (is_aborted() || (node == mRoot && mContentsOnly)) return;
+
+        if (unlinkat(node->parent->fd, node->name.c_str(), AT_REMOVEDIR) == 0)
+            mDirectories.fetch_add(1, memory_order_relaxed);
+        else if (errno != ENOENT)
+            fail("Failed to delete directory \"" + get_path(node, NULL) + "\"", errno);
+    }
+
+private:
+
+    const bool mContentsOnly;
+
+};
+
+
+
+class copy_walker : public tree_walker {
+
+public:
+
+    copy_walker(int threads, file_tree_result *result, const string &src_root_path,
+                const string &dest_root_path, dev_t dest_root_dev, ino_t dest_root_ino)
+        : tree_walker(threads, result, src_root_path), mDestRootPath(dest_root_path),
+          mDestRootDev(dest_root_dev), mDestRootIno(dest_root_ino) {}
+
+    /*
+     * Copy the non-directory file src_name under src_dir_fd to dest_name under dest_dir_fd.
+     * Returns 0, 1 if the source was removed while copying, or -1 with errno set.
+     */
+    static int copy_file(int src_dir_fd, const char *src_name, int dest_dir_fd, const char *dest_name,
+                         unsigned char type, long long *bytes) {
+        struct stat st;
+        if (type == DT_UNKNOWN) {
+            type = get_file_type(src_dir_fd, src_name, &st);
+            if (type == DT_UNKNOWN) return errno == ENOENT ? 1 : -1;
+        }
+
+        if (type == DT_REG) {
+            int in_fd = openat(src_dir_fd, src_name, O_RDONLY | O_NOFOLLOW | O_CLOEXEC);
+            if (in_fd == -1) return errno == ENOENT ? 1 : -1;
+            if (fstat(in_fd, &st) != 0) {
+                int errnum = errno;
+                close(in_fd);
+                errno = errnum;
+                return -1;
+            }
+
+            int out_fd = openat(dest_dir_fd, dest_name, O_WRONLY | O_CREAT | O_EXCL | O_CLOEXEC, 0600);
+            if (out_fd == -1) {
+                int errnum = errno;
+                close(in_fd);
+                errno = errnum;
+                return -1;
+            }
+
+            long long copied = copy_file_data(in_fd, out_fd);
+            int ret = copied < 0 ? -1 : copy_file_attributes(out_fd, st);
+            int errnum = errno;
+            close(in_fd);
+            if (close(out_fd) != 0 && ret == 0) {
+                ret = -1;
+                errnum = errno;
+            }
+            errno = errnum;
+            if (ret == 0) *bytes += copied;
+            return ret;
+        } else if (type == DT_LNK) {
+            vector<char> target(PATH_MAX);
+            while (true) {
+                ssize_t length = readlinkat(src_dir_fd, src_name, target.data(), target.size());
+                if (length < 0) return errno == ENOENT ? 1 : -1;
+                if ((size_t) length < target.size()) {
+                    target[(size_t) length] = '\0';
+                    break;
+                }
+                target.resize(target.size() * 2);
+            }
+            return symlinkat(target.data(), dest_dir_fd, dest_name);
+        } else if (type == DT_FIFO) {
+            if (fstatat(src_dir_fd, src_name, &st, AT_SYMLINK_NOFOLLOW) != 0) return errno == ENOENT ? 1 : -1;
+            return mknodat(dest_dir_fd, dest_name, S_IFIFO | (st.st_mode & 07777), 0);
+        }
+
+        // Sockets and devices cannot be copied
+        errno = EOPNOTSUPP;
+        return -1;
+    }
+
+protected:
+
+    void scan(int worker, tree_node *node) override {
+        if (node->fd == -1) {
+            node->fd = openat(node->parent->fd, node->name.c_str(), DIRECTORY_OPEN_FLAGS);
+            if (node->fd == -1) {
+                if (errno == ENOENT) return;
+                fail("Failed to open directory \"" + get_path(node, NULL) + "\"", errno);
+                return;
+            }
+            if (fstat(node->fd, &node->st) != 0) {
+                fail("Failed to stat directory \"" + get_path(node, NULL) + "\"", errno);
+                return;
+            }
+
+            // Do not copy the destination into itself if it is under the source
+            if (node->st.st_dev == mDestRootDev && node->st.st_ino == mDestRootIno)
+                return;
+
+            // The directory is writable until finish() sets its mode
+            if (mkdirat(node->parent->dest_fd, node->name.c_str(), 0700) != 0 ||
+                (node->dest_fd = openat(node->parent->dest_fd, node->name.c_str(), DIRECTORY_OPEN_FLAGS)) == -1) {
+                fail("Failed to create directory \"" + get_path(node, NULL, mDestRootPath) + "\"", errno);
+                return;
+            }
+            mDirectories.fetch_add(1, memory_order_relaxed);
+        }
+
+        vector<dir_entry> entries;
+        if (read_dir_entries(node->fd, entries) != 0) {
+            fail("Failed to read directory \"" + get_path(node, NULL) + "\"", errno);
+            return;
+        }
+
+        long long bytes = 0;
+        for (dir_entry &entry : entries) {
+            if (is_aborted()) break;
+
+            const char *name = entry.name.c_str();
+            unsigned char type = entry.type;
+            struct stat st;
+            if (type == DT_UNKNOWN) {
+                type = get_file_type(node->fd, name, &st);
+                if (type == DT_UNKNOWN) {
+                    if (errno == ENOENT) continue;
+                    fail("Failed to stat file \"" + get_path(node, name) + "\"", errno);
+                    break;
+                }
+            }
+
+            if (type == DT_DIR) {
+                add_child(worker, new tree_node(node, entry.name));
+                continue;
+            }
+
+            int ret = copy_file(node->fd, name, node->dest_fd, name, type, &bytes);
+            if (ret < 0) {
+                fail("Failed to copy file \"" + get_path(node, name) + "\" to \"" +
+                     get_path(node, name, mDestRootPath) + "\"", errno);
+                break;
+            }
+            if (ret == 0) mFiles.fetch_add(1, memory_order_relaxed);
+        }
+        mBytes.fetch_add(bytes, memory_order_relaxed);
+    }
+
+    void finish(tree_node *node) override {
+        if (node->dest_fd != -1) {
+            if (!is_aborted() && copy_file_attributes(node->dest_fd, node->st) != 0)
+                fail("Failed to set attributes of directory \"" + get_path(node, NULL, mDestRootPath) + "\"", errno);
+            close(node->dest_fd);
+        }
+        if (node->fd != -1) close(node->fd);
+    }
+
+private:
+
+    const string mDestRootPath;
+    const dev_t mDestRootDev;
+    const ino_t mDestRootIno;
+
+};
+
+
+class age_walker : public tree_walker {
+
+public:
+
+    age_walker(int threads, file_tree_result *result, const string &root_path, const struct timespec &cutoff_time,
+               int allowed_file_type_flags, bool recursive, bool dry_run)
+        : tree_walker(threads, result, root_path), mCutoffTime(cutoff_time),
+          mAllowedFileTypeFlags(allowed_file_type_flags), mRecursive(recursive), mDryRun(dry_run) {}
+
+protected:
+
+    void scan(int worker, tree_node *node) override {
+        if (node->fd == -1) {
+            node->fd = openat(node->parent->fd, node->name.c_str(), DIRECTORY_OPEN_FLAGS);
+            if (node->fd == -1) {
+                if (errno == ENOENT) return;
+                fail("Failed to open directory \"" + get_path(node, NULL) + "\"", errno);
+                return;
+            }
+        }
+
+        // Entries are handled while reading instead of after reading all of them like
+        // delete_walker, so that memory does not grow with the size of the directory. Entries
+        // that some filesystems skip when the directory is modified while reading are only left
+        // for the next cleanup.
+        long files = 0;
+        long long bytes = 0;
+        int ret = for_each_dir_entry(node->fd, [&](const char *name, unsigned char type) {
+            if (is_aborted()) return false;
+
+            if (type == DT_DIR) {
+                if (mRecursive) add_child(worker, new tree_node(node, name));
+                return true;
+            }
+
+            struct stat st;
+            if (fstatat(node->fd, name, &st, AT_SYMLINK_NOFOLLOW) != 0) {
+                if (errno == ENOENT) return true;
+                fail("Failed to stat file \"" + get_path(node, name) + "\"", errno);
+                return false;
+            }
+
+            if (S_ISDIR(st.st_mode)) {
+                if (mRecursive) add_child(worker, new tree_node(node, name));
+                return true;
+            }
+
+            if ((get_file_type_flag(st.st_mode) & mAllowedFileTypeFlags) == 0 ||
+                st.st_mtim.tv_sec > mCutoffTime.tv_sec ||
+                (st.st_mtim.tv_sec == mCutoffTime.tv_sec && st.st_mtim.tv_nsec > mCutoffTime.tv_nsec))
+                return true;
+
+            if (!mDryRun && unlinkat(node->fd, name, 0) != 0) {
+                if (errno == ENOENT) return true;
+                fail("Failed to delete file \"" + get_path(node, name) + "\"", errno);
+                return false;
+            }
+            files++;
+            bytes += st.st_size;
+            return true;
+        });
+
+        if (ret != 0)
+            fail("Failed to read directory \"" + get_path(node, NULL) + "\"", errno);
+        mFiles.fetch_add(files, memory_order_relaxed);
+        mBytes.fetch_add(bytes, memory_order_relaxed);
+    }
+
+    void finish(tree_node *node) override {
+        if (node->fd != -1) close(node->fd);
+    }
+
+private:
+
+    const struct timespec mCutoffTime;
+    const int mAllowedFileTypeFlags;
+    const bool mRecursive;
+    const bool mDryRun;
+
+    /* Get the com.termux.shared.file.filesystem.FileType value for the file type of mode. */
+    static int get_file_type_flag(mode_t mode) {
+        switch (mode & S_IFMT) {
+            case S_IFREG: return 1;
+            case S_IFDIR: return 2;
+            case S_IFLNK: return 4;
+            case S_IFSOCK: return 8;
+            case S_IFCHR: return 16;
+            case S_IFIFO: return 32;
+            case S_IFBLK: return 64;
+            default: return 128;
+        }
+    }
+
+};
+
+}
+
+
+
+int file_tree_delete(const char *path, bool contents_only, int threads, file_tree_result *result) {
+    string dir_path, name;
+    if (!split_path(path, dir_path, name))
+        return set_error(result, "Invalid path \"" + string(path) + "\" to delete", EINVAL);
+
+    tree_node anchor(nullptr, dir_path);
+    anchor.fd = open(dir_path.c_str(), O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (anchor.fd == -1)
+        return set_error(result, "Failed to open parent directory \"" + dir_path + "\"", errno);
+
+    int ret;
+    struct stat st;
+    if (fstatat(anchor.fd, name.c_str(), &st, AT_SYMLINK_NOFOLLOW) != 0) {
+        ret = set_error(result, "Failed to stat file \"" + string(path) + "\"", errno);
+    } else if (!S_ISDIR(st.st_mode)) {
+        if (contents_only)
+            ret = set_error(result, "Failed to clear directory \"" + string(path) + "\"", ENOTDIR);
+        else if (unlinkat(anchor.fd, name.c_str(), 0) != 0)
+            ret = set_error(result, "Failed to delete file \"" + string(path) + "\"", errno);
+        else {
+            result->files = 1;
+            ret = 0;
+        }
+    } else {
+        tree_node *root = new tree_node(&anchor, name);
+        ret = delete_walker(threads, result, dir_path == "/" ? "/" + name : dir_path + "/" + name, contents_only).run(root);
+    }
+
+    close(anchor.fd);
+    return ret;
+}
+
+int file_tree_copy(const char *src_path, const char *dest_path, int threads, file_tree_result *result) {
+    string src_dir_path, src_name, dest_dir_path, dest_name;
+    if (!split_path(src_path, src_dir_path, src_name) || !split_path(dest_path, dest_dir_path, dest_name))
+        return set_error(result, "Invalid path \"" + string(src_path) + "\" to copy to \"" + string(dest_path) + "\"", EINVAL);
+
+    tree_node anchor(nullptr, src_dir_path);
+    anchor.fd = open(src_dir_path.c_str(), O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (anchor.fd == -1)
+        return set_error(result, "Failed to open source parent directory \"" + src_dir_path + "\"", errno);
+    anchor.dest_fd = open(dest_dir_path.c_str(), O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (anchor.dest_fd == -1) {
+        int errnum = errno;
+        close(anchor.fd);
+        return set_error(result, "Failed to open destination parent directory \"" + dest_dir_path + "\"", errnum);
+    }
+
+    int ret = 0;
+    tree_node *root = nullptr;
+    struct stat st;
+    if (fstatat(anchor.fd, src_name.c_str(), &st, AT_SYMLINK_NOFOLLOW) != 0) {
+        ret = set_error(result, "Failed to stat file \"" + string(src_path) + "\"", errno);
+    } else if (!S_ISDIR(st.st_mode)) {
+        long long bytes = 0;
+        int copied = copy_walker::copy_file(anchor.fd, src_name.c_str(), anchor.dest_fd, dest_name.c_str(), DT_UNKNOWN, &bytes);
+        if (copied != 0) {
+            ret = set_error(result, "Failed to copy file \"" + string(src_path) + "\" to \"" + string(dest_path) + "\"",
+                            copied > 0 ? ENOENT : errno);
+        } else {
+            result->files = 1;
+            result->bytes = bytes;
+        }
+    } else {
+        root = new tree_node(&anchor, src_name);
+        struct stat dest_st;
+        root->fd = openat(anchor.fd, src_name.c_str(), DIRECTORY_OPEN_FLAGS);
+        if (root->fd == -1 || fstat(root->fd, &root->st) != 0) {
+            ret = set_error(result, "Failed to open directory \"" + string(src_path) + "\"", errno);
+        } else if ((mkdirat(anchor.dest_fd, dest_name.c_str(), 0700) != 0 && errno != EEXIST) ||
+                   (root->dest_fd = openat(anchor.dest_fd, dest_name.c_str(), DIRECTORY_OPEN_FLAGS)) == -1 ||
+                   fstat(root->dest_fd, &dest_st) != 0) {
+            ret = set_error(result, "Failed to create directory \"" + string(dest_path) + "\"", errno);
+        } else {
+            string src_root_path = src_dir_path == "/" ? "/" + src_name : src_dir_path + "/" + src_name;
+            string dest_root_path = dest_dir_path == "/" ? "/" + dest_name : dest_dir_path + "/" + dest_name;
+            ret = copy_walker(threads, result, src_root_path, dest_root_path, dest_st.st_dev, dest_st.st_ino).run(root);
+            root = nullptr;
+            if (ret == 0) result->directories++;
+        }
+    }
+
+    if (root != nullptr) {
+        if (root->fd != -1) close(root->fd);
+        if (root->dest_fd != -1) close(root->dest_fd);
+        delete root;
+    }
+    close(anchor.fd);
+    close(anchor.dest_fd);
+    return ret;
+}
+
+int file_tree_delete_older_than(const char *path, const struct timespec *cutoff_time, int allowed_file_type_flags,
+                                bool recursive, bool dry_run, int threads, file_tree_result *result) {
+    string dir_path, name;
+    if (!split_path(path, dir_path, name))
+        return set_error(result, "Invalid path \"" + string(path) + "\" to delete files under", EINVAL);
+
+    tree_node anchor(nullptr, dir_path);
+    anchor.fd = open(dir_path.c_str(), O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (anchor.fd == -1)
+        return set_error(result, "Failed to open parent directory \"" + dir_path + "\"", errno);
+
+    tree_node *root = new tree_node(&anchor, name);
+    int ret = age_walker(threads, result, dir_path == "/" ? "/" + name : dir_path + "/" + name, *cutoff_time,
+                         allowed_file_type_flags, recursive, dry_run).run(root);
+
+    close(anchor.fd);
+    return ret;
+}
+
+int file_tree_rename(const char *src_path, const char *dest_path) {
+#ifdef __NR_renameat2
+    if (!renameat2_unsupported.load(memory_order_relaxed)) {
+        if (syscall(__NR_renameat2, AT_FDCWD, src_path, AT_FDCWD, dest_path, RENAME_NOREPLACE) == 0)
+            return 0;
+        // Older kernels do not have renameat2() and some filesystems do not support its flags
+        if (errno != ENOSYS && errno != EINVAL) return -1;
+        if (errno == ENOSYS) renameat2_unsupported.store(true, memory_order_relaxed);
+    }
+#endif
+    return rename(src_path, dest_path);
+}
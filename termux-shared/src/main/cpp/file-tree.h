@@ -0,0 +1,76 @@
+#ifndef TERMUX_FILE_TREE_H
+#define TERMUX_FILE_TREE_H
+
+#include <string>
+#include <time.h>
+
+/* The result of the file_tree_*() operations. */
+struct file_tree_result {
+    /* The number of non-directory files deleted or copied. */
+    long files = 0;
+    /* The number of directories deleted or copied. */
+    long directories = 0;
+    /* The bytes copied. */
+    long long bytes = 0;
+    /* The errno of the first failure if any, otherwise 0. */
+    int error_number = 0;
+    /* The message of the first failure without the error_number description if any, otherwise an
+     * empty string. */
+    std::string error_message;
+};
+
+/*
+ * Delete the file at the absolute path, and if it is a directory, everything under it. If
+ * contents_only is true, then path must be a directory and only its contents are deleted. Symlinks
+ * are deleted and never followed. Directories are opened with openat() relative to their parent
+ * fd and their entries are deleted with unlinkat(), so a directory that is replaced with a symlink
+ * while walking cannot redirect the deletion outside the tree.
+ *
+ * Directories are walked by up to threads threads that steal pending directories from each other.
+ * The walk stops at the first failure.
+ *
+ * Returns 0 on success, otherwise -1 with the error_number and error_message of the result set.
+ */
+int file_tree_delete(const char *path, bool contents_only, int threads, file_tree_result *result);
+
+/*
+ * Copy the file at the absolute src_path to the absolute dest_path, and if it is a directory,
+ * everything under it. Regular files are copied with copy_file_range(), or sendfile() if it is not
+ * supported for the files, symlinks are recreated with their target and fifos are recreated. The
+ * mode and access and modification times of regular files and directories are preserved. If
+ * dest_path is under src_path, then it is excluded from the copy. The dest_path must not exist,
+ * unless it is a directory.
+ *
+ * Directories are walked by up to threads threads that steal pending directories from each other.
+ * The walk stops at the first failure.
+ *
+ * Returns 0 on success, otherwise -1 with the error_number and error_message of the result set.
+ */
+int file_tree_copy(const char *src_path, const char *dest_path, int threads, file_tree_result *result);
+
+/*
+ * Delete the files under the absolute directory path whose modification time is not after
+ * cutoff_time and whose type is one of the allowed_file_type_flags, which are the values of
+ * com.termux.shared.file.filesystem.FileType. Symlinks are checked and deleted themselves and
+ * never followed. Directories are not deleted, and if recursive is true, then the files under
+ * subdirectories are deleted too. If dry_run is true, then files are only counted.
+ *
+ * Unlike file_tree_delete(), entries are handled while reading each directory so that memory does
+ * not grow with the number of files, and the result files and bytes are set to the number and size
+ * of files deleted, or that would be deleted for a dry run.
+ *
+ * Returns 0 on success, otherwise -1 with the error_number and error_message of the result set.
+ */
+int file_tree_delete_older_than(const char *path, const struct timespec *cutoff_time, int allowed_file_type_flags,
+                                bool recursive, bool dry_run, int threads, file_tree_result *result);
+
+/*
+ * Rename src_path to dest_path with renameat2(RENAME_NOREPLACE), or rename() if it is not
+ * supported by the kernel or filesystem.
+ *
+ * Returns 0 on success, otherwise -1 with errno set, like to EXDEV if the paths are on different
+ * filesystems.
+ */
+int file_tree_rename(const char *src_path, const char *dest_path);
+
+#endif
@@ -0,0 +1,240 @@
+#include <cerrno>
+#include <cstdint>
+#include <cstring>
+#include <fcntl.h>
+#include <jni.h>
+#include <string>
+#include <sys/stat.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#include <vector>
+
+#include "file-tree.h"
+
+using namespace std;
+
+/*
+ * The number of longs stored for each entry by listDirectoryNative(), in the order read by
+ * com.termux.shared.file.filesystem.FileAttributes.loadFromStatArray().
+ */
+#define STAT_FIELDS 17
+
+/* Flags stored in the last field of each entry. */
+#define STAT_FLAG_WRITABLE 1
+
+/* Buffer size for getdents64(), large enough to read most directories with a few calls. */
+#define DIRENT_BUFFER_SIZE (64 * 1024)
+
+struct linux_dirent64 {
+    uint64_t d_ino;
+    int64_t d_off;
+    unsigned short d_reclen;
+    unsigned char d_type;
+    char d_name[];
+};
+
+
+/* Throw a java.io.IOException with message and strerror(errnum). */
+void throw_io_exception(JNIEnv *env, const string &message, const int errnum) {
+    jclass clazz = env->FindClass("java/io/IOException");
+    if (clazz != NULL)
+        env->ThrowNew(clazz, (message + ": " + strerror(errnum)).c_str());
+}
+
+/* Convert a jbyteArray of an UTF-8 path without a trailing null byte to a std:string. */
+string jbytearray_to_stdstr(JNIEnv *env, jbyteArray jBytes) {
+    jsize length = env->GetArrayLength(jBytes);
+    string str((size_t) length, '\0');
+    env->GetByteArrayRegion(jBytes, 0, length, (jbyte *) &str[0]);
+    return str;
+}
+
+/* Append the stat fields of st and flags to stats. */
+void add_stat(vector<jlong> &stats, const struct stat &st, const jlong flags) {
+    stats.push_back(st.st_mode);
+    stats.push_back((jlong) st.st_ino);
+    stats.push_back((jlong) st.st_dev);
+    stats.push_back((jlong) st.st_rdev);
+    stats.push_back((jlong) st.st_nlink);
+    stats.push_back(st.st_uid);
+    stats.push_back(st.st_gid);
+    stats.push_back(st.st_size);
+    stats.push_back(st.st_blksize);
+    stats.push_back(st.st_blocks);
+    stats.push_back(st.st_atim.tv_sec);
+    stats.push_back(st.st_atim.tv_nsec);
+    stats.push_back(st.st_mtim.tv_sec);
+    stats.push_back(st.st_mtim.tv_nsec);
+    stats.push_back(st.st_ctim.tv_sec);
+    stats.push_back(st.st_ctim.tv_nsec);
+    stats.push_back(flags);
+}
+
+
+
+/*
+ * List the entries of a directory and stat them in one pass with getdents64() and fstatat()
+ * relative to the directory fd, instead of resolving the full path of each entry.
+ *
+ * Returns an Object[] of a byte[] of the UTF-8 entry names, each followed by a null byte, and a
+ * long[] with STAT_FIELDS longs for the directory itself followed by STAT_FIELDS longs for each
+ * entry in the same order as the names. If followLinks is true, then symlinks are stat-ed with
+ * their target, unless it does not exist. Entries that are removed while listing are skipped.
+ */
+extern "C"
+JNIEXPORT jobjectArray JNICALL
+Java_com_termux_shared_file_filesystem_NativeDispatcher_listDirectoryNative(JNIEnv *env, jclass clazz,
+                                                                             jbyteArray jDirPath, jboolean followLinks) {
+    string dir_path = jbytearray_to_stdstr(env, jDirPath);
+
+    int dir_fd = open(dir_path.c_str(), O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (dir_fd == -1) {
+        throw_io_exception(env, "Failed to open directory \"" + dir_path + "\"", errno);
+        return NULL;
+    }
+
+    vector<jlong> stats;
+    string names;
+
+    struct stat st;
+    if (fstat(dir_fd, &st) != 0) {
+        int errnum = errno;
+        close(dir_fd);
+        throw_io_exception(env, "Failed to stat directory \"" + dir_path + "\"", errnum);
+        return NULL;
+    }
+    add_stat(stats, st, faccessat(dir_fd, ".", W_OK, 0) == 0 ? STAT_FLAG_WRITABLE : 0);
+
+    vector<char> buffer(DIRENT_BUFFER_SIZE);
+    while (true) {
+        long count = syscall(SYS_getdents64, dir_fd, buffer.data(), buffer.size());
+        if (count == 0) break;
+        if (count < 0) {
+            if (errno == EINTR) continue;
+            int errnum = errno;
+            close(dir_fd);
+            throw_io_exception(env, "Failed to read directory \"" + dir_path + "\"", errnum);
+            return NULL;
+        }
+
+        for (long offset = 0; offset < count;) {
+            struct linux_dirent64 *dirent = (struct linux_dirent64 *) (buffer.data() + offset);
+            offset += dirent->d_reclen;
+
+            const char *name = dirent->d_name;
+            if (name[0] == '.' && (name[1] == '\0' || (name[1] == '.' && name[2] == '\0')))
+                continue;
+
+            if (fstatat(dir_fd, name, &st, followLinks ? 0 : AT_SYMLINK_NOFOLLOW) != 0) {
+                // Broken symlinks are returned as the symlink itself
+                if (!followLinks || fstatat(dir_fd, name, &st, AT_SYMLINK_NOFOLLOW) != 0)
+                    continue;
+            }
+
+            add_stat(stats, st, faccessat(dir_fd, name, W_OK, 0) == 0 ? STAT_FLAG_WRITABLE : 0);
+            names.append(name, strlen(name) + 1);
+        }
+    }
+    close(dir_fd);
+
+    jbyteArray jNames = env->NewByteArray((jsize) names.size());
+    if (jNames == NULL) return NULL;
+    env->SetByteArrayRegion(jNames, 0, (jsize) names.size(), (const jbyte *) names.data());
+
+    jlongArray jStats = env->NewLongArray((jsize) stats.size());
+    if (jStats == NULL) return NULL;
+    env->SetLongArrayRegion(jStats, 0, (jsize) stats.size(), stats.data());
+
+    jobjectArray result = env->NewObjectArray(2, env->FindClass("java/lang/Object"), NULL);
+    if (result == NULL) return NULL;
+    env->SetObjectArrayElement(result, 0, jNames);
+    env->SetObjectArrayElement(result, 1, jStats);
+    return result;
+}
+
+
+
+/*
+ * Delete the file at the absolute path, and if it is a directory, everything under it, or only
+ * its contents if contentsOnly is true, with file_tree_delete() using up to threads threads.
+ *
+ * Throws an IOException with the first failure.
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_termux_shared_file_filesystem_NativeDispatcher_deleteTreeNative(JNIEnv *env, jclass clazz,
+                                                                          jbyteArray jPath, jboolean contentsOnly,
+                                                                          jint threads) {
+    string path = jbytearray_to_stdstr(env, jPath);
+
+    file_tree_result result;
+    if (file_tree_delete(path.c_str(), contentsOnly, threads, &result) != 0)
+        throw_io_exception(env, result.error_message, result.error_number);
+}
+
+/*
+ * Copy the file at the absolute srcPath to the absolute destPath, and if it is a directory,
+ * everything under it, with file_tree_copy() using up to threads threads.
+ *
+ * Throws an IOException with the first failure.
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_termux_shared_file_filesystem_NativeDispatcher_copyTreeNative(JNIEnv *env, jclass clazz,
+                                                                        jbyteArray jSrcPath, jbyteArray jDestPath,
+                                                                        jint threads) {
+    string src_path = jbytearray_to_stdstr(env, jSrcPath);
+    string dest_path = jbytearray_to_stdstr(env, jDestPath);
+
+    file_tree_result result;
+    if (file_tree_copy(src_path.c_str(), dest_path.c_str(), threads, &result) != 0)
+        throw_io_exception(env, result.error_message, result.error_number);
+}
+
+/*
+ * Rename srcPath to destPath with file_tree_rename().
+ *
+ * Returns 0 on success, otherwise the errno of the failure.
+ */
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_termux_shared_file_filesystem_NativeDispatcher_renameNative(JNIEnv *env, jclass clazz,
+                                                                      jbyteArray jSrcPath, jbyteArray jDestPath) {
+    string src_path = jbytearray_to_stdstr(env, jSrcPath);
+    string dest_path = jbytearray_to_stdstr(env, jDestPath);
+
+    return file_tree_rename(src_path.c_str(), dest_path.c_str()) == 0 ? 0 : errno;
+}
+
+/*
+ * Delete the files under the absolute dirPath not modified after cutoffMillis whose
+ * com.termux.shared.file.filesystem.FileType value is one of allowedFileTypeFlags with
+ * file_tree_delete_older_than() using up to threads threads.
+ *
+ * Returns a long[] with the number and bytes of the files deleted, or that would be deleted if
+ * dryRun is true. Throws an IOException with the first failure.
+ */
+extern "C"
+JNIEXPORT jlongArray JNICALL
+Java_com_termux_shared_file_filesystem_NativeDispatcher_deleteFilesOlderThanNative(JNIEnv *env, jclass clazz,
+                                                                                    jbyteArray jDirPath, jlong cutoffMillis,
+                                                                                    jint allowedFileTypeFlags, jboolean recursive,
+                                                                                    jboolean dryRun, jint threads) {
+    string dir_path = jbytearray_to_stdstr(env, jDirPath);
+    struct timespec cutoff_time;
+    cutoff_time.tv_sec = (time_t) (cutoffMillis / 1000);
+    cutoff_time.tv_nsec = (long) (cutoffMillis % 1000) * 1000000;
+
+    file_tree_result result;
+    if (file_tree_delete_older_than(dir_path.c_str(), &cutoff_time, allowedFileTypeFlags, recursive, dryRun,
+                                    threads, &result) != 0) {
+        throw_io_exception(env, result.error_message, result.error_number);
+        return NULL;
+    }
+
+    jlong stats[2] = {result.files, result.bytes};
+    jlongArray jStats = env->NewLongArray(2);
+    if (jStats == NULL) return NULL;
+    env->SetLongArrayRegion(jStats, 0, 2, stats);
+    return jStats;
+}
@@ -1,16 +1,21 @@
+#include <climits>
 #include <cstdio>
 #include <ctime>
 #include <cerrno>
 #include <jni.h>
+#include <memory>
+#include <new>
 #include <sstream>
 #include <string>
 #include <unistd.h>
+#include <vector>
 
 #include <android/log.h>
 
 #include <sys/ioctl.h>
 #include <sys/socket.h>
 #include <sys/types.h>
+#include <sys/uio.h>
 #include <sys/un.h>
 
 #define LOG_TAG "local-socket"
@@ -348,6 +353,107 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_acceptNative(JNIEnv *
     return getJniResult(env, logTitle, clientFd);
 }
 
+/* Returned by read_bytes(), send_bytes(), read_iovecs() and send_iovecs() if the deadline elapsed. */
+#define DEADLINE_ELAPSED -2
+
+/* Check if the deadline milliseconds since epoch has elapsed. The deadline is ignored if it is `<= 0`. */
+bool is_deadline_elapsed(JNIEnv *env, jstring logTitle, const string &function, jlong deadline) {
+    if (deadline <= 0) return false;
+
+    struct timespec time = {};
+    if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
+        // If current time is greater than the time defined in deadline
+        return timespec_to_milliseconds(&time) > deadline;
+    }
+
+    log_warn(get_title_and_message(env, logTitle,
+                                   function + "(): Deadline \"" + to_string(deadline) +
+                                   "\" timeout will not work since failed to get current time"));
+    return false;
+}
+
+/*
+ * Read up to length bytes from fd into data. If fully is true, then read until length bytes have
+ * been read or end of file is reached, otherwise return after the first read() that returns data.
+ *
+ * Returns the number of bytes read, which will be `0` on end of file, `-1` if read() failed with
+ * errno set, or `DEADLINE_ELAPSED`.
+ */
+int read_bytes(JNIEnv *env, jstring logTitle, const string &function, int fd,
+               jbyte *data, int length, bool fully, jlong deadline) {
+    int bytesRead = 0;
+    while (bytesRead < length) {
+        if (is_deadline_elapsed(env, logTitle, function, deadline))
+            return DEADLINE_ELAPSED;
+
+        ssize_t ret = read(fd, data + bytesRead, length - bytesRead);
+        if (ret == -1) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+        // EOF, peer closed writing end
+        if (ret == 0) break;
+
+        bytesRead += ret;
+        if (!fully) break;
+    }
+
+    return bytesRead;
+}
+
+/*
+ * Send length bytes of data to fd.
+ *
+ * Returns `0` on success, `-1` if send() failed with errno set, or `DEADLINE_ELAPSED`.
+ */
+int send_bytes(JNIEnv *env, jstring logTitle, const string &function, int fd,
+               const jbyte *data, int length, jlong deadline) {
+    while (length > 0) {
+        if (is_deadline_elapsed(env, logTitle, function, deadline))
+            return DEADLINE_ELAPSED;
+
+        ssize_t ret = send(fd, data, length, MSG_NOSIGNAL);
+        if (ret == -1) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+
+        length -= ret;
+        data += ret;
+    }
+
+    return 0;
+}
+
+/* Get the JniResult for the ret value returned by read_bytes() or read_iovecs(). */
+jobject get_read_jni_result(JNIEnv *env, jstring logTitle, const string &function, int fd, int ret,
+                            int errnoBackup, jlong deadline) {
+    if (ret == DEADLINE_ELAPSED)
+        return getJniResult(env, logTitle, -1, function + "(): Deadline \"" + to_string(deadline) + "\" timeout");
+    if (ret == -1)
+        return getJniResult(env, logTitle, -1, errnoBackup, function + "(): Failed to read on fd " + to_string(fd));
+
+    // Return success and bytes read in JniResult.intData field
+    return getJniResult(env, logTitle, ret);
+}
+
+/* Get the JniResult for the ret value returned by send_bytes() or send_iovecs(). */
+jobject get_send_jni_result(JNIEnv *env, jstring logTitle, const string &function, int fd, int ret,
+                            int errnoBackup, jlong deadline) {
+    if (ret == DEADLINE_ELAPSED)
+        return getJniResult(env, logTitle, -1, function + "(): Deadline \"" + to_string(deadline) + "\" timeout");
+    if (ret == -1)
+        return getJniResult(env, logTitle, -1, errnoBackup, function + "(): Failed to send on fd " + to_string(fd));
+
+    // Return success
+    return getJniResult(env, logTitle);
+}
+
+/* Check that offset and length are within a buffer of size bytes. */
+bool is_range_valid(jlong size, jint offset, jint length) {
+    return offset >= 0 && length >= 0 && (jlong) offset + length <= size;
+}
+
 extern "C"
 JNIEXPORT jobject JNICALL
 Java_com_termux_shared_net_socket_local_LocalSocketManager_readNative(JNIEnv *env, jclass clazz,
@@ -364,53 +470,18 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_readNative(JNIEnv *en
         return getJniResult(env, logTitle, -1, "readNative(): data passed is null");
     }
 
-    struct timespec time = {};
-    jbyte* current = data;
     int bytes = env->GetArrayLength(dataArray);
     if (checkJniException(env)) return NULL;
-    int bytesRead = 0;
-    while (bytesRead < bytes) {
-        if (deadline > 0) {
-            if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
-                // If current time is greater than the time defined in deadline
-                if (timespec_to_milliseconds(&time) > deadline) {
-                    env->ReleaseByteArrayElements(dataArray, data, 0);
-                    if (checkJniException(env)) return NULL;
-                    return getJniResult(env, logTitle, -1,
-                                        "readNative(): Deadline \"" + to_string(deadline) + "\" timeout");
-                }
-            } else {
-                log_warn(get_title_and_message(env, logTitle,
-                                               "readNative(): Deadline \"" + to_string(deadline) +
-                                               "\" timeout will not work since failed to get current time"));
-            }
-        }
 
-        // Read data from socket
-        int ret = read(fd, current, bytes);
-        if (ret == -1) {
-            int errnoBackup = errno;
-            env->ReleaseByteArrayElements(dataArray, data, 0);
-            if (checkJniException(env)) return NULL;
-            return getJniResult(env, logTitle, -1, errnoBackup, "readNative(): Failed to read on fd "  + to_string(fd));
-        }
-        // EOF, peer closed writing end
-        if (ret == 0) {
-            break;
-        }
-
-        bytesRead += ret;
-        current += ret;
-    }
+    int ret = read_bytes(env, logTitle, "readNative", fd, data, bytes, true, deadline);
+    int errnoBackup = errno;
 
     env->ReleaseByteArrayElements(dataArray, data, 0);
     if (checkJniException(env)) return NULL;
 
-    // Return success and bytes read in JniResult.intData field
-    return getJniResult(env, logTitle, bytesRead);
+    return get_read_jni_result(env, logTitle, "readNative", fd, ret, errnoBackup, deadline);
 }
 
-
 extern "C"
 JNIEXPORT jobject JNICALL
 Java_com_termux_shared_net_socket_local_LocalSocketManager_sendNative(JNIEnv *env, jclass clazz,
@@ -427,45 +498,266 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_sendNative(JNIEnv *en
         return getJniResult(env, logTitle, -1, "sendNative(): data passed is null");
     }
 
-    struct timespec time = {};
-    jbyte* current = data;
     int bytes = env->GetArrayLength(dataArray);
     if (checkJniException(env)) return NULL;
-    while (bytes > 0) {
-        if (deadline > 0) {
-            if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
-                // If current time is greater than the time defined in deadline
-                if (timespec_to_milliseconds(&time) > deadline) {
-                    env->ReleaseByteArrayElements(dataArray, data, JNI_ABORT);
-                    if (checkJniException(env)) return NULL;
-                    return getJniResult(env, logTitle, -1,
-                                        "sendNative(): Deadline \"" + to_string(deadline) + "\" timeout");
-                }
-            } else {
-                log_warn(get_title_and_message(env, logTitle,
-                                               "sendNative(): Deadline \"" + to_string(deadline) +
-                                               "\" timeout will not work since failed to get current time"));
-            }
-        }
 
-        // Send data to socket
-        int ret = send(fd, current, bytes, MSG_NOSIGNAL);
-        if (ret == -1) {
-            int errnoBackup = errno;
-            env->ReleaseByteArrayElements(dataArray, data, JNI_ABORT);
-            if (checkJniException(env)) return NULL;
-            return getJniResult(env, logTitle, -1, errnoBackup, "sendNative(): Failed to send on fd " + to_string(fd));
-        }
+    int ret = send_bytes(env, logTitle, "sendNative", fd, data, bytes, deadline);
+    int errnoBackup = errno;
+
+    env->ReleaseByteArrayElements(dataArray, data, JNI_ABORT);
+    if (checkJniException(env)) return NULL;
+
+    return get_send_jni_result(env, logTitle, "sendNative", fd, ret, errnoBackup, deadline);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_readArrayNative(JNIEnv *env, jclass clazz,
+                                                                           jstring logTitle,
+                                                                           jint fd, jbyteArray dataArray,
+                                                                           jint offset, jint length,
+                                                                           jboolean fully, jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "readArrayNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    int bytes = env->GetArrayLength(dataArray);
+    if (checkJniException(env)) return NULL;
+    if (!is_range_valid(bytes, offset, length)) {
+        return getJniResult(env, logTitle, -1, "readArrayNative(): Offset \"" + to_string(offset) +
+                                               "\" and length \"" + to_string(length) + "\" are out of bounds for data of length \"" + to_string(bytes) + "\"");
+    }
+
+    // Read into a native buffer and copy only the bytes read, instead of copying the whole array
+    // in both directions with Get/ReleaseByteArrayElements()
+    unique_ptr<jbyte[]> data(new (nothrow) jbyte[length > 0 ? length : 1]);
+    if (!data) {
+        return getJniResult(env, logTitle, -1, "readArrayNative(): Failed to allocate buffer of length \"" + to_string(length) + "\"");
+    }
+
+    int ret = read_bytes(env, logTitle, "readArrayNative", fd, data.get(), length, fully, deadline);
+    int errnoBackup = errno;
+
+    if (ret > 0) {
+        env->SetByteArrayRegion(dataArray, offset, ret, data.get());
+        if (checkJniException(env)) return NULL;
+    }
+
+    return get_read_jni_result(env, logTitle, "readArrayNative", fd, ret, errnoBackup, deadline);
+}
 
-        bytes -= ret;
-        current += ret;
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_sendArrayNative(JNIEnv *env, jclass clazz,
+                                                                           jstring logTitle,
+                                                                           jint fd, jbyteArray dataArray,
+                                                                           jint offset, jint length,
+                                                                           jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "sendArrayNative(): Invalid fd \"" + to_string(fd) + "\" passed");
     }
 
+    int bytes = env->GetArrayLength(dataArray);
+    if (checkJniException(env)) return NULL;
+    if (!is_range_valid(bytes, offset, length)) {
+        return getJniResult(env, logTitle, -1, "sendArrayNative(): Offset \"" + to_string(offset) +
+                                               "\" and length \"" + to_string(length) + "\" are out of bounds for data of length \"" + to_string(bytes) + "\"");
+    }
+
+    jbyte* data = env->GetByteArrayElements(dataArray, nullptr);
+    if (checkJniException(env)) return NULL;
+    if (data == nullptr) {
+        return getJniResult(env, logTitle, -1, "sendArrayNative(): data passed is null");
+    }
+
+    int ret = send_bytes(env, logTitle, "sendArrayNative", fd, data + offset, length, deadline);
+    int errnoBackup = errno;
+
     env->ReleaseByteArrayElements(dataArray, data, JNI_ABORT);
     if (checkJniException(env)) return NULL;
 
-    // Return success
-    return getJniResult(env, logTitle);
+    return get_send_jni_result(env, logTitle, "sendArrayNative", fd, ret, errnoBackup, deadline);
+}
+
+/* Get the address of offset in a direct ByteBuffer, or nullptr if it is not direct or the range is invalid. */
+jbyte* get_direct_buffer_address(JNIEnv *env, jobject buffer, jint offset, jint length) {
+    auto address = (jbyte*) env->GetDirectBufferAddress(buffer);
+    if (address == nullptr) return nullptr;
+    jlong capacity = env->GetDirectBufferCapacity(buffer);
+    if (!is_range_valid(capacity, offset, length)) return nullptr;
+    return address + offset;
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_readBufferNative(JNIEnv *env, jclass clazz,
+                                                                            jstring logTitle,
+                                                                            jint fd, jobject buffer,
+                                                                            jint offset, jint length,
+                                                                            jboolean fully, jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "readBufferNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    jbyte* data = get_direct_buffer_address(env, buffer, offset, length);
+    if (checkJniException(env)) return NULL;
+    if (data == nullptr) {
+        return getJniResult(env, logTitle, -1, "readBufferNative(): Buffer passed is not a direct buffer or offset \"" +
+                                               to_string(offset) + "\" and length \"" + to_string(length) + "\" are out of bounds");
+    }
+
+    int ret = read_bytes(env, logTitle, "readBufferNative", fd, data, length, fully, deadline);
+    return get_read_jni_result(env, logTitle, "readBufferNative", fd, ret, errno, deadline);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_sendBufferNative(JNIEnv *env, jclass clazz,
+                                                                            jstring logTitle,
+                                                                            jint fd, jobject buffer,
+                                                                            jint offset, jint length,
+                                                                            jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "sendBufferNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    jbyte* data = get_direct_buffer_address(env, buffer, offset, length);
+    if (checkJniException(env)) return NULL;
+    if (data == nullptr) {
+        return getJniResult(env, logTitle, -1, "sendBufferNative(): Buffer passed is not a direct buffer or offset \"" +
+                                               to_string(offset) + "\" and length \"" + to_string(length) + "\" are out of bounds");
+    }
+
+    int ret = send_bytes(env, logTitle, "sendBufferNative", fd, data, length, deadline);
+    return get_send_jni_result(env, logTitle, "sendBufferNative", fd, ret, errno, deadline);
+}
+
+/*
+ * Fill iovecs with the ranges of the direct ByteBuffer buffers at offsets with lengths.
+ *
+ * Returns an empty string on success, otherwise the error message.
+ */
+string get_iovecs(JNIEnv *env, jobjectArray buffers, jintArray offsets, jintArray lengths,
+                  vector<struct iovec> &iovecs) {
+    int count = env->GetArrayLength(buffers);
+    if (checkJniException(env)) return JNI_EXCEPTION;
+    if (count > IOV_MAX)
+        return "Buffers count \"" + to_string(count) + "\" is greater than " + to_string(IOV_MAX);
+    if (env->GetArrayLength(offsets) != count || env->GetArrayLength(lengths) != count)
+        return "Offsets and lengths count does not match buffers count \"" + to_string(count) + "\"";
+
+    vector<jint> offsetValues(count);
+    vector<jint> lengthValues(count);
+    if (count > 0) {
+        env->GetIntArrayRegion(offsets, 0, count, offsetValues.data());
+        env->GetIntArrayRegion(lengths, 0, count, lengthValues.data());
+        if (checkJniException(env)) return JNI_EXCEPTION;
+    }
+
+    iovecs.resize(count);
+    for (int i = 0; i < count; i++) {
+        jobject buffer = env->GetObjectArrayElement(buffers, i);
+        if (checkJniException(env)) return JNI_EXCEPTION;
+        jbyte* data = get_direct_buffer_address(env, buffer, offsetValues[i], lengthValues[i]);
+        env->DeleteLocalRef(buffer);
+        if (checkJniException(env)) return JNI_EXCEPTION;
+        if (data == nullptr)
+            return "Buffer at index " + to_string(i) + " is not a direct buffer or offset \"" +
+                   to_string(offsetValues[i]) + "\" and length \"" + to_string(lengthValues[i]) + "\" are out of bounds";
+
+        iovecs[i].iov_base = data;
+        iovecs[i].iov_len = lengthValues[i];
+    }
+
+    return "";
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_readvNative(JNIEnv *env, jclass clazz,
+                                                                       jstring logTitle, jint fd,
+                                                                       jobjectArray buffers, jintArray offsets,
+                                                                       jintArray lengths, jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "readvNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    vector<struct iovec> iovecs;
+    string errmsg = get_iovecs(env, buffers, offsets, lengths, iovecs);
+    if (errmsg == JNI_EXCEPTION) return NULL;
+    if (!errmsg.empty()) {
+        return getJniResult(env, logTitle, -1, "readvNative(): " + errmsg);
+    }
+
+    // Read once into the buffers in order, like read_bytes() does when not reading fully
+    ssize_t ret;
+    do {
+        if (is_deadline_elapsed(env, logTitle, "readvNative", deadline)) {
+            ret = DEADLINE_ELAPSED;
+            break;
+        }
+        ret = readv(fd, iovecs.data(), (int) iovecs.size());
+    } while (ret == -1 && errno == EINTR);
+
+    return get_read_jni_result(env, logTitle, "readvNative", fd, (int) ret, errno, deadline);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_sendvNative(JNIEnv *env, jclass clazz,
+                                                                       jstring logTitle, jint fd,
+                                                                       jobjectArray buffers, jintArray offsets,
+                                                                       jintArray lengths, jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "sendvNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    vector<struct iovec> iovecs;
+    string errmsg = get_iovecs(env, buffers, offsets, lengths, iovecs);
+    if (errmsg == JNI_EXCEPTION) return NULL;
+    if (!errmsg.empty()) {
+        return getJniResult(env, logTitle, -1, "sendvNative(): " + errmsg);
+    }
+
+    // Use sendmsg() instead of writev() so that MSG_NOSIGNAL can be passed
+    struct iovec* current = iovecs.data();
+    size_t remaining = iovecs.size();
+    int ret = 0;
+    while (remaining > 0) {
+        if (current->iov_len == 0) {
+            current++;
+            remaining--;
+            continue;
+        }
+
+        if (is_deadline_elapsed(env, logTitle, "sendvNative", deadline)) {
+            ret = DEADLINE_ELAPSED;
+            break;
+        }
+
+        struct msghdr message = {};
+        message.msg_iov = current;
+        message.msg_iovlen = remaining;
+        ssize_t sent = sendmsg(fd, &message, MSG_NOSIGNAL);
+        if (sent == -1) {
+            if (errno == EINTR) continue;
+            ret = -1;
+            break;
+        }
+
+        // Skip the iovecs that were fully sent and advance the partially sent one
+        while (remaining > 0 && (size_t) sent >= current->iov_len) {
+            sent -= (ssize_t) current->iov_len;
+            current++;
+            remaining--;
+        }
+        if (remaining > 0) {
+            current->iov_base = (jbyte*) current->iov_base + sent;
+            current->iov_len -= sent;
+        }
+    }
+
+    return get_send_jni_result(env, logTitle, "sendvNative", fd, ret, errno, deadline);
 }
 
 extern "C"
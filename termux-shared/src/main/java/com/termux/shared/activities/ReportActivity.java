@@ -200,6 +200,10 @@ public class ReportActivity extends AppCompatActivity {
                 item.setEnabled(false);
         }
 
+        MenuItem item = menu.findItem(R.id.menu_item_share_recent_logs);
+        if (item != null)
+            item.setVisible(Logger.isRecentLogsBufferEnabled());
+
         return true;
     }
 
@@ -220,6 +224,10 @@ public class ReportActivity extends AppCompatActivity {
             ShareUtils.saveTextToFile(this, mReportInfo.reportSaveFileLabel,
                 mReportInfo.reportSaveFilePath, ReportInfo.getReportInfoMarkdownString(mReportInfo),
                 true, REQUEST_GRANT_STORAGE_PERMISSION_FOR_SAVE_FILE);
+        } else if (id == R.id.menu_item_share_recent_logs) {
+            String recentLogsString = Logger.getRecentLogsString();
+            if (recentLogsString != null)
+                ShareUtils.shareText(this, getString(R.string.title_recent_logs), recentLogsString);
         }
 
         return false;
@@ -0,0 +1,100 @@
+package com.termux.shared.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.data.GenerationalCache;
+import com.termux.shared.logger.Logger;
+
+/**
+ * A process wide cache of the {@link android.content.pm.PackageInfo} and
+ * {@link android.content.pm.ApplicationInfo} returned by
+ * {@link PackageUtils#getPackageInfoForPackage(android.content.Context, String, int)} and
+ * {@link PackageUtils#getApplicationInfoForPackage(android.content.Context, String, int)}, so that
+ * repeated queries like for every plugin command do not need a binder call to the package manager.
+ * Packages that are not installed are cached too.
+ *
+ * The cache is disabled by default, since the package metadata can only be cached while package
+ * changes are known. It must only be enabled with {@link #setEnabled(boolean)} while a receiver for
+ * the {@link android.content.Intent#ACTION_PACKAGE_ADDED}, {@link android.content.Intent#ACTION_PACKAGE_REMOVED},
+ * {@link android.content.Intent#ACTION_PACKAGE_REPLACED} and {@link android.content.Intent#ACTION_PACKAGE_CHANGED}
+ * broadcasts is registered that calls {@link #invalidate(String)} for them.
+ *
+ * The cached objects are shared, so callers must not modify them.
+ */
+public class PackageMetadataCache {
+
+    /** Cached for a package that is not installed, so that repeated queries for a plugin app that
+     * is not installed do not need a binder call either. */
+    static final Object NOT_INSTALLED = new Object();
+
+    static final String TYPE_PACKAGE_INFO = "PackageInfo";
+    static final String TYPE_APPLICATION_INFO = "ApplicationInfo";
+
+    /** The metadata by {@link #getKey(String, String, int)}, whose generation is incremented on
+     * every invalidation so that metadata queried before a package changed is not cached after it. */
+    private static final GenerationalCache<String, Object> CACHE = new GenerationalCache<>();
+
+    private static volatile boolean mEnabled;
+
+    private static final String LOG_TAG = "PackageMetadataCache";
+
+    /** Enable or disable the cache. The cache is cleared in both cases. */
+    public static void setEnabled(boolean enabled) {
+        Logger.logVerbose(LOG_TAG, (enabled ? "Enabling" : "Disabling") + " package metadata cache");
+        mEnabled = enabled;
+        invalidate();
+    }
+
+    /** Check if the cache is enabled. */
+    public static boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /** Get the current generation that must be passed to {@link #put(String, String, int, Object, int)}
+     * and must be read before querying the metadata to cache. */
+    static int getGeneration() {
+        return CACHE.getGeneration();
+    }
+
+    /**
+     * Get the cached metadata of {@code type} for the package.
+     *
+     * @return Returns the cached metadata, {@link #NOT_INSTALLED} if the package is not installed,
+     * or {@code null} if not cached.
+     */
+    @Nullable
+    static Object get(@NonNull String type, @NonNull String packageName, int flags) {
+        return mEnabled ? CACHE.get(getKey(type, packageName, flags)) : null;
+    }
+
+    /**
+     * Cache the metadata of {@code type} for the package if the cache is enabled and was not
+     * invalidated since {@code generation} was read with {@link #getGeneration()}.
+     *
+     * @param value The metadata, or {@code null} if the package is not installed.
+     */
+    static void put(@NonNull String type, @NonNull String packageName, int flags, @Nullable Object value, int generation) {
+        if (!mEnabled) return;
+        CACHE.put(getKey(type, packageName, flags), value != null ? value : NOT_INSTALLED, generation);
+    }
+
+    /** Invalidate the cached metadata of all packages. */
+    public static void invalidate() {
+        CACHE.invalidate();
+    }
+
+    /** Invalidate the cached metadata of {@code packageName}. */
+    public static void invalidate(@NonNull String packageName) {
+        String keyPart = "/" + packageName + "/";
+        CACHE.invalidate(key -> key.contains(keyPart));
+    }
+
+
+
+    @NonNull
+    private static String getKey(@NonNull String type, @NonNull String packageName, int flags) {
+        return type + "/" + packageName + "/" + flags;
+    }
+
+}
@@ -130,6 +130,9 @@ public class PackageUtils {
      * Also check {@link #isAppInstalled(Context, String, String) if targetting targeting sdk
      * `30` (android `11`) since {@link PackageManager.NameNotFoundException} may be thrown.
      *
+     * The {@link PackageInfo} is cached in {@link PackageMetadataCache} if it is enabled, and must
+     * not be modified.
+     *
      * @param context The {@link Context} for operations.
      * @param packageName The package name of the package.
      * @param flags The flags to pass to {@link PackageManager#getPackageInfo(String, int)}.
@@ -137,11 +140,23 @@ public class PackageUtils {
      */
     @Nullable
     public static PackageInfo getPackageInfoForPackage(@NonNull final Context context, @NonNull final String packageName, final int flags) {
+        Object cachedPackageInfo = PackageMetadataCache.get(PackageMetadataCache.TYPE_PACKAGE_INFO, packageName, flags);
+        if (cachedPackageInfo != null)
+            return cachedPackageInfo != PackageMetadataCache.NOT_INSTALLED ? (PackageInfo) cachedPackageInfo : null;
+
+        int generation = PackageMetadataCache.getGeneration();
+        PackageInfo packageInfo;
         try {
-            return context.getPackageManager().getPackageInfo(packageName, flags);
+            packageInfo = context.getPackageManager().getPackageInfo(packageName, flags);
+        } catch (final PackageManager.NameNotFoundException e) {
+            packageInfo = null;
         } catch (final Exception e) {
+            // Do not cache other failures, like DeadObjectException
             return null;
         }
+
+        PackageMetadataCache.put(PackageMetadataCache.TYPE_PACKAGE_INFO, packageName, flags, packageInfo, generation);
+        return packageInfo;
     }
 
 
@@ -164,6 +179,9 @@ public class PackageUtils {
      * Also check {@link #isAppInstalled(Context, String, String) if targetting targeting sdk
      * `30` (android `11`) since {@link PackageManager.NameNotFoundException} may be thrown.
      *
+     * The {@link ApplicationInfo} is cached in {@link PackageMetadataCache} if it is enabled, and
+     * must not be modified.
+     *
      * @param context The {@link Context} for operations.
      * @param packageName The package name of the package.
      * @param flags The flags to pass to {@link PackageManager#getApplicationInfo(String, int)}.
@@ -171,11 +189,23 @@ public class PackageUtils {
      */
     @Nullable
     public static ApplicationInfo getApplicationInfoForPackage(@NonNull final Context context, @NonNull final String packageName, final int flags) {
+        Object cachedApplicationInfo = PackageMetadataCache.get(PackageMetadataCache.TYPE_APPLICATION_INFO, packageName, flags);
+        if (cachedApplicationInfo != null)
+            return cachedApplicationInfo != PackageMetadataCache.NOT_INSTALLED ? (ApplicationInfo) cachedApplicationInfo : null;
+
+        int generation = PackageMetadataCache.getGeneration();
+        ApplicationInfo applicationInfo;
         try {
-            return context.getPackageManager().getApplicationInfo(packageName, flags);
+            applicationInfo = context.getPackageManager().getApplicationInfo(packageName, flags);
+        } catch (final PackageManager.NameNotFoundException e) {
+            applicationInfo = null;
         } catch (final Exception e) {
+            // Do not cache other failures, like DeadObjectException
             return null;
         }
+
+        PackageMetadataCache.put(PackageMetadataCache.TYPE_APPLICATION_INFO, packageName, flags, applicationInfo, generation);
+        return applicationInfo;
     }
 
     /**
@@ -760,6 +790,7 @@ public class PackageUtils {
                 packageManager.setComponentEnabledSetting(componentName,
                     setState ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
                     PackageManager.DONT_KILL_APP);
+                PackageMetadataCache.invalidate(packageName);
             }
             return null;
         } catch (final Exception e) {
@@ -0,0 +1,80 @@
+package com.termux.shared.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe cache of values that are computed by the callers, that has a generation which is
+ * incremented on every invalidation, so that a value that was computed from state read before an
+ * invalidation is not cached after it.
+ *
+ * Callers must read the generation with {@link #getGeneration()} before computing a value and
+ * pass it to {@link #put(Object, Object, int)}.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class GenerationalCache<K, V> {
+
+    /** Filter for the keys to remove with {@link #invalidate(KeyFilter)}. */
+    public interface KeyFilter<K> {
+        boolean matches(@NonNull K key);
+    }
+
+    private final ConcurrentHashMap<K, V> mCache = new ConcurrentHashMap<>();
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /** Get the current generation that must be read before computing a value to cache. */
+    public int getGeneration() {
+        return mGeneration.get();
+    }
+
+    /** Get the cached value for {@code key}, or {@code null} if not cached. */
+    @Nullable
+    public V get(@NonNull K key) {
+        return mCache.get(key);
+    }
+
+    /**
+     * Cache the {@code value} for {@code key} if the cache was not invalidated since
+     * {@code generation} was read with {@link #getGeneration()}.
+     *
+     * @return Returns {@code true} if the value was cached, otherwise {@code false}.
+     */
+    public boolean put(@NonNull K key, @NonNull V value, int generation) {
+        if (mGeneration.get() != generation) return false;
+
+        mCache.put(key, value);
+        // If invalidated after the generation check, then the invalidation may have already
+        // removed the keys before the put, so remove it again
+        if (mGeneration.get() != generation) {
+            mCache.remove(key, value);
+            return false;
+        }
+        return true;
+    }
+
+    /** Get the number of cached values. */
+    public int size() {
+        return mCache.size();
+    }
+
+    /** Invalidate all cached values. */
+    public void invalidate() {
+        mGeneration.incrementAndGet();
+        mCache.clear();
+    }
+
+    /** Invalidate the cached values of the keys matched by {@code keyFilter}. */
+    public void invalidate(@NonNull KeyFilter<K> keyFilter) {
+        mGeneration.incrementAndGet();
+        for (K key : mCache.keySet()) {
+            if (keyFilter.matches(key))
+                mCache.remove(key);
+        }
+    }
+
+}
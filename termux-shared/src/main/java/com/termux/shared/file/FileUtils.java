@@ -8,7 +8,9 @@ import androidx.annotation.Nullable;
 
 import com.google.common.io.RecursiveDeleteOption;
 import com.termux.shared.file.filesystem.FileType;
+import com.termux.shared.file.filesystem.FileTreeStats;
 import com.termux.shared.file.filesystem.FileTypes;
+import com.termux.shared.file.filesystem.NativeDispatcher;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.errors.Errno;
@@ -17,6 +19,7 @@ import com.termux.shared.errors.FunctionErrno;
 
 import org.apache.commons.io.filefilter.AgeFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -33,6 +36,7 @@ import java.io.Serializable;
 import java.nio.charset.Charset;
 import java.nio.file.LinkOption;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
@@ -1121,7 +1125,13 @@ public class FileUtils {
                 // https://cs.android.com/android/platform/superproject/+/android-11.0.0_r3:libcore/ojluni/src/main/java/java/io/UnixFileSystem.java;l=358
                 // https://cs.android.com/android/platform/superproject/+/android-11.0.0_r3:libcore/luni/src/main/java/android/system/Os.java;l=512
                 // Uses File.getPath() to get the path of source and destination and not the canonical path
-                if (!srcFile.renameTo(destFile)) {
+                boolean renamed;
+                if (NativeDispatcher.isFileUtilsLibraryLoaded())
+                    renamed = NativeDispatcher.rename(srcFile.getPath(), destFile.getPath());
+                else
+                    renamed = srcFile.renameTo(destFile);
+
+                if (!renamed) {
                     // If destination directory is a subdirectory of the source directory
                     // Copying is still allowed by copyDirectory() by excluding destination directory files
                     if (srcFileType == FileType.DIRECTORY && destFileCanonicalPath.startsWith(srcFileCanonicalPath + File.separator))
@@ -1142,7 +1152,11 @@ public class FileUtils {
                 if (error != null)
                     return error;
 
-                if (srcFileType == FileType.DIRECTORY) {
+                if (NativeDispatcher.isFileUtilsLibraryLoaded()) {
+                    // Copy the whole tree in one native walk with copy_file_range() instead of
+                    // checking and copying each file by path
+                    NativeDispatcher.copyTree(srcFilePath, destFilePath);
+                } else if (srcFileType == FileType.DIRECTORY) {
                     // Will give runtime exceptions on android < 8 due to missing classes like java.nio.file.Path if org.apache.commons.io version > 2.5
                     org.apache.commons.io.FileUtils.copyDirectory(srcFile, destFile, true);
                 } else if (srcFileType == FileType.SYMLINK) {
@@ -1316,7 +1330,12 @@ public class FileUtils {
 
             Logger.logVerbose(LOG_TAG, "Deleting " + label + "file at path \"" + filePath + "\"");
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (NativeDispatcher.isFileUtilsLibraryLoaded()) {
+                // Delete the whole tree in one native walk with unlinkat() relative to the
+                // directory fds, which is safe against directories being replaced with symlinks
+                // like SecureDirectoryStream below
+                NativeDispatcher.deleteTree(filePath, false);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 /*
                  * Try to use {@link SecureDirectoryStream} if available for safer directory
                  * deletion, it should be available for android >= 8.0
@@ -1406,7 +1425,9 @@ public class FileUtils {
 
             // If directory exists, clear its contents
             if (fileType == FileType.DIRECTORY) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                if (NativeDispatcher.isFileUtilsLibraryLoaded()) {
+                    NativeDispatcher.deleteTree(filePath, true);
+                } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                     /* If an exception is thrown, the exception message might not contain the full errors.
                      * Individual failures get added to suppressed throwables. */
                     //noinspection UnstableApiUsage
@@ -1429,11 +1450,43 @@ public class FileUtils {
         return null;
     }
 
+    /**
+     * Delete files under a directory older than x days.
+     *
+     * This function is a wrapper for
+     * {@link #deleteFilesOlderThanXDays(String, String, IOFileFilter, int, boolean, int, boolean, FileTreeStats)}.
+     *
+     * @param label The optional label for directory to clear. This can optionally be {@code null}.
+     * @param filePath The {@code path} for directory to clear.
+     * @param dirFilter  The optional filter to apply when finding subdirectories.
+     *                   If this parameter is {@code null}, subdirectories will not be included in the
+     *                   search. Use TrueFileFilter.INSTANCE to match all directories.
+     * @param days The x amount of days before which files should be deleted. This must be `>=0`.
+     * @param ignoreNonExistentFile The {@code boolean} that decides if it should be considered an
+     *                              error if file to deleted doesn't exist.
+     * @param allowedFileTypeFlags The flags that are matched against the file's {@link FileType} to
+     *                             see if it should be deleted or not. This is a safety measure to
+     *                             prevent accidental deletion of the wrong type of file, like a
+     *                             directory instead of a regular file. You can pass
+     *                             {@link FileTypes#FILE_TYPE_ANY_FLAGS} to allow deletion of any file type.
+     * @return Returns the {@code error} if deleting was not successful, otherwise {@code null}.
+     */
+    public static Error deleteFilesOlderThanXDays(String label, final String filePath, final IOFileFilter dirFilter, int days, final boolean ignoreNonExistentFile, int allowedFileTypeFlags) {
+        return deleteFilesOlderThanXDays(label, filePath, dirFilter, days, ignoreNonExistentFile, allowedFileTypeFlags, false, null);
+    }
+
     /**
      * Delete files under a directory older than x days.
      *
      * The {@code filePath} must be the canonical path to a directory since symlinks will not be followed.
      * Any symlink files found under the directory will be deleted, but not their targets.
+     * Directories are not deleted.
+     *
+     * If {@code dirFilter} is {@code null} or {@link TrueFileFilter#INSTANCE} and the native
+     * library is loaded, then the files are found with a parallel native walk that deletes the
+     * entries of each directory while reading it, so memory does not grow with the number of
+     * files, like it does for commons-io {@code iterateFiles()} which is used otherwise. The native
+     * walk checks the modification time of symlinks themselves instead of their targets.
      *
      * @param label The optional label for directory to clear. This can optionally be {@code null}.
      * @param filePath The {@code path} for directory to clear.
@@ -1448,9 +1501,15 @@ public class FileUtils {
      *                             prevent accidental deletion of the wrong type of file, like a
      *                             directory instead of a regular file. You can pass
      *                             {@link FileTypes#FILE_TYPE_ANY_FLAGS} to allow deletion of any file type.
+     * @param dryRun The {@code boolean} that decides if files should only be counted instead of
+     *               deleted.
+     * @param fileTreeStats The optional {@link FileTreeStats} to add the number and size of the
+     *                      files deleted, or that would be deleted for a dry run, to. This can
+     *                      optionally be {@code null}.
      * @return Returns the {@code error} if deleting was not successful, otherwise {@code null}.
      */
-    public static Error deleteFilesOlderThanXDays(String label, final String filePath, final IOFileFilter dirFilter, int days, final boolean ignoreNonExistentFile, int allowedFileTypeFlags) {
+    public static Error deleteFilesOlderThanXDays(String label, final String filePath, final IOFileFilter dirFilter, int days, final boolean ignoreNonExistentFile, int allowedFileTypeFlags,
+                                                  final boolean dryRun, @Nullable final FileTreeStats fileTreeStats) {
         label = (label == null || label.isEmpty() ? "" : label + " ");
         if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "deleteFilesOlderThanXDays");
         if (days < 0) return FunctionErrno.ERRNO_INVALID_PARAMETER.getError(label + "days", "deleteFilesOlderThanXDays", " It must be >= 0.");
@@ -1458,7 +1517,7 @@ public class FileUtils {
         Error error;
 
         try {
-            Logger.logVerbose(LOG_TAG, "Deleting files under " + label + "directory at path \"" + filePath + "\" older than " + days + " days");
+            Logger.logVerbose(LOG_TAG, (dryRun ? "Counting" : "Deleting") + " files under " + label + "directory at path \"" + filePath + "\" older than " + days + " days");
 
             File file = new File(filePath);
             FileType fileType = getFileType(filePath, false);
@@ -1481,21 +1540,41 @@ public class FileUtils {
             }
 
             // TODO: Use FileAttributes with support for atime (default), mtime, ctime. Add regex for ignoring file and dir absolute paths.
-            // FIXME: iterateFiles() does not return subdirectories even with TrueFileFilter for file and dir.
             // FIXME: Empty directories remain
 
             // If directory exists, delete its contents
             Calendar calendar = Calendar.getInstance();
             calendar.add(Calendar.DATE, -(days));
-            // AgeFileFilter seems to apply to symlink destination timestamp instead of symlink file itself
-            Iterator<File> filesToDelete =
-                org.apache.commons.io.FileUtils.iterateFiles(file, new AgeFileFilter(calendar.getTime()), dirFilter);
-            while (filesToDelete.hasNext()) {
-                File subFile = filesToDelete.next();
-                error = deleteFile(label + " directory sub", subFile.getAbsolutePath(), true, true, allowedFileTypeFlags);
-                if (error != null)
-                    return error;
+
+            FileTreeStats stats;
+            if ((dirFilter == null || dirFilter == TrueFileFilter.INSTANCE) && NativeDispatcher.isFileUtilsLibraryLoaded()) {
+                stats = NativeDispatcher.deleteFilesOlderThan(filePath, calendar.getTimeInMillis(), allowedFileTypeFlags,
+                    dirFilter != null, dryRun);
+            } else {
+                stats = new FileTreeStats();
+                // AgeFileFilter seems to apply to symlink destination timestamp instead of symlink file itself
+                // FIXME: iterateFiles() does not return subdirectories even with TrueFileFilter for file and dir.
+                Iterator<File> filesToDelete =
+                    org.apache.commons.io.FileUtils.iterateFiles(file, new AgeFileFilter(calendar.getTime()), dirFilter);
+                while (filesToDelete.hasNext()) {
+                    File subFile = filesToDelete.next();
+                    String subFilePath = subFile.getAbsolutePath();
+                    if ((allowedFileTypeFlags & getFileType(subFilePath, false).getValue()) <= 0)
+                        continue;
+
+                    long size = subFile.length();
+                    if (!dryRun) {
+                        error = deleteFile(label + " directory sub", subFilePath, true, true, allowedFileTypeFlags);
+                        if (error != null)
+                            return error;
+                    }
+                    stats.add(1, size);
+                }
             }
+
+            Logger.logVerbose(LOG_TAG, (dryRun ? "Found " : "Deleted ") + stats + " under " + label + "directory at path \"" + filePath + "\" older than " + days + " days");
+            if (fileTreeStats != null)
+                fileTreeStats.add(stats.getFiles(), stats.getBytes());
         } catch (Exception e) {
             return FileUtilsErrno.ERRNO_DELETING_FILES_OLDER_THAN_X_DAYS_FAILED_WITH_EXCEPTION.getError(e, label + "directory", filePath, days, e.getMessage());
         }
@@ -1697,6 +1776,100 @@ public class FileUtils {
         return null;
     }
 
+    /**
+     * Atomically replace the file at path with the {@code dataString}, unless it already has the
+     * same content.
+     *
+     * The text is written to the temp file with a single file descriptor that is synced with
+     * {@code fsync()} before the temp file is renamed to the file path, so that readers either see
+     * the old or the new content, even if the device crashes while writing. Writing is skipped if
+     * the {@code SHA-256} digest of the existing file content matches the text.
+     *
+     * @param label The optional label for file to write. This can optionally be {@code null}.
+     * @param filePath The {@code path} for file to write.
+     * @param tempFilePath The {@code path} for the temp file to write, which must be on the same
+     *                     filesystem as the {@code filePath}.
+     * @param charset The {@link Charset} of the {@code dataString}. If this is {@code null},
+     *                then default {@link Charset} will be used.
+     * @param dataString The data to write to file.
+     * @return Returns the {@code error} if writing was not successful, otherwise {@code null}.
+     */
+    public static Error writeTextToFileAtomically(String label, final String filePath, final String tempFilePath,
+                                                  Charset charset, final String dataString) {
+        label = (label == null || label.isEmpty() ? "" : label + " ");
+        if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "writeTextToFileAtomically");
+        if (tempFilePath == null || tempFilePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "temp file path", "writeTextToFileAtomically");
+        if (dataString == null) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError("data string", "writeTextToFileAtomically");
+
+        Error error;
+
+        error = preWriteToFile(label, filePath);
+        if (error != null)
+            return error;
+
+        if (charset == null) charset = Charset.defaultCharset();
+
+        // Check if charset is supported
+        error = isCharsetSupported(charset);
+        if (error != null)
+            return error;
+
+        byte[] data = dataString.getBytes(charset);
+        if (isFileContentDigestEqual(filePath, data)) {
+            Logger.logVerbose(LOG_TAG, "Not writing text to " + label + "file at path \"" + filePath + "\" since its content is unchanged");
+            return null;
+        }
+
+        Logger.logVerbose(LOG_TAG, Logger.getMultiLineLogStringEntry("Atomically writing text to " + label + "file at path \"" + filePath + "\"", DataUtils.getTruncatedCommandOutput(dataString, Logger.LOGGER_ENTRY_MAX_SAFE_PAYLOAD, true, false, true), "-"));
+
+        error = preWriteToFile(label + "temp ", tempFilePath);
+        if (error != null)
+            return error;
+
+        FileOutputStream fileOutputStream = null;
+        try {
+            // Write text to temp file and sync it before renaming so that the file is never seen
+            // partially written
+            fileOutputStream = new FileOutputStream(tempFilePath);
+            fileOutputStream.write(data);
+            fileOutputStream.getFD().sync();
+            fileOutputStream.close();
+            fileOutputStream = null;
+
+            Os.rename(tempFilePath, filePath);
+        } catch (Exception e) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(tempFilePath).delete();
+            return FileUtilsErrno.ERRNO_WRITING_TEXT_TO_FILE_FAILED_WITH_EXCEPTION.getError(e, label + "file", filePath, e.getMessage());
+        } finally {
+            closeCloseable(fileOutputStream);
+        }
+
+        return null;
+    }
+
+    /** Check if the regular file at path has the same {@code SHA-256} digest as the {@code data}. */
+    private static boolean isFileContentDigestEqual(@NonNull final String filePath, @NonNull final byte[] data) {
+        File file = new File(filePath);
+        if (!file.isFile() || file.length() != data.length) return false;
+
+        FileInputStream fileInputStream = null;
+        try {
+            MessageDigest fileDigest = MessageDigest.getInstance("SHA-256");
+            fileInputStream = new FileInputStream(file);
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = fileInputStream.read(buffer)) != -1)
+                fileDigest.update(buffer, 0, count);
+
+            return MessageDigest.isEqual(fileDigest.digest(), MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (Exception e) {
+            return false;
+        } finally {
+            closeCloseable(fileInputStream);
+        }
+    }
+
     /**
      * Write the {@link Serializable} {@code serializableObject} to file at path.
      *
@@ -0,0 +1,124 @@
+package com.termux.shared.file.filesystem;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The entries of a directory along with their {@link FileAttributes}, read together by
+ * {@link NativeDispatcher#listDirectory(String, boolean)} so that callers that need the type, size
+ * or times of every entry, like a file picker, do not need to stat each entry separately.
+ */
+public class DirectoryListing {
+
+    /**
+     * The time after its last modification that a directory must have been listed for the listing
+     * to be used by {@link #isValid(FileAttributes, long, long)}, since entries added in the same
+     * timestamp granularity as the listing would not change the mtime.
+     */
+    static final long RACY_MILLIS = 1000;
+
+    private final String mDirectoryPath;
+    private final FileAttributes mDirectoryAttributes;
+    private final boolean mDirectoryWritable;
+    private final String[] mNames;
+    private final FileAttributes[] mFileAttributes;
+    private final boolean[] mWritable;
+    private final long mListedTime;
+
+    DirectoryListing(@NonNull String directoryPath, @NonNull FileAttributes directoryAttributes, boolean directoryWritable,
+                     @NonNull String[] names, @NonNull FileAttributes[] fileAttributes, @NonNull boolean[] writable,
+                     long listedTime) {
+        mDirectoryPath = directoryPath;
+        mDirectoryAttributes = directoryAttributes;
+        mDirectoryWritable = directoryWritable;
+        mNames = names;
+        mFileAttributes = fileAttributes;
+        mWritable = writable;
+        mListedTime = listedTime;
+    }
+
+    /**
+     * Get the {@link DirectoryListing} for a directory. This is the same as calling
+     * {@link NativeDispatcher#listDirectory(String, boolean)}.
+     *
+     * @param directoryPath The path of the directory.
+     * @param followLinks If symlinks entries should be stat-ed with their target, unless it does
+     *                    not exist.
+     * @return Returns the {@link DirectoryListing}.
+     */
+    @NonNull
+    public static DirectoryListing get(String directoryPath, boolean followLinks) throws IOException {
+        return NativeDispatcher.listDirectory(directoryPath, followLinks);
+    }
+
+    /** Get the path of the directory. */
+    @NonNull
+    public String getDirectoryPath() {
+        return mDirectoryPath;
+    }
+
+    /** Get the {@link FileAttributes} of the directory itself at the time it was listed. */
+    @NonNull
+    public FileAttributes getDirectoryAttributes() {
+        return mDirectoryAttributes;
+    }
+
+    /** Get the time in milliseconds at which listing the directory started. */
+    public long getListedTime() {
+        return mListedTime;
+    }
+
+    /**
+     * Get whether the listing can still be used instead of listing the directory again, which is
+     * checked with a single stat of the directory.
+     *
+     * It can only be used if the mtime, device and inode of the directory have not changed, and
+     * if the directory was listed at least {@link #RACY_MILLIS} after its last modification. Since
+     * modifying a file in place does not change the mtime of its directory, it is also only used
+     * for {@code maxAgeMillis}, so that sizes and modified times of files being written do not
+     * stay stale.
+     *
+     * @param directoryAttributes The current {@link FileAttributes} of the directory.
+     * @param now The current time in milliseconds.
+     * @param maxAgeMillis The max time since the directory was listed.
+     * @return Returns {@code true} if the listing can be used.
+     */
+    public boolean isValid(@NonNull FileAttributes directoryAttributes, long now, long maxAgeMillis) {
+        long mtime = directoryAttributes.lastModifiedTime().to(TimeUnit.MICROSECONDS);
+        return now - mListedTime < maxAgeMillis &&
+            directoryAttributes.dev() == mDirectoryAttributes.dev() &&
+            directoryAttributes.ino() == mDirectoryAttributes.ino() &&
+            mtime == mDirectoryAttributes.lastModifiedTime().to(TimeUnit.MICROSECONDS) &&
+            mtime / 1000 + RACY_MILLIS < mListedTime;
+    }
+
+    /** Get whether the directory was writable by the app when it was listed. */
+    public boolean isDirectoryWritable() {
+        return mDirectoryWritable;
+    }
+
+    /** Get the number of entries. */
+    public int size() {
+        return mNames.length;
+    }
+
+    /** Get the name of the entry at {@code index}. */
+    @NonNull
+    public String getName(int index) {
+        return mNames[index];
+    }
+
+    /** Get the {@link FileAttributes} of the entry at {@code index}. */
+    @NonNull
+    public FileAttributes getFileAttributes(int index) {
+        return mFileAttributes[index];
+    }
+
+    /** Get whether the entry at {@code index} was writable by the app when it was listed. */
+    public boolean isWritable(int index) {
+        return mWritable[index];
+    }
+
+}
@@ -103,6 +103,13 @@ public class FileAttributes {
         return fileAttributes;
     }
 
+    // get the FileAttributes for a file from the stats returned by NativeDispatcher.listDirectoryNative()
+    static FileAttributes get(String filePath, long[] stats, int offset) {
+        FileAttributes fileAttributes = new FileAttributes(filePath);
+        fileAttributes.loadFromStatArray(stats, offset);
+        return fileAttributes;
+    }
+
     public String file() {
         if (filePath != null)
             return filePath;
@@ -318,6 +325,29 @@ public class FileAttributes {
         }
     }
 
+    /**
+     * Load the attributes from {@link NativeDispatcher#STAT_FIELDS} longs of {@code stats} starting
+     * at {@code offset}, in the order stored by `file-utils.cpp`.
+     */
+    void loadFromStatArray(long[] stats, int offset) {
+        this.st_mode = (int) stats[offset];
+        this.st_ino = stats[offset + 1];
+        this.st_dev = stats[offset + 2];
+        this.st_rdev = stats[offset + 3];
+        this.st_nlink = stats[offset + 4];
+        this.st_uid = (int) stats[offset + 5];
+        this.st_gid = (int) stats[offset + 6];
+        this.st_size = stats[offset + 7];
+        this.st_blksize = stats[offset + 8];
+        this.st_blocks = stats[offset + 9];
+        this.st_atime_sec = stats[offset + 10];
+        this.st_atime_nsec = stats[offset + 11];
+        this.st_mtime_sec = stats[offset + 12];
+        this.st_mtime_nsec = stats[offset + 13];
+        this.st_ctime_sec = stats[offset + 14];
+        this.st_ctime_nsec = stats[offset + 15];
+    }
+
     public String getFileString() {
         return "File: `" + file() + "`";
     }
@@ -0,0 +1,37 @@
+package com.termux.shared.file.filesystem;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The number and total size of the files handled by a file tree operation, like the files deleted,
+ * or that would be deleted for a dry run, by
+ * {@link com.termux.shared.file.FileUtils#deleteFilesOlderThanXDays(String, String, org.apache.commons.io.filefilter.IOFileFilter, int, boolean, int, boolean, FileTreeStats)}.
+ */
+public class FileTreeStats {
+
+    private long mFiles;
+    private long mBytes;
+
+    /** Add files and their total bytes. */
+    public synchronized void add(long files, long bytes) {
+        mFiles += files;
+        mBytes += bytes;
+    }
+
+    /** Get the number of files. */
+    public synchronized long getFiles() {
+        return mFiles;
+    }
+
+    /** Get the total size of the files in bytes. */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return mFiles + " files, " + mBytes + " bytes";
+    }
+
+}
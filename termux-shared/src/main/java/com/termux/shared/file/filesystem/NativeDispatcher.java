@@ -2,13 +2,36 @@ package com.termux.shared.file.filesystem;
 
 import android.system.ErrnoException;
 import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.termux.shared.logger.Logger;
 
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class NativeDispatcher {
 
+    /** The library that implements the native methods. */
+    private static final String FILE_UTILS_LIBRARY = "file-utils";
+
+    /** The number of longs stored for each entry by {@link #listDirectoryNative(byte[], boolean)}. */
+    static final int STAT_FIELDS = 17;
+    /** The flag stored in the last long of each entry if it is writable. */
+    private static final long STAT_FLAG_WRITABLE = 1;
+
+    /** The max number of threads used to walk the directories of a tree by the tree operations like {@link #deleteTree(String, boolean)}. */
+    private static final int TREE_OPERATION_MAX_THREADS = 4;
+
+    private static volatile Boolean fileUtilsLibraryLoaded;
+
+    private static final String LOG_TAG = "NativeDispatcher";
+
     public static void stat(String filePath, FileAttributes fileAttributes) throws IOException {
         validateFileExistence(filePath);
 
@@ -39,6 +62,241 @@ public class NativeDispatcher {
         }
     }
 
+    /**
+     * List the entries of a directory along with their {@link FileAttributes}. The entries are
+     * read and stat-ed in one native pass with `getdents64()` and `fstatat()` relative to the
+     * directory fd, or with {@link Os} calls for each entry if the native library failed to load.
+     * Entries that are removed while listing are skipped.
+     *
+     * @param dirPath The path of the directory.
+     * @param followLinks If symlinks entries should be stat-ed with their target, unless it does
+     *                    not exist.
+     * @return Returns the {@link DirectoryListing}.
+     */
+    public static DirectoryListing listDirectory(String dirPath, boolean followLinks) throws IOException {
+        validateFileExistence(dirPath);
+        dirPath = new File(dirPath).getAbsolutePath();
+        // Get the time before listing, since changes made while listing may not be included
+        long listedTime = System.currentTimeMillis();
+
+        if (!isFileUtilsLibraryLoaded())
+            return listDirectoryWithOs(dirPath, followLinks, listedTime);
+
+        Object[] result = listDirectoryNative(dirPath.getBytes(StandardCharsets.UTF_8), followLinks);
+        if (result == null)
+            throw new IOException("Failed to list directory \"" + dirPath + "\"");
+        return parseDirectoryListing(dirPath, (byte[]) result[0], (long[]) result[1], listedTime);
+    }
+
+    /**
+     * Create the {@link DirectoryListing} from the result of {@link #listDirectoryNative(byte[], boolean)}.
+     *
+     * @param dirPath The absolute path of the directory.
+     * @param namesBytes The UTF-8 names of the entries, each followed by a null byte.
+     * @param stats The {@link #STAT_FIELDS} longs of the directory itself, followed by the ones of
+     *              each entry in the same order as the names.
+     * @param listedTime The time in milliseconds at which listing started.
+     * @return Returns the {@link DirectoryListing}.
+     */
+    @VisibleForTesting
+    static DirectoryListing parseDirectoryListing(String dirPath, byte[] namesBytes, long[] stats, long listedTime) {
+        int count = stats.length / STAT_FIELDS - 1;
+        String[] names = new String[count];
+        FileAttributes[] fileAttributes = new FileAttributes[count];
+        boolean[] writable = new boolean[count];
+        int nameStart = 0;
+        for (int i = 0; i < count; i++) {
+            int nameEnd = nameStart;
+            while (namesBytes[nameEnd] != 0) nameEnd++;
+            names[i] = new String(namesBytes, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8);
+            nameStart = nameEnd + 1;
+
+            int offset = (i + 1) * STAT_FIELDS;
+            fileAttributes[i] = FileAttributes.get(dirPath + "/" + names[i], stats, offset);
+            writable[i] = (stats[offset + STAT_FIELDS - 1] & STAT_FLAG_WRITABLE) != 0;
+        }
+
+        return new DirectoryListing(dirPath, FileAttributes.get(dirPath, stats, 0),
+            (stats[STAT_FIELDS - 1] & STAT_FLAG_WRITABLE) != 0, names, fileAttributes, writable, listedTime);
+    }
+
+    /** List a directory like {@link #listDirectory(String, boolean)} with {@link Os} calls for each entry. */
+    @VisibleForTesting
+    static DirectoryListing listDirectoryWithOs(String dirPath, boolean followLinks, long listedTime) throws IOException {
+        FileAttributes directoryAttributes = FileAttributes.get(dirPath, true);
+        String[] list = new File(dirPath).list();
+        if (list == null)
+            throw new IOException("Failed to list directory \"" + dirPath + "\"");
+
+        List<String> names = new ArrayList<>(list.length);
+        List<FileAttributes> fileAttributes = new ArrayList<>(list.length);
+        for (String name : list) {
+            String filePath = dirPath + "/" + name;
+            try {
+                fileAttributes.add(FileAttributes.get(filePath, followLinks));
+            } catch (IOException e) {
+                // Broken symlinks are returned as the symlink itself
+                try {
+                    if (!followLinks) continue;
+                    fileAttributes.add(FileAttributes.get(filePath, false));
+                } catch (IOException e2) {
+                    continue;
+                }
+            }
+            names.add(name);
+        }
+
+        boolean[] writable = new boolean[names.size()];
+        for (int i = 0; i < writable.length; i++)
+            writable[i] = isWritable(dirPath + "/" + names.get(i));
+
+        return new DirectoryListing(dirPath, directoryAttributes, isWritable(dirPath),
+            names.toArray(new String[0]), fileAttributes.toArray(new FileAttributes[0]), writable, listedTime);
+    }
+
+    /**
+     * Delete the file at path, and if it is a directory, everything under it with a native walk
+     * that uses `openat()` and `unlinkat()` relative to the parent directory fd and never follows
+     * symlinks. Subdirectories are walked in parallel by up to {@link #TREE_OPERATION_MAX_THREADS}
+     * threads. The walk stops at the first failure.
+     *
+     * This requires {@link #isFileUtilsLibraryLoaded()} to be {@code true}.
+     *
+     * @param filePath The path of the file.
+     * @param contentsOnly If only the contents of the directory at path should be deleted.
+     */
+    public static void deleteTree(String filePath, boolean contentsOnly) throws IOException {
+        validateFileExistence(filePath);
+        validateFileUtilsLibraryLoaded();
+
+        deleteTreeNative(new File(filePath).getAbsolutePath().getBytes(StandardCharsets.UTF_8), contentsOnly, getTreeOperationThreads());
+    }
+
+    /**
+     * Copy the file at source path to destination path, and if it is a directory, everything under
+     * it with a native walk like {@link #deleteTree(String, boolean)}. Regular files are copied
+     * with `copy_file_range()` and keep their mode and times, symlinks are recreated with their
+     * target and directories keep their mode and times. If the destination is under the source
+     * directory, then it is not copied into itself. The destination must not exist, unless it is a
+     * directory.
+     *
+     * This requires {@link #isFileUtilsLibraryLoaded()} to be {@code true}.
+     *
+     * @param srcFilePath The path of the source file.
+     * @param destFilePath The path of the destination file.
+     */
+    public static void copyTree(String srcFilePath, String destFilePath) throws IOException {
+        validateFileExistence(srcFilePath);
+        validateFileExistence(destFilePath);
+        validateFileUtilsLibraryLoaded();
+
+        copyTreeNative(new File(srcFilePath).getAbsolutePath().getBytes(StandardCharsets.UTF_8),
+            new File(destFilePath).getAbsolutePath().getBytes(StandardCharsets.UTF_8), getTreeOperationThreads());
+    }
+
+    /**
+     * Rename the file at source path to destination path with `renameat2(RENAME_NOREPLACE)`, so
+     * that a destination created after it was checked is not replaced, or `rename()` if it is not
+     * supported by the kernel or filesystem.
+     *
+     * This requires {@link #isFileUtilsLibraryLoaded()} to be {@code true}.
+     *
+     * @param srcFilePath The path of the source file.
+     * @param destFilePath The path of the destination file.
+     * @return Returns {@code true} if renamed, otherwise {@code false}, like if the paths are on
+     * different filesystems.
+     */
+    public static boolean rename(String srcFilePath, String destFilePath) throws IOException {
+        validateFileExistence(srcFilePath);
+        validateFileExistence(destFilePath);
+        validateFileUtilsLibraryLoaded();
+
+        int errno = renameNative(srcFilePath.getBytes(StandardCharsets.UTF_8), destFilePath.getBytes(StandardCharsets.UTF_8));
+        if (errno != 0)
+            Logger.logVerbose(LOG_TAG, "Failed to rename \"" + srcFilePath + "\" to \"" + destFilePath + "\" with errno " + errno);
+        return errno == 0;
+    }
+
+    /**
+     * Delete the files under a directory not modified after a time with a native walk like
+     * {@link #deleteTree(String, boolean)}, which handles the entries of each directory while
+     * reading it so that memory does not grow with the number of files. Symlinks are checked and
+     * deleted themselves and never followed. Directories are not deleted.
+     *
+     * This requires {@link #isFileUtilsLibraryLoaded()} to be {@code true}.
+     *
+     * @param dirPath The path of the directory.
+     * @param cutoffMillis The time in milliseconds since epoch after which files are not deleted.
+     * @param allowedFileTypeFlags The {@link FileType} flags of the files that can be deleted.
+     * @param recursive If files under subdirectories should be deleted too.
+     * @param dryRun If files should only be counted instead of deleted.
+     * @return Returns the {@link FileTreeStats} of the files deleted, or that would be deleted
+     * for a dry run.
+     */
+    public static FileTreeStats deleteFilesOlderThan(String dirPath, long cutoffMillis, int allowedFileTypeFlags,
+                                                     boolean recursive, boolean dryRun) throws IOException {
+        validateFileExistence(dirPath);
+        validateFileUtilsLibraryLoaded();
+
+        long[] stats = deleteFilesOlderThanNative(new File(dirPath).getAbsolutePath().getBytes(StandardCharsets.UTF_8),
+            cutoffMillis, allowedFileTypeFlags, recursive, dryRun, getTreeOperationThreads());
+        if (stats == null)
+            throw new IOException("Failed to delete files under directory \"" + dirPath + "\"");
+
+        FileTreeStats fileTreeStats = new FileTreeStats();
+        fileTreeStats.add(stats[0], stats[1]);
+        return fileTreeStats;
+    }
+
+    private static int getTreeOperationThreads() {
+        return Math.max(1, Math.min(TREE_OPERATION_MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static boolean isWritable(String filePath) {
+        try {
+            return Os.access(filePath, OsConstants.W_OK);
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    /** Check if the native library for {@link #listDirectory(String, boolean)} and tree operations is loaded, loading it if not tried yet. */
+    public static boolean isFileUtilsLibraryLoaded() {
+        Boolean loaded = fileUtilsLibraryLoaded;
+        if (loaded == null) {
+            synchronized (NativeDispatcher.class) {
+                loaded = fileUtilsLibraryLoaded;
+                if (loaded == null) {
+                    try {
+                        System.loadLibrary(FILE_UTILS_LIBRARY);
+                        loaded = true;
+                    } catch (Throwable t) {
+                        Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load \"" + FILE_UTILS_LIBRARY + "\" library", t);
+                        loaded = false;
+                    }
+                    fileUtilsLibraryLoaded = loaded;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private static void validateFileUtilsLibraryLoaded() throws IOException {
+        if (!isFileUtilsLibraryLoaded())
+            throw new IOException("The \"" + FILE_UTILS_LIBRARY + "\" library is not loaded");
+    }
+
+    private static native Object[] listDirectoryNative(byte[] dirPath, boolean followLinks) throws IOException;
+
+    private static native void deleteTreeNative(byte[] filePath, boolean contentsOnly, int threads) throws IOException;
+
+    private static native void copyTreeNative(byte[] srcFilePath, byte[] destFilePath, int threads) throws IOException;
+
+    private static native long[] deleteFilesOlderThanNative(byte[] dirPath, long cutoffMillis, int allowedFileTypeFlags,
+                                                            boolean recursive, boolean dryRun, int threads) throws IOException;
+
+    private static native int renameNative(byte[] srcFilePath, byte[] destFilePath);
+
     public static void validateFileExistence(String filePath) throws IOException {
         if (filePath == null || filePath.isEmpty()) throw new IOException("The path is null or empty");
 
@@ -0,0 +1,196 @@
+package com.termux.shared.logger;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A log writer that writes log messages to logcat on a background thread, so that threads logging
+ * large amounts of messages, like command output lines logged by
+ * {@link com.termux.shared.shell.StreamGobbler}, do not wait for logcat.
+ *
+ * Messages are queued in a lock-free bounded multi-producer single-consumer ring of preallocated
+ * records, which is drained by a single daemon thread. Writers never block: if the ring is full,
+ * then the message is dropped and the number of dropped messages is logged once the ring has been
+ * drained. Formatting of {@code prefix} and splitting of extended messages into
+ * {@link Logger#LOGGER_ENTRY_MAX_PAYLOAD} sized entries is also done on the background thread.
+ *
+ * The ring is based on the bounded queue by Dmitry Vyukov, where each slot has a sequence number
+ * that tells producers when the slot is free and the consumer when it has been published.
+ */
+public class AsyncLogWriter {
+
+    /** The default number of records in the ring. */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** The max time the writer thread waits for new records before checking again. */
+    private static final long MAX_PARK_NANOS = 1000 * 1000 * 1000;
+
+    private final LogRecord[] mRecords;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+
+    /** The position of the next record to be claimed by producers. */
+    private final AtomicLong mTail = new AtomicLong();
+    /** The position of the next record to be read by the writer thread. */
+    private long mHead;
+
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private volatile boolean mWriterWaiting;
+    private final Thread mWriterThread;
+
+    private static final String LOG_TAG = "AsyncLogWriter";
+
+    /**
+     * Create and start the {@link AsyncLogWriter}.
+     *
+     * @param capacity The number of records in the ring. It will be rounded up to a power of 2.
+     */
+    public AsyncLogWriter(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mRecords = new LogRecord[size];
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mRecords[i] = new LogRecord();
+            mSequences.set(i, i);
+        }
+        mMask = size - 1;
+
+        mWriterThread = new Thread(this::runWriter, Logger.getDefaultLogTag() + "-" + LOG_TAG);
+        mWriterThread.setDaemon(true);
+        mWriterThread.setPriority(Thread.MIN_PRIORITY);
+        mWriterThread.start();
+    }
+
+    /**
+     * Queue a message to be logged on the writer thread.
+     *
+     * @param logPriority The log priority like {@link Log#VERBOSE}.
+     * @param tag The log tag. If {@code force} is {@code false}, then {@link Logger#getFullTag(String)}
+     *            will be used for it.
+     * @param prefix The optional prefix that will be added as "[prefix] " before the message.
+     * @param message The message to log.
+     * @param extended If message should be logged with {@link Logger#logExtendedMessage(int, String, String)}
+     *                 so that it is not truncated.
+     * @param force If message should be logged regardless of {@link Logger#getLogLevel()}, like
+     *              {@link Logger#logVerboseForce(String, String)} does.
+     * @return Returns {@code true} if the message was queued, otherwise {@code false} if it was
+     * dropped since the ring was full.
+     */
+    public boolean write(int logPriority, @NonNull String tag, @Nullable String prefix, @NonNull String message,
+                         boolean extended, boolean force) {
+        long position;
+        int index;
+        while (true) {
+            position = mTail.get();
+            index = (int) position & mMask;
+            long difference = mSequences.get(index) - position;
+            if (difference == 0) {
+                if (mTail.compareAndSet(position, position + 1)) break;
+            } else if (difference < 0) {
+                // The writer thread has not yet read the record from the previous lap
+                mDroppedCount.incrementAndGet();
+                return false;
+            }
+            // Else another producer claimed the position, so try again with the new tail
+        }
+
+        LogRecord record = mRecords[index];
+        record.logPriority = logPriority;
+        record.tag = tag;
+        record.prefix = prefix;
+        record.message = message;
+        record.extended = extended;
+        record.force = force;
+        mSequences.set(index, position + 1);
+
+        if (mWriterWaiting)
+            LockSupport.unpark(mWriterThread);
+        return true;
+    }
+
+    /** Get the number of messages dropped since the ring was full. */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    private void runWriter() {
+        long reportedDroppedCount = 0;
+        while (true) {
+            if (!writeNextRecord()) {
+                long droppedCount = mDroppedCount.get();
+                if (droppedCount != reportedDroppedCount) {
+                    Logger.logWarn(LOG_TAG, (droppedCount - reportedDroppedCount) + " log messages were dropped since the log queue was full");
+                    reportedDroppedCount = droppedCount;
+                }
+
+                // Check again after announcing the wait, so that a record published before the
+                // producer saw mWriterWaiting is not missed
+                mWriterWaiting = true;
+                if (!isRecordAvailable())
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                mWriterWaiting = false;
+            }
+        }
+    }
+
+    private boolean isRecordAvailable() {
+        return mSequences.get((int) mHead & mMask) == mHead + 1;
+    }
+
+    /** Write the next record if one is available and return {@code true}, otherwise {@code false}. */
+    private boolean writeNextRecord() {
+        int index = (int) mHead & mMask;
+        if (mSequences.get(index) != mHead + 1) return false;
+
+        LogRecord record = mRecords[index];
+        int logPriority = record.logPriority;
+        String tag = record.tag;
+        String message = record.prefix != null ? "[" + record.prefix + "] " + record.message : record.message;
+        boolean extended = record.extended;
+        boolean force = record.force;
+        record.clear();
+
+        // Release the slot to producers before writing to logcat
+        mSequences.set(index, mHead + mRecords.length);
+        mHead++;
+
+        try {
+            if (force)
+                Logger.logMessageForce(logPriority, tag, message);
+            else if (extended)
+                Logger.logExtendedMessage(logPriority, tag, message);
+            else
+                Logger.logMessage(logPriority, tag, message);
+        } catch (Throwable t) {
+            // The writer thread must not die, otherwise all future messages would be dropped
+            Log.e(LOG_TAG, "Failed to write log message", t);
+        }
+        return true;
+    }
+
+
+
+    private static final class LogRecord {
+
+        int logPriority;
+        String tag;
+        String prefix;
+        String message;
+        boolean extended;
+        boolean force;
+
+        void clear() {
+            tag = null;
+            prefix = null;
+            message = null;
+        }
+
+    }
+
+}
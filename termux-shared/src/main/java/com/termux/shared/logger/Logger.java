@@ -14,7 +14,6 @@ import com.termux.shared.data.DataUtils;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -53,51 +52,129 @@ public class Logger {
 
 
 
+    /**
+     * The {@link AsyncLogWriter} used by the "log*Async()" functions. It is created and its writer
+     * thread started on first use.
+     */
+    private static volatile AsyncLogWriter ASYNC_LOG_WRITER;
+
+    /** The optional {@link RecentLogsBuffer} that all logged messages are also added to. */
+    private static volatile RecentLogsBuffer RECENT_LOGS_BUFFER;
+
+    /**
+     * A supplier of a log message, so that the message is only built if its log priority is enabled
+     * for the {@link #CURRENT_LOG_LEVEL}.
+     */
+    public interface MessageSupplier {
+        String getMessage();
+    }
+
+
+
     public static void logMessage(int logPriority, String tag, String message) {
-        if (logPriority == Log.ERROR && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.e(getFullTag(tag), message);
-        else if (logPriority == Log.WARN && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.w(getFullTag(tag), message);
-        else if (logPriority == Log.INFO && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.i(getFullTag(tag), message);
-        else if (logPriority == Log.DEBUG && CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG)
-            Log.d(getFullTag(tag), message);
-        else if (logPriority == Log.VERBOSE && CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE)
-            Log.v(getFullTag(tag), message);
+        if (!isLogPriorityEnabled(logPriority)) return;
+
+        String fullTag = getFullTag(tag);
+        Log.println(logPriority, fullTag, message);
+
+        RecentLogsBuffer recentLogsBuffer = RECENT_LOGS_BUFFER;
+        if (recentLogsBuffer != null && message != null)
+            recentLogsBuffer.add(logPriority, fullTag, message);
     }
 
-    public static void logExtendedMessage(int logLevel, String tag, String message) {
-        if (message == null) return;
+    public static void logMessage(int logPriority, String tag, @NonNull MessageSupplier messageSupplier) {
+        if (isLogPriorityEnabled(logPriority))
+            logMessage(logPriority, tag, messageSupplier.getMessage());
+    }
+
+    /** Log a message regardless of {@link #CURRENT_LOG_LEVEL} and without adding the default log tag to tag. */
+    static void logMessageForce(int logPriority, String tag, String message) {
+        Log.println(logPriority, tag, message);
+
+        RecentLogsBuffer recentLogsBuffer = RECENT_LOGS_BUFFER;
+        if (recentLogsBuffer != null && message != null)
+            recentLogsBuffer.add(logPriority, tag, message);
+    }
 
-        int cutOffIndex;
-        int nextNewlineIndex;
-        String prefix = "";
+    public static void logExtendedMessage(int logLevel, String tag, String message) {
+        if (message == null || message.isEmpty() || !isLogPriorityEnabled(logLevel)) return;
 
         // -8 for prefix "(xx/xx)" (max 99 sections), - log tag length, -4 for log tag prefix "D/" and suffix ": "
         int maxEntrySize = LOGGER_ENTRY_MAX_PAYLOAD - 8 - getFullTag(tag).length() - 4;
 
-        List<String> messagesList = new ArrayList<>();
+        if (message.length() <= maxEntrySize) {
+            logMessage(logLevel, tag, message);
+            return;
+        }
 
-        while(!message.isEmpty()) {
-            if (message.length() > maxEntrySize) {
-                cutOffIndex = maxEntrySize;
-                nextNewlineIndex = message.lastIndexOf('\n', cutOffIndex);
-                if (nextNewlineIndex != -1) {
-                    cutOffIndex = nextNewlineIndex + 1;
-                }
-                messagesList.add(message.substring(0, cutOffIndex));
-                message = message.substring(cutOffIndex);
-            } else {
-                messagesList.add(message);
-                break;
-            }
+        // Count the sections first so that they can be logged directly with the "(x/count)" prefix,
+        // instead of building a list of the sections
+        int count = 0;
+        for (int start = 0; start < message.length(); start = getExtendedMessageCutOffIndex(message, start, maxEntrySize))
+            count++;
+
+        int i = 0;
+        for (int start = 0; start < message.length(); ) {
+            int cutOffIndex = getExtendedMessageCutOffIndex(message, start, maxEntrySize);
+            logMessage(logLevel, tag, "(" + (++i) + "/" + count + ")\n" + message.substring(start, cutOffIndex));
+            start = cutOffIndex;
         }
+    }
+
+    public static void logExtendedMessage(int logLevel, String tag, @NonNull MessageSupplier messageSupplier) {
+        if (isLogPriorityEnabled(logLevel))
+            logExtendedMessage(logLevel, tag, messageSupplier.getMessage());
+    }
 
-        for(int i=0; i<messagesList.size(); i++) {
-            if (messagesList.size() > 1)
-                prefix = "(" + (i + 1) + "/" + messagesList.size() + ")\n";
-            logMessage(logLevel, tag, prefix + messagesList.get(i));
+    /**
+     * Get the end index of the section of message that starts at start, which is after the last
+     * newline within maxEntrySize characters, if any.
+     */
+    private static int getExtendedMessageCutOffIndex(String message, int start, int maxEntrySize) {
+        if (message.length() - start <= maxEntrySize) return message.length();
+        int nextNewlineIndex = message.lastIndexOf('\n', start + maxEntrySize);
+        return nextNewlineIndex >= start ? nextNewlineIndex + 1 : start + maxEntrySize;
+    }
+
+
+
+    /**
+     * Log a message on the {@link AsyncLogWriter} thread instead of the calling thread. The message
+     * will be dropped if too many messages are already waiting to be logged.
+     */
+    public static void logMessageAsync(int logPriority, String tag, String message) {
+        if (message == null || !isLogPriorityEnabled(logPriority)) return;
+        getAsyncLogWriter().write(logPriority, tag, null, message, false, false);
+    }
+
+    /** Same as {@link #logMessageAsync(int, String, String)} but for {@link #logExtendedMessage(int, String, String)}. */
+    public static void logExtendedMessageAsync(int logPriority, String tag, String message) {
+        if (message == null || !isLogPriorityEnabled(logPriority)) return;
+        getAsyncLogWriter().write(logPriority, tag, null, message, true, false);
+    }
+
+    /**
+     * Same as {@link #logVerboseForce(String, String)} but on the {@link AsyncLogWriter} thread.
+     * The message will be logged as "[prefix] message", which is only built on the writer thread.
+     */
+    public static void logVerboseForceAsync(String tag, String prefix, String message) {
+        if (message == null) return;
+        getAsyncLogWriter().write(Log.VERBOSE, tag, prefix, message, false, true);
+    }
+
+    @NonNull
+    private static AsyncLogWriter getAsyncLogWriter() {
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter == null) {
+            synchronized (Logger.class) {
+                asyncLogWriter = ASYNC_LOG_WRITER;
+                if (asyncLogWriter == null) {
+                    asyncLogWriter = new AsyncLogWriter(AsyncLogWriter.DEFAULT_CAPACITY);
+                    ASYNC_LOG_WRITER = asyncLogWriter;
+                }
+            }
         }
+        return asyncLogWriter;
     }
 
 
@@ -194,6 +271,14 @@ public class Logger {
         logExtendedMessage(Log.DEBUG, DEFAULT_LOG_TAG, message);
     }
 
+    public static void logDebug(String tag, @NonNull MessageSupplier messageSupplier) {
+        logMessage(Log.DEBUG, tag, messageSupplier);
+    }
+
+    public static void logDebugExtended(String tag, @NonNull MessageSupplier messageSupplier) {
+        logExtendedMessage(Log.DEBUG, tag, messageSupplier);
+    }
+
 
 
     public static void logVerbose(String tag, String message) {
@@ -212,8 +297,16 @@ public class Logger {
         logExtendedMessage(Log.VERBOSE, DEFAULT_LOG_TAG, message);
     }
 
+    public static void logVerbose(String tag, @NonNull MessageSupplier messageSupplier) {
+        logMessage(Log.VERBOSE, tag, messageSupplier);
+    }
+
+    public static void logVerboseExtended(String tag, @NonNull MessageSupplier messageSupplier) {
+        logExtendedMessage(Log.VERBOSE, tag, messageSupplier);
+    }
+
     public static void logVerboseForce(String tag, String message) {
-        Log.v(tag, message);
+        logMessageForce(Log.VERBOSE, tag, message);
     }
 
 
@@ -456,6 +549,32 @@ public class Logger {
 
 
 
+    /**
+     * Enable or disable the {@link RecentLogsBuffer} that logged messages are also added to, so that
+     * they can be added to reports with {@link #getRecentLogsString()}.
+     *
+     * @param enabled If the buffer should be enabled.
+     * @param capacity The number of entries in the buffer, like {@link RecentLogsBuffer#DEFAULT_CAPACITY}.
+     */
+    public static synchronized void setRecentLogsBufferEnabled(boolean enabled, int capacity) {
+        if (!enabled)
+            RECENT_LOGS_BUFFER = null;
+        else if (RECENT_LOGS_BUFFER == null)
+            RECENT_LOGS_BUFFER = new RecentLogsBuffer(capacity);
+    }
+
+    public static boolean isRecentLogsBufferEnabled() {
+        return RECENT_LOGS_BUFFER != null;
+    }
+
+    /** Get the messages in the {@link RecentLogsBuffer}, or {@code null} if it is not enabled. */
+    public static String getRecentLogsString() {
+        RecentLogsBuffer recentLogsBuffer = RECENT_LOGS_BUFFER;
+        return recentLogsBuffer != null ? recentLogsBuffer.getLogsString() : null;
+    }
+
+
+
     public static int getLogLevel() {
         return CURRENT_LOG_LEVEL;
     }
@@ -485,6 +604,22 @@ public class Logger {
             return DEFAULT_LOG_TAG + "." + tag;
     }
 
+    /** Check if messages with the log priority, like {@link Log#DEBUG}, are logged for the {@link #CURRENT_LOG_LEVEL}. */
+    public static boolean isLogPriorityEnabled(int logPriority) {
+        switch (logPriority) {
+            case Log.ERROR:
+            case Log.WARN:
+            case Log.INFO:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL;
+            case Log.DEBUG:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG;
+            case Log.VERBOSE:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE;
+            default:
+                return false;
+        }
+    }
+
     public static boolean isLogLevelValid(Integer logLevel) {
         return (logLevel != null && logLevel >= LOG_LEVEL_OFF && logLevel <= MAX_LOG_LEVEL);
     }
@@ -0,0 +1,106 @@
+package com.termux.shared.logger;
+
+import androidx.annotation.NonNull;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * An in-memory ring of the most recent messages logged by {@link Logger}, so that they can be
+ * added to reports, like from {@link com.termux.shared.activities.ReportActivity}, without
+ * requiring the user to run `logcat`.
+ *
+ * The ring arrays are allocated once and the oldest entries are overwritten when it is full.
+ */
+public class RecentLogsBuffer {
+
+    /** The default number of entries in the buffer. */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final long[] mTimes;
+    private final int[] mLogPriorities;
+    private final String[] mTags;
+    private final String[] mMessages;
+
+    /** The index where the next entry will be added. */
+    private int mNext;
+    /** The number of entries in the buffer. */
+    private int mSize;
+
+    private static final char[] LOG_PRIORITY_CHARS = {'?', '?', 'V', 'D', 'I', 'W', 'E', 'A'};
+
+    public RecentLogsBuffer(int capacity) {
+        capacity = Math.max(1, capacity);
+        mTimes = new long[capacity];
+        mLogPriorities = new int[capacity];
+        mTags = new String[capacity];
+        mMessages = new String[capacity];
+    }
+
+    /** Add an entry, replacing the oldest entry if the buffer is full. */
+    public synchronized void add(int logPriority, @NonNull String tag, @NonNull String message) {
+        mTimes[mNext] = System.currentTimeMillis();
+        mLogPriorities[mNext] = logPriority;
+        mTags[mNext] = tag;
+        mMessages[mNext] = message;
+        mNext = (mNext + 1) % mMessages.length;
+        if (mSize < mMessages.length) mSize++;
+    }
+
+    /** Remove all entries. */
+    public synchronized void clear() {
+        for (int i = 0; i < mMessages.length; i++) {
+            mTags[i] = null;
+            mMessages[i] = null;
+        }
+        mNext = 0;
+        mSize = 0;
+    }
+
+    /** Get the number of entries in the buffer. */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Get the entries in the buffer from oldest to newest in the same format as `logcat -v time`,
+     * like "12-31 23:59:59.999 D/Termux.Tag: message".
+     */
+    @NonNull
+    public String getLogsString() {
+        long[] times;
+        int[] logPriorities;
+        String[] tags;
+        String[] messages;
+
+        // Copy the entries so that formatting them does not block loggers
+        synchronized (this) {
+            times = new long[mSize];
+            logPriorities = new int[mSize];
+            tags = new String[mSize];
+            messages = new String[mSize];
+            int start = (mNext - mSize + mMessages.length) % mMessages.length;
+            for (int i = 0; i < mSize; i++) {
+                int index = (start + i) % mMessages.length;
+                times[i] = mTimes[index];
+                logPriorities[i] = mLogPriorities[index];
+                tags[i] = mTags[index];
+                messages[i] = mMessages[index];
+            }
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        Date date = new Date();
+        StringBuilder logsString = new StringBuilder();
+        for (int i = 0; i < messages.length; i++) {
+            date.setTime(times[i]);
+            int logPriority = logPriorities[i];
+            logsString.append(dateFormat.format(date)).append(' ')
+                .append(logPriority >= 0 && logPriority < LOG_PRIORITY_CHARS.length ? LOG_PRIORITY_CHARS[logPriority] : '?')
+                .append('/').append(tags[i]).append(": ").append(messages[i]).append('\n');
+        }
+        return logsString.toString();
+    }
+
+}
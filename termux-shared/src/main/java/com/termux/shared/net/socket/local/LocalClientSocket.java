@@ -2,25 +2,33 @@ package com.termux.shared.net.socket.local;
 
 import androidx.annotation.NonNull;
 
-import com.termux.shared.data.DataUtils;
 import com.termux.shared.errors.Error;
 import com.termux.shared.jni.models.JniResult;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.markdown.MarkdownUtils;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
 
 /** The client socket for {@link LocalSocketManager}. */
 public class LocalClientSocket implements Closeable {
 
     public static final String LOG_TAG = "LocalClientSocket";
 
+    /** The size of the buffer used by {@link #readDataUntilNull(ByteArrayOutputStream)}. */
+    public static final int READ_BUFFER_SIZE = 8192;
+
+    /** The maximum number of buffers for a single native scatter or gather call, same as `IOV_MAX`. */
+    public static final int MAX_VECTOR_BUFFERS = 1024;
+
     /** The {@link LocalSocketManager} instance for the local socket. */
     @NonNull protected final LocalSocketManager mLocalSocketManager;
 
@@ -88,7 +96,7 @@ public class LocalClientSocket implements Closeable {
     @Override
     public void close() throws IOException {
         if (mFD >= 0) {
-            Logger.logVerbose(LOG_TAG, "Client socket close for \"" + mLocalSocketRunConfig.getTitle() + "\" server: " + getPeerCred().getMinimalString());
+            Logger.logVerbose(LOG_TAG, () -> "Client socket close for \"" + mLocalSocketRunConfig.getTitle() + "\" server: " + getPeerCred().getMinimalString());
             JniResult result = LocalSocketManager.closeSocket(mLocalSocketRunConfig.getLogTitle() + " (client)", mFD);
             if (result == null || result.retval != 0) {
                 throw new IOException(JniResult.getErrorString(result));
@@ -129,8 +137,7 @@ public class LocalClientSocket implements Closeable {
         }
 
         JniResult result = LocalSocketManager.read(mLocalSocketRunConfig.getLogTitle() + " (client)",
-            mFD, data,
-            mLocalSocketRunConfig.getDeadline() > 0 ? mCreationTime + mLocalSocketRunConfig.getDeadline() : 0);
+            mFD, data, getDeadlineTime());
         if (result == null || result.retval != 0) {
             return LocalSocketErrno.ERRNO_READ_DATA_FROM_CLIENT_SOCKET_FAILED.getError(
                 mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
@@ -162,8 +169,286 @@ public class LocalClientSocket implements Closeable {
         }
 
         JniResult result = LocalSocketManager.send(mLocalSocketRunConfig.getLogTitle() + " (client)",
-            mFD, data,
-            mLocalSocketRunConfig.getDeadline() > 0 ? mCreationTime + mLocalSocketRunConfig.getDeadline() : 0);
+            mFD, data, getDeadlineTime());
+        if (result == null || result.retval != 0) {
+            return LocalSocketErrno.ERRNO_SEND_DATA_TO_CLIENT_SOCKET_FAILED.getError(
+                mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
+        }
+
+        return null;
+    }
+
+    /**
+     * Attempts to read up to length bytes from file descriptor into the data buffer from offset.
+     * Unlike {@link #read(byte[], MutableInt)}, this returns as soon as any bytes have been read
+     * instead of waiting for the data buffer to be filled.
+     *
+     * @param data The data buffer to read bytes into.
+     * @param offset The offset in data to read bytes into.
+     * @param length The maximum number of bytes to read.
+     * @param bytesRead The actual bytes read, which will be 0 on end of file.
+     * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error read(@NonNull byte[] data, int offset, int length, MutableInt bytesRead) {
+        bytesRead.value = 0;
+
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        if (length == 0) return null;
+
+        JniResult result = LocalSocketManager.read(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, data, offset, length, false, getDeadlineTime());
+        return getReadResult(result, bytesRead);
+    }
+
+    /**
+     * Attempts to read up to {@link ByteBuffer#remaining()} bytes from file descriptor into the
+     * buffer with a single JNI call, and advances the buffer position by the bytes read. Direct
+     * buffers are read into without any copying. This returns as soon as any bytes have been read.
+     *
+     * @param buffer The buffer to read bytes into.
+     * @param bytesRead The actual bytes read, which will be 0 on end of file.
+     * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     * @throws ReadOnlyBufferException If {@code buffer} is read-only.
+     */
+    public Error read(@NonNull ByteBuffer buffer, MutableInt bytesRead) {
+        return read(buffer, false, getDeadlineTime(), bytesRead);
+    }
+
+    /**
+     * Wrapper for {@link #readFully(ByteBuffer, long)} that uses the deadline of the client socket
+     * based on {@link LocalSocketRunConfig#getDeadline()}.
+     */
+    public Error readFully(@NonNull ByteBuffer buffer) {
+        return readFully(buffer, getDeadlineTime());
+    }
+
+    /**
+     * Attempts to read exactly {@link ByteBuffer#remaining()} bytes from file descriptor into the
+     * buffer, and advances the buffer position by the bytes read.
+     *
+     * @param buffer The buffer to read bytes into.
+     * @param deadline The deadline milliseconds since epoch, after which reading will fail if all
+     *                 bytes have not been read yet. Pass `0` to not use a deadline.
+     * @return Returns the {@code error} if reading was not successful or if end of file was
+     * reached before the buffer was filled, otherwise {@code null}.
+     * @throws ReadOnlyBufferException If {@code buffer} is read-only.
+     */
+    public Error readFully(@NonNull ByteBuffer buffer, long deadline) {
+        int length = buffer.remaining();
+        MutableInt bytesRead = new MutableInt(0);
+        Error error = read(buffer, true, deadline, bytesRead);
+        if (error != null) return error;
+
+        if (bytesRead.value < length) {
+            return LocalSocketErrno.ERRNO_CLIENT_SOCKET_END_OF_FILE.getError(
+                mLocalSocketRunConfig.getTitle(), bytesRead.value, length);
+        }
+
+        return null;
+    }
+
+    private Error read(@NonNull ByteBuffer buffer, boolean fully, long deadline, MutableInt bytesRead) {
+        bytesRead.value = 0;
+
+        // A read-only direct buffer would otherwise be written to by the native read
+        if (buffer.isReadOnly()) throw new ReadOnlyBufferException();
+
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        int length = buffer.remaining();
+        if (length == 0) return null;
+
+        String logTitle = mLocalSocketRunConfig.getLogTitle() + " (client)";
+        JniResult result;
+        if (buffer.isDirect()) {
+            result = LocalSocketManager.read(logTitle, mFD, buffer, buffer.position(), length, fully, deadline);
+        } else {
+            result = LocalSocketManager.read(logTitle, mFD, buffer.array(), buffer.arrayOffset() + buffer.position(),
+                length, fully, deadline);
+        }
+
+        Error error = getReadResult(result, bytesRead);
+        if (error != null) return error;
+
+        buffer.position(buffer.position() + bytesRead.value);
+        return null;
+    }
+
+    /**
+     * Attempts to read from file descriptor into multiple buffers in order, and advances their
+     * positions by the bytes read into each. If all the buffers are direct, then a single readv()
+     * call is used. Otherwise only the first buffer with remaining space is read into. This returns
+     * as soon as any bytes have been read.
+     *
+     * @param buffers The buffers to read bytes into.
+     * @param bytesRead The total bytes read, which will be 0 on end of file.
+     * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     * @throws ReadOnlyBufferException If any of the {@code buffers} is read-only.
+     */
+    public Error read(@NonNull ByteBuffer[] buffers, MutableInt bytesRead) {
+        bytesRead.value = 0;
+
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.isReadOnly()) throw new ReadOnlyBufferException();
+        }
+
+        if (!areDirectBuffers(buffers)) {
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.hasRemaining())
+                    return read(buffer, bytesRead);
+            }
+            return null;
+        }
+
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        int[] offsets = new int[buffers.length];
+        int[] lengths = new int[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            offsets[i] = buffers[i].position();
+            lengths[i] = buffers[i].remaining();
+        }
+
+        JniResult result = LocalSocketManager.read(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, buffers, offsets, lengths, getDeadlineTime());
+        Error error = getReadResult(result, bytesRead);
+        if (error != null) return error;
+
+        int remaining = bytesRead.value;
+        for (int i = 0; i < buffers.length && remaining > 0; i++) {
+            int read = Math.min(remaining, lengths[i]);
+            buffers[i].position(offsets[i] + read);
+            remaining -= read;
+        }
+
+        return null;
+    }
+
+    private Error getReadResult(JniResult result, MutableInt bytesRead) {
+        if (result == null || result.retval != 0) {
+            return LocalSocketErrno.ERRNO_READ_DATA_FROM_CLIENT_SOCKET_FAILED.getError(
+                mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
+        }
+
+        bytesRead.value = result.intData;
+        return null;
+    }
+
+    /**
+     * Attempts to send length bytes of data buffer from offset to the file descriptor.
+     *
+     * @param data The data buffer containing bytes to send.
+     * @param offset The offset in data of the bytes to send.
+     * @param length The number of bytes to send.
+     * @return Returns the {@code error} if sending was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error send(@NonNull byte[] data, int offset, int length) {
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        if (length == 0) return null;
+
+        JniResult result = LocalSocketManager.send(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, data, offset, length, getDeadlineTime());
+        return getSendResult(result);
+    }
+
+    /**
+     * Attempts to send the {@link ByteBuffer#remaining()} bytes of the buffer to the file descriptor
+     * with a single JNI call, and advances the buffer position to its limit. Direct buffers are sent
+     * without any copying.
+     *
+     * @param buffer The buffer containing bytes to send.
+     * @return Returns the {@code error} if sending was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error send(@NonNull ByteBuffer buffer) {
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        int length = buffer.remaining();
+        if (length == 0) return null;
+
+        String logTitle = mLocalSocketRunConfig.getLogTitle() + " (client)";
+        JniResult result;
+        if (buffer.isDirect()) {
+            result = LocalSocketManager.send(logTitle, mFD, buffer, buffer.position(), length, getDeadlineTime());
+        } else if (buffer.hasArray()) {
+            result = LocalSocketManager.send(logTitle, mFD, buffer.array(), buffer.arrayOffset() + buffer.position(),
+                length, getDeadlineTime());
+        } else {
+            // A read-only heap buffer does not expose its array
+            byte[] data = new byte[length];
+            buffer.duplicate().get(data);
+            result = LocalSocketManager.send(logTitle, mFD, data, getDeadlineTime());
+        }
+
+        Error error = getSendResult(result);
+        if (error != null) return error;
+
+        buffer.position(buffer.limit());
+        return null;
+    }
+
+    /**
+     * Attempts to send the remaining bytes of multiple buffers in order to the file descriptor, and
+     * advances their positions to their limits. If all the buffers are direct, then they are sent
+     * together with sendmsg() calls, otherwise each buffer is sent with {@link #send(ByteBuffer)}.
+     *
+     * @param buffers The buffers containing bytes to send.
+     * @return Returns the {@code error} if sending was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error send(@NonNull ByteBuffer[] buffers) {
+        if (!areDirectBuffers(buffers)) {
+            for (ByteBuffer buffer : buffers) {
+                Error error = send(buffer);
+                if (error != null) return error;
+            }
+            return null;
+        }
+
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        int[] offsets = new int[buffers.length];
+        int[] lengths = new int[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            offsets[i] = buffers[i].position();
+            lengths[i] = buffers[i].remaining();
+        }
+
+        JniResult result = LocalSocketManager.send(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, buffers, offsets, lengths, getDeadlineTime());
+        Error error = getSendResult(result);
+        if (error != null) return error;
+
+        for (ByteBuffer buffer : buffers)
+            buffer.position(buffer.limit());
+        return null;
+    }
+
+    private Error getSendResult(JniResult result) {
         if (result == null || result.retval != 0) {
             return LocalSocketErrno.ERRNO_SEND_DATA_TO_CLIENT_SOCKET_FAILED.getError(
                 mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
@@ -172,11 +457,47 @@ public class LocalClientSocket implements Closeable {
         return null;
     }
 
+    /** Check if all buffers are direct, and not more than can be passed to a single native call. */
+    private static boolean areDirectBuffers(@NonNull ByteBuffer[] buffers) {
+        if (buffers.length > MAX_VECTOR_BUFFERS) return false;
+        for (ByteBuffer buffer : buffers) {
+            if (!buffer.isDirect()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Attempts to read bytes until a null byte or end of file and writes them to {@code data}
+     * without the null byte. Bytes are read in chunks of {@link #READ_BUFFER_SIZE}, so any bytes the
+     * peer sent after the null byte in the same chunk are discarded.
+     *
+     * @param data The {@link ByteArrayOutputStream} to write the bytes read into.
+     * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error readDataUntilNull(@NonNull ByteArrayOutputStream data) {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        MutableInt bytesRead = new MutableInt(0);
+        while (true) {
+            Error error = read(buffer, 0, buffer.length, bytesRead);
+            if (error != null) return error;
+            if (bytesRead.value == 0) return null;
+
+            for (int i = 0; i < bytesRead.value; i++) {
+                if (buffer[i] == 0) {
+                    data.write(buffer, 0, i);
+                    return null;
+                }
+            }
+            data.write(buffer, 0, bytesRead.value);
+        }
+    }
+
     /**
-     * Attempts to read all the bytes available on {@link SocketInputStream} and appends them to
-     * {@code data} {@link StringBuilder}.
+     * Attempts to read all the bytes until a null byte or end of file, decodes them as UTF-8 and
+     * appends them to {@code data} {@link StringBuilder}.
      *
-     * This is a wrapper for {@link #read(byte[], MutableInt)} called via {@link SocketInputStream#read()}.
+     * This is a wrapper for {@link #readDataUntilNull(ByteArrayOutputStream)}.
      *
      * @param data The data {@link StringBuilder} to append the bytes read into.
      * @param closeStreamOnFinish If set to {@code true}, then underlying input stream will closed
@@ -185,37 +506,25 @@ public class LocalClientSocket implements Closeable {
      * error {@link String}, otherwise {@code null}.
      */
     public Error readDataOnInputStream(@NonNull StringBuilder data, boolean closeStreamOnFinish) {
-        int c;
-        InputStreamReader inputStreamReader = getInputStreamReader();
-        try {
-            while ((c = inputStreamReader.read()) > 0) {
-                data.append((char) c);
-            }
-        } catch (IOException e) {
-            // The SocketInputStream.read() throws the Error message in an IOException,
-            // so just read the exception message and not the stack trace, otherwise it would result
-            // in a messy nested error message.
-            return LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
-                mLocalSocketRunConfig.getTitle(), DataUtils.getSpaceIndentedString(e.getMessage(), 1));
-        } catch (Exception e) {
-            return LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
-                e, mLocalSocketRunConfig.getTitle(), e.getMessage());
-        } finally {
-            if (closeStreamOnFinish) {
-                try { inputStreamReader.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Error error = readDataUntilNull(bytes);
+        if (error == null)
+            data.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+
+        if (closeStreamOnFinish) {
+            try {
+                mInputStream.close();
+            } catch (IOException e) {
+                // Ignore
             }
         }
 
-        return null;
+        return error;
     }
 
     /**
-     * Attempts to send all the bytes passed to {@link SocketOutputStream} .
-     *
-     * This is a wrapper for {@link #send(byte[])} called via {@link SocketOutputStream#write(int)}.
+     * Attempts to send all the bytes of {@code data} encoded as UTF-8 with a single
+     * {@link #send(byte[])} call.
      *
      * @param data The {@link String} bytes to send.
      * @param closeStreamOnFinish If set to {@code true}, then underlying output stream will closed
@@ -224,32 +533,17 @@ public class LocalClientSocket implements Closeable {
      * error {@link String}, otherwise {@code null}.
      */
     public Error sendDataToOutputStream(@NonNull String data, boolean closeStreamOnFinish) {
+        Error error = send(data.getBytes(StandardCharsets.UTF_8));
 
-        OutputStreamWriter outputStreamWriter = getOutputStreamWriter();
-
-        try (BufferedWriter byteStreamWriter = new BufferedWriter(outputStreamWriter)) {
-            byteStreamWriter.write(data);
-            byteStreamWriter.flush();
-        } catch (IOException e) {
-            // The SocketOutputStream.write() throws the Error message in an IOException,
-            // so just read the exception message and not the stack trace, otherwise it would result
-            // in a messy nested error message.
-            return LocalSocketErrno.ERRNO_SEND_DATA_TO_OUTPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
-                mLocalSocketRunConfig.getTitle(), DataUtils.getSpaceIndentedString(e.getMessage(), 1));
-        } catch (Exception e) {
-            return LocalSocketErrno.ERRNO_SEND_DATA_TO_OUTPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
-                e, mLocalSocketRunConfig.getTitle(), e.getMessage());
-        } finally {
-            if (closeStreamOnFinish) {
-                try {
-                    outputStreamWriter.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
+        if (closeStreamOnFinish) {
+            try {
+                mOutputStream.close();
+            } catch (IOException e) {
+                // Ignore
             }
         }
 
-        return null;
+        return error;
     }
 
     /** Wrapper for {@link #available(MutableInt, boolean)} that checks deadline. The
@@ -274,7 +568,7 @@ public class LocalClientSocket implements Closeable {
             return null;
         }
 
-        JniResult result = LocalSocketManager.available(mLocalSocketRunConfig.getLogTitle() + " (client)", mLocalSocketRunConfig.getFD());
+        JniResult result = LocalSocketManager.available(mLocalSocketRunConfig.getLogTitle() + " (client)", mFD);
         if (result == null || result.retval != 0) {
             return LocalSocketErrno.ERRNO_CHECK_AVAILABLE_DATA_ON_CLIENT_SOCKET_FAILED.getError(
                 mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
@@ -288,12 +582,17 @@ public class LocalClientSocket implements Closeable {
 
     /** Set {@link LocalClientSocket} receiving (SO_RCVTIMEO) timeout to value returned by {@link LocalSocketRunConfig#getReceiveTimeout()}. */
     public Error setReadTimeout() {
+        return setReadTimeout(mLocalSocketRunConfig.getReceiveTimeout());
+    }
+
+    /** Set {@link LocalClientSocket} receiving (SO_RCVTIMEO) timeout to {@code timeout} milliseconds. */
+    public Error setReadTimeout(int timeout) {
         if (mFD >= 0) {
             JniResult result = LocalSocketManager.setSocketReadTimeout(mLocalSocketRunConfig.getLogTitle() + " (client)",
-                mFD, mLocalSocketRunConfig.getReceiveTimeout());
+                mFD, timeout);
             if (result == null || result.retval != 0) {
                 return LocalSocketErrno.ERRNO_SET_CLIENT_SOCKET_READ_TIMEOUT_FAILED.getError(
-                    mLocalSocketRunConfig.getTitle(), mLocalSocketRunConfig.getReceiveTimeout(), JniResult.getErrorString(result));
+                    mLocalSocketRunConfig.getTitle(), timeout, JniResult.getErrorString(result));
             }
         }
         return null;
@@ -337,6 +636,14 @@ public class LocalClientSocket implements Closeable {
         return mCreationTime;
     }
 
+    /**
+     * Get the deadline milliseconds since epoch for the client socket, based on {@link #mCreationTime}
+     * and {@link LocalSocketRunConfig#getDeadline()}, or `0` if there is no deadline.
+     */
+    public long getDeadlineTime() {
+        return mLocalSocketRunConfig.getDeadline() > 0 ? mCreationTime + mLocalSocketRunConfig.getDeadline() : 0;
+    }
+
     /** Get {@link #mOutputStream} for the client socket. The stream will automatically close when client socket is closed. */
     public OutputStream getOutputStream() {
         return mOutputStream;
@@ -422,7 +729,7 @@ public class LocalClientSocket implements Closeable {
                 return -1;
             }
 
-            return mBytes[0];
+            return mBytes[0] & 0xFF;
         }
 
         @Override
@@ -431,8 +738,25 @@ public class LocalClientSocket implements Closeable {
                 throw new NullPointerException("Read buffer can't be null");
             }
 
+            return read(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (bytes == null) {
+                throw new NullPointerException("Read buffer can't be null");
+            }
+            if (offset < 0 || length < 0 || length > bytes.length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (length == 0) {
+                return 0;
+            }
+
+            // Return the bytes currently available instead of waiting for the buffer to be filled,
+            // so that wrapping streams do not block on data the peer has not sent yet
             MutableInt bytesRead = new MutableInt(0);
-            Error error = LocalClientSocket.this.read(bytes, bytesRead);
+            Error error = LocalClientSocket.this.read(bytes, offset, length, bytesRead);
             if (error != null) {
                 throw new IOException(error.getErrorMarkdownString());
             }
@@ -478,6 +802,18 @@ public class LocalClientSocket implements Closeable {
                 throw new IOException(error.getErrorMarkdownString());
             }
         }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || length > bytes.length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            Error error = LocalClientSocket.this.send(bytes, offset, length);
+            if (error != null) {
+                throw new IOException(error.getErrorMarkdownString());
+            }
+        }
     }
 
 }
@@ -9,6 +9,15 @@ import com.termux.shared.errors.Error;
 import com.termux.shared.jni.models.JniResult;
 import com.termux.shared.logger.Logger;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Manager for an AF_UNIX/SOCK_STREAM local server.
  *
@@ -48,6 +57,26 @@ public class LocalSocketManager {
     /** Whether the {@link LocalServerSocket} managed by {@link LocalSocketManager} in running or not. */
     protected boolean mIsRunning;
 
+    /**
+     * The {@link ThreadPoolExecutor} on which client callbacks are run if
+     * {@link LocalSocketRunConfig#getClientThreadPoolSize()} is greater than 0, otherwise {@code null}.
+     */
+    @Nullable protected ThreadPoolExecutor mClientExecutor;
+
+    /** The number of clients passed to {@link #onClientAccepted(LocalClientSocket)}. */
+    protected final AtomicLong mAcceptedClientCount = new AtomicLong();
+    /** The number of clients rejected because {@link #mClientExecutor} queue was full. */
+    protected final AtomicLong mRejectedClientCount = new AtomicLong();
+    /** The maximum number of clients that were waiting in {@link #mClientExecutor} queue. */
+    protected final AtomicInteger mMaxQueuedClientCount = new AtomicInteger();
+    /**
+     * Whether clients are being rejected, so that only the first rejection is logged until a client
+     * is accepted again, instead of logging every rejected client during a flood.
+     */
+    protected final AtomicBoolean mRejectingClients = new AtomicBoolean();
+    /** The {@link #mRejectedClientCount} when {@link #mRejectingClients} was last set. */
+    protected long mRejectedClientCountAtRejectionStart;
+
 
     /**
      * Create an new instance of {@link LocalSocketManager}.
@@ -82,6 +111,20 @@ public class LocalSocketManager {
             }
         }
 
+        int clientThreadPoolSize = mLocalSocketRunConfig.getClientThreadPoolSize();
+        if (clientThreadPoolSize > 0 && (mClientExecutor == null || mClientExecutor.isShutdown())) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            mClientExecutor = new ThreadPoolExecutor(clientThreadPoolSize, clientThreadPoolSize,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(mLocalSocketRunConfig.getClientQueueSize()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, mLocalSocketRunConfig.getTitle() + "-client-" + threadCount.incrementAndGet());
+                    thread.setUncaughtExceptionHandler(getLocalSocketManagerClientThreadUEH());
+                    return thread;
+                });
+            // Idle threads are not kept forever since most servers are idle most of the time.
+            mClientExecutor.allowCoreThreadTimeOut(true);
+        }
+
         mIsRunning = true;
         return mServerSocket.start();
     }
@@ -93,7 +136,11 @@ public class LocalSocketManager {
         if (mIsRunning) {
             Logger.logDebugExtended(LOG_TAG, "stop\n" + mLocalSocketRunConfig);
             mIsRunning = false;
-            return mServerSocket.stop();
+            Error error = mServerSocket.stop();
+            // Already accepted clients are still served
+            if (mClientExecutor != null)
+                mClientExecutor.shutdown();
+            return error;
         }
         return null;
     }
@@ -174,10 +221,10 @@ public class LocalSocketManager {
     /**
      * Attempts to read up to data buffer length bytes from file descriptor fd into the data buffer.
      * On success, the number of bytes read is returned (zero indicates end of file).
-     * It is not an error if bytes read is smaller than the number of bytes requested; this may happen
-     * for example because fewer bytes are actually available right now (maybe because we were close
-     * to end-of-file, or because we are reading from a pipe), or because read() was interrupted by
-     * a signal. On error, the {@link JniResult#errno} and {@link JniResult#errmsg} will be set.
+     * Reading continues until the buffer is full or end of file is reached, so bytes read will only
+     * be smaller than the buffer length if the peer closed its writing end. Use
+     * {@link #read(String, int, byte[], int, int, boolean, long)} to only wait for the bytes
+     * currently available. On error, the {@link JniResult#errno} and {@link JniResult#errmsg} will be set.
      *
      * If while reading the deadline elapses but all the data has not been read, the call will fail.
      *
@@ -223,6 +270,147 @@ public class LocalSocketManager {
         }
     }
 
+    /**
+     * Attempts to read up to length bytes from file descriptor into the data buffer from offset.
+     * Unlike {@link #read(String, int, byte[], long)}, if fully is {@code false}, then it returns
+     * after the first read that returns any bytes, instead of waiting until the buffer is full or
+     * end of file is reached. On error, the {@link JniResult#errno} and {@link JniResult#errmsg}
+     * will be set.
+     *
+     * If while reading the deadline elapses but all the data has not been read, the call will fail.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param data The data buffer to read bytes into.
+     * @param offset The offset in data to read bytes into.
+     * @param length The maximum number of bytes to read.
+     * @param fully If {@code true}, then read until length bytes have been read or end of file.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If reading was successful, then {@link JniResult#retval}
+     * will be 0 and {@link JniResult#intData} will contain the bytes read, which will be 0 on end of file.
+     */
+    @Nullable
+    public static JniResult read(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length,
+                                 boolean fully, long deadline) {
+        try {
+            return readArrayNative(serverTitle, fd, data, offset, length, fully, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in readArrayNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Same as {@link #read(String, int, byte[], int, int, boolean, long)}, but reads directly into
+     * a direct {@link ByteBuffer} without copying. The position and limit of the buffer are not
+     * changed.
+     */
+    @Nullable
+    public static JniResult read(@NonNull String serverTitle, int fd, @NonNull ByteBuffer buffer, int offset, int length,
+                                 boolean fully, long deadline) {
+        try {
+            return readBufferNative(serverTitle, fd, buffer, offset, length, fully, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in readBufferNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Attempts to read from file descriptor into the ranges of multiple direct {@link ByteBuffer}
+     * in order with a single readv() call, which returns after any bytes have been read.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param buffers The direct buffers to read bytes into.
+     * @param offsets The offsets in each buffer to read bytes into.
+     * @param lengths The maximum number of bytes to read into each buffer.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If reading was successful, then {@link JniResult#retval}
+     * will be 0 and {@link JniResult#intData} will contain the total bytes read, which will be 0 on end of file.
+     */
+    @Nullable
+    public static JniResult read(@NonNull String serverTitle, int fd, @NonNull ByteBuffer[] buffers,
+                                 @NonNull int[] offsets, @NonNull int[] lengths, long deadline) {
+        try {
+            return readvNative(serverTitle, fd, buffers, offsets, lengths, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in readvNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Attempts to send length bytes of data buffer from offset to the file descriptor. On error,
+     * the {@link JniResult#errno} and {@link JniResult#errmsg} will be set.
+     *
+     * If while sending the deadline elapses but all the data has not been sent, the call will fail.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param data The data buffer containing bytes to send.
+     * @param offset The offset in data of the bytes to send.
+     * @param length The number of bytes to send.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If sending was successful, then {@link JniResult#retval}
+     * will be 0.
+     */
+    @Nullable
+    public static JniResult send(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length,
+                                 long deadline) {
+        try {
+            return sendArrayNative(serverTitle, fd, data, offset, length, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in sendArrayNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Same as {@link #send(String, int, byte[], int, int, long)}, but sends directly from a direct
+     * {@link ByteBuffer} without copying. The position and limit of the buffer are not changed.
+     */
+    @Nullable
+    public static JniResult send(@NonNull String serverTitle, int fd, @NonNull ByteBuffer buffer, int offset, int length,
+                                 long deadline) {
+        try {
+            return sendBufferNative(serverTitle, fd, buffer, offset, length, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in sendBufferNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Attempts to send the ranges of multiple direct {@link ByteBuffer} in order to the file
+     * descriptor with sendmsg() calls, without copying them into a single buffer first.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param buffers The direct buffers containing bytes to send.
+     * @param offsets The offsets in each buffer of the bytes to send.
+     * @param lengths The number of bytes to send from each buffer.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If sending was successful, then {@link JniResult#retval}
+     * will be 0.
+     */
+    @Nullable
+    public static JniResult send(@NonNull String serverTitle, int fd, @NonNull ByteBuffer[] buffers,
+                                 @NonNull int[] offsets, @NonNull int[] lengths, long deadline) {
+        try {
+            return sendvNative(serverTitle, fd, buffers, offsets, lengths, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in sendvNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
     /**
      * Gets the number of bytes available to read on the socket.
      *
@@ -309,32 +497,85 @@ public class LocalSocketManager {
         onError(null, error);
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onError(LocalSocketManager, LocalClientSocket, Error)} in a new thread. */
+    /** Wrapper to call {@link ILocalSocketManager#onError(LocalSocketManager, LocalClientSocket, Error)} in a client thread. */
     public void onError(@Nullable LocalClientSocket clientSocket, @NonNull Error error) {
-        startLocalSocketManagerClientThread(() ->
+        startLocalSocketManagerClientThreadOrNewThread(() ->
             mLocalSocketManagerClient.onError(this, clientSocket, error));
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onDisallowedClientConnected(LocalSocketManager, LocalClientSocket, Error)} in a new thread. */
+    /** Wrapper to call {@link ILocalSocketManager#onDisallowedClientConnected(LocalSocketManager, LocalClientSocket, Error)} in a client thread. */
     public void onDisallowedClientConnected(@NonNull LocalClientSocket clientSocket, @NonNull Error error) {
-        startLocalSocketManagerClientThread(() ->
+        startLocalSocketManagerClientThreadOrNewThread(() ->
             mLocalSocketManagerClient.onDisallowedClientConnected(this, clientSocket, error));
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)} in a new thread. */
+    /**
+     * Wrapper to call {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)}
+     * in a client thread. If the client is rejected since too many clients are already waiting for
+     * a free thread, then the client socket is closed on the calling thread, since starting another
+     * thread to report it would defeat the bound during a flood of clients. Only the first rejection
+     * is logged until a client is accepted again.
+     */
     public void onClientAccepted(@NonNull LocalClientSocket clientSocket) {
-        startLocalSocketManagerClientThread(() ->
-            mLocalSocketManagerClient.onClientAccepted(this, clientSocket));
+        mAcceptedClientCount.incrementAndGet();
+        if (startLocalSocketManagerClientThread(() ->
+            mLocalSocketManagerClient.onClientAccepted(this, clientSocket))) {
+            if (mRejectingClients.compareAndSet(true, false))
+                Logger.logInfo(LOG_TAG, "Accepting clients for \"" + mLocalSocketRunConfig.getTitle() +
+                    "\" server again after rejecting " + (mRejectedClientCount.get() - mRejectedClientCountAtRejectionStart) + " clients");
+            return;
+        }
+
+        long rejectedClientCount = mRejectedClientCount.incrementAndGet();
+        clientSocket.closeClientSocket(true);
+        if (mRejectingClients.compareAndSet(false, true)) {
+            mRejectedClientCountAtRejectionStart = rejectedClientCount - 1;
+            Logger.logErrorExtended(LOG_TAG, LocalSocketErrno.ERRNO_CLIENT_SOCKET_REJECTED.getError(
+                mLocalSocketRunConfig.getTitle(), mLocalSocketRunConfig.getClientQueueSize()).getErrorLogString());
+        }
     }
 
-    /** All client accept logic must be run on separate threads so that incoming client acceptance is not blocked. */
-    public void startLocalSocketManagerClientThread(@NonNull Runnable runnable) {
+    /**
+     * All client accept logic must be run on separate threads so that incoming client acceptance is not blocked.
+     *
+     * The {@code runnable} is run on {@link #mClientExecutor} if set, otherwise on a new thread.
+     *
+     * @return Returns {@code true} if the {@code runnable} was queued or started, otherwise {@code false}.
+     */
+    public boolean startLocalSocketManagerClientThread(@NonNull Runnable runnable) {
+        ThreadPoolExecutor clientExecutor = mClientExecutor;
+        if (clientExecutor == null)
+            return startNewLocalSocketManagerClientThread(runnable);
+
+        try {
+            clientExecutor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+
+        int queuedClientCount = clientExecutor.getQueue().size();
+        int maxQueuedClientCount;
+        while (queuedClientCount > (maxQueuedClientCount = mMaxQueuedClientCount.get()) &&
+            !mMaxQueuedClientCount.compareAndSet(maxQueuedClientCount, queuedClientCount));
+        return true;
+    }
+
+    /** Run the {@code runnable} with {@link #startLocalSocketManagerClientThread(Runnable)}, or on a new thread if rejected. */
+    protected void startLocalSocketManagerClientThreadOrNewThread(@NonNull Runnable runnable) {
+        if (!startLocalSocketManagerClientThread(runnable))
+            startNewLocalSocketManagerClientThread(runnable);
+    }
+
+    /** Start a new thread for the {@code runnable}. */
+    protected boolean startNewLocalSocketManagerClientThread(@NonNull Runnable runnable) {
         Thread thread = new Thread(runnable);
         thread.setUncaughtExceptionHandler(getLocalSocketManagerClientThreadUEH());
         try {
             thread.start();
+            return true;
         } catch (Exception e) {
             Logger.logStackTraceWithMessage(LOG_TAG, "LocalSocketManagerClientThread start failed", e);
+            return false;
         }
     }
 
@@ -384,6 +625,48 @@ public class LocalSocketManager {
         return mIsRunning;
     }
 
+    /** Get {@link #mAcceptedClientCount}. */
+    public long getAcceptedClientCount() {
+        return mAcceptedClientCount.get();
+    }
+
+    /** Get {@link #mRejectedClientCount}. */
+    public long getRejectedClientCount() {
+        return mRejectedClientCount.get();
+    }
+
+    /** Get the number of clients currently waiting for a free thread in {@link #mClientExecutor}. */
+    public int getQueuedClientCount() {
+        ThreadPoolExecutor clientExecutor = mClientExecutor;
+        return clientExecutor != null ? clientExecutor.getQueue().size() : 0;
+    }
+
+    /** Get {@link #mMaxQueuedClientCount}. */
+    public int getMaxQueuedClientCount() {
+        return mMaxQueuedClientCount.get();
+    }
+
+    /** Get the number of client threads currently running callbacks in {@link #mClientExecutor}. */
+    public int getActiveClientThreadCount() {
+        ThreadPoolExecutor clientExecutor = mClientExecutor;
+        return clientExecutor != null ? clientExecutor.getActiveCount() : 0;
+    }
+
+    /** Get a log {@link String} for the client metrics of the {@link LocalSocketManager}. */
+    @NonNull
+    public String getClientMetricsLogString() {
+        StringBuilder logString = new StringBuilder();
+
+        logString.append(mLocalSocketRunConfig.getTitle()).append(" Socket Server Client Metrics:");
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("AcceptedClients", getAcceptedClientCount(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("RejectedClients", getRejectedClientCount(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("QueuedClients", getQueuedClientCount(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxQueuedClients", getMaxQueuedClientCount(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("ActiveClientThreads", getActiveClientThreadCount(), "-"));
+
+        return logString.toString();
+    }
+
 
 
     /** Get an error log {@link String} for the {@link LocalSocketManager}. */
@@ -439,6 +722,18 @@ public class LocalSocketManager {
 
     @Nullable private static native JniResult sendNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, long deadline);
 
+    @Nullable private static native JniResult readArrayNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length, boolean fully, long deadline);
+
+    @Nullable private static native JniResult sendArrayNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length, long deadline);
+
+    @Nullable private static native JniResult readBufferNative(@NonNull String serverTitle, int fd, @NonNull ByteBuffer buffer, int offset, int length, boolean fully, long deadline);
+
+    @Nullable private static native JniResult sendBufferNative(@NonNull String serverTitle, int fd, @NonNull ByteBuffer buffer, int offset, int length, long deadline);
+
+    @Nullable private static native JniResult readvNative(@NonNull String serverTitle, int fd, @NonNull ByteBuffer[] buffers, @NonNull int[] offsets, @NonNull int[] lengths, long deadline);
+
+    @Nullable private static native JniResult sendvNative(@NonNull String serverTitle, int fd, @NonNull ByteBuffer[] buffers, @NonNull int[] offsets, @NonNull int[] lengths, long deadline);
+
     @Nullable private static native JniResult availableNative(@NonNull String serverTitle, int fd);
 
     private static native JniResult setSocketReadTimeoutNative(@NonNull String serverTitle, int fd, int timeout);
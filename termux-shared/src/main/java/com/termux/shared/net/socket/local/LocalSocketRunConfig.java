@@ -94,6 +94,25 @@ public class LocalSocketRunConfig implements Serializable {
     protected Integer mBacklog;
     public static final int DEFAULT_BACKLOG = 50;
 
+    /**
+     * The maximum number of threads on which {@link ILocalSocketManager} callbacks for clients are
+     * run by {@link LocalSocketManager}. Idle threads are kept for a while to be reused by later
+     * clients, and accepted clients wait in a queue of {@link #mClientQueueSize} for a free thread.
+     * Set to 0 to start a new thread for every client instead.
+     * Defaults to {@link #DEFAULT_CLIENT_THREAD_POOL_SIZE}.
+     */
+    protected Integer mClientThreadPoolSize;
+    public static final int DEFAULT_CLIENT_THREAD_POOL_SIZE = 0;
+
+    /**
+     * The maximum number of accepted clients that may wait for a free thread if
+     * {@link #mClientThreadPoolSize} is greater than 0. Clients accepted while the queue is full
+     * are rejected and their socket is closed.
+     * Defaults to {@link #DEFAULT_CLIENT_QUEUE_SIZE}.
+     */
+    protected Integer mClientQueueSize;
+    public static final int DEFAULT_CLIENT_QUEUE_SIZE = 64;
+
 
     /**
      * Create an new instance of {@link LocalSocketRunConfig}.
@@ -194,6 +213,28 @@ public class LocalSocketRunConfig implements Serializable {
             mBacklog = backlog;
     }
 
+    /** Get {@link #mClientThreadPoolSize} if set, otherwise {@link #DEFAULT_CLIENT_THREAD_POOL_SIZE}. */
+    public Integer getClientThreadPoolSize() {
+        return mClientThreadPoolSize != null ? mClientThreadPoolSize : DEFAULT_CLIENT_THREAD_POOL_SIZE;
+    }
+
+    /** Set {@link #mClientThreadPoolSize}. Value must be greater than or equal to 0. */
+    public void setClientThreadPoolSize(Integer clientThreadPoolSize) {
+        if (clientThreadPoolSize >= 0)
+            mClientThreadPoolSize = clientThreadPoolSize;
+    }
+
+    /** Get {@link #mClientQueueSize} if set, otherwise {@link #DEFAULT_CLIENT_QUEUE_SIZE}. */
+    public Integer getClientQueueSize() {
+        return mClientQueueSize != null ? mClientQueueSize : DEFAULT_CLIENT_QUEUE_SIZE;
+    }
+
+    /** Set {@link #mClientQueueSize}. Value must be greater than 0. */
+    public void setClientQueueSize(Integer clientQueueSize) {
+        if (clientQueueSize > 0)
+            mClientQueueSize = clientQueueSize;
+    }
+
 
     /**
      * Get a log {@link String} for {@link LocalSocketRunConfig}.
@@ -221,6 +262,8 @@ public class LocalSocketRunConfig implements Serializable {
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("SendTimeout", getSendTimeout(), "-"));
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("Deadline", getDeadline(), "-"));
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("Backlog", getBacklog(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("ClientThreadPoolSize", getClientThreadPoolSize(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("ClientQueueSize", getClientQueueSize(), "-"));
 
         return logString.toString();
     }
@@ -250,6 +293,8 @@ public class LocalSocketRunConfig implements Serializable {
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("SendTimeout", getSendTimeout(), "-"));
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Deadline", getDeadline(), "-"));
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Backlog", getBacklog(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("ClientThreadPoolSize", getClientThreadPoolSize(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("ClientQueueSize", getClientQueueSize(), "-"));
 
         return markdownString.toString();
     }
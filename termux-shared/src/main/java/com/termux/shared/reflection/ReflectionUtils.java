@@ -13,11 +13,25 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ReflectionUtils {
 
     private static boolean HIDDEN_API_REFLECTION_RESTRICTIONS_BYPASSED = Build.VERSION.SDK_INT < Build.VERSION_CODES.P;
 
+    /**
+     * The cache of the {@link Field}, {@link Method} and {@link Constructor} members that have been
+     * looked up by {@link MemberKey}, since each lookup searches the class members, and is even
+     * slower if hidden API restrictions are checked. Members that were not found are cached as
+     * {@link #MEMBER_NOT_FOUND} so that their lookup and the stack trace of the failure are not
+     * repeated for every call.
+     */
+    private static final ConcurrentHashMap<MemberKey, Object> MEMBER_CACHE = new ConcurrentHashMap<>();
+
+    /** The value cached for a member that was not found, like a hidden field that does not exist on
+     * the android version, for which the getters return {@code null}. */
+    private static final Object MEMBER_NOT_FOUND = new Object();
+
     private static final String LOG_TAG = "ReflectionUtils";
 
     /**
@@ -35,6 +49,9 @@ public class ReflectionUtils {
             }
 
             HIDDEN_API_REFLECTION_RESTRICTIONS_BYPASSED = true;
+
+            // Members that were hidden before may be found now
+            clearMemberCache();
         }
     }
 
@@ -43,12 +60,55 @@ public class ReflectionUtils {
         return HIDDEN_API_REFLECTION_RESTRICTIONS_BYPASSED;
     }
 
+    /** Clear the cache of the members that have been looked up. */
+    public static void clearMemberCache() {
+        MEMBER_CACHE.clear();
+    }
+
+
+
+    /** The key of a member in {@link #MEMBER_CACHE}. */
+    private static class MemberKey {
+        private final int mType;
+        private final Class<?> mClass;
+        private final String mName;
+        private final Class<?>[] mParameterTypes;
+        private final int mHashCode;
+
+        private static final int TYPE_FIELD = 0;
+        private static final int TYPE_METHOD = 1;
+        private static final int TYPE_CONSTRUCTOR = 2;
+
+        MemberKey(int type, @NonNull Class<?> clazz, @Nullable String name, @Nullable Class<?>[] parameterTypes) {
+            mType = type;
+            mClass = clazz;
+            mName = name;
+            mParameterTypes = parameterTypes != null ? parameterTypes.clone() : new Class<?>[0];
+            mHashCode = 31 * (31 * (31 * mType + mClass.hashCode()) + (mName != null ? mName.hashCode() : 0)) +
+                Arrays.hashCode(mParameterTypes);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) return true;
+            if (!(object instanceof MemberKey)) return false;
+            MemberKey key = (MemberKey) object;
+            return mType == key.mType && mClass == key.mClass && (mName != null ? mName.equals(key.mName) : key.mName == null) &&
+                Arrays.equals(mParameterTypes, key.mParameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
 
 
 
 
     /**
-     * Get a {@link Field} for the specified class.
+     * Get a {@link Field} for the specified class. The field, or that it was not found, is cached.
      *
      * @param clazz The {@link Class} for which to return the field.
      * @param fieldName The name of the {@link Field}.
@@ -56,14 +116,22 @@ public class ReflectionUtils {
      */
     @Nullable
     public static Field getDeclaredField(@NonNull Class<?> clazz, @NonNull String fieldName) {
+        MemberKey key = new MemberKey(MemberKey.TYPE_FIELD, clazz, fieldName, null);
+        Object cachedField = MEMBER_CACHE.get(key);
+        if (cachedField != null)
+            return cachedField != MEMBER_NOT_FOUND ? (Field) cachedField : null;
+
+        Field field;
         try {
-            Field field = clazz.getDeclaredField(fieldName);
+            field = clazz.getDeclaredField(fieldName);
             field.setAccessible(true);
-            return field;
         } catch (Exception e) {
             Logger.logStackTraceWithMessage(LOG_TAG, "Failed to get \"" + fieldName + "\" field for \"" + clazz.getName() + "\" class", e);
-            return null;
+            field = null;
         }
+
+        MEMBER_CACHE.put(key, field != null ? field : MEMBER_NOT_FOUND);
+        return field;
     }
 
 
@@ -74,7 +142,7 @@ public class ReflectionUtils {
         public Object value;
 
         FieldInvokeResult(boolean success, Object value) {
-            this.value = success;
+            this.success = success;
             this.value = value;
         }
     }
@@ -117,7 +185,8 @@ public class ReflectionUtils {
     }
 
     /**
-     * Get a {@link Method} for the specified class with the specified parameters.
+     * Get a {@link Method} for the specified class with the specified parameters. The method, or
+     * that it was not found, is cached.
      *
      * @param clazz The {@link Class} for which to return the method.
      * @param methodName The name of the {@link Method}.
@@ -126,14 +195,22 @@ public class ReflectionUtils {
      */
     @Nullable
     public static Method getDeclaredMethod(@NonNull Class<?> clazz, @NonNull String methodName, Class<?>... parameterTypes) {
+        MemberKey key = new MemberKey(MemberKey.TYPE_METHOD, clazz, methodName, parameterTypes);
+        Object cachedMethod = MEMBER_CACHE.get(key);
+        if (cachedMethod != null)
+            return cachedMethod != MEMBER_NOT_FOUND ? (Method) cachedMethod : null;
+
+        Method method;
         try {
-            Method method = clazz.getDeclaredMethod(methodName, parameterTypes);
+            method = clazz.getDeclaredMethod(methodName, parameterTypes);
             method.setAccessible(true);
-            return method;
         } catch (Exception e) {
             Logger.logStackTraceWithMessage(LOG_TAG, "Failed to get \"" + methodName + "\" method for \"" + clazz.getName() + "\" class with parameter types: " + Arrays.toString(parameterTypes), e);
-            return null;
+            method = null;
         }
+
+        MEMBER_CACHE.put(key, method != null ? method : MEMBER_NOT_FOUND);
+        return method;
     }
 
 
@@ -173,7 +250,7 @@ public class ReflectionUtils {
         public Object value;
 
         MethodInvokeResult(boolean success, Object value) {
-            this.value = success;
+            this.success = success;
             this.value = value;
         }
     }
@@ -233,7 +310,8 @@ public class ReflectionUtils {
     }
 
     /**
-     * Get a {@link Constructor} for the specified class with the specified parameters.
+     * Get a {@link Constructor} for the specified class with the specified parameters. The
+     * constructor, or that it was not found, is cached.
      *
      * @param clazz The {@link Class} for which to return the constructor.
      * @param parameterTypes The parameter types of the constructor.
@@ -241,14 +319,22 @@ public class ReflectionUtils {
      */
     @Nullable
     public static Constructor<?> getConstructor(@NonNull Class<?> clazz, Class<?>... parameterTypes) {
+        MemberKey key = new MemberKey(MemberKey.TYPE_CONSTRUCTOR, clazz, null, parameterTypes);
+        Object cachedConstructor = MEMBER_CACHE.get(key);
+        if (cachedConstructor != null)
+            return cachedConstructor != MEMBER_NOT_FOUND ? (Constructor<?>) cachedConstructor : null;
+
+        Constructor<?> constructor;
         try {
-            Constructor<?> constructor = clazz.getConstructor(parameterTypes);
+            constructor = clazz.getConstructor(parameterTypes);
             constructor.setAccessible(true);
-            return constructor;
         } catch (Exception e) {
             Logger.logStackTraceWithMessage(LOG_TAG, "Failed to get constructor for \"" + clazz.getName() + "\" class with parameter types: " + Arrays.toString(parameterTypes), e);
-            return null;
+            constructor = null;
         }
+
+        MEMBER_CACHE.put(key, constructor != null ? constructor : MEMBER_NOT_FOUND);
+        return constructor;
     }
 
 
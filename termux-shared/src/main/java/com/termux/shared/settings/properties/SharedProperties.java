@@ -17,6 +17,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,8 +27,9 @@ import java.util.Set;
 /**
  * An implementation similar to android's {@link android.content.SharedPreferences} interface for
  * reading and writing to and from ".properties" files which also maintains an in-memory cache for
- * the key/value pairs when an instance object is used. Operations are done under
- * synchronization locks and should be thread safe.
+ * the key/value pairs when an instance object is used. Loading is done under a synchronization
+ * lock, and the loaded values are published as an immutable snapshot so that cached reads do not
+ * need to take a lock or copy the values and are thread safe.
  *
  * If {@link SharedProperties} instance object is used, then two types of in-memory cache maps are
  * maintained, one for the literal {@link String} values found in the file for the keys and an
@@ -45,20 +47,11 @@ import java.util.Set;
 public class SharedProperties {
 
     /**
-     * The {@link Properties} object that maintains an in-memory cache of values loaded from the
-     * {@link #mPropertiesFile} file. The key/value pairs are of any keys that are found in the file
-     * against their literal values in the file.
+     * The immutable {@link Snapshot} of the in-memory cache of values loaded from the
+     * {@link #mPropertiesFile} file. It is replaced as a whole by {@link #loadPropertiesFromDisk()},
+     * so readers only need to read the volatile reference once, without taking a lock or copying.
      */
-    private Properties mProperties;
-
-    /**
-     * The {@link HashMap<>} object that maintains an in-memory cache of internal values for the values
-     * loaded from the {@link #mPropertiesFile} file. The key/value pairs are of any keys defined by
-     * {@link #mPropertiesList} that are found in the file against their internal {@link Object} values
-     * returned by the call to
-     * {@link SharedPropertiesParser#getInternalPropertyValueFromValue(Context, String, String)} interface.
-     */
-    private Map<String, Object> mMap;
+    private volatile Snapshot mSnapshot = Snapshot.EMPTY;
 
     private final Context mContext;
     private final File mPropertiesFile;
@@ -98,15 +91,11 @@ public class SharedProperties {
         mPropertiesFile = propertiesFile;
         mPropertiesList = propertiesList;
         mSharedPropertiesParser = sharedPropertiesParser;
-
-        mProperties = new Properties();
-        mMap = new HashMap<>();
     }
 
     /**
      * Load the properties defined by {@link #mPropertiesList} or all properties if its {@code null}
-     * from the {@link #mPropertiesFile} file to update the {@link #mProperties} and {@link #mMap}
-     * in-memory cache.
+     * from the {@link #mPropertiesFile} file to replace the {@link #mSnapshot} in-memory cache.
      * Properties are not loading automatically when constructor is called and must be manually called.
      */
     public void loadPropertiesFromDisk() {
@@ -114,7 +103,7 @@ public class SharedProperties {
             // Get properties from mPropertiesFile
             Properties properties = getProperties(false);
 
-            // We still need to load default values into mMap, so we assume no properties defined if
+            // We still need to load default values into the map, so we assume no properties defined if
             // reading from mPropertiesFile failed
             if (properties == null)
                 properties = new Properties();
@@ -133,7 +122,7 @@ public class SharedProperties {
                 // Logger.logVerbose(LOG_TAG, key + " : " + value);
 
                 // Call the {@link SharedPropertiesParser#getInternalPropertyValueFromValue(Context,String,String)}
-                // interface method to get the internal value to store in the {@link #mMap}.
+                // interface method to get the internal value to store in the map.
                 internalValue = mSharedPropertiesParser.getInternalPropertyValueFromValue(mContext, key, value);
 
                 // If the internal value was successfully added to map, then also add value to newProperties
@@ -143,8 +132,12 @@ public class SharedProperties {
                 }
             }
 
-            mMap = map;
-            mProperties = newProperties;
+            HashMap<String, String> propertiesMap = new HashMap<>();
+            for (String key : newProperties.stringPropertyNames())
+                propertiesMap.put(key, newProperties.getProperty(key));
+
+            // Publish both maps together so that readers never see values from different loads
+            mSnapshot = new Snapshot(propertiesMap, map);
         }
     }
 
@@ -153,16 +146,18 @@ public class SharedProperties {
      * object will also contain properties not defined by the {@link #mPropertiesList} if cache
      * value is {@code false}.
      *
-     * @param cached If {@code true}, then the {@link #mProperties} in-memory cache is returned. Otherwise
-     *               the {@link Properties} object is directly read from the {@link #mPropertiesFile}.
-     * @return Returns the {@link Properties} object if read from file, otherwise a copy of {@link #mProperties}.
+     * @param cached If {@code true}, then a copy of the {@link #mSnapshot} in-memory cache is returned.
+     *               Otherwise the {@link Properties} object is directly read from the {@link #mPropertiesFile}.
+     * @return Returns the {@link Properties} object if read from file, otherwise a copy of the
+     * cached properties.
      */
     public Properties getProperties(boolean cached) {
-        synchronized (mLock) {
-            if (cached) {
-                if (mProperties == null) mProperties = new Properties();
-                return getPropertiesCopy(mProperties);
-            } else {
+        if (cached) {
+            Properties properties = new Properties();
+            properties.putAll(mSnapshot.properties);
+            return properties;
+        } else {
+            synchronized (mLock) {
                 return getPropertiesFromFile(mContext, mPropertiesFile, mSharedPropertiesParser);
             }
         }
@@ -172,48 +167,52 @@ public class SharedProperties {
      * Get the {@link String} value for the key passed from the {@link #mPropertiesFile}.
      *
      * @param key The key to read from the {@link Properties} object.
-     * @param cached If {@code true}, then the value is returned from the {@link #mProperties} in-memory cache.
+     * @param cached If {@code true}, then the value is returned from the {@link #mSnapshot} in-memory
+     *               cache without taking a lock or copying it.
      *               Otherwise the {@link Properties} object is read directly from the {@link #mPropertiesFile}
      *               and value is returned from it against the key.
      * @return Returns the {@link String} object. This will be {@code null} if key is not found.
      */
     public String getProperty(String key, boolean cached) {
-        synchronized (mLock) {
-            return (String) getProperties(cached).get(key);
+        if (cached) {
+            return key != null ? mSnapshot.properties.get(key) : null;
+        } else {
+            Properties properties = getProperties(false);
+            return properties != null ? (String) properties.get(key) : null;
         }
     }
 
     /**
-     * Get the {@link #mMap} object for the {@link #mPropertiesFile}. A call to
+     * Get the internal values in-memory cache for the {@link #mPropertiesFile}. A call to
      * {@link #loadPropertiesFromDisk()} must be made before this.
      *
-     * @return Returns a copy of {@link #mMap} object.
+     * @return Returns a copy of the internal values map.
      */
     public Map<String, Object> getInternalProperties() {
-        synchronized (mLock) {
-            if (mMap == null) mMap = new HashMap<>();
-            return getMapCopy(mMap);
-        }
+        return getMapCopy(mSnapshot.internalProperties);
     }
 
     /**
      * Get the internal {@link Object} value for the key passed from the {@link #mPropertiesFile}.
-     * The value is returned from the {@link #mMap} in-memory cache, so a call to
-     * {@link #loadPropertiesFromDisk()} must be made before this.
+     * The value is returned from the {@link #mSnapshot} in-memory cache without taking a lock or
+     * copying it, so a call to {@link #loadPropertiesFromDisk()} must be made before this.
      *
-     * @param key The key to read from the {@link #mMap} object.
+     * @param key The key to read from the internal values map.
      * @return Returns the {@link Object} object. This will be {@code null} if key is not found or
-     * if object was {@code null}. Use {@link HashMap#containsKey(Object)} to detect the later.
+     * if object was {@code null}. Use {@link #hasInternalProperty(String)} to detect the later.
      * situation.
      */
     public Object getInternalProperty(String key) {
-        synchronized (mLock) {
-            // null keys are not allowed to be stored in mMap
-            if (key != null)
-                return getInternalProperties().get(key);
-            else
-                return null;
-        }
+        // null keys are not allowed to be stored in the map
+        return key != null ? mSnapshot.internalProperties.get(key) : null;
+    }
+
+    /**
+     * Check if the internal values in-memory cache for the {@link #mPropertiesFile} contains the key,
+     * even if its value is {@code null}.
+     */
+    public boolean hasInternalProperty(String key) {
+        return key != null && mSnapshot.internalProperties.containsKey(key);
     }
 
 
@@ -379,7 +378,7 @@ public class SharedProperties {
 
 
     /**
-     * Put a value in a {@link #mMap}.
+     * Put a value in an internal values map.
      * The key cannot be {@code null}.
      * Only {@code null}, primitive or their wrapper classes or String class objects are allowed to be added to
      * the map, although this limitation may be changed.
@@ -396,7 +395,7 @@ public class SharedProperties {
             return false;
         }
 
-        // null keys are not allowed to be stored in mMap
+        // null keys are not allowed to be stored in the map
         if (key == null) {
             Logger.logError(LOG_TAG, "Cannot put a null key into properties map");
             return false;
@@ -439,7 +438,7 @@ public class SharedProperties {
             return false;
         }
 
-        // null keys are not allowed to be stored in mMap
+        // null keys are not allowed to be stored in the map
         if (key == null) {
             Logger.logError(LOG_TAG, "Cannot put a null key into properties");
             return false;
@@ -642,4 +641,24 @@ public class SharedProperties {
         if (value == null) return null; else return value.toLowerCase();
     }
 
+
+
+
+    /** An immutable snapshot of the values loaded by {@link #loadPropertiesFromDisk()}. */
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new HashMap<>(), new HashMap<>());
+
+        /** The literal values found in the file for the keys. */
+        final Map<String, String> properties;
+        /** The internal values for the keys, which may be {@code null}. */
+        final Map<String, Object> internalProperties;
+
+        Snapshot(@NonNull HashMap<String, String> properties, @NonNull HashMap<String, Object> internalProperties) {
+            this.properties = Collections.unmodifiableMap(properties);
+            this.internalProperties = Collections.unmodifiableMap(internalProperties);
+        }
+
+    }
+
 }
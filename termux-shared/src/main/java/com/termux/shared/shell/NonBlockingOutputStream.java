@@ -0,0 +1,203 @@
+package com.termux.shared.shell;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * An {@link OutputStream} that buffers the data written to it and writes it to another stream in a
+ * separate thread, so that a slow consumer of that stream, like a socket whose reader has stopped
+ * reading, does not block the writer, like a {@link StreamGobbler} that must keep reading the
+ * output of a process.
+ *
+ * Up to {@code bufferSize} bytes are buffered. If the buffer stays full for longer than
+ * {@code timeoutMillis}, or writing to the other stream fails, then the stream fails, the other
+ * stream is closed and all later writes throw an {@link IOException}. {@link #close()} waits up to
+ * {@code timeoutMillis} for the buffered data to be written before closing the other stream.
+ */
+public class NonBlockingOutputStream extends OutputStream {
+
+    private final OutputStream mOutputStream;
+    private final int mBufferSize;
+    private final long mTimeoutMillis;
+
+    private final ArrayDeque<byte[]> mChunks = new ArrayDeque<>();
+    private int mBufferedBytes;
+    private boolean mClosed;
+    private boolean mDone;
+    private String mFailure;
+
+    /**
+     * @param outputStream The stream to write to in the writer thread. It is closed by {@link #close()}
+     *                     or once the stream fails.
+     * @param bufferSize The maximum number of bytes buffered.
+     * @param timeoutMillis The maximum time to wait for room in the buffer, or for the buffer to be
+     *                      drained when closing.
+     * @param name The name of the writer thread.
+     */
+    public NonBlockingOutputStream(@NonNull OutputStream outputStream, int bufferSize, long timeoutMillis, @NonNull String name) {
+        mOutputStream = outputStream;
+        mBufferSize = bufferSize;
+        mTimeoutMillis = timeoutMillis;
+
+        Thread thread = new Thread(this::runWriter, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        if (length <= 0) return;
+
+        String failure;
+        boolean timedOut = false;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + mTimeoutMillis;
+            while (true) {
+                if (mClosed) throw new IOException("Stream closed");
+                if (mFailure != null || mBufferedBytes == 0 || mBufferedBytes + length <= mBufferSize) break;
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    fail("Consumer did not read " + mBufferedBytes + " buffered bytes within " + mTimeoutMillis + "ms");
+                    timedOut = true;
+                    break;
+                }
+                waitInterruptibly(remaining);
+            }
+
+            failure = mFailure;
+            if (failure == null) {
+                byte[] chunk = new byte[length];
+                System.arraycopy(buffer, offset, chunk, 0, length);
+                mChunks.addLast(chunk);
+                mBufferedBytes += length;
+                notifyAll();
+                return;
+            }
+        }
+
+        // The writer thread is likely blocked writing, which closing the stream should unblock, so
+        // do not hold the lock
+        if (timedOut) closeOutputStream();
+        throw new IOException(failure);
+    }
+
+    /** Get whether the stream failed, after which no more data is written to the other stream. */
+    public synchronized boolean hasFailed() {
+        return mFailure != null;
+    }
+
+    /**
+     * Wait up to {@code timeoutMillis} for the buffered data to be written and close the other
+     * stream. If it could not be written in time, then the stream fails and an {@link IOException}
+     * is thrown.
+     */
+    @Override
+    public void close() throws IOException {
+        String failure;
+        synchronized (this) {
+            if (!mClosed) {
+                mClosed = true;
+                notifyAll();
+                long deadline = System.currentTimeMillis() + mTimeoutMillis;
+                while (mFailure == null && !mDone) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        fail("Consumer did not read " + mBufferedBytes + " buffered bytes within " + mTimeoutMillis + "ms of closing");
+                        break;
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        fail("Interrupted while closing");
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            failure = mFailure;
+        }
+
+        // Closing may be needed to unblock the writer thread, so do not hold the lock
+        mOutputStream.close();
+        if (failure != null) throw new IOException(failure);
+    }
+
+    private void waitInterruptibly(long timeoutMillis) throws InterruptedIOException {
+        try {
+            wait(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Fail the stream. The caller must close the other stream without holding the lock, unless it
+     * is the writer thread, which closes it once it sees the failure.
+     */
+    private void fail(String failure) {
+        if (mFailure != null) return;
+        mFailure = failure;
+        mChunks.clear();
+        mBufferedBytes = 0;
+        notifyAll();
+    }
+
+    private void closeOutputStream() {
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            byte[] chunk;
+            synchronized (this) {
+                while (mFailure == null && mChunks.isEmpty() && !mClosed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                }
+                if (mFailure != null) break;
+                if (mChunks.isEmpty()) {
+                    mDone = true;
+                    notifyAll();
+                    return;
+                }
+                chunk = mChunks.peekFirst();
+            }
+
+            try {
+                mOutputStream.write(chunk);
+                mOutputStream.flush();
+            } catch (IOException e) {
+                synchronized (this) {
+                    fail("Failed to write to stream: " + e.getMessage());
+                }
+                break;
+            }
+
+            synchronized (this) {
+                if (mFailure != null) break;
+                mChunks.pollFirst();
+                mBufferedBytes -= chunk.length;
+                notifyAll();
+            }
+        }
+
+        closeOutputStream();
+    }
+
+}
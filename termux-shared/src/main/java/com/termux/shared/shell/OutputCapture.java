@@ -0,0 +1,392 @@
+package com.termux.shared.shell;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A bounded capture of the raw bytes of command output, like for the stdout or stderr of a
+ * {@link StreamGobbler}.
+ *
+ * The first {@code headSize} bytes are kept in the head and the last {@code tailSize} bytes in a
+ * ring buffer, so that the memory used does not grow with the output size. Both are allocated
+ * lazily and grown as output arrives, so small outputs only use as much memory as they need. The
+ * output is only decoded as UTF-8 when {@link #toString()} is called.
+ *
+ * If a spill directory is passed, then once more output has been written than can be kept in
+ * memory, all of it is written to a temp file in that directory instead of being dropped, and
+ * {@link #getSpillFile()} returns it. The caller owns the file and should delete it once done.
+ *
+ * Writes must come from a single thread, but the methods to read the capture may be called from
+ * other threads after the writer has finished. The tee stream is written and closed without
+ * holding the lock of the capture, so that a slow consumer of it does not block them.
+ */
+public class OutputCapture {
+
+    /** The default number of bytes kept from the start of the output. */
+    public static final int DEFAULT_HEAD_SIZE = 64 * 1024;
+    /** The default number of bytes kept from the end of the output. */
+    public static final int DEFAULT_TAIL_SIZE = 960 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /** The number of bytes buffered for the tee stream, so that a slow consumer does not block the writer. */
+    static final int TEE_BUFFER_SIZE = 256 * 1024;
+    /** The maximum time to wait for a slow consumer of the tee stream before dropping it. */
+    static final long TEE_TIMEOUT_MILLIS = 5000;
+
+    private final int mHeadSize;
+    private final int mTailSize;
+    @Nullable private final File mSpillDirectory;
+
+    private byte[] mHead = new byte[0];
+    private int mHeadLength;
+
+    /** The ring buffer of the tail. Once full, {@link #mTailStart} is the index of the oldest byte. */
+    private byte[] mTail = new byte[0];
+    private int mTailLength;
+    private int mTailStart;
+
+    private long mTotalLength;
+
+    /** The stream all output is also written to as it is captured, or {@code null}. */
+    @Nullable private OutputStream mTeeStream;
+    private boolean mTeeFailed;
+
+    @Nullable private File mSpillFile;
+    @Nullable private OutputStream mSpillStream;
+    private boolean mSpillFailed;
+
+    /** Whether {@link #close()} was called, after which output is only kept in memory. */
+    private boolean mClosed;
+
+    private static final String LOG_TAG = "OutputCapture";
+
+    public OutputCapture() {
+        this(DEFAULT_HEAD_SIZE, DEFAULT_TAIL_SIZE, null);
+    }
+
+    /**
+     * @param headSize The number of bytes kept from the start of the output.
+     * @param tailSize The number of bytes kept from the end of the output.
+     * @param spillDirectory The directory to write the full output to if it is larger than
+     *                       {@code headSize + tailSize}, or {@code null} to drop the middle part.
+     */
+    public OutputCapture(int headSize, int tailSize, @Nullable File spillDirectory) {
+        mHeadSize = Math.max(0, headSize);
+        mTailSize = Math.max(0, tailSize);
+        mSpillDirectory = spillDirectory;
+    }
+
+    /**
+     * Set the {@link OutputStream} that all output is also written to as it is captured, like to
+     * stream it to a file or socket while the command is running. It is closed by {@link #close()}.
+     * If writing to it fails, then the failure is logged and no more output is written to it.
+     *
+     * It is written to from a {@link NonBlockingOutputStream}, so that a consumer that reads it
+     * slowly does not block the writer of the capture. If its buffer stays full for
+     * {@link #TEE_TIMEOUT_MILLIS}, then the tee fails like if writing to it failed.
+     */
+    public void setTeeOutputStream(@Nullable OutputStream outputStream) {
+        setTeeOutputStream(outputStream, TEE_BUFFER_SIZE, TEE_TIMEOUT_MILLIS);
+    }
+
+    void setTeeOutputStream(@Nullable OutputStream outputStream, int bufferSize, long timeoutMillis) {
+        OutputStream teeStream = outputStream != null ? new NonBlockingOutputStream(outputStream, bufferSize, timeoutMillis, LOG_TAG + "-tee") : null;
+        OutputStream oldTeeStream;
+        synchronized (this) {
+            oldTeeStream = mTeeStream;
+            mTeeStream = teeStream;
+        }
+        closeTeeStream(oldTeeStream);
+    }
+
+    /** Capture length bytes of buffer from offset. */
+    public void write(@NonNull byte[] buffer, int offset, int length) {
+        if (length <= 0) return;
+
+        writeTee(buffer, offset, length);
+
+        synchronized (this) {
+            writeCapture(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Write to the tee stream without holding the lock, since it may wait up to
+     * {@link #TEE_TIMEOUT_MILLIS} for a slow consumer.
+     */
+    private void writeTee(byte[] buffer, int offset, int length) {
+        OutputStream teeStream;
+        synchronized (this) {
+            teeStream = mTeeStream;
+        }
+        if (teeStream == null) return;
+
+        try {
+            teeStream.write(buffer, offset, length);
+        } catch (IOException e) {
+            synchronized (this) {
+                // It was closed or replaced while writing, in which case it did not fail
+                if (mTeeStream != teeStream) return;
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write output to tee stream", e);
+                mTeeFailed = true;
+                mTeeStream = null;
+            }
+            closeTeeStream(teeStream);
+        }
+    }
+
+    private void writeCapture(byte[] buffer, int offset, int length) {
+        if (mSpillStream == null && !mSpillFailed && !mClosed && mSpillDirectory != null &&
+            mTotalLength + length > (long) mHeadSize + mTailSize) {
+            // Nothing has been dropped yet, so the full output so far is still in memory.
+            startSpilling();
+        }
+        if (mSpillStream != null) {
+            try {
+                mSpillStream.write(buffer, offset, length);
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write output to spill file", e);
+                stopSpilling(true);
+            }
+        }
+
+        mTotalLength += length;
+
+        int headLength = Math.min(length, mHeadSize - mHeadLength);
+        if (headLength > 0) {
+            mHead = ensureCapacity(mHead, mHeadLength + headLength, mHeadSize);
+            System.arraycopy(buffer, offset, mHead, mHeadLength, headLength);
+            mHeadLength += headLength;
+            offset += headLength;
+            length -= headLength;
+        }
+
+        if (length > 0 && mTailSize > 0)
+            writeTail(buffer, offset, length);
+    }
+
+    private void writeTail(byte[] buffer, int offset, int length) {
+        if (length >= mTailSize) {
+            // Only the last tailSize bytes of the write are kept.
+            if (mTail.length < mTailSize) mTail = new byte[mTailSize];
+            System.arraycopy(buffer, offset + length - mTailSize, mTail, 0, mTailSize);
+            mTailLength = mTailSize;
+            mTailStart = 0;
+            return;
+        }
+
+        if (mTailLength + length <= mTailSize) {
+            // The ring has not wrapped yet, so mTailStart is 0.
+            mTail = ensureCapacity(mTail, mTailLength + length, mTailSize);
+            System.arraycopy(buffer, offset, mTail, mTailLength, length);
+            mTailLength += length;
+            return;
+        }
+
+        if (mTail.length < mTailSize) mTail = ensureCapacity(mTail, mTailSize, mTailSize);
+        // Overwrite the oldest bytes, which start at the end of the newest ones.
+        int end = (mTailStart + mTailLength) % mTailSize;
+        int dropped = mTailLength + length - mTailSize;
+        int firstLength = Math.min(length, mTailSize - end);
+        System.arraycopy(buffer, offset, mTail, end, firstLength);
+        System.arraycopy(buffer, offset + firstLength, mTail, 0, length - firstLength);
+        mTailLength = mTailSize;
+        mTailStart = (mTailStart + dropped) % mTailSize;
+    }
+
+    private static byte[] ensureCapacity(byte[] array, int capacity, int maxCapacity) {
+        if (array.length >= capacity) return array;
+        int newCapacity = Math.max(INITIAL_BUFFER_SIZE, array.length);
+        while (newCapacity < capacity) newCapacity *= 2;
+        byte[] newArray = new byte[Math.min(newCapacity, maxCapacity)];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private void startSpilling() {
+        try {
+            mSpillFile = File.createTempFile("output-", ".tmp", mSpillDirectory);
+            mSpillStream = new FileOutputStream(mSpillFile);
+            mSpillStream.write(mHead, 0, mHeadLength);
+            writeTailTo(mSpillStream);
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to create spill file in \"" + mSpillDirectory + "\"", e);
+            stopSpilling(true);
+        }
+    }
+
+    private void stopSpilling(boolean failed) {
+        if (mSpillStream != null) {
+            try {
+                mSpillStream.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            mSpillStream = null;
+        }
+        if (failed) {
+            mSpillFailed = true;
+            if (mSpillFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                mSpillFile.delete();
+                mSpillFile = null;
+            }
+        }
+    }
+
+    private void writeTailTo(OutputStream outputStream) throws IOException {
+        int firstLength = Math.min(mTailLength, mTailSize - mTailStart);
+        outputStream.write(mTail, mTailStart, firstLength);
+        outputStream.write(mTail, 0, mTailLength - firstLength);
+    }
+
+    /**
+     * Close a tee stream that is no longer {@link #mTeeStream}, without holding the lock, since it
+     * waits up to {@link #TEE_TIMEOUT_MILLIS} for the buffered output to be written.
+     */
+    private void closeTeeStream(@Nullable OutputStream teeStream) {
+        if (teeStream == null) return;
+        try {
+            teeStream.close();
+        } catch (IOException e) {
+            // The buffered output could not be written in time, unless it already failed
+            synchronized (this) {
+                if (!mTeeFailed) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close tee stream", e);
+                    mTeeFailed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finish writing, which closes the tee stream and the spill file if one was created. Output
+     * written after this, like by a {@link StreamGobbler} that is still running when the command
+     * failed, is only kept in memory. This may be called multiple times.
+     */
+    public void close() {
+        OutputStream teeStream;
+        synchronized (this) {
+            mClosed = true;
+            teeStream = mTeeStream;
+            mTeeStream = null;
+            stopSpilling(false);
+        }
+        closeTeeStream(teeStream);
+    }
+
+    /** Get whether writing to the stream set with {@link #setTeeOutputStream(OutputStream)} failed. */
+    public synchronized boolean hasTeeFailed() {
+        return mTeeFailed;
+    }
+
+    /** Get the total number of bytes written, including any that were dropped. */
+    public synchronized long getTotalLength() {
+        return mTotalLength;
+    }
+
+    /** Get whether bytes from the middle of the output were dropped from memory. */
+    public synchronized boolean isTruncated() {
+        return mTotalLength > mHeadLength + mTailLength;
+    }
+
+    /** Get the file the full output was written to, or {@code null} if it fit in memory. */
+    @Nullable
+    public synchronized File getSpillFile() {
+        return mSpillFile;
+    }
+
+    /** Delete the file returned by {@link #getSpillFile()}, if one was created. */
+    public synchronized void deleteSpillFile() {
+        stopSpilling(false);
+        if (mSpillFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            mSpillFile.delete();
+            mSpillFile = null;
+        }
+    }
+
+    /** Get the captured bytes, with the middle part dropped if {@link #isTruncated()}. */
+    @NonNull
+    public synchronized byte[] toByteArray() {
+        byte[] bytes = new byte[mHeadLength + mTailLength];
+        System.arraycopy(mHead, 0, bytes, 0, mHeadLength);
+        int firstLength = Math.min(mTailLength, mTailSize - mTailStart);
+        System.arraycopy(mTail, mTailStart, bytes, mHeadLength, firstLength);
+        System.arraycopy(mTail, 0, bytes, mHeadLength + firstLength, mTailLength - firstLength);
+        return bytes;
+    }
+
+    /**
+     * Decode the captured output as UTF-8. If the middle part was dropped, then a line stating how
+     * many bytes were dropped is put between the head and the tail.
+     */
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        if (!isTruncated())
+            return decode(toByteArray(), 0, mHeadLength + mTailLength);
+
+        byte[] bytes = toByteArray();
+        // Do not decode characters cut in half at the end of the head or the start of the tail.
+        int headEnd = mHeadLength;
+        int continuationBytes = 0;
+        while (headEnd > 0 && continuationBytes < 3 && isContinuationByte(bytes[headEnd - 1])) {
+            headEnd--;
+            continuationBytes++;
+        }
+        if (headEnd > 0 && (bytes[headEnd - 1] & 0xC0) == 0xC0 && sequenceLength(bytes[headEnd - 1]) > continuationBytes + 1)
+            headEnd--;
+        else
+            headEnd = mHeadLength;
+
+        int tailStart = mHeadLength;
+        int tailEnd = mHeadLength + mTailLength;
+        for (int i = 0; i < 3 && tailStart < tailEnd && isContinuationByte(bytes[tailStart]); i++)
+            tailStart++;
+
+        StringBuilder output = new StringBuilder();
+        output.append(decode(bytes, 0, headEnd));
+        if (headEnd > 0 && bytes[headEnd - 1] != '\n') output.append('\n');
+        output.append("(").append(mTotalLength - headEnd - (tailEnd - tailStart)).append(" bytes truncated)\n");
+        output.append(decode(bytes, tailStart, tailEnd - tailStart));
+        return output.toString();
+    }
+
+    private static boolean isContinuationByte(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private static int sequenceLength(byte leadByte) {
+        if ((leadByte & 0xE0) == 0xC0) return 2;
+        if ((leadByte & 0xF0) == 0xE0) return 3;
+        if ((leadByte & 0xF8) == 0xF0) return 4;
+        return 1;
+    }
+
+    private static String decode(byte[] bytes, int offset, int length) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            return decoder.decode(ByteBuffer.wrap(bytes, offset, length)).toString();
+        } catch (CharacterCodingException e) {
+            // Not thrown with CodingErrorAction.REPLACE
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -20,8 +20,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Locale;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -77,13 +77,15 @@ public class StreamGobbler extends Thread {
     private final String shell;
     @NonNull
     private final InputStream inputStream;
-    @NonNull
+    @Nullable
     private final BufferedReader reader;
     @Nullable
     private final List<String> listWriter;
     @Nullable
     private final StringBuilder stringWriter;
     @Nullable
+    private final OutputCapture outputCapture;
+    @Nullable
     private final OnLineListener lineListener;
     @Nullable
     private final OnStreamClosedListener streamClosedListener;
@@ -92,6 +94,11 @@ public class StreamGobbler extends Thread {
     private volatile boolean active = true;
     private volatile boolean calledOnClose = false;
 
+    /** The size of the buffer the raw bytes are read into if an {@link OutputCapture} is used. */
+    private static final int READ_BUFFER_SIZE = 8192;
+    /** The max length of a line passed to the {@link OnLineListener} if an {@link OutputCapture} is used. Longer lines are split. */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
     private static final String LOG_TAG = "StreamGobbler";
 
     /**
@@ -119,6 +126,7 @@ public class StreamGobbler extends Thread {
 
         listWriter = outputList;
         stringWriter = null;
+        outputCapture = null;
         lineListener = null;
 
         mLogLevel = logLevel;
@@ -151,6 +159,7 @@ public class StreamGobbler extends Thread {
 
         listWriter = null;
         stringWriter = outputString;
+        outputCapture = null;
         lineListener = null;
 
         mLogLevel = logLevel;
@@ -183,6 +192,45 @@ public class StreamGobbler extends Thread {
 
         listWriter = null;
         stringWriter = null;
+        outputCapture = null;
+        lineListener = onLineListener;
+
+        mLogLevel = logLevel;
+    }
+
+    /**
+     * <p>StreamGobbler constructor</p>
+     *
+     * <p>We use this class because shell STDOUT and STDERR should be read as quickly as
+     * possible to prevent a deadlock from occurring, or Process.waitFor() never
+     * returning (as the buffer is full, pausing the native process)</p>
+     *
+     * The raw bytes read are written to the {@link OutputCapture}, which bounds the memory used
+     * regardless of the output size, instead of being decoded into a {@link String} per line.
+     * Lines are only split and decoded if an {@link OnLineListener} is passed or logging is enabled,
+     * and are delimited by {@code \n} with any {@code \r} before it removed.
+     *
+     * @param shell Name of the shell
+     * @param inputStream InputStream to read from
+     * @param outputCapture {@link OutputCapture} to write to. It is closed when the stream ends.
+     * @param onLineListener OnLineListener callback, or null
+     * @param logLevel The custom log level to use for logging the command output. If set to
+     *                 {@code null}, then {@link Logger#LOG_LEVEL_VERBOSE} will be used.
+     */
+    @AnyThread
+    public StreamGobbler(@NonNull String shell, @NonNull InputStream inputStream,
+                         @NonNull OutputCapture outputCapture,
+                         @Nullable OnLineListener onLineListener,
+                         @Nullable Integer logLevel) {
+        super("Gobbler#" + incThreadCounter());
+        this.shell = shell;
+        this.inputStream = inputStream;
+        reader = null;
+        streamClosedListener = null;
+
+        listWriter = null;
+        stringWriter = null;
+        this.outputCapture = outputCapture;
         lineListener = onLineListener;
 
         mLogLevel = logLevel;
@@ -193,27 +241,18 @@ public class StreamGobbler extends Thread {
         String defaultLogTag = Logger.getDefaultLogTag();
         boolean loggingEnabled = Logger.shouldEnableLoggingForCustomLogLevel(mLogLevel);
         if (loggingEnabled)
-            Logger.logVerbose(LOG_TAG, "Using custom log level: " + mLogLevel + ", current log level: " + Logger.getLogLevel());
+            Logger.logVerbose(LOG_TAG, () -> "Using custom log level: " + mLogLevel + ", current log level: " + Logger.getLogLevel());
 
         // keep reading the InputStream until it ends (or an error occurs)
         // optionally pausing when a command is executed that consumes the InputStream itself
         try {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (loggingEnabled)
-                    Logger.logVerboseForce(defaultLogTag + "Command", String.format(Locale.ENGLISH, "[%s] %s", shell, line)); // This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
-
-                if (stringWriter != null) stringWriter.append(line).append("\n");
-                if (listWriter != null) listWriter.add(line);
-                if (lineListener != null) lineListener.onLine(line);
-                while (!active) {
-                    synchronized (this) {
-                        try {
-                            this.wait(128);
-                        } catch (InterruptedException e) {
-                            // no action
-                        }
-                    }
+            if (reader == null) {
+                readBytes(defaultLogTag, loggingEnabled);
+            } else {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    onLine(defaultLogTag, loggingEnabled, line);
+                    waitWhileSuspended();
                 }
             }
         } catch (IOException e) {
@@ -224,9 +263,15 @@ public class StreamGobbler extends Thread {
             }
         }
 
+        if (outputCapture != null)
+            outputCapture.close();
+
         // make sure our stream is closed and resources will be freed
         try {
-            reader.close();
+            if (reader != null)
+                reader.close();
+            else
+                inputStream.close();
         } catch (IOException e) {
             // read already closed
         }
@@ -239,6 +284,95 @@ public class StreamGobbler extends Thread {
         }
     }
 
+    private void readBytes(String defaultLogTag, boolean loggingEnabled) throws IOException {
+        // Lines are only needed if someone consumes them.
+        boolean splitLines = lineListener != null || loggingEnabled;
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        // The start of a line that did not end in the previous reads, allocated only when needed.
+        byte[] pendingLine = null;
+        int pendingLength = 0;
+
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            //noinspection ConstantConditions
+            outputCapture.write(buffer, 0, read);
+
+            if (splitLines) {
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n') continue;
+
+                    if (pendingLength == 0) {
+                        onLine(defaultLogTag, loggingEnabled, decodeLine(buffer, lineStart, i - lineStart));
+                    } else {
+                        pendingLine = appendBytes(pendingLine, pendingLength, buffer, lineStart, i - lineStart);
+                        pendingLength += i - lineStart;
+                        onLine(defaultLogTag, loggingEnabled, decodeLine(pendingLine, 0, pendingLength));
+                        pendingLength = 0;
+                    }
+                    lineStart = i + 1;
+                }
+
+                int remaining = read - lineStart;
+                if (remaining > 0) {
+                    if (pendingLength + remaining > MAX_LINE_LENGTH) {
+                        // Deliver overlong lines in parts instead of buffering them without limit.
+                        pendingLine = appendBytes(pendingLine, pendingLength, buffer, lineStart, remaining);
+                        onLine(defaultLogTag, loggingEnabled, decodeLine(pendingLine, 0, pendingLength + remaining));
+                        pendingLength = 0;
+                    } else {
+                        pendingLine = appendBytes(pendingLine, pendingLength, buffer, lineStart, remaining);
+                        pendingLength += remaining;
+                    }
+                }
+            }
+
+            waitWhileSuspended();
+        }
+
+        if (pendingLength > 0)
+            onLine(defaultLogTag, loggingEnabled, decodeLine(pendingLine, 0, pendingLength));
+    }
+
+    private static byte[] appendBytes(@Nullable byte[] array, int arrayLength, byte[] bytes, int offset, int length) {
+        int capacity = arrayLength + length;
+        if (array == null || array.length < capacity) {
+            byte[] newArray = new byte[Math.max(capacity, array == null ? 256 : array.length * 2)];
+            if (array != null) System.arraycopy(array, 0, newArray, 0, arrayLength);
+            array = newArray;
+        }
+        System.arraycopy(bytes, offset, array, arrayLength, length);
+        return array;
+    }
+
+    private static String decodeLine(byte[] bytes, int offset, int length) {
+        if (length > 0 && bytes[offset + length - 1] == '\r') length--;
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private void onLine(String defaultLogTag, boolean loggingEnabled, String line) {
+        if (loggingEnabled)
+            // Log on the async log writer thread so that logcat does not slow down reading the
+            // command output. This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
+            Logger.logVerboseForceAsync(defaultLogTag + "Command", shell, line);
+
+        if (stringWriter != null) stringWriter.append(line).append("\n");
+        if (listWriter != null) listWriter.add(line);
+        if (lineListener != null) lineListener.onLine(line);
+    }
+
+    private void waitWhileSuspended() {
+        while (!active) {
+            synchronized (this) {
+                try {
+                    this.wait(128);
+                } catch (InterruptedException e) {
+                    // no action
+                }
+            }
+        }
+    }
+
     /**
      * <p>Resume consuming the input from the stream</p>
      */
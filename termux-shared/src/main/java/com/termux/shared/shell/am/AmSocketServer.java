@@ -11,11 +11,13 @@ import com.termux.am.Am;
 import com.termux.shared.R;
 import com.termux.shared.android.PackageUtils;
 import com.termux.shared.android.PermissionUtils;
+import com.termux.shared.data.DataUtils;
 import com.termux.shared.errors.Error;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.net.socket.local.ILocalSocketManager;
 import com.termux.shared.net.socket.local.LocalClientSocket;
 import com.termux.shared.net.socket.local.LocalServerSocket;
+import com.termux.shared.net.socket.local.LocalSocketErrno;
 import com.termux.shared.net.socket.local.LocalSocketManager;
 import com.termux.shared.net.socket.local.LocalSocketManagerClientBase;
 import com.termux.shared.net.socket.local.LocalSocketRunConfig;
@@ -23,11 +25,19 @@ import com.termux.shared.shell.ArgumentTokenizer;
 import com.termux.shared.shell.command.ExecutionCommand;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A AF_UNIX/SOCK_STREAM local server managed with {@link LocalSocketManager} whose
@@ -40,6 +50,12 @@ import java.util.List;
  * back in the format `exit_code\0stdout\0stderr\0` where `\0` represents a null character.
  * Check termux/termux-am-socket for implementation of a native c client.
  *
+ * Alternatively, the client may keep the connection open and send many am commands on it with the
+ * framed protocol described in {@link AmSocketServerProtocol}, which avoids the cost of a new
+ * connection for each command. The {@link AmSocketServerClient} serves framed connections on their
+ * own threads, limited by {@link AmSocketServerRunConfig#getMaxFramedConnections()}, so that they
+ * do not hold the client threads of {@link LocalSocketManager} used by one-shot clients.
+ *
  * Usage:
  * 1. Optionally extend {@link AmSocketServerClient}, the implementation for
  *    {@link ILocalSocketManager} that will receive call backs from the server including
@@ -81,47 +97,191 @@ public class AmSocketServer {
 
     public static void processAmClient(@NonNull LocalSocketManager localSocketManager,
                                        @NonNull LocalClientSocket clientSocket) {
+        processAmClient(localSocketManager, clientSocket, null);
+    }
+
+    /**
+     * Process a client, by running the am command it sent, or the am commands of its requests if
+     * it wants to use the framed protocol.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} of the client.
+     * @param framedClientExecutor The {@link Executor} on which framed connections are served, after
+     *                             which their client socket is closed. If {@code null}, then they
+     *                             are served on the calling thread. If it rejects the connection,
+     *                             then an error is sent to the client in the one-shot format.
+     * @return Returns {@code true} if the client was handed off to {@code framedClientExecutor},
+     * in which case the caller must not close the client socket, otherwise {@code false}.
+     */
+    public static boolean processAmClient(@NonNull LocalSocketManager localSocketManager,
+                                          @NonNull LocalClientSocket clientSocket,
+                                          @Nullable Executor framedClientExecutor) {
         Error error;
 
-        // Read amCommandString client sent and close input stream
-        StringBuilder data = new StringBuilder();
-        error = clientSocket.readDataOnInputStream(data, true);
+        // Read the first bytes to check if the client wants to use the framed protocol
+        InputStream inputStream = clientSocket.getInputStream();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        boolean framed;
+        try {
+            framed = readFramedProtocolMagic(inputStream, data);
+        } catch (IOException e) {
+            sendResultToClient(localSocketManager, clientSocket, 1, null, getReadError(localSocketManager, e).toString());
+            return false;
+        }
+
+        if (framed) {
+            if (framedClientExecutor == null) {
+                processFramedAmClient(localSocketManager, clientSocket);
+                return false;
+            }
+
+            try {
+                framedClientExecutor.execute(() -> {
+                    processFramedAmClient(localSocketManager, clientSocket);
+                    clientSocket.closeClientSocket(true);
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                // The magic is not echoed back, so the client falls back to the one-shot format
+                AmSocketServerRunConfig amSocketServerRunConfig = (AmSocketServerRunConfig) localSocketManager.getLocalSocketRunConfig();
+                sendResultToClient(localSocketManager, clientSocket, 1, null,
+                    AmSocketServerErrno.ERRNO_TOO_MANY_FRAMED_CONNECTIONS.getError(amSocketServerRunConfig.getMaxFramedConnections()).toString());
+                return false;
+            }
+        }
+
+        // Read rest of amCommandString client sent, unless the first byte already ended it
+        error = data.size() > 0 ? clientSocket.readDataUntilNull(data) : null;
         if (error != null) {
             sendResultToClient(localSocketManager, clientSocket, 1, null, error.toString());
-            return;
+            return false;
         }
 
-        String amCommandString = data.toString();
+        String amCommandString = new String(data.toByteArray(), StandardCharsets.UTF_8);
 
-        Logger.logVerbose(LOG_TAG, "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
+        Logger.logVerbose(LOG_TAG, () -> "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
             "\nam command: `" + amCommandString + "`");
 
+        // Run am command and send its result to the client
+        StringBuilder stdout = new StringBuilder();
+        StringBuilder stderr = new StringBuilder();
+        int exitCode = runAmCommandString(localSocketManager, clientSocket, amCommandString, stdout, stderr);
+        sendResultToClient(localSocketManager, clientSocket, exitCode, stdout.toString(), stderr.toString());
+        return false;
+    }
+
+    /**
+     * Process a client that sent {@link AmSocketServerProtocol#FRAMED_PROTOCOL_MAGIC}, by running
+     * the am commands of its requests until it closes the connection or does not send a request
+     * for {@link AmSocketServerRunConfig#getFramedConnectionIdleTimeout()}.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} of the client.
+     */
+    public static void processFramedAmClient(@NonNull LocalSocketManager localSocketManager,
+                                             @NonNull LocalClientSocket clientSocket) {
+        Logger.logVerbose(LOG_TAG, () -> "Framed protocol connection from peer " + clientSocket.getPeerCred().getMinimalString());
+
+        AmSocketServerRunConfig amSocketServerRunConfig = (AmSocketServerRunConfig) localSocketManager.getLocalSocketRunConfig();
+        Error error = clientSocket.setReadTimeout(amSocketServerRunConfig.getFramedConnectionIdleTimeout());
+        if (error != null) {
+            localSocketManager.onError(clientSocket, error);
+            return;
+        }
+
+        error = clientSocket.send(AmSocketServerProtocol.FRAMED_PROTOCOL_MAGIC);
+        if (error != null) {
+            localSocketManager.onError(clientSocket, error);
+            return;
+        }
+
+        int[] requestCount = new int[1];
+        error = AmSocketServerProtocol.processRequests(clientSocket.getInputStream(), clientSocket.getOutputStream(),
+            (amCommandString, stdout, stderr) ->
+                runAmCommandString(localSocketManager, clientSocket, amCommandString, stdout, stderr),
+            requestCount);
+
+        Logger.logVerbose(LOG_TAG, () -> "Framed protocol connection from peer " + clientSocket.getPeerCred().getMinimalString() +
+            " finished after " + requestCount[0] + " requests");
+        if (error != null) {
+            localSocketManager.onError(clientSocket, error);
+        }
+    }
+
+    /**
+     * Read the first bytes sent by the client and check if they are
+     * {@link AmSocketServerProtocol#FRAMED_PROTOCOL_MAGIC}. Since a one-shot am command ends at the
+     * first null character, only the bytes up to it are read if they do not match.
+     *
+     * @param inputStream The {@link InputStream} of the client.
+     * @param data The {@link ByteArrayOutputStream} to write the bytes read into if they do not match.
+     * @return Returns {@code true} if the client sent the magic, otherwise {@code false}.
+     */
+    static boolean readFramedProtocolMagic(@NonNull InputStream inputStream,
+                                           @NonNull ByteArrayOutputStream data) throws IOException {
+        byte[] magic = AmSocketServerProtocol.FRAMED_PROTOCOL_MAGIC;
+        int c = inputStream.read();
+        if (c != magic[0]) {
+            if (c > 0) data.write(c);
+            return false;
+        }
+
+        for (int i = 1; i < magic.length; i++) {
+            // Otherwise it is an empty one-shot am command, which ends at the null character
+            if (inputStream.read() != magic[i]) return false;
+        }
+
+        return true;
+    }
+
+    private static Error getReadError(@NonNull LocalSocketManager localSocketManager, @NonNull IOException e) {
+        // The SocketInputStream.read() throws the Error message in an IOException,
+        // so just read the exception message and not the stack trace.
+        return LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
+            localSocketManager.getLocalSocketRunConfig().getTitle(), DataUtils.getSpaceIndentedString(e.getMessage(), 1));
+    }
+
+    /**
+     * Parse and run an am command string received from a client.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} that sent the am command.
+     * @param amCommandString The am command string.
+     * @param stdout The {@link StringBuilder} to set stdout in that is returned by the am command.
+     * @param stderr The {@link StringBuilder} to set stderr in that is returned by the am command,
+     *               including any error.
+     * @return Returns the exit code to send to the client.
+     */
+    public static int runAmCommandString(@NonNull LocalSocketManager localSocketManager,
+                                         @NonNull LocalClientSocket clientSocket,
+                                         @NonNull String amCommandString,
+                                         @NonNull StringBuilder stdout, @NonNull StringBuilder stderr) {
+        Error error;
+
         // Parse am command string and convert it to a list of arguments
         List<String> amCommandList = new ArrayList<>();
         error = parseAmCommand(amCommandString, amCommandList);
         if (error != null) {
-            sendResultToClient(localSocketManager, clientSocket, 1, null, error.toString());
-            return;
+            stderr.append(error);
+            return 1;
         }
 
         String[] amCommandArray = amCommandList.toArray(new String[0]);
 
-        Logger.logDebug(LOG_TAG, "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
+        Logger.logDebug(LOG_TAG, () -> "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
             "\n" + ExecutionCommand.getArgumentsLogString("am command", amCommandArray));
 
         AmSocketServerRunConfig amSocketServerRunConfig = (AmSocketServerRunConfig) localSocketManager.getLocalSocketRunConfig();
 
-        // Run am command and send its result to the client
-        StringBuilder stdout = new StringBuilder();
-        StringBuilder stderr = new StringBuilder();
         error = runAmCommand(localSocketManager.getContext(), amCommandArray, stdout, stderr,
             amSocketServerRunConfig.shouldCheckDisplayOverAppsPermission());
         if (error != null) {
-            sendResultToClient(localSocketManager, clientSocket, 1, stdout.toString(),
-                !stderr.toString().isEmpty() ? stderr + "\n\n" + error : error.toString());
+            if (stderr.length() > 0) stderr.append("\n\n");
+            stderr.append(error);
+            return 1;
         }
 
-        sendResultToClient(localSocketManager, clientSocket, 0, stdout.toString(), stderr.toString());
+        return 0;
     }
 
     /**
@@ -243,14 +403,38 @@ public class AmSocketServer {
 
 
 
-    /** Implementation for {@link ILocalSocketManager} for {@link AmSocketServer}. */
+    /**
+     * Implementation for {@link ILocalSocketManager} for {@link AmSocketServer}.
+     *
+     * Framed connections are handed off to threads of their own, at most
+     * {@link AmSocketServerRunConfig#getMaxFramedConnections()}, which are kept for a while after
+     * their connection is closed to be reused by later ones.
+     */
     public abstract static class AmSocketServerClient extends LocalSocketManagerClientBase {
 
+        private ThreadPoolExecutor mFramedClientExecutor;
+
         @Override
         public void onClientAccepted(@NonNull LocalSocketManager localSocketManager,
                                      @NonNull LocalClientSocket clientSocket) {
-            AmSocketServer.processAmClient(localSocketManager, clientSocket);
-            super.onClientAccepted(localSocketManager, clientSocket);
+            if (!AmSocketServer.processAmClient(localSocketManager, clientSocket, getFramedClientExecutor(localSocketManager)))
+                super.onClientAccepted(localSocketManager, clientSocket);
+        }
+
+        @NonNull
+        private synchronized ThreadPoolExecutor getFramedClientExecutor(@NonNull LocalSocketManager localSocketManager) {
+            if (mFramedClientExecutor == null) {
+                AmSocketServerRunConfig amSocketServerRunConfig = (AmSocketServerRunConfig) localSocketManager.getLocalSocketRunConfig();
+                AtomicInteger threadCount = new AtomicInteger();
+                // A SynchronousQueue does not hold connections, so they are rejected once all threads are busy
+                mFramedClientExecutor = new ThreadPoolExecutor(0, Math.max(1, amSocketServerRunConfig.getMaxFramedConnections()),
+                    30, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, LOG_TAG + "-framed-" + threadCount.incrementAndGet());
+                        thread.setUncaughtExceptionHandler(localSocketManager.getLocalSocketManagerClientThreadUEH());
+                        return thread;
+                    });
+            }
+            return mFramedClientExecutor;
         }
 
     }
@@ -10,6 +10,10 @@ public class AmSocketServerErrno extends Errno {
     /** Errors for {@link AmSocketServer} (100-150) */
     public static final Errno ERRNO_PARSE_AM_COMMAND_FAILED_WITH_EXCEPTION = new Errno(TYPE, 100, "Parse am command `%1$s` failed.\nException: %2$s");
     public static final Errno ERRNO_RUN_AM_COMMAND_FAILED_WITH_EXCEPTION = new Errno(TYPE, 101, "Run am command `%1$s` failed.\nException: %2$s");
+    public static final Errno ERRNO_READ_REQUEST_FAILED_WITH_EXCEPTION = new Errno(TYPE, 102, "Read am command request failed.\nException: %1$s");
+    public static final Errno ERRNO_INVALID_REQUEST_COMMAND_LENGTH = new Errno(TYPE, 103, "The am command length %2$s of request %1$s is invalid or greater than %3$s.");
+    public static final Errno ERRNO_SEND_RESPONSE_FAILED_WITH_EXCEPTION = new Errno(TYPE, 104, "Send response of am command request %1$s failed.\nException: %2$s");
+    public static final Errno ERRNO_TOO_MANY_FRAMED_CONNECTIONS = new Errno(TYPE, 105, "The framed protocol connection was rejected since %1$s framed connections are already open. Send one am command for each connection instead.");
 
     AmSocketServerErrno(final String type, final int code, final String message) {
         super(type, code, message);
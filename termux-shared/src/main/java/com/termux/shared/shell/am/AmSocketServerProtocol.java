@@ -0,0 +1,192 @@
+package com.termux.shared.shell.am;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.errors.Error;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The framed protocol of {@link AmSocketServer} that lets a client keep one connection open and
+ * send many am commands on it, instead of connecting once for each command.
+ *
+ * The client starts the connection by sending {@link #FRAMED_PROTOCOL_MAGIC}, which the server
+ * echoes back. Since it starts with a null character, older servers would instead run an empty am
+ * command and send back its result in the one-shot format, so that clients can fall back to it.
+ *
+ * The client then sends request frames and the server sends back one response frame for each, in
+ * the same order. Clients may send more requests without waiting for the responses of earlier ones,
+ * and should match responses to requests with the request id. All integers are 32-bit big endian
+ * and all strings are UTF-8 encoded.
+ *
+ * Request: `request_id` `command_length` `command`
+ * Response: `request_id` `exit_code` `stdout_length` `stdout` `stderr_length` `stderr`
+ *
+ * The `command` is the am command string without the initial "am" arg, same as for the one-shot
+ * format. The server closes the connection once the client has closed its output stream, or
+ * once it has not sent a request for {@link AmSocketServerRunConfig#getFramedConnectionIdleTimeout()}.
+ * If the server already has {@link AmSocketServerRunConfig#getMaxFramedConnections()} framed
+ * connections open, it does not echo the magic and sends back an error in the one-shot format
+ * instead, so that clients fall back to it.
+ */
+public class AmSocketServerProtocol {
+
+    /** The bytes the client sends first to use the framed protocol. */
+    public static final byte[] FRAMED_PROTOCOL_MAGIC = {0, 'A', 'M', 2};
+
+    /** The maximum length of the command of a request. */
+    public static final int MAX_COMMAND_LENGTH = 1024 * 1024;
+
+    public static final String LOG_TAG = "AmSocketServerProtocol";
+
+    /**
+     * Read requests from {@code inputStream}, run them with {@code amCommandRunner} and write their
+     * responses to {@code outputStream}, until the client closes the connection. The
+     * {@link #FRAMED_PROTOCOL_MAGIC} must already have been read and echoed back.
+     *
+     * @param inputStream The {@link InputStream} of the client connection.
+     * @param outputStream The {@link OutputStream} of the client connection.
+     * @param amCommandRunner The {@link AmCommandRunner} to run commands with.
+     * @param requestCount Set to the number of requests that were run.
+     * @return Returns the {@code error} if reading a request or writing a response failed, otherwise
+     * {@code null} if the client closed the connection between requests.
+     */
+    public static Error processRequests(@NonNull InputStream inputStream, @NonNull OutputStream outputStream,
+                                        @NonNull AmCommandRunner amCommandRunner, @NonNull int[] requestCount) {
+        // Requests are small, so buffer them instead of reading each field with separate calls
+        DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(inputStream));
+        StringBuilder stdout = new StringBuilder();
+        StringBuilder stderr = new StringBuilder();
+
+        while (true) {
+            int requestId;
+            String amCommandString;
+            try {
+                int firstByte = dataInputStream.read();
+                // The client closed the connection between requests
+                if (firstByte < 0) return null;
+                requestId = (firstByte << 24) | (dataInputStream.readUnsignedByte() << 16) |
+                    (dataInputStream.readUnsignedByte() << 8) | dataInputStream.readUnsignedByte();
+
+                int length = dataInputStream.readInt();
+                if (length < 0 || length > MAX_COMMAND_LENGTH)
+                    return AmSocketServerErrno.ERRNO_INVALID_REQUEST_COMMAND_LENGTH.getError(requestId, length, MAX_COMMAND_LENGTH);
+
+                byte[] command = new byte[length];
+                dataInputStream.readFully(command);
+                amCommandString = new String(command, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return AmSocketServerErrno.ERRNO_READ_REQUEST_FAILED_WITH_EXCEPTION.getError(e, e.getMessage());
+            }
+
+            stdout.setLength(0);
+            stderr.setLength(0);
+            int exitCode = amCommandRunner.runAmCommand(amCommandString, stdout, stderr);
+            requestCount[0]++;
+
+            try {
+                writeResponse(outputStream, requestId, exitCode, stdout.toString(), stderr.toString());
+            } catch (IOException e) {
+                return AmSocketServerErrno.ERRNO_SEND_RESPONSE_FAILED_WITH_EXCEPTION.getError(e, requestId, e.getMessage());
+            }
+        }
+    }
+
+    /** Write a request frame. The whole frame is written with a single call to {@code outputStream}. */
+    public static void writeRequest(@NonNull OutputStream outputStream, int requestId,
+                                    @NonNull String amCommandString) throws IOException {
+        byte[] command = amCommandString.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(8 + command.length);
+        DataOutputStream dataOutputStream = new DataOutputStream(frame);
+        dataOutputStream.writeInt(requestId);
+        dataOutputStream.writeInt(command.length);
+        dataOutputStream.write(command);
+        outputStream.write(frame.toByteArray());
+    }
+
+    /** Write a response frame. The whole frame is written with a single call to {@code outputStream}. */
+    public static void writeResponse(@NonNull OutputStream outputStream, int requestId, int exitCode,
+                                     @NonNull String stdout, @NonNull String stderr) throws IOException {
+        byte[] stdoutBytes = stdout.getBytes(StandardCharsets.UTF_8);
+        byte[] stderrBytes = stderr.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(16 + stdoutBytes.length + stderrBytes.length);
+        DataOutputStream dataOutputStream = new DataOutputStream(frame);
+        dataOutputStream.writeInt(requestId);
+        dataOutputStream.writeInt(exitCode);
+        dataOutputStream.writeInt(stdoutBytes.length);
+        dataOutputStream.write(stdoutBytes);
+        dataOutputStream.writeInt(stderrBytes.length);
+        dataOutputStream.write(stderrBytes);
+        outputStream.write(frame.toByteArray());
+    }
+
+    /**
+     * Read a response frame.
+     *
+     * @throws EOFException If the server closed the connection.
+     */
+    @NonNull
+    public static Response readResponse(@NonNull InputStream inputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        int requestId = dataInputStream.readInt();
+        int exitCode = dataInputStream.readInt();
+        String stdout = readString(dataInputStream);
+        String stderr = readString(dataInputStream);
+        return new Response(requestId, exitCode, stdout, stderr);
+    }
+
+    private static String readString(DataInputStream dataInputStream) throws IOException {
+        int length = dataInputStream.readInt();
+        if (length < 0) throw new IOException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        dataInputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+
+
+
+    /** The response to a request. */
+    public static final class Response {
+
+        public final int requestId;
+        public final int exitCode;
+        @NonNull public final String stdout;
+        @NonNull public final String stderr;
+
+        public Response(int requestId, int exitCode, @NonNull String stdout, @NonNull String stderr) {
+            this.requestId = requestId;
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+
+    }
+
+
+
+    /** Runs the am commands of requests. */
+    public interface AmCommandRunner {
+
+        /**
+         * Run an am command.
+         *
+         * @param amCommandString The am command string without the initial "am" arg.
+         * @param stdout The {@link StringBuilder} to append the stdout of the command to.
+         * @param stderr The {@link StringBuilder} to append the stderr of the command to.
+         * @return Returns the exit code of the command.
+         */
+        int runAmCommand(@NonNull String amCommandString, @NonNull StringBuilder stdout, @NonNull StringBuilder stderr);
+
+    }
+
+}
@@ -26,6 +26,26 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
     private Boolean mCheckDisplayOverAppsPermission;
     public static final boolean DEFAULT_CHECK_DISPLAY_OVER_APPS_PERMISSION = true;
 
+    /**
+     * The maximum number of clients that may be connected at the same time with the framed protocol
+     * of {@link AmSocketServerProtocol}. Framed connections are served on their own threads instead
+     * of the {@link #mClientThreadPoolSize} threads, so that clients that keep connections open
+     * do not starve one-shot clients. Clients that try to use the framed protocol while the limit
+     * is reached are sent an error in the one-shot format, so that they fall back to it.
+     * Defaults to {@link #DEFAULT_MAX_FRAMED_CONNECTIONS}.
+     */
+    private Integer mMaxFramedConnections;
+    public static final int DEFAULT_MAX_FRAMED_CONNECTIONS = 8;
+
+    /**
+     * The receiving (SO_RCVTIMEO) timeout in milliseconds of framed connections, after which the
+     * server closes a connection on which the client has not sent a request. This replaces the
+     * {@link #mReceiveTimeout} once the client has started using the framed protocol.
+     * Defaults to {@link #DEFAULT_FRAMED_CONNECTION_IDLE_TIMEOUT}.
+     */
+    private Integer mFramedConnectionIdleTimeout;
+    public static final int DEFAULT_FRAMED_CONNECTION_IDLE_TIMEOUT = 30000;
+
     /**
      * Create an new instance of {@link AmSocketServerRunConfig}.
      *
@@ -48,6 +68,26 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
         mCheckDisplayOverAppsPermission = checkDisplayOverAppsPermission;
     }
 
+    /** Get {@link #mMaxFramedConnections} if set, otherwise {@link #DEFAULT_MAX_FRAMED_CONNECTIONS}. */
+    public int getMaxFramedConnections() {
+        return mMaxFramedConnections != null ? mMaxFramedConnections : DEFAULT_MAX_FRAMED_CONNECTIONS;
+    }
+
+    /** Set {@link #mMaxFramedConnections}. */
+    public void setMaxFramedConnections(Integer maxFramedConnections) {
+        mMaxFramedConnections = maxFramedConnections;
+    }
+
+    /** Get {@link #mFramedConnectionIdleTimeout} if set, otherwise {@link #DEFAULT_FRAMED_CONNECTION_IDLE_TIMEOUT}. */
+    public int getFramedConnectionIdleTimeout() {
+        return mFramedConnectionIdleTimeout != null ? mFramedConnectionIdleTimeout : DEFAULT_FRAMED_CONNECTION_IDLE_TIMEOUT;
+    }
+
+    /** Set {@link #mFramedConnectionIdleTimeout}. */
+    public void setFramedConnectionIdleTimeout(Integer framedConnectionIdleTimeout) {
+        mFramedConnectionIdleTimeout = framedConnectionIdleTimeout;
+    }
+
 
 
     /**
@@ -70,6 +110,8 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
 
         logString.append("Am Command:");
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("CheckDisplayOverAppsPermission", shouldCheckDisplayOverAppsPermission(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxFramedConnections", getMaxFramedConnections(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("FramedConnectionIdleTimeout", getFramedConnectionIdleTimeout(), "-"));
 
         return logString.toString();
     }
@@ -93,6 +135,8 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
 
         markdownString.append("## ").append("Am Command");
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("CheckDisplayOverAppsPermission", shouldCheckDisplayOverAppsPermission(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("MaxFramedConnections", getMaxFramedConnections(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("FramedConnectionIdleTimeout", getFramedConnectionIdleTimeout(), "-"));
 
         return markdownString.toString();
     }
@@ -140,6 +140,52 @@ public class ExecutionCommand {
 
     }
 
+    /** The {@link Enum} that defines the priority class with which {@link Runner#APP_SHELL} commands are scheduled,
+     * from the highest to the lowest. */
+    public enum TaskPriority {
+
+        /** Commands started from within the Termux app itself. */
+        FOREGROUND("foreground"),
+
+        /** Commands started by plugins and the RUN_COMMAND intent. */
+        PLUGIN("plugin"),
+
+        /**
+         * Commands started at boot, like by Termux:Boot. The TERMUX_SERVICE uses this for commands
+         * that run a script in the Termux:Boot scripts directory if no priority was passed.
+         */
+        BOOT("boot");
+
+        private final String name;
+
+        TaskPriority(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** Get {@link TaskPriority} for {@code name} if found, otherwise {@code null}. */
+        @Nullable
+        public static TaskPriority priorityOf(String name) {
+            for (TaskPriority v : TaskPriority.values()) {
+                if (v.name.equals(name)) {
+                    return v;
+                }
+            }
+            return null;
+        }
+
+        /** Get {@link TaskPriority} for {@code name} if found, otherwise {@code def}. */
+        @NonNull
+        public static TaskPriority priorityOf(@Nullable String name, @NonNull TaskPriority def) {
+            TaskPriority priority = priorityOf(name);
+            return priority != null ? priority : def;
+        }
+
+    }
+
     /** The optional unique id for the {@link ExecutionCommand}. This should equal -1 if execution
      * command is not going to be managed by a shell manager. */
     public Integer id;
@@ -199,6 +245,12 @@ public class ExecutionCommand {
     public boolean setShellCommandShellEnvironment;
 
 
+    /** The {@link TaskPriority} of {@link Runner#APP_SHELL} commands. If not set, then
+     * {@link TaskPriority#PLUGIN} is used for plugin commands and {@link TaskPriority#FOREGROUND}
+     * for others. */
+    public String taskPriority;
+
+
 
 
     /** The command label for the {@link ExecutionCommand}. */
@@ -387,6 +439,9 @@ public class ExecutionCommand {
 
             if (!ignoreNull || executionCommand.backgroundCustomLogLevel != null)
                 logString.append("\n").append(executionCommand.getBackgroundCustomLogLevelLogString());
+
+            if (!ignoreNull || executionCommand.taskPriority != null)
+                logString.append("\n").append(executionCommand.getTaskPriorityLogString());
         }
 
         if (!ignoreNull || executionCommand.sessionAction != null)
@@ -490,6 +545,8 @@ public class ExecutionCommand {
                 markdownString.append("\n").append(MarkdownUtils.getMultiLineMarkdownStringEntry("Stdin", executionCommand.stdin, "-"));
             if (executionCommand.backgroundCustomLogLevel != null)
                 markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Background Custom Log Level", executionCommand.backgroundCustomLogLevel, "-"));
+            if (executionCommand.taskPriority != null)
+                markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Task Priority", executionCommand.taskPriority, "-"));
         }
 
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Session Action", executionCommand.sessionAction, "-"));
@@ -582,6 +639,10 @@ public class ExecutionCommand {
         return "Background Custom Log Level: `" + backgroundCustomLogLevel + "`";
     }
 
+    public String getTaskPriorityLogString() {
+        return Logger.getSingleLineLogStringEntry("Task Priority", taskPriority, "-");
+    }
+
     public String getSessionActionLogString() {
         return Logger.getSingleLineLogStringEntry("Session Action", sessionAction, "-");
     }
@@ -3,11 +3,13 @@ package com.termux.shared.shell.command.environment;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.shell.command.ExecutionCommand;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Environment for Android.
@@ -64,6 +66,12 @@ public class AndroidShellEnvironment extends UnixShellEnvironment {
         return environment;
     }
 
+    /** The Android environment only depends on the system environment of the app process. */
+    @Override
+    protected boolean isEnvironmentCacheable(@NonNull Context currentPackageContext) {
+        return true;
+    }
+
 
 
     @NonNull
@@ -83,18 +91,53 @@ public class AndroidShellEnvironment extends UnixShellEnvironment {
     @Override
     public HashMap<String, String> setupShellCommandEnvironment(@NonNull Context currentPackageContext,
                                                                 @NonNull ExecutionCommand executionCommand) {
-        HashMap<String, String> environment = getEnvironment(currentPackageContext, executionCommand.isFailsafe);
+        HashMap<String, String> environment = new HashMap<>(getCachedEnvironment(currentPackageContext,
+            executionCommand.isFailsafe).getEnvironment());
+        environment.putAll(getShellCommandEnvironment(currentPackageContext, executionCommand, environment));
+        return environment;
+    }
+
+    /**
+     * Setup shell command `environ` by merging the per command variables and
+     * {@code additionalEnvironment} into the cached `environ` of the
+     * {@link #getEnvironment(Context, boolean)}, instead of building and sorting the whole
+     * environment again for every command.
+     */
+    @NonNull
+    @Override
+    public String[] setupShellCommandEnviron(@NonNull Context currentPackageContext,
+                                             @NonNull ExecutionCommand executionCommand,
+                                             @Nullable Map<String, String> additionalEnvironment) {
+        ShellEnvironmentCache.CachedEnvironment cachedEnvironment = getCachedEnvironment(currentPackageContext,
+            executionCommand.isFailsafe);
+        HashMap<String, String> environment = getShellCommandEnvironment(currentPackageContext, executionCommand,
+            cachedEnvironment.getEnvironment());
+        if (additionalEnvironment != null)
+            environment.putAll(additionalEnvironment);
+        return ShellEnvironmentUtils.mergeEnvironmentIntoEnviron(cachedEnvironment.getEnviron(), environment);
+    }
+
+    /**
+     * Get the per command environment variables for the {@link ExecutionCommand} that are added
+     * to the {@link #getEnvironment(Context, boolean)}, and create the HOME directory of the
+     * {@code environment} if missing.
+     */
+    @NonNull
+    protected HashMap<String, String> getShellCommandEnvironment(@NonNull Context currentPackageContext,
+                                                                 @NonNull ExecutionCommand executionCommand,
+                                                                 @NonNull Map<String, String> environment) {
+        HashMap<String, String> shellCommandEnvironment = new HashMap<>();
 
         String workingDirectory = executionCommand.workingDirectory;
-        environment.put(ENV_PWD,
+        shellCommandEnvironment.put(ENV_PWD,
             workingDirectory != null && !workingDirectory.isEmpty() ? new File(workingDirectory).getAbsolutePath() : // PWD must be absolute path
             getDefaultWorkingDirectoryPath());
         ShellEnvironmentUtils.createHomeDir(environment);
 
         if (executionCommand.setShellCommandShellEnvironment && shellCommandShellEnvironment != null)
-            environment.putAll(shellCommandShellEnvironment.getEnvironment(currentPackageContext, executionCommand));
+            shellCommandEnvironment.putAll(shellCommandShellEnvironment.getEnvironment(currentPackageContext, executionCommand));
 
-        return environment;
+        return shellCommandEnvironment;
     }
 
 }
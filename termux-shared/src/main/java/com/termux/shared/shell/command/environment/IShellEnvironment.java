@@ -7,7 +7,10 @@ import androidx.annotation.Nullable;
 
 import com.termux.shared.shell.command.ExecutionCommand;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public interface IShellEnvironment {
 
@@ -49,4 +52,27 @@ public interface IShellEnvironment {
     HashMap<String, String> setupShellCommandEnvironment(@NonNull Context currentPackageContext,
                                                          @NonNull ExecutionCommand executionCommand);
 
+    /**
+     * Setup shell command `environ` to be used for commands, which is the shell command environment
+     * returned by {@link #setupShellCommandEnvironment(Context, ExecutionCommand)} with the
+     * {@code additionalEnvironment} added, converted to sorted "name=value" variables.
+     *
+     * @param currentPackageContext The {@link Context} for the current package.
+     * @param executionCommand The {@link ExecutionCommand} for which to set environment.
+     * @param additionalEnvironment The additional shell environment variables to export. Existing
+     *                              variables will be overridden.
+     * @return Should return the shell `environ`.
+     */
+    @NonNull
+    default String[] setupShellCommandEnviron(@NonNull Context currentPackageContext,
+                                              @NonNull ExecutionCommand executionCommand,
+                                              @Nullable Map<String, String> additionalEnvironment) {
+        HashMap<String, String> environment = setupShellCommandEnvironment(currentPackageContext, executionCommand);
+        if (additionalEnvironment != null)
+            environment.putAll(additionalEnvironment);
+        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+        Collections.sort(environmentList);
+        return environmentList.toArray(new String[0]);
+    }
+
 }
@@ -0,0 +1,93 @@
+package com.termux.shared.shell.command.environment;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.data.GenerationalCache;
+import com.termux.shared.logger.Logger;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A process wide cache of the static part of shell environments returned by
+ * {@link UnixShellEnvironment#getEnvironment(android.content.Context, boolean)}, along with its
+ * prebuilt sorted `environ`, so that they are not rebuilt for every new session and task. The per
+ * command variables are merged into the cached `environ` at spawn time with
+ * {@link ShellEnvironmentUtils#mergeEnvironmentIntoEnviron(String[], Map)}.
+ *
+ * The cache must be invalidated with {@link #invalidate()} whenever something the environment
+ * depends on changes, like a plugin app being installed, updated or uninstalled.
+ */
+public class ShellEnvironmentCache {
+
+    /** The cached environment for a key. */
+    public static class CachedEnvironment {
+
+        private final Map<String, String> mEnvironment;
+        private final String[] mEnviron;
+
+        public CachedEnvironment(@NonNull HashMap<String, String> environment) {
+            mEnvironment = Collections.unmodifiableMap(new HashMap<>(environment));
+            List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+            Collections.sort(environmentList);
+            mEnviron = environmentList.toArray(new String[0]);
+        }
+
+        /** Get the unmodifiable environment. */
+        @NonNull
+        public Map<String, String> getEnvironment() {
+            return mEnvironment;
+        }
+
+        /** Get the sorted `environ`. The array is shared and must not be modified. */
+        @NonNull
+        public String[] getEnviron() {
+            return mEnviron;
+        }
+
+    }
+
+    /** The environments by key, whose generation is incremented on every {@link #invalidate()} so
+     * that an environment built before a plugin app changed is not cached after it. */
+    private static final GenerationalCache<String, CachedEnvironment> CACHE = new GenerationalCache<>();
+
+    private static final String LOG_TAG = "ShellEnvironmentCache";
+
+    /** Get the cached environment for {@code key}, or {@code null} if not cached. */
+    @Nullable
+    public static CachedEnvironment get(@NonNull String key) {
+        return CACHE.get(key);
+    }
+
+    /** Get the current generation that must be passed to {@link #put(String, HashMap, int)} and
+     * must be read before building the environment to cache. */
+    public static int getGeneration() {
+        return CACHE.getGeneration();
+    }
+
+    /**
+     * Cache the {@code environment} for {@code key} if the cache was not invalidated since
+     * {@code generation} was read with {@link #getGeneration()}.
+     *
+     * @return Returns the {@link CachedEnvironment} for {@code environment}, which can be used for
+     * the current command even if it was not cached.
+     */
+    @NonNull
+    public static CachedEnvironment put(@NonNull String key, @NonNull HashMap<String, String> environment, int generation) {
+        CachedEnvironment cachedEnvironment = new CachedEnvironment(environment);
+        CACHE.put(key, cachedEnvironment, generation);
+        return cachedEnvironment;
+    }
+
+    /** Invalidate all cached environments so that they are rebuilt for the next command. */
+    public static void invalidate() {
+        int size = CACHE.size();
+        if (size > 0)
+            Logger.logVerbose(LOG_TAG, "Invalidating " + size + " cached shell environments");
+        CACHE.invalidate();
+    }
+
+}
@@ -42,6 +42,36 @@ public class ShellEnvironmentUtils {
         return environmentList;
     }
 
+    /**
+     * Merge environment {@link Map} into a sorted `environ` {@link String[]}, like the one returned
+     * by {@link ShellEnvironmentCache.CachedEnvironment#getEnviron()}. The variables in
+     * {@code environment} replace the ones with the same name in {@code environ}, and invalid
+     * variables are ignored like by {@link #convertEnvironmentToEnviron(HashMap)}.
+     *
+     * @param environ The sorted `environ`, which is not modified.
+     * @param environment The environment to merge.
+     * @return Returns the new sorted `environ`.
+     */
+    @NonNull
+    public static String[] mergeEnvironmentIntoEnviron(@NonNull String[] environ, @NonNull Map<String, String> environment) {
+        if (environment.isEmpty()) return environ.clone();
+
+        List<String> environmentList = new ArrayList<>(environ.length + environment.size());
+        for (String variable : environ) {
+            int index = variable.indexOf('=');
+            if (index < 0 || !environment.containsKey(variable.substring(0, index)))
+                environmentList.add(variable);
+        }
+
+        for (Map.Entry<String, String> entry : environment.entrySet()) {
+            if (isValidEnvironmentVariableNameValuePair(entry.getKey(), entry.getValue(), true))
+                environmentList.add(entry.getKey() + "=" + entry.getValue());
+        }
+
+        Collections.sort(environmentList);
+        return environmentList.toArray(new String[0]);
+    }
+
     /**
      * Convert environment {@link HashMap} to {@link String} where each item equals "key=value".
      *
@@ -167,7 +197,7 @@ public class ShellEnvironmentUtils {
 
 
     /** Create HOME directory in environment {@link Map} if set. */
-    public static void createHomeDir(@NonNull HashMap<String, String> environment) {
+    public static void createHomeDir(@NonNull Map<String, String> environment) {
         String homeDirectory = environment.get(ENV_HOME);
         if (homeDirectory != null && !homeDirectory.isEmpty()) {
             Error error = FileUtils.createDirectoryFile("shell home", homeDirectory);
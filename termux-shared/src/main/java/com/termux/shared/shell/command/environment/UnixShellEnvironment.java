@@ -61,6 +61,35 @@ public abstract class UnixShellEnvironment implements IShellEnvironment {
     public abstract HashMap<String, String> getEnvironment(@NonNull Context currentPackageContext,
                                                            boolean isFailSafe);
 
+    /**
+     * Whether the environment returned by {@link #getEnvironment(Context, boolean)} for
+     * {@code currentPackageContext} only changes on events that call
+     * {@link ShellEnvironmentCache#invalidate()}, so that it can be cached by
+     * {@link #getCachedEnvironment(Context, boolean)}.
+     */
+    protected boolean isEnvironmentCacheable(@NonNull Context currentPackageContext) {
+        return false;
+    }
+
+    /**
+     * Get the environment returned by {@link #getEnvironment(Context, boolean)} from
+     * {@link ShellEnvironmentCache} if {@link #isEnvironmentCacheable(Context)} returns {@code true},
+     * and build and cache it if not already cached.
+     */
+    @NonNull
+    public ShellEnvironmentCache.CachedEnvironment getCachedEnvironment(@NonNull Context currentPackageContext,
+                                                                        boolean isFailSafe) {
+        if (!isEnvironmentCacheable(currentPackageContext))
+            return new ShellEnvironmentCache.CachedEnvironment(getEnvironment(currentPackageContext, isFailSafe));
+
+        String key = getClass().getName() + ":" + currentPackageContext.getPackageName() + ":" + isFailSafe;
+        ShellEnvironmentCache.CachedEnvironment cachedEnvironment = ShellEnvironmentCache.get(key);
+        if (cachedEnvironment != null) return cachedEnvironment;
+
+        int generation = ShellEnvironmentCache.getGeneration();
+        return ShellEnvironmentCache.put(key, getEnvironment(currentPackageContext, isFailSafe), generation);
+    }
+
     @NonNull
     @Override
     public abstract String getDefaultWorkingDirectoryPath();
@@ -51,6 +51,16 @@ public class ResultConfig {
     public String resultFilesSuffix;
 
 
+    /** Defines whether stdout and stderr should be streamed as they are produced, to
+     * {@link #resultSocketPath} if set, otherwise to the result files in {@link #resultDirectoryPath}
+     * if {@link #resultSingleFile} is {@code false}. See {@link ResultStreamer}. */
+    public boolean resultStreaming;
+    /** Defines the path of the local socket to which stdout and stderr should be streamed if
+     * {@link #resultStreaming} is {@code true}. A path starting with {@code @} is in the abstract
+     * namespace. */
+    public String resultSocketPath;
+
+
     public ResultConfig() {
     }
 
@@ -89,6 +99,12 @@ public class ResultConfig {
         if (resultConfig.resultDirectoryPath != null && !resultConfig.resultDirectoryPath.isEmpty())
             logString.append(resultConfig.getResultDirectoryVariablesLogString(ignoreNull));
 
+        if (resultConfig.resultStreaming) {
+            logString.append("\n").append(Logger.getSingleLineLogStringEntry("Result Streaming", true, "-"));
+            if (!ignoreNull || resultConfig.resultSocketPath != null)
+                logString.append("\n").append(Logger.getSingleLineLogStringEntry("Result Socket Path", resultConfig.resultSocketPath, "-"));
+        }
+
         return logString.toString();
     }
     
@@ -3,6 +3,7 @@ package com.termux.shared.shell.command.result;
 import androidx.annotation.NonNull;
 
 import com.termux.shared.data.DataUtils;
+import com.termux.shared.file.FileUtils;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.markdown.MarkdownUtils;
 import com.termux.shared.errors.Errno;
@@ -19,6 +20,20 @@ public class ResultData implements Serializable {
     public final StringBuilder stdout = new StringBuilder();
     /** The stderr of command. */
     public final StringBuilder stderr = new StringBuilder();
+    /**
+     * The path to the file containing the full stdout of command if it was too large to be kept in
+     * memory, in which case {@link #stdout} only contains its start and end.
+     */
+    public String stdoutFilePath;
+    /**
+     * The path to the file containing the full stderr of command if it was too large to be kept in
+     * memory, in which case {@link #stderr} only contains its start and end.
+     */
+    public String stderrFilePath;
+    /** Whether {@link #stdout} is written to the result directory while command is running, so it must not be written again. */
+    public boolean stdoutStreamed;
+    /** Whether {@link #stderr} is written to the result directory while command is running, so it must not be written again. */
+    public boolean stderrStreamed;
     /** The exit code of command. */
     public Integer exitCode;
 
@@ -72,6 +87,19 @@ public class ResultData implements Serializable {
     }
 
 
+    /** Delete the {@link #stdoutFilePath} and {@link #stderrFilePath} files if they still exist. */
+    public void deleteOutputFiles() {
+        if (stdoutFilePath != null) {
+            FileUtils.deleteRegularFile("stdout file", stdoutFilePath, true);
+            stdoutFilePath = null;
+        }
+        if (stderrFilePath != null) {
+            FileUtils.deleteRegularFile("stderr file", stderrFilePath, true);
+            stderrFilePath = null;
+        }
+    }
+
+
     public synchronized boolean setStateFailed(@NonNull Error error) {
         return setStateFailed(error.getType(), error.getCode(), error.getMessage(), null);
     }
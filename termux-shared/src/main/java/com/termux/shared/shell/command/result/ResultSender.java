@@ -41,16 +41,21 @@ public class ResultSender {
 
         Error error;
 
-        if (resultConfig.resultPendingIntent != null) {
-            error = sendCommandResultDataWithPendingIntent(context, logTag, label, resultConfig, resultData, logStdoutAndStderr);
-            if (error != null || resultConfig.resultDirectoryPath == null)
-                return error;
-        }
+        try {
+            if (resultConfig.resultPendingIntent != null) {
+                error = sendCommandResultDataWithPendingIntent(context, logTag, label, resultConfig, resultData, logStdoutAndStderr);
+                if (error != null || resultConfig.resultDirectoryPath == null)
+                    return error;
+            }
 
-        if (resultConfig.resultDirectoryPath != null) {
-            return sendCommandResultDataToDirectory(context, logTag, label, resultConfig, resultData, logStdoutAndStderr);
-        } else {
-            return FunctionErrno.ERRNO_UNSET_PARAMETERS.getError("resultConfig.resultPendingIntent or resultConfig.resultDirectoryPath", "sendCommandResultData");
+            if (resultConfig.resultDirectoryPath != null) {
+                return sendCommandResultDataToDirectory(context, logTag, label, resultConfig, resultData, logStdoutAndStderr);
+            } else {
+                return FunctionErrno.ERRNO_UNSET_PARAMETERS.getError("resultConfig.resultPendingIntent or resultConfig.resultDirectoryPath", "sendCommandResultData");
+            }
+        } finally {
+            // The full output files are only needed until the result has been sent
+            resultData.deleteOutputFiles();
         }
     }
 
@@ -72,7 +77,7 @@ public class ResultSender {
 
         logTag = DataUtils.getDefaultIfNull(logTag, LOG_TAG);
 
-        Logger.logDebugExtended(logTag, "Sending result for command \"" + label + "\":\n" + resultConfig.toString() + "\n" + ResultData.getResultDataLogString(resultData, logStdoutAndStderr));
+        Logger.logDebugExtended(logTag, () -> "Sending result for command \"" + label + "\":\n" + resultConfig.toString() + "\n" + ResultData.getResultDataLogString(resultData, logStdoutAndStderr));
 
         String resultDataStdout = resultData.stdout.toString();
         String resultDataStderr = resultData.stderr.toString();
@@ -180,7 +185,7 @@ public class ResultSender {
 
         resultConfig.resultDirectoryPath = FileUtils.getCanonicalPath(resultConfig.resultDirectoryPath, null);
 
-        Logger.logDebugExtended(logTag, "Writing result for command \"" + label + "\":\n" + resultConfig.toString() + "\n" + ResultData.getResultDataLogString(resultData, logStdoutAndStderr));
+        Logger.logDebugExtended(logTag, () -> "Writing result for command \"" + label + "\":\n" + resultConfig.toString() + "\n" + ResultData.getResultDataLogString(resultData, logStdoutAndStderr));
 
         // If resultDirectoryPath is not a directory, or is not readable or writable, then just return
         // Creation of missing directory and setting of read, write and execute permissions are
@@ -277,8 +282,19 @@ public class ResultSender {
 
             // Write result to result files under resultDirectoryPath
 
-            // Write stdout to file
-            if (!resultDataStdout.isEmpty()) {
+            // Write stdout to file, unless it was already written while the command was running
+            // If the full stdout was too large to be kept in memory, then move the file it was written to instead
+            if (resultData.stdoutStreamed) {
+                Logger.logVerbose(logTag, "Not writing stdout of command \"" + label + "\" to file since it was streamed to it");
+            } else if (resultData.stdoutFilePath != null) {
+                filename = RESULT_SENDER.RESULT_FILE_STDOUT_PREFIX + resultConfig.resultFilesSuffix;
+                error = FileUtils.moveRegularFile("stdout file", resultData.stdoutFilePath,
+                    resultConfig.resultDirectoryPath + "/" + filename, false);
+                if (error != null) {
+                    return error;
+                }
+                resultData.stdoutFilePath = null;
+            } else if (!resultDataStdout.isEmpty()) {
                 filename = RESULT_SENDER.RESULT_FILE_STDOUT_PREFIX + resultConfig.resultFilesSuffix;
                 error = FileUtils.writeTextToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
                     null, resultDataStdout, false);
@@ -287,8 +303,19 @@ public class ResultSender {
                 }
             }
 
-            // Write stderr to file
-            if (!resultDataStderr.isEmpty()) {
+            // Write stderr to file, unless it was already written while the command was running
+            // If the full stderr was too large to be kept in memory, then move the file it was written to instead
+            if (resultData.stderrStreamed) {
+                Logger.logVerbose(logTag, "Not writing stderr of command \"" + label + "\" to file since it was streamed to it");
+            } else if (resultData.stderrFilePath != null) {
+                filename = RESULT_SENDER.RESULT_FILE_STDERR_PREFIX + resultConfig.resultFilesSuffix;
+                error = FileUtils.moveRegularFile("stderr file", resultData.stderrFilePath,
+                    resultConfig.resultDirectoryPath + "/" + filename, false);
+                if (error != null) {
+                    return error;
+                }
+                resultData.stderrFilePath = null;
+            } else if (!resultDataStderr.isEmpty()) {
                 filename = RESULT_SENDER.RESULT_FILE_STDERR_PREFIX + resultConfig.resultFilesSuffix;
                 error = FileUtils.writeTextToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
                     null, resultDataStderr, false);
@@ -0,0 +1,147 @@
+package com.termux.shared.shell.command.result;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.ShellCommandConstants.RESULT_SENDER;
+
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Open the {@link OutputStream} to which the stdout and stderr of a command are written as they are
+ * produced if {@link ResultConfig#resultStreaming} is {@code true}, instead of only being sent by
+ * {@link ResultSender} after the command has finished.
+ *
+ * If {@link ResultConfig#resultSocketPath} is set, then a separate connection is made to it for
+ * stdout and stderr. The first line sent on each is {@link #SOCKET_HEADER_STDOUT} or
+ * {@link #SOCKET_HEADER_STDERR}, followed by the raw output. The connection is closed once the
+ * stream ends. Otherwise if {@link ResultConfig#resultDirectoryPath} is set and
+ * {@link ResultConfig#resultSingleFile} is {@code false}, then the output is written directly to the
+ * stdout and stderr result files, and {@link ResultSender} will not write them again. The callers
+ * can read them while the command is running and should still wait for the err file to be created
+ * to know that the command has finished.
+ */
+public class ResultStreamer {
+
+    /** The first line sent on the socket connection for stdout. */
+    public static final String SOCKET_HEADER_STDOUT = "stdout";
+    /** The first line sent on the socket connection for stderr. */
+    public static final String SOCKET_HEADER_STDERR = "stderr";
+
+    private static final String LOG_TAG = "ResultStreamer";
+
+    /** Get whether the result directory files will be written while the command is running. */
+    public static boolean isStreamingToResultDirectory(@NonNull ResultConfig resultConfig) {
+        return resultConfig.resultStreaming && resultConfig.resultSocketPath == null &&
+            resultConfig.resultDirectoryPath != null && !resultConfig.resultSingleFile;
+    }
+
+    /**
+     * Open the {@link OutputStream} for the stdout or stderr of a command.
+     *
+     * @param logTag The log tag to use for logging.
+     * @param label The label for the command.
+     * @param resultConfig The {@link ResultConfig} of the command.
+     * @param stderr Set to {@code true} to open the stream for stderr, otherwise for stdout.
+     * @return Returns the {@link OutputStream}, or {@code null} if not streaming or if it failed
+     * to be opened, in which case the failure is logged and the output will only be sent by
+     * {@link ResultSender}.
+     */
+    @Nullable
+    public static OutputStream openOutputStream(String logTag, String label, @NonNull ResultConfig resultConfig, boolean stderr) {
+        if (!resultConfig.resultStreaming) return null;
+
+        logTag = DataUtils.getDefaultIfNull(logTag, LOG_TAG);
+        String streamName = stderr ? "stderr" : "stdout";
+
+        if (resultConfig.resultSocketPath != null) {
+            return openSocketOutputStream(logTag, label, resultConfig.resultSocketPath, stderr ? SOCKET_HEADER_STDERR : SOCKET_HEADER_STDOUT);
+        } else if (isStreamingToResultDirectory(resultConfig)) {
+            String resultFilesSuffix = DataUtils.getDefaultIfNull(resultConfig.resultFilesSuffix, "");
+            // The error will be returned by ResultSender later
+            if (resultFilesSuffix.contains("/")) return null;
+
+            resultConfig.resultDirectoryPath = FileUtils.getCanonicalPath(resultConfig.resultDirectoryPath, null);
+
+            // Same checks as done by ResultSender.sendCommandResultDataToDirectory()
+            Error error = FileUtils.validateDirectoryFileExistenceAndPermissions("result", resultConfig.resultDirectoryPath,
+                resultConfig.resultDirectoryAllowedParentPath, true,
+                FileUtils.APP_WORKING_DIRECTORY_PERMISSIONS, true, true,
+                true, true);
+            if (error != null) {
+                Logger.logErrorExtended(logTag, "Failed to stream " + streamName + " of command \"" + label + "\" to result directory:\n" + error);
+                return null;
+            }
+
+            String filePath = resultConfig.resultDirectoryPath + "/" +
+                (stderr ? RESULT_SENDER.RESULT_FILE_STDERR_PREFIX : RESULT_SENDER.RESULT_FILE_STDOUT_PREFIX) + resultFilesSuffix;
+            try {
+                Logger.logVerbose(logTag, "Streaming " + streamName + " of command \"" + label + "\" to \"" + filePath + "\"");
+                return new FileOutputStream(filePath);
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(logTag, "Failed to open \"" + filePath + "\" to stream " + streamName + " of command \"" + label + "\"", e);
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Connect to the local socket at {@code socketPath} and send the {@code header} line. A path
+     * starting with {@code @} is in the abstract namespace, otherwise in the filesystem.
+     */
+    @Nullable
+    private static OutputStream openSocketOutputStream(String logTag, String label, @NonNull String socketPath, @NonNull String header) {
+        LocalSocketAddress address;
+        if (socketPath.startsWith("@"))
+            address = new LocalSocketAddress(socketPath.substring(1), LocalSocketAddress.Namespace.ABSTRACT);
+        else
+            address = new LocalSocketAddress(socketPath, LocalSocketAddress.Namespace.FILESYSTEM);
+
+        final LocalSocket socket = new LocalSocket();
+        try {
+            socket.connect(address);
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write((header + "\n").getBytes(StandardCharsets.UTF_8));
+            Logger.logVerbose(logTag, "Streaming " + header + " of command \"" + label + "\" to socket \"" + socketPath + "\"");
+
+            // Closing the stream returned by LocalSocket does not close the socket itself
+            return new FilterOutputStream(outputStream) {
+                @Override
+                public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+                    out.write(buffer, offset, length);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        socket.shutdownOutput();
+                    } finally {
+                        socket.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(logTag, "Failed to connect to socket \"" + socketPath + "\" to stream " + header + " of command \"" + label + "\"", e);
+            try {
+                socket.close();
+            } catch (IOException e1) {
+                // Ignore
+            }
+            return null;
+        }
+    }
+
+}
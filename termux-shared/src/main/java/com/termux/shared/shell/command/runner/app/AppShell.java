@@ -12,22 +12,25 @@ import com.google.common.base.Joiner;
 import com.termux.shared.R;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
-import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
+import com.termux.shared.shell.command.result.ResultConfig;
 import com.termux.shared.shell.command.result.ResultData;
+import com.termux.shared.shell.command.result.ResultStreamer;
 import com.termux.shared.errors.Errno;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.shell.command.ExecutionCommand.ExecutionState;
 import com.termux.shared.shell.command.environment.IShellEnvironment;
+import com.termux.shared.shell.OutputCapture;
 import com.termux.shared.shell.ShellUtils;
 import com.termux.shared.shell.StreamGobbler;
 
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A class that maintains info for background app shells run with {@link Runtime#exec(String[], String[], File)}.
@@ -40,6 +43,12 @@ public final class AppShell {
     private final ExecutionCommand mExecutionCommand;
     private final AppShellClient mAppShellClient;
 
+    /** The captures of the stdout and stderr of {@link #mProcess}, set once it is running. */
+    private volatile OutputCapture mStdoutCapture;
+    private volatile OutputCapture mStderrCapture;
+    /** Whether the {@link ResultData} stdout and stderr have been set, which must only be done once. */
+    private final AtomicBoolean mResultDataOutputSet = new AtomicBoolean();
+
     private static final String LOG_TAG = "AppShell";
 
     private AppShell(@NonNull final Process process, @NonNull final ExecutionCommand executionCommand,
@@ -80,6 +89,25 @@ public final class AppShell {
                                    @NonNull final IShellEnvironment shellEnvironmentClient,
                                    @Nullable HashMap<String, String> additionalEnvironment,
                                    final boolean isSynchronous) {
+        return execute(currentPackageContext, executionCommand, appShellClient, shellEnvironmentClient,
+            additionalEnvironment, isSynchronous, null);
+    }
+
+    /**
+     * Start execution of an {@link ExecutionCommand} with {@link Runtime#exec(String[], String[], File)}.
+     *
+     * Same as {@link #execute(Context, ExecutionCommand, AppShellClient, IShellEnvironment, HashMap, boolean)},
+     * except that if {@code isSynchronous} is {@code false}, the command is waited for on a thread of
+     * {@code executor} instead of a new thread, if it is not {@code null}.
+     *
+     * @param executor The {@link Executor} to wait for asynchronous commands on. The executor must be
+     *                 able to run as many commands at the same time as are executed with it.
+     */
+    public static AppShell execute(@NonNull final Context currentPackageContext, @NonNull ExecutionCommand executionCommand,
+                                   final AppShellClient appShellClient,
+                                   @NonNull final IShellEnvironment shellEnvironmentClient,
+                                   @Nullable HashMap<String, String> additionalEnvironment,
+                                   final boolean isSynchronous, @Nullable Executor executor) {
         if (executionCommand.executable == null || executionCommand.executable.isEmpty()) {
             executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(),
                 currentPackageContext.getString(R.string.error_executable_unset, executionCommand.getCommandIdAndLabelLogString()));
@@ -105,13 +133,8 @@ public final class AppShell {
         final String[] commandArray = shellEnvironmentClient.setupShellCommandArguments(executionCommand.executable, executionCommand.arguments);
 
         // Setup command environment
-        HashMap<String, String> environment = shellEnvironmentClient.setupShellCommandEnvironment(currentPackageContext,
-            executionCommand);
-        if (additionalEnvironment != null)
-            environment.putAll(additionalEnvironment);
-        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
-        Collections.sort(environmentList);
-        String[] environmentArray = environmentList.toArray(new String[0]);
+        String[] environmentArray = shellEnvironmentClient.setupShellCommandEnviron(currentPackageContext,
+            executionCommand, additionalEnvironment);
 
         if (!executionCommand.setState(ExecutionState.EXECUTING)) {
             executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), currentPackageContext.getString(R.string.error_failed_to_execute_app_shell_command, executionCommand.getCommandIdAndLabelLogString()));
@@ -120,9 +143,9 @@ public final class AppShell {
         }
 
         // No need to log stdin if logging is disabled, like for app internal scripts
-        Logger.logDebugExtended(LOG_TAG, ExecutionCommand.getExecutionInputLogString(executionCommand,
+        Logger.logDebugExtended(LOG_TAG, () -> ExecutionCommand.getExecutionInputLogString(executionCommand,
             true, Logger.shouldEnableLoggingForCustomLogLevel(executionCommand.backgroundCustomLogLevel)));
-        Logger.logVerboseExtended(LOG_TAG, "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell Environment:\n" +
+        Logger.logVerboseExtended(LOG_TAG, () -> "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell Environment:\n" +
             Joiner.on("\n").join(environmentArray));
 
         // Exec the process
@@ -143,16 +166,17 @@ public final class AppShell {
                 // TODO: Should either of these be handled or returned?
             }
         } else {
-            new Thread() {
-                @Override
-                public void run() {
-                    try {
-                        appShell.executeInner(currentPackageContext);
-                    } catch (IllegalThreadStateException | InterruptedException e) {
-                        // TODO: Should either of these be handled or returned?
-                    }
+            Runnable runnable = () -> {
+                try {
+                    appShell.executeInner(currentPackageContext);
+                } catch (IllegalThreadStateException | InterruptedException e) {
+                    // TODO: Should either of these be handled or returned?
                 }
-            }.start();
+            };
+            if (executor != null)
+                executor.execute(runnable);
+            else
+                new Thread(runnable).start();
         }
 
         return appShell;
@@ -174,75 +198,168 @@ public final class AppShell {
 
         mExecutionCommand.resultData.exitCode = null;
 
-        // setup stdin, and stdout and stderr gobblers
-        DataOutputStream STDIN = new DataOutputStream(mProcess.getOutputStream());
-        StreamGobbler STDOUT = new StreamGobbler(mExecutionCommand.mPid + "-stdout", mProcess.getInputStream(), mExecutionCommand.resultData.stdout, mExecutionCommand.backgroundCustomLogLevel);
-        StreamGobbler STDERR = new StreamGobbler(mExecutionCommand.mPid + "-stderr", mProcess.getErrorStream(), mExecutionCommand.resultData.stderr, mExecutionCommand.backgroundCustomLogLevel);
+        // The output is captured as raw bytes in bounded buffers, so that commands with huge output
+        // cannot exhaust the heap. If the result will be written to separate files in a result
+        // directory, then output too large to be kept in memory is written to a file in the cache
+        // directory, which is later moved there in full, unless the output is streamed to them.
+        ResultConfig resultConfig = mExecutionCommand.resultConfig;
+        File spillDirectory = null;
+        if (resultConfig.resultDirectoryPath != null && !resultConfig.resultSingleFile &&
+            !ResultStreamer.isStreamingToResultDirectory(resultConfig))
+            spillDirectory = context.getCacheDir();
+        OutputCapture stdoutCapture = new OutputCapture(OutputCapture.DEFAULT_HEAD_SIZE, OutputCapture.DEFAULT_TAIL_SIZE, spillDirectory);
+        OutputCapture stderrCapture = new OutputCapture(OutputCapture.DEFAULT_HEAD_SIZE, OutputCapture.DEFAULT_TAIL_SIZE, spillDirectory);
+        mStdoutCapture = stdoutCapture;
+        mStderrCapture = stderrCapture;
+
+        // The spill files are only owned by the ResultData if the command executed successfully,
+        // otherwise they are deleted, and the captures are always closed so that the tee streams
+        // and spill files are not leaked on any exit path
+        boolean spillFilesSet = false;
+        try {
+            // If the result should be streamed, then also write the output to the stream as it is read
+            String label = mExecutionCommand.getCommandIdAndLabelLogString();
+            OutputStream stdoutStream = ResultStreamer.openOutputStream(LOG_TAG, label, resultConfig, false);
+            OutputStream stderrStream = ResultStreamer.openOutputStream(LOG_TAG, label, resultConfig, true);
+            stdoutCapture.setTeeOutputStream(stdoutStream);
+            stderrCapture.setTeeOutputStream(stderrStream);
+            // The result files are owned by the streams from now on, so that the ResultSender does
+            // not write to them while they are still being streamed to, like if the result is
+            // processed by killIfExecuting() while the process is still running
+            if (ResultStreamer.isStreamingToResultDirectory(resultConfig)) {
+                mExecutionCommand.resultData.stdoutStreamed = stdoutStream != null;
+                mExecutionCommand.resultData.stderrStreamed = stderrStream != null;
+            }
+
+            // setup stdin, and stdout and stderr gobblers
+            DataOutputStream STDIN = new DataOutputStream(mProcess.getOutputStream());
+            StreamGobbler STDOUT = new StreamGobbler(mExecutionCommand.mPid + "-stdout", mProcess.getInputStream(), stdoutCapture, null, mExecutionCommand.backgroundCustomLogLevel);
+            StreamGobbler STDERR = new StreamGobbler(mExecutionCommand.mPid + "-stderr", mProcess.getErrorStream(), stderrCapture, null, mExecutionCommand.backgroundCustomLogLevel);
+
+            // start gobbling
+            STDOUT.start();
+            STDERR.start();
+
+            if (!DataUtils.isNullOrEmpty(mExecutionCommand.stdin)) {
+                try {
+                    STDIN.write((mExecutionCommand.stdin + "\n").getBytes(StandardCharsets.UTF_8));
+                    STDIN.flush();
+                    STDIN.close();
+                    //STDIN.write("exit\n".getBytes(StandardCharsets.UTF_8));
+                    //STDIN.flush();
+                } catch(IOException e) {
+                    if (e.getMessage() != null && (e.getMessage().contains("EPIPE") || e.getMessage().contains("Stream closed"))) {
+                        // Method most horrid to catch broken pipe, in which case we
+                        // do nothing. The command is not a shell, the shell closed
+                        // STDIN, the script already contained the exit command, etc.
+                        // these cases we want the output instead of returning null.
+                    } else {
+                        // other issues we don't know how to handle, leads to
+                        // returning null
+                        mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_exception_received_while_executing_app_shell_command, mExecutionCommand.getCommandIdAndLabelLogString(), e.getMessage()), e);
+                        kill();
+                        // Wait for the gobblers so that the output until the failure is returned too
+                        mProcess.waitFor();
+                        STDOUT.join();
+                        STDERR.join();
+                        closeOutputCaptures(stdoutCapture, stderrCapture);
+                        setResultDataOutput(stdoutCapture, stderrCapture, false);
+                        mExecutionCommand.resultData.exitCode = 1;
+                        AppShell.processAppShellResult(this, null);
+                        return;
+                    }
+                }
+            }
 
-        // start gobbling
-        STDOUT.start();
-        STDERR.start();
+            // wait for our process to finish, while we gobble away in the background
+            int exitCode = mProcess.waitFor();
 
-        if (!DataUtils.isNullOrEmpty(mExecutionCommand.stdin)) {
+            // make sure our threads are done gobbling
+            // and the process is destroyed - while the latter shouldn't be
+            // needed in theory, and may even produce warnings, in "normal" Java
+            // they are required for guaranteed cleanup of resources, so lets be
+            // safe and do this on Android as well
             try {
-                STDIN.write((mExecutionCommand.stdin + "\n").getBytes(StandardCharsets.UTF_8));
-                STDIN.flush();
                 STDIN.close();
-                //STDIN.write("exit\n".getBytes(StandardCharsets.UTF_8));
-                //STDIN.flush();
-            } catch(IOException e) {
-                if (e.getMessage() != null && (e.getMessage().contains("EPIPE") || e.getMessage().contains("Stream closed"))) {
-                    // Method most horrid to catch broken pipe, in which case we
-                    // do nothing. The command is not a shell, the shell closed
-                    // STDIN, the script already contained the exit command, etc.
-                    // these cases we want the output instead of returning null.
-                } else {
-                    // other issues we don't know how to handle, leads to
-                    // returning null
-                    mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_exception_received_while_executing_app_shell_command, mExecutionCommand.getCommandIdAndLabelLogString(), e.getMessage()), e);
-                    mExecutionCommand.resultData.exitCode = 1;
-                    AppShell.processAppShellResult(this, null);
-                    kill();
-                    return;
-                }
+            } catch (IOException e) {
+                // might be closed already
+            }
+            STDOUT.join();
+            STDERR.join();
+            mProcess.destroy();
+
+            // Process result
+            if (exitCode == 0)
+                Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited normally");
+            else
+                Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited with code: " + exitCode);
+
+            // If the execution command has already failed, like SIGKILL was sent, then don't continue
+            if (mExecutionCommand.isStateFailed()) {
+                Logger.logDebug(LOG_TAG, "Ignoring setting \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell state to ExecutionState.EXECUTED and processing results since it has already failed");
+                // Set the full output, unless killIfExecuting() already set the output until the failure
+                setResultDataOutput(stdoutCapture, stderrCapture, false);
+                return;
             }
-        }
 
-        // wait for our process to finish, while we gobble away in the background
-        int exitCode = mProcess.waitFor();
+            closeOutputCaptures(stdoutCapture, stderrCapture);
+            spillFilesSet = setResultDataOutput(stdoutCapture, stderrCapture, true);
+            mExecutionCommand.resultData.exitCode = exitCode;
 
-        // make sure our threads are done gobbling
-        // and the process is destroyed - while the latter shouldn't be
-        // needed in theory, and may even produce warnings, in "normal" Java
-        // they are required for guaranteed cleanup of resources, so lets be
-        // safe and do this on Android as well
-        try {
-            STDIN.close();
-        } catch (IOException e) {
-            // might be closed already
-        }
-        STDOUT.join();
-        STDERR.join();
-        mProcess.destroy();
-
-        // Process result
-        if (exitCode == 0)
-            Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited normally");
-        else
-            Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited with code: " + exitCode);
-
-        // If the execution command has already failed, like SIGKILL was sent, then don't continue
-        if (mExecutionCommand.isStateFailed()) {
-            Logger.logDebug(LOG_TAG, "Ignoring setting \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell state to ExecutionState.EXECUTED and processing results since it has already failed");
-            return;
+            if (!mExecutionCommand.setState(ExecutionState.EXECUTED))
+                return;
+
+            AppShell.processAppShellResult(this, null);
+        } finally {
+            stdoutCapture.close();
+            stderrCapture.close();
+            if (!spillFilesSet) {
+                stdoutCapture.deleteSpillFile();
+                stderrCapture.deleteSpillFile();
+            }
         }
+    }
 
-        mExecutionCommand.resultData.exitCode = exitCode;
+    /**
+     * Close the {@link OutputCapture} of the process once it has exited and the output has been
+     * read, which waits for the output streamed with them to be written, so that the result is
+     * only processed once the streamed output is complete. If streaming to a result file failed,
+     * then the file is written by the ResultSender instead, which is safe once it is closed.
+     */
+    private void closeOutputCaptures(@NonNull OutputCapture stdoutCapture, @NonNull OutputCapture stderrCapture) {
+        stdoutCapture.close();
+        stderrCapture.close();
 
-        if (!mExecutionCommand.setState(ExecutionState.EXECUTED))
-            return;
+        ResultData resultData = mExecutionCommand.resultData;
+        if (stdoutCapture.hasTeeFailed()) resultData.stdoutStreamed = false;
+        if (stderrCapture.hasTeeFailed()) resultData.stderrStreamed = false;
+    }
 
-        AppShell.processAppShellResult(this, null);
+    /**
+     * Set the {@link ResultData} stdout and stderr from the {@link OutputCapture} of the process.
+     *
+     * This is only done by the first call, since the output may be set both when the command is
+     * killed and when the process exits.
+     *
+     * @param setSpillFiles If set to {@code true}, then the {@link ResultData} will also own the
+     *                      spill files with the full output. This must only be done once the
+     *                      process has finished.
+     * @return Returns {@code true} if the output was set by this call.
+     */
+    private boolean setResultDataOutput(@NonNull OutputCapture stdoutCapture, @NonNull OutputCapture stderrCapture,
+                                        boolean setSpillFiles) {
+        if (!mResultDataOutputSet.compareAndSet(false, true)) return false;
+
+        ResultData resultData = mExecutionCommand.resultData;
+        resultData.stdout.append(stdoutCapture.toString());
+        resultData.stderr.append(stderrCapture.toString());
+        if (!setSpillFiles) return true;
+
+        File stdoutFile = stdoutCapture.getSpillFile();
+        if (stdoutFile != null) resultData.stdoutFilePath = stdoutFile.getAbsolutePath();
+        File stderrFile = stderrCapture.getSpillFile();
+        if (stderrFile != null) resultData.stderrFilePath = stderrFile.getAbsolutePath();
+        return true;
     }
 
     /**
@@ -262,14 +379,30 @@ public final class AppShell {
 
         Logger.logDebug(LOG_TAG, "Send SIGKILL to \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell");
 
+        // The state is no longer executing once it has been set to failed, so check it before
+        boolean executing = mExecutionCommand.isExecuting();
         if (mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_sending_sigkill_to_process))) {
+            // Kill the process before processing the result, so that it does not keep running
+            // after its result has been sent
+            if (executing) {
+                kill();
+                executing = false;
+            }
+
             if (processResult) {
+                // Return the output until now, the spill files are deleted and the streams are
+                // closed once the process has exited. The result files being streamed to are not
+                // written by the ResultSender, since the ResultData marks them as streamed.
+                OutputCapture stdoutCapture = mStdoutCapture;
+                OutputCapture stderrCapture = mStderrCapture;
+                if (stdoutCapture != null && stderrCapture != null)
+                    setResultDataOutput(stdoutCapture, stderrCapture, false);
                 mExecutionCommand.resultData.exitCode = 137; // SIGKILL
                 AppShell.processAppShellResult(this, null);
             }
         }
 
-        if (mExecutionCommand.isExecuting()) {
+        if (executing) {
             kill();
         }
     }
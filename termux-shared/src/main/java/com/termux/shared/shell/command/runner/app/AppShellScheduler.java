@@ -0,0 +1,423 @@
+package com.termux.shared.shell.command.runner.app;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.shell.command.ExecutionCommand.TaskPriority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A scheduler for background {@link AppShell} {@link ExecutionCommand}, that limits how many of them
+ * may run at the same time and queues the rest.
+ *
+ * Queued commands are started in order of their {@link TaskPriority} and in FIFO order within the
+ * same priority. To prevent a flood of higher priority commands from starving lower priority ones,
+ * a command that has been queued for longer than {@link #STARVATION_TIMEOUT_MILLIS} is promoted
+ * ahead of all priorities, so that it is started before any other command that was queued after
+ * it. Promotion is re-evaluated by a timer while commands wait, not only when a command finishes,
+ * so the queue order reported by {@link #getQueuedExecutionCommands()} and {@link #toString()}
+ * stays current while all running commands are long running.
+ *
+ * The {@link AppShell} started by the {@link AppShellSchedulerClient} should be executed with
+ * {@link #getExecutor()}, so that the threads waiting for them are reused as well. All methods may
+ * be called from any thread, but commands are started on the thread that calls
+ * {@link #schedule(ExecutionCommand)}, {@link #onExecutionCommandFinished(ExecutionCommand)} or
+ * {@link #setMaxConcurrentTasks(int)}, or on the client {@link Executor} passed to the constructor
+ * for commands that may be started after the timer promoted them, so the client should call those
+ * methods on the thread of that executor.
+ */
+public final class AppShellScheduler {
+
+    /** The time after which a queued command is started regardless of its {@link TaskPriority}. */
+    public static final long STARVATION_TIMEOUT_MILLIS = 30000;
+
+    private final AppShellSchedulerClient mClient;
+    /** The {@link Executor} of the client thread on which the timer starts commands. */
+    private final Executor mClientExecutor;
+    private int mMaxConcurrentTasks;
+
+    /** The queues of each {@link TaskPriority}, indexed by ordinal. */
+    private final ArrayDeque<QueuedCommand>[] mQueues;
+    /** The commands promoted from {@link #mQueues} since they were starving, in the order they were queued. */
+    private final ArrayDeque<QueuedCommand> mStarvingQueue = new ArrayDeque<>();
+    private final Set<ExecutionCommand> mRunningCommands = new HashSet<>();
+    private long mNextSequence;
+
+    /* Metrics */
+    private int mMaxQueueSize;
+    private long mStartedCount;
+    private long mTotalWaitTimeMillis;
+    private long mMaxWaitTimeMillis;
+    private long mPromotedCount;
+
+    private final ThreadPoolExecutor mExecutor;
+    /** The timer that promotes starving commands while they wait. */
+    private final ScheduledThreadPoolExecutor mStarvationTimer;
+    private ScheduledFuture<?> mStarvationCheck;
+
+    private static final String LOG_TAG = "AppShellScheduler";
+
+    /**
+     * @param maxConcurrentTasks The maximum number of commands that may run at the same time.
+     * @param client The {@link AppShellSchedulerClient} that starts the commands.
+     * @param clientExecutor The {@link Executor} of the client thread, like the main thread, on
+     *                       which commands are started after the timer promoted them.
+     */
+    @SuppressWarnings("unchecked")
+    public AppShellScheduler(int maxConcurrentTasks, @NonNull AppShellSchedulerClient client,
+                             @NonNull Executor clientExecutor) {
+        mMaxConcurrentTasks = Math.max(1, maxConcurrentTasks);
+        mClient = client;
+        mClientExecutor = clientExecutor;
+
+        mQueues = new ArrayDeque[TaskPriority.values().length];
+        for (int i = 0; i < mQueues.length; i++)
+            mQueues[i] = new ArrayDeque<>();
+
+        // Threads are only created for running commands, so they are bounded by mMaxConcurrentTasks,
+        // and idle ones are kept for a while to be reused by the next commands.
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<>(),
+            runnable -> new Thread(runnable, "AppShell-" + threadCount.incrementAndGet()));
+
+        mStarvationTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "AppShellScheduler-starvation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mStarvationTimer.setKeepAliveTime(30, TimeUnit.SECONDS);
+        mStarvationTimer.allowCoreThreadTimeOut(true);
+        mStarvationTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /** Get the {@link Executor} that {@link AppShell} started by the client should be waited for on. */
+    @NonNull
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Schedule a command. It is started immediately if less than the maximum number of commands are
+     * running, otherwise it is queued.
+     *
+     * The priority is taken from {@link ExecutionCommand#taskPriority}, and if it is not set, then
+     * {@link TaskPriority#PLUGIN} is used for plugin commands and {@link TaskPriority#FOREGROUND}
+     * for others.
+     */
+    public void schedule(@NonNull ExecutionCommand executionCommand) {
+        TaskPriority priority = TaskPriority.priorityOf(executionCommand.taskPriority,
+            executionCommand.isPluginExecutionCommand ? TaskPriority.PLUGIN : TaskPriority.FOREGROUND);
+
+        synchronized (this) {
+            mQueues[priority.ordinal()].addLast(new QueuedCommand(executionCommand, mNextSequence++));
+            int queueSize = getQueueSize();
+            if (queueSize > mMaxQueueSize) mMaxQueueSize = queueSize;
+        }
+
+        startQueuedCommands();
+        scheduleStarvationCheck();
+    }
+
+    /**
+     * Notify that a command started by the client has finished, so that the next queued command can
+     * be started. Commands not started by this scheduler are ignored.
+     */
+    public void onExecutionCommandFinished(@NonNull ExecutionCommand executionCommand) {
+        synchronized (this) {
+            if (!mRunningCommands.remove(executionCommand)) return;
+        }
+
+        startQueuedCommands();
+    }
+
+    /** Set the maximum number of commands that may run at the same time. */
+    public void setMaxConcurrentTasks(int maxConcurrentTasks) {
+        synchronized (this) {
+            mMaxConcurrentTasks = Math.max(1, maxConcurrentTasks);
+        }
+
+        startQueuedCommands();
+    }
+
+    /** Remove a queued command, returning {@code true} if it was queued. */
+    public synchronized boolean remove(@NonNull ExecutionCommand executionCommand) {
+        for (ArrayDeque<QueuedCommand> queue : getAllQueues()) {
+            for (QueuedCommand queuedCommand : queue) {
+                if (queuedCommand.executionCommand == executionCommand) {
+                    queue.remove(queuedCommand);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Remove all queued commands and return them, for example so they can be cancelled. */
+    @NonNull
+    public synchronized List<ExecutionCommand> clear() {
+        List<ExecutionCommand> executionCommands = getQueuedExecutionCommands();
+        for (ArrayDeque<QueuedCommand> queue : getAllQueues())
+            queue.clear();
+        if (mStarvationCheck != null) {
+            mStarvationCheck.cancel(false);
+            mStarvationCheck = null;
+        }
+        return executionCommands;
+    }
+
+    /** Get the queued commands in the order they will be started, the starving ones first. */
+    @NonNull
+    public synchronized List<ExecutionCommand> getQueuedExecutionCommands() {
+        List<ExecutionCommand> executionCommands = new ArrayList<>();
+        for (ArrayDeque<QueuedCommand> queue : getAllQueues()) {
+            for (QueuedCommand queuedCommand : queue)
+                executionCommands.add(queuedCommand.executionCommand);
+        }
+        return executionCommands;
+    }
+
+    /** Get the queued command with the {@link ExecutionCommand#shellName}, or {@code null}. */
+    public synchronized ExecutionCommand getQueuedExecutionCommandForShellName(String name) {
+        if (name == null) return null;
+        for (ArrayDeque<QueuedCommand> queue : getAllQueues()) {
+            for (QueuedCommand queuedCommand : queue) {
+                if (name.equals(queuedCommand.executionCommand.shellName))
+                    return queuedCommand.executionCommand;
+            }
+        }
+        return null;
+    }
+
+    /** Start queued commands until the maximum number of running commands is reached. */
+    private void startQueuedCommands() {
+        while (true) {
+            QueuedCommand next;
+            synchronized (this) {
+                if (mRunningCommands.size() >= mMaxConcurrentTasks) return;
+                next = pollNextCommand();
+                if (next == null) return;
+
+                long waitTime = SystemClock.uptimeMillis() - next.queueTime;
+                mStartedCount++;
+                mTotalWaitTimeMillis += waitTime;
+                if (waitTime > mMaxWaitTimeMillis) mMaxWaitTimeMillis = waitTime;
+                mRunningCommands.add(next.executionCommand);
+            }
+
+            // Start outside the lock since the client may call back into the scheduler.
+            boolean started;
+            try {
+                started = mClient.onStartExecutionCommand(next.executionCommand);
+            } catch (RuntimeException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to start \"" + next.executionCommand.getCommandIdAndLabelLogString() + "\" command", e);
+                started = false;
+            }
+
+            if (!started) {
+                synchronized (this) {
+                    mRunningCommands.remove(next.executionCommand);
+                }
+            }
+        }
+    }
+
+    /** Remove and return the next command to start, or {@code null} if none are queued. */
+    private QueuedCommand pollNextCommand() {
+        // The starving commands, if any, are started first.
+        promoteStarvingCommands(SystemClock.uptimeMillis());
+        if (!mStarvingQueue.isEmpty()) return mStarvingQueue.pollFirst();
+
+        for (ArrayDeque<QueuedCommand> queue : mQueues) {
+            if (!queue.isEmpty()) return queue.pollFirst();
+        }
+        return null;
+    }
+
+    /**
+     * Move the commands that have been queued for at least {@link #STARVATION_TIMEOUT_MILLIS} to
+     * {@link #mStarvingQueue}. They are moved in the order they were queued, and since any command
+     * still queued was queued after all the ones moved before, that queue stays in that order.
+     */
+    private void promoteStarvingCommands(long now) {
+        while (true) {
+            ArrayDeque<QueuedCommand> oldestQueue = null;
+            for (ArrayDeque<QueuedCommand> queue : mQueues) {
+                QueuedCommand head = queue.peekFirst();
+                if (head != null && now - head.queueTime >= STARVATION_TIMEOUT_MILLIS &&
+                    (oldestQueue == null || head.sequence < oldestQueue.peekFirst().sequence))
+                    oldestQueue = queue;
+            }
+            if (oldestQueue == null) return;
+            mStarvingQueue.addLast(oldestQueue.pollFirst());
+            mPromotedCount++;
+        }
+    }
+
+    /**
+     * Schedule {@link #checkStarvingCommands()} for when the oldest command that is queued by
+     * priority will be starving, if not already scheduled.
+     */
+    private synchronized void scheduleStarvationCheck() {
+        if (mStarvationCheck != null && !mStarvationCheck.isDone()) return;
+
+        long oldestQueueTime = Long.MAX_VALUE;
+        for (ArrayDeque<QueuedCommand> queue : mQueues) {
+            QueuedCommand head = queue.peekFirst();
+            if (head != null && head.queueTime < oldestQueueTime) oldestQueueTime = head.queueTime;
+        }
+        if (oldestQueueTime == Long.MAX_VALUE) {
+            mStarvationCheck = null;
+            return;
+        }
+
+        long delay = Math.max(0, oldestQueueTime + STARVATION_TIMEOUT_MILLIS - SystemClock.uptimeMillis());
+        mStarvationCheck = mStarvationTimer.schedule(this::checkStarvingCommands, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Promote the starving commands on the timer thread. They are only started on the client thread,
+     * since the client is not expected to start commands concurrently with its other callbacks.
+     */
+    private void checkStarvingCommands() {
+        boolean canStart;
+        synchronized (this) {
+            mStarvationCheck = null;
+            promoteStarvingCommands(SystemClock.uptimeMillis());
+            // The limit may have been raised since commands were last started
+            canStart = mRunningCommands.size() < mMaxConcurrentTasks && getQueueSize() > 0;
+        }
+
+        if (canStart)
+            mClientExecutor.execute(this::startQueuedCommands);
+        scheduleStarvationCheck();
+    }
+
+    /** Get {@link #mStarvingQueue} followed by {@link #mQueues}, in the order commands are started. */
+    private List<ArrayDeque<QueuedCommand>> getAllQueues() {
+        List<ArrayDeque<QueuedCommand>> queues = new ArrayList<>(mQueues.length + 1);
+        queues.add(mStarvingQueue);
+        for (ArrayDeque<QueuedCommand> queue : mQueues)
+            queues.add(queue);
+        return queues;
+    }
+
+    public synchronized int getMaxConcurrentTasks() {
+        return mMaxConcurrentTasks;
+    }
+
+    public synchronized int getRunningCount() {
+        return mRunningCommands.size();
+    }
+
+    public synchronized int getQueueSize() {
+        int size = mStarvingQueue.size();
+        for (ArrayDeque<QueuedCommand> queue : mQueues)
+            size += queue.size();
+        return size;
+    }
+
+    /** Get the number of queued commands of the priority, not counting the ones promoted since they were starving. */
+    public synchronized int getQueueSize(@NonNull TaskPriority priority) {
+        return mQueues[priority.ordinal()].size();
+    }
+
+    /** Get the number of queued commands promoted ahead of all priorities since they were starving. */
+    public synchronized int getStarvingQueueSize() {
+        return mStarvingQueue.size();
+    }
+
+    /** Get the number of commands that have been promoted since they were starving. */
+    public synchronized long getPromotedCount() {
+        return mPromotedCount;
+    }
+
+    public synchronized int getMaxQueueSize() {
+        return mMaxQueueSize;
+    }
+
+    public synchronized long getStartedCount() {
+        return mStartedCount;
+    }
+
+    /** Get the average time in milliseconds that started commands were queued for. */
+    public synchronized long getAverageWaitTimeMillis() {
+        return mStartedCount == 0 ? 0 : mTotalWaitTimeMillis / mStartedCount;
+    }
+
+    public synchronized long getMaxWaitTimeMillis() {
+        return mMaxWaitTimeMillis;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        StringBuilder queueSizes = new StringBuilder("starving ").append(mStarvingQueue.size());
+        for (TaskPriority priority : TaskPriority.values()) {
+            if (queueSizes.length() > 0) queueSizes.append(", ");
+            queueSizes.append(priority.getName()).append(" ").append(mQueues[priority.ordinal()].size());
+        }
+
+        return String.format(Locale.US,
+            "AppShellScheduler {\n" +
+            "  running: %d of max %d\n" +
+            "  queued: %d (%s), max %d\n" +
+            "  started: %d, wait avg %d ms, max %d ms, promoted since starving %d\n" +
+            "}",
+            mRunningCommands.size(), mMaxConcurrentTasks,
+            getQueueSize(), queueSizes, mMaxQueueSize,
+            mStartedCount, getAverageWaitTimeMillis(), mMaxWaitTimeMillis, mPromotedCount);
+    }
+
+
+
+    private static final class QueuedCommand {
+
+        final ExecutionCommand executionCommand;
+        final long sequence;
+        final long queueTime = SystemClock.uptimeMillis();
+
+        QueuedCommand(ExecutionCommand executionCommand, long sequence) {
+            this.executionCommand = executionCommand;
+            this.sequence = sequence;
+        }
+
+    }
+
+
+
+    public interface AppShellSchedulerClient {
+
+        /**
+         * Callback function to start a command when it is its turn.
+         *
+         * This is called on the thread that called {@link #schedule(ExecutionCommand)},
+         * {@link #onExecutionCommandFinished(ExecutionCommand)} or {@link #setMaxConcurrentTasks(int)},
+         * or on the client {@link Executor} passed to the {@link AppShellScheduler} constructor,
+         * never on the timer thread that promotes starving commands.
+         *
+         * @param executionCommand The {@link ExecutionCommand} to start.
+         * @return Returns {@code true} if the command was started, in which case
+         * {@link #onExecutionCommandFinished(ExecutionCommand)} must be called once it finishes,
+         * otherwise {@code false}.
+         */
+        boolean onStartExecutionCommand(@NonNull ExecutionCommand executionCommand);
+
+    }
+
+}
@@ -11,7 +11,7 @@ import java.util.Formatter;
 import java.util.List;
 
 /*
- * Version: v0.52.0
+ * Version: v0.54.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -277,6 +277,13 @@ import java.util.List;
  *
  * - 0.52.0 (2022-06-18)
  *      - Added `TERMUX_PREFIX_DIR_IGNORED_SUB_FILES_PATHS_TO_CONSIDER_AS_EMPTY`.
+ *
+ * - 0.53.0 (2026-10-19)
+ *      - Added `TERMUX_APP.TERMUX_SERVICE.EXTRA_TASK_PRIORITY`.
+ *
+ * - 0.54.0 (2026-10-19)
+ *      - Added `TERMUX_APP.TERMUX_SERVICE.EXTRA_RESULT_STREAMING`, `TERMUX_APP.TERMUX_SERVICE.EXTRA_RESULT_SOCKET_PATH`,
+ *          `TERMUX_APP.RUN_COMMAND_SERVICE.EXTRA_RESULT_STREAMING` and `TERMUX_APP.RUN_COMMAND_SERVICE.EXTRA_RESULT_SOCKET_PATH`.
  */
 
 /**
@@ -1008,6 +1015,8 @@ public final class TermuxConstants {
             public static final String EXTRA_RUNNER = TERMUX_PACKAGE_NAME + ".execute.runner"; // Default: "com.termux.execute.runner"
             /** Intent {@code String} extra for custom log level for background commands defined by {@link com.termux.shared.logger.Logger} for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
             public static final String EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL = TERMUX_PACKAGE_NAME + ".execute.background_custom_log_level"; // Default: "com.termux.execute.background_custom_log_level"
+            /** Intent {@code String} extra for the {@link ExecutionCommand.TaskPriority} of background commands for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
+            public static final String EXTRA_TASK_PRIORITY = TERMUX_PACKAGE_NAME + ".execute.task_priority"; // Default: "com.termux.execute.task_priority"
             /** Intent {@code String} extra for session action for {@link Runner#TERMINAL_SESSION} commands for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
             public static final String EXTRA_SESSION_ACTION = TERMUX_PACKAGE_NAME + ".execute.session_action"; // Default: "com.termux.execute.session_action"
             /** Intent {@code String} extra for shell name for commands for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
@@ -1046,6 +1055,15 @@ public final class TermuxConstants {
              * be created in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
              * {@code false} for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
             public static final String EXTRA_RESULT_FILES_SUFFIX = TERMUX_PACKAGE_NAME + ".execute.result_files_suffix"; // Default: "com.termux.execute.result_files_suffix"
+            /** Intent {@code boolean} extra for whether the stdout and stderr of background commands
+             * should be streamed to {@link #EXTRA_RESULT_SOCKET_PATH} if set, otherwise to the result
+             * files in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
+             * {@code false}, while they are running for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
+            public static final String EXTRA_RESULT_STREAMING = TERMUX_PACKAGE_NAME + ".execute.result_streaming"; // Default: "com.termux.execute.result_streaming"
+            /** Intent {@code String} extra for the path of the local socket to which the stdout and
+             * stderr should be streamed if {@link #EXTRA_RESULT_STREAMING} is {@code true}, with a
+             * {@code @} prefix for the abstract namespace, for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
+            public static final String EXTRA_RESULT_SOCKET_PATH = TERMUX_PACKAGE_NAME + ".execute.result_socket_path"; // Default: "com.termux.execute.result_socket_path"
 
 
 
@@ -1184,6 +1202,15 @@ public final class TermuxConstants {
              * created in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
              * {@code false} for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
             public static final String EXTRA_RESULT_FILES_SUFFIX = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_RESULT_FILES_SUFFIX"; // Default: "com.termux.RUN_COMMAND_RESULT_FILES_SUFFIX"
+            /** Intent {@code boolean} extra for whether the stdout and stderr of background commands
+             * should be streamed to {@link #EXTRA_RESULT_SOCKET_PATH} if set, otherwise to the result
+             * files in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
+             * {@code false}, while they are running for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
+            public static final String EXTRA_RESULT_STREAMING = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_RESULT_STREAMING"; // Default: "com.termux.RUN_COMMAND_RESULT_STREAMING"
+            /** Intent {@code String} extra for the path of the local socket to which the stdout and
+             * stderr should be streamed if {@link #EXTRA_RESULT_STREAMING} is {@code true}, with a
+             * {@code @} prefix for the abstract namespace, for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
+            public static final String EXTRA_RESULT_SOCKET_PATH = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_RESULT_SOCKET_PATH"; // Default: "com.termux.RUN_COMMAND_RESULT_SOCKET_PATH"
 
         }
     }
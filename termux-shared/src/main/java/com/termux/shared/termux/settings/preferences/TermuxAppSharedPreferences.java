@@ -11,6 +11,7 @@ import com.termux.shared.settings.preferences.AppSharedPreferences;
 import com.termux.shared.settings.preferences.SharedPreferenceUtils;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.logger.Logger;
+import com.termux.shared.logger.RecentLogsBuffer;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.settings.preferences.TermuxPreferenceConstants.TERMUX_APP;
@@ -187,6 +188,9 @@ public class TermuxAppSharedPreferences extends AppSharedPreferences {
 
     public void setLogLevel(Context context, int logLevel) {
         logLevel = Logger.setLogLevel(context, logLevel);
+        // Only keep recent log messages in memory to share from reports if the user is debugging,
+        // since copying every message into the buffer is not free
+        Logger.setRecentLogsBufferEnabled(logLevel >= Logger.LOG_LEVEL_DEBUG, RecentLogsBuffer.DEFAULT_CAPACITY);
         SharedPreferenceUtils.setInt(mSharedPreferences, TERMUX_APP.KEY_LOG_LEVEL, logLevel, false);
     }
 
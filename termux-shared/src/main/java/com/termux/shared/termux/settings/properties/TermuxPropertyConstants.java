@@ -18,7 +18,7 @@ import java.util.List;
 import java.util.Set;
 
 /*
- * Version: v0.18.0
+ * Version: v0.22.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -80,6 +80,18 @@ import java.util.Set;
  *
  * - 0.18.0 (2022-06-13)
  *      - Add `KEY_DISABLE_FILE_SHARE_RECEIVER` and `KEY_DISABLE_FILE_VIEW_RECEIVER`.
+ *
+ * - 0.19.0 (2026-10-19)
+ *      - Add `KEY_TERMINAL_METRICS_OVERLAY`.
+ *
+ * - 0.20.0 (2026-10-19)
+ *      - Add `KEY_USE_TERMINAL_SESSION_SPAWNER`.
+ *
+ * - 0.21.0 (2026-10-19)
+ *      - Add `KEY_MAX_CONCURRENT_BACKGROUND_TASKS`.
+ *
+ * - 0.22.0 (2026-10-19)
+ *      - Add `KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY`.
  */
 
 /**
@@ -142,6 +154,16 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for whether to show the terminal session I/O throughput and latency metrics on top of the terminal */
+    public static final String KEY_TERMINAL_METRICS_OVERLAY =  "terminal-metrics-overlay"; // Default: "terminal-metrics-overlay"
+
+
+
+    /** Defines the key for whether terminal sessions should be started by a pre-forked spawner process instead of the app process */
+    public static final String KEY_USE_TERMINAL_SESSION_SPAWNER =  "use-terminal-session-spawner"; // Default: "use-terminal-session-spawner"
+
+
+
     /** Defines the key for whether to use black UI */
     @Deprecated
     public static final String KEY_USE_BLACK_UI =  "use-black-ui"; // Default: "use-black-ui"
@@ -231,6 +253,27 @@ public final class TermuxPropertyConstants {
     public static final int IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT_MAX = 100000;
     public static final int DEFAULT_IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT = 3;
 
+    /**
+     * Defines the key for how many days old the access time should be of regular files that should
+     * be deleted from $TMPDIR periodically while the termux service is running.
+     * `0` for none and `> 0` for x days.
+     */
+    public static final String KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY =  "delete-tmpdir-files-older-than-x-days-periodically"; // Default: "delete-tmpdir-files-older-than-x-days-periodically"
+    public static final int IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY_MIN = 0;
+    public static final int IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY_MAX = 100000;
+    public static final int DEFAULT_IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY = 0;
+
+
+
+    /**
+     * Defines the key for the maximum number of background tasks that may run at the same time.
+     * Tasks started while the limit is reached are queued until a running task exits.
+     */
+    public static final String KEY_MAX_CONCURRENT_BACKGROUND_TASKS =  "max-concurrent-background-tasks"; // Default: "max-concurrent-background-tasks"
+    public static final int IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS_MIN = 1;
+    public static final int IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS_MAX = 1000;
+    public static final int DEFAULT_IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS = 16;
+
 
 
     /** Defines the key for the terminal margin on left and right in dp units */
@@ -399,15 +442,19 @@ public final class TermuxPropertyConstants {
         KEY_EXTRA_KEYS_TEXT_ALL_CAPS,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
         KEY_RUN_TERMUX_AM_SOCKET_SERVER,
+        KEY_TERMINAL_METRICS_OVERLAY,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
+        KEY_USE_TERMINAL_SESSION_SPAWNER,
         TermuxConstants.PROP_ALLOW_EXTERNAL_APPS,
 
         /* int */
         KEY_BELL_BEHAVIOUR,
         KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT,
+        KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY,
+        KEY_MAX_CONCURRENT_BACKGROUND_TASKS,
         KEY_TERMINAL_CURSOR_BLINK_RATE,
         KEY_TERMINAL_CURSOR_STYLE,
         KEY_TERMINAL_MARGIN_HORIZONTAL,
@@ -445,10 +492,12 @@ public final class TermuxPropertyConstants {
         KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST,
         KEY_ENFORCE_CHAR_BASED_INPUT,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
+        KEY_TERMINAL_METRICS_OVERLAY,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
+        KEY_USE_TERMINAL_SESSION_SPAWNER,
         TermuxConstants.PROP_ALLOW_EXTERNAL_APPS
     ));
 
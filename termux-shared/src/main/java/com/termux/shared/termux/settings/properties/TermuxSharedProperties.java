@@ -1,8 +1,13 @@
 package com.termux.shared.termux.settings.properties;
 
 import android.content.Context;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.termux.shared.logger.Logger;
 import com.termux.shared.data.DataUtils;
@@ -11,7 +16,11 @@ import com.termux.shared.settings.properties.SharedPropertiesParser;
 import com.termux.shared.termux.TermuxConstants;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -24,8 +33,52 @@ public abstract class TermuxSharedProperties {
     protected final List<String> mPropertiesFilePaths;
     protected final Set<String> mPropertiesList;
     protected final SharedPropertiesParser mSharedPropertiesParser;
-    protected File mPropertiesFile;
-    protected SharedProperties mSharedProperties;
+    protected volatile File mPropertiesFile;
+    protected volatile SharedProperties mSharedProperties;
+
+    /**
+     * Listener for changes of the properties files detected after
+     * {@link #startWatchingPropertiesFiles(PropertiesFilesListener)}.
+     */
+    public interface PropertiesFilesListener {
+        /**
+         * Called on the main thread after one of the properties files was written, created, moved
+         * or deleted. The properties are not reloaded before this is called, so the listener must
+         * reload them and apply the new values, like `termux-reload-settings` does.
+         */
+        void onPropertiesFilesChanged();
+    }
+
+    /** The file names of the {@link #mPropertiesFilePaths} by their parent directory path. */
+    private Map<String, Set<String>> mPropertiesFileNamesForDirectories;
+
+    /**
+     * The {@link FileObserver}s by the path of the directory they watch, which is either the parent
+     * directory of properties files or the nearest existing ancestor of one that does not exist.
+     */
+    private Map<String, FileObserver> mFileObservers;
+
+    private PropertiesFilesListener mPropertiesFilesListener;
+    private Handler mMainThreadHandler;
+    private final Runnable mNotifyPropertiesFilesChanged = () -> {
+        PropertiesFilesListener propertiesFilesListener = mPropertiesFilesListener;
+        if (propertiesFilesListener != null)
+            propertiesFilesListener.onPropertiesFilesChanged();
+    };
+
+    /**
+     * The delay after a change of the properties files before the {@link PropertiesFilesListener}
+     * is called, so that the multiple events of a single save, like create, write and move by
+     * editors, only call it once.
+     */
+    static final long PROPERTIES_FILES_CHANGED_DELAY_MILLIS = 500;
+
+    /** The inotify events of the properties files for which the {@link PropertiesFilesListener} is called. */
+    private static final int PROPERTIES_FILE_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO |
+        FileObserver.MOVED_FROM | FileObserver.CREATE | FileObserver.DELETE;
+
+    /** The inotify events of a watched directory itself after which the directories to watch are found again. */
+    private static final int WATCHED_DIRECTORY_EVENTS = FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
 
     public static final String LOG_TAG = "TermuxSharedProperties";
 
@@ -46,15 +99,152 @@ public abstract class TermuxSharedProperties {
         // Properties files must be searched everytime since no file may exist when constructor is
         // called or a higher priority file may have been created afterward. Otherwise, if no file
         // was found, then default props would keep loading, since mSharedProperties would be null. #2836
-        mPropertiesFile = SharedProperties.getPropertiesFileFromList(mPropertiesFilePaths, LOG_TAG);
-        mSharedProperties = null;
-        mSharedProperties = new SharedProperties(mContext, mPropertiesFile, mPropertiesList, mSharedPropertiesParser);
-
-        mSharedProperties.loadPropertiesFromDisk();
+        File propertiesFile = SharedProperties.getPropertiesFileFromList(mPropertiesFilePaths, LOG_TAG);
+        SharedProperties sharedProperties = new SharedProperties(mContext, propertiesFile, mPropertiesList, mSharedPropertiesParser);
+        sharedProperties.loadPropertiesFromDisk();
+
+        // Publish the new properties only after they have been loaded, so that readers on other
+        // threads keep using the old properties until then instead of seeing partial state
+        mPropertiesFile = propertiesFile;
+        mSharedProperties = sharedProperties;
         dumpPropertiesToLog();
         dumpInternalPropertiesToLog();
     }
 
+    /**
+     * Start watching the parent directories of the {@link #mPropertiesFilePaths} with inotify and
+     * call the {@link PropertiesFilesListener} on the main thread whenever one of the properties
+     * files is written, created, moved or deleted, so that changes are applied without running
+     * `termux-reload-settings`.
+     *
+     * Since inotify cannot watch missing paths, the nearest existing ancestor of a parent directory
+     * that does not exist yet, like `~/.termux` on a fresh install, is watched instead until it is
+     * created.
+     *
+     * @param propertiesFilesListener The {@link PropertiesFilesListener} to call.
+     */
+    public synchronized void startWatchingPropertiesFiles(@NonNull PropertiesFilesListener propertiesFilesListener) {
+        if (mFileObservers != null || mPropertiesFilePaths == null) return;
+
+        // Group the file names by their parent directory so that each directory is watched once
+        mPropertiesFileNamesForDirectories = new LinkedHashMap<>();
+        for (String propertiesFilePath : mPropertiesFilePaths) {
+            if (propertiesFilePath == null) continue;
+            File propertiesFile = new File(propertiesFilePath);
+            String parentDirPath = propertiesFile.getParent();
+            if (parentDirPath == null) continue;
+            Set<String> fileNames = mPropertiesFileNamesForDirectories.get(parentDirPath);
+            if (fileNames == null) {
+                fileNames = new HashSet<>();
+                mPropertiesFileNamesForDirectories.put(parentDirPath, fileNames);
+            }
+            fileNames.add(propertiesFile.getName());
+        }
+
+        mPropertiesFilesListener = propertiesFilesListener;
+        mMainThreadHandler = new Handler(Looper.getMainLooper());
+        mFileObservers = new HashMap<>();
+        watchPropertiesDirectories();
+    }
+
+    /**
+     * Watch the parent directory of each properties file, or its nearest existing ancestor if it
+     * does not exist, and stop watching directories that no longer need to be watched.
+     */
+    private void watchPropertiesDirectories() {
+        Set<String> dirPathsToWatch = new HashSet<>();
+        for (String parentDirPath : mPropertiesFileNamesForDirectories.keySet()) {
+            String dirPath = getNearestExistingDirectoryPath(parentDirPath);
+            if (dirPath != null)
+                dirPathsToWatch.add(dirPath);
+        }
+
+        Iterator<Map.Entry<String, FileObserver>> iterator = mFileObservers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, FileObserver> entry = iterator.next();
+            if (!dirPathsToWatch.contains(entry.getKey())) {
+                entry.getValue().stopWatching();
+                iterator.remove();
+            }
+        }
+
+        for (String dirPath : dirPathsToWatch) {
+            if (mFileObservers.containsKey(dirPath)) continue;
+            if (!mPropertiesFileNamesForDirectories.containsKey(dirPath))
+                Logger.logVerbose(LOG_TAG, "Watching \"" + dirPath + "\" until the missing " + mLabel + " properties directories under it are created");
+
+            // The FileObserver(File, int) constructor requires api 29
+            @SuppressWarnings("deprecation")
+            FileObserver fileObserver = new FileObserver(dirPath, PROPERTIES_FILE_EVENTS | WATCHED_DIRECTORY_EVENTS) {
+                @Override
+                public void onEvent(int event, String path) {
+                    onPropertiesDirectoryEvent(dirPath, event, path);
+                }
+            };
+            fileObserver.startWatching();
+            mFileObservers.put(dirPath, fileObserver);
+        }
+    }
+
+    /**
+     * Handle an inotify {@code event} for the {@code path} under the watched directory at
+     * {@code dirPath}, or for the directory itself if {@code path} is {@code null}.
+     */
+    @VisibleForTesting
+    synchronized void onPropertiesDirectoryEvent(@NonNull String dirPath, int event, @Nullable String path) {
+        if (mFileObservers == null) return;
+        event &= FileObserver.ALL_EVENTS;
+
+        if ((event & WATCHED_DIRECTORY_EVENTS) != 0 ||
+            ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0 && path != null &&
+                isPropertiesDirectoryOrAncestor(dirPath + "/" + path))) {
+            // The watch of a deleted or moved directory is gone, and a created directory may be a
+            // properties directory or the next ancestor of one, so find the directories to watch again
+            FileObserver fileObserver = (event & WATCHED_DIRECTORY_EVENTS) != 0 ? mFileObservers.remove(dirPath) : null;
+            if (fileObserver != null)
+                fileObserver.stopWatching();
+            watchPropertiesDirectories();
+            // The properties files may have been created or removed along with their directory
+            notifyPropertiesFilesChanged();
+            return;
+        }
+
+        Set<String> fileNames = mPropertiesFileNamesForDirectories.get(dirPath);
+        if ((event & PROPERTIES_FILE_EVENTS) == 0 || path == null || fileNames == null || !fileNames.contains(path))
+            return;
+
+        Logger.logVerbose(LOG_TAG, "The " + mLabel + " properties file \"" + dirPath + "/" + path + "\" changed");
+        notifyPropertiesFilesChanged();
+    }
+
+    /** Get the paths of the directories currently watched. */
+    @VisibleForTesting
+    synchronized Set<String> getWatchedDirectoryPaths() {
+        return mFileObservers != null ? new HashSet<>(mFileObservers.keySet()) : Collections.emptySet();
+    }
+
+    private void notifyPropertiesFilesChanged() {
+        mMainThreadHandler.removeCallbacks(mNotifyPropertiesFilesChanged);
+        mMainThreadHandler.postDelayed(mNotifyPropertiesFilesChanged, PROPERTIES_FILES_CHANGED_DELAY_MILLIS);
+    }
+
+    private boolean isPropertiesDirectoryOrAncestor(@NonNull String path) {
+        for (String parentDirPath : mPropertiesFileNamesForDirectories.keySet()) {
+            if (parentDirPath.equals(path) || parentDirPath.startsWith(path + "/"))
+                return true;
+        }
+        return false;
+    }
+
+    /** Get the path of {@code dirPath} if it is a directory, otherwise of its nearest ancestor that is. */
+    @Nullable
+    static String getNearestExistingDirectoryPath(@NonNull String dirPath) {
+        File dir = new File(dirPath);
+        while (dir != null && !dir.isDirectory())
+            dir = dir.getParentFile();
+        return dir != null ? dir.getPath() : null;
+    }
+
 
 
 
@@ -153,15 +343,17 @@ public abstract class TermuxSharedProperties {
     public Object getInternalPropertyValue(String key, boolean cached) {
         Object value;
         if (cached) {
-            value = mSharedProperties.getInternalProperty(key);
+            // Read the field once since it may be replaced by a reload on another thread
+            SharedProperties sharedProperties = mSharedProperties;
+            value = sharedProperties.getInternalProperty(key);
             // If the value is not null since key was found or if the value was null since the
             // object stored for the key was itself null, we detect the later by checking if the key
             // exists in the map.
-            if (value != null || mSharedProperties.getInternalProperties().containsKey(key)) {
+            if (value != null || sharedProperties.hasInternalProperty(key)) {
                 return value;
             } else {
-                // This should not happen normally unless mMap was modified after the
-                // {@link #loadTermuxPropertiesFromDisk()} call
+                // This should not happen normally unless the key is not in mPropertiesList, since
+                // the snapshot loaded by {@link #loadTermuxPropertiesFromDisk()} cannot be modified
                 // A null value can still be returned by
                 // {@link #getInternalPropertyValueFromValue(Context,String,String)} for some keys
                 value = getInternalTermuxPropertyValueFromValue(mContext, key, null);
@@ -263,6 +455,10 @@ public abstract class TermuxSharedProperties {
                 return (int) getBellBehaviourInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT:
                 return (int) getDeleteTMPDIRFilesOlderThanXDaysOnExitInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY:
+                return (int) getDeleteTMPDIRFilesOlderThanXDaysPeriodicallyInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_MAX_CONCURRENT_BACKGROUND_TASKS:
+                return (int) getMaxConcurrentBackgroundTasksInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_CURSOR_BLINK_RATE:
                 return (int) getTerminalCursorBlinkRateInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_CURSOR_STYLE:
@@ -354,6 +550,42 @@ public abstract class TermuxSharedProperties {
             true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getDeleteTMPDIRFilesOlderThanXDaysPeriodicallyInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY),
+            TermuxPropertyConstants.DEFAULT_IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY,
+            TermuxPropertyConstants.IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY_MIN,
+            TermuxPropertyConstants.IVALUE_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY_MAX,
+            true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getMaxConcurrentBackgroundTasksInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_MAX_CONCURRENT_BACKGROUND_TASKS,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS),
+            TermuxPropertyConstants.DEFAULT_IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS,
+            TermuxPropertyConstants.IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS_MIN,
+            TermuxPropertyConstants.IVALUE_MAX_CONCURRENT_BACKGROUND_TASKS_MAX,
+            true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the value if its not null and is between
      * {@link TermuxPropertyConstants#IVALUE_TERMINAL_CURSOR_BLINK_RATE_MIN} and
@@ -614,6 +846,14 @@ public abstract class TermuxSharedProperties {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_ONCLICK_URL_OPEN, true);
     }
 
+    public boolean shouldShowTerminalMetricsOverlay() {
+        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_METRICS_OVERLAY, true);
+    }
+
+    public boolean shouldUseTerminalSessionSpawner() {
+        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_USE_TERMINAL_SESSION_SPAWNER, true);
+    }
+
     public boolean isUsingCtrlSpaceWorkaround() {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_USE_CTRL_SPACE_WORKAROUND, true);
     }
@@ -634,6 +874,14 @@ public abstract class TermuxSharedProperties {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT, true);
     }
 
+    public int getDeleteTMPDIRFilesOlderThanXDaysPeriodically() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY, true);
+    }
+
+    public int getMaxConcurrentBackgroundTasks() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_MAX_CONCURRENT_BACKGROUND_TASKS, true);
+    }
+
     public int getTerminalCursorBlinkRate() {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_CURSOR_BLINK_RATE, true);
     }
@@ -4,84 +4,215 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.termux.shared.errors.Error;
+import com.termux.shared.file.filesystem.FileAttributes;
+import com.termux.shared.file.filesystem.FileTreeStats;
+import com.termux.shared.file.filesystem.FileType;
 import com.termux.shared.file.filesystem.FileTypes;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.file.FileUtils;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
+import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 
 import org.apache.commons.io.filefilter.TrueFileFilter;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class TermuxShellUtils {
 
     private static final String LOG_TAG = "TermuxShellUtils";
 
+    /** The max number of executables whose interpreter is cached in {@link #INTERPRETER_CACHE}. */
+    private static final int INTERPRETER_CACHE_MAX_SIZE = 256;
+
+    /** The max bytes read from the start of the executable to check for an ELF header or shebang. */
+    private static final int SHEBANG_MAX_LENGTH = 256;
+
+    private static final String[] NO_INTERPRETER = new String[0];
+
+    /**
+     * The LRU cache of the interpreter command of executables, so that the executable is not read
+     * again each time it is executed, like for scripts run repeatedly by widgets or tasker.
+     */
+    private static final LinkedHashMap<String, InterpreterCacheEntry> INTERPRETER_CACHE =
+        new LinkedHashMap<String, InterpreterCacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, InterpreterCacheEntry> eldest) {
+                return size() > INTERPRETER_CACHE_MAX_SIZE;
+            }
+        };
+
     /**
      * Setup shell command arguments for the execute. The file interpreter may be prefixed to
      * command arguments if needed.
      */
     @NonNull
     public static String[] setupShellCommandArguments(@NonNull String executable, @Nullable String[] arguments) {
+        String[] interpreterCommand = getInterpreterCommand(executable);
+
+        List<String> result = new ArrayList<>();
+        Collections.addAll(result, interpreterCommand);
+        result.add(executable);
+        if (arguments != null) Collections.addAll(result, arguments);
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * Get the interpreter command that the executable should be executed with, which is cached until
+     * the executable is modified or replaced, as detected by its device, inode, size, and modification
+     * and change times.
+     *
+     * @param executable The path to the executable.
+     * @return Returns the interpreter path followed by its optional argument, or an empty array if
+     * the executable should be executed directly. The array is a copy that callers may modify.
+     */
+    @NonNull
+    public static String[] getInterpreterCommand(@NonNull String executable) {
+        FileAttributes fileAttributes;
+        try {
+            fileAttributes = FileAttributes.get(executable, true);
+        } catch (Exception e) {
+            // The file will fail to execute anyways, but let the exec report the error.
+            return readInterpreterCommand(executable);
+        }
+
+        synchronized (INTERPRETER_CACHE) {
+            InterpreterCacheEntry cacheEntry = INTERPRETER_CACHE.get(executable);
+            if (cacheEntry != null && cacheEntry.matches(fileAttributes))
+                return cacheEntry.interpreterCommand.clone();
+        }
+
+        String[] interpreterCommand = readInterpreterCommand(executable);
+        synchronized (INTERPRETER_CACHE) {
+            INTERPRETER_CACHE.put(executable, new InterpreterCacheEntry(fileAttributes, interpreterCommand));
+        }
+        return interpreterCommand.clone();
+    }
+
+    /** Clear the cache of {@link #getInterpreterCommand(String)}. */
+    public static void clearInterpreterCache() {
+        synchronized (INTERPRETER_CACHE) {
+            INTERPRETER_CACHE.clear();
+        }
+    }
+
+    /** Read the start of the executable to find its interpreter command. */
+    @NonNull
+    private static String[] readInterpreterCommand(@NonNull String executable) {
         // The file to execute may either be:
         // - An elf file, in which we execute it directly.
         // - A script file without shebang, which we execute with our standard shell $PREFIX/bin/sh instead of the
         //   system /system/bin/sh. The system shell may vary and may not work at all due to LD_LIBRARY_PATH.
         // - A file with shebang, which we try to handle with e.g. /bin/foo -> $PREFIX/bin/foo.
-        String interpreter = null;
-        try {
-            File file = new File(executable);
-            try (FileInputStream in = new FileInputStream(file)) {
-                byte[] buffer = new byte[256];
-                int bytesRead = in.read(buffer);
-                if (bytesRead > 4) {
-                    if (buffer[0] == 0x7F && buffer[1] == 'E' && buffer[2] == 'L' && buffer[3] == 'F') {
-                        // Elf file, do nothing.
-                    } else if (buffer[0] == '#' && buffer[1] == '!') {
-                        // Try to parse shebang.
-                        StringBuilder builder = new StringBuilder();
-                        for (int i = 2; i < bytesRead; i++) {
-                            char c = (char) buffer[i];
-                            if (c == ' ' || c == '\n') {
-                                if (builder.length() == 0) {
-                                    // Skip whitespace after shebang.
-                                } else {
-                                    // End of shebang.
-                                    String shebangExecutable = builder.toString();
-                                    if (shebangExecutable.startsWith("/usr") || shebangExecutable.startsWith("/bin")) {
-                                        String[] parts = shebangExecutable.split("/");
-                                        String binary = parts[parts.length - 1];
-                                        interpreter = TermuxConstants.TERMUX_BIN_PREFIX_DIR_PATH + "/" + binary;
-                                    }
-                                    break;
-                                }
-                            } else {
-                                builder.append(c);
-                            }
-                        }
-                    } else {
-                        // No shebang and no ELF, use standard shell.
-                        interpreter = TermuxConstants.TERMUX_BIN_PREFIX_DIR_PATH + "/sh";
-                    }
+        try (FileInputStream in = new FileInputStream(executable)) {
+            byte[] buffer = new byte[SHEBANG_MAX_LENGTH];
+            int bytesRead = in.read(buffer);
+            if (bytesRead > 4) {
+                if (buffer[0] == 0x7F && buffer[1] == 'E' && buffer[2] == 'L' && buffer[3] == 'F') {
+                    // Elf file, do nothing.
+                    return NO_INTERPRETER;
+                } else if (buffer[0] == '#' && buffer[1] == '!') {
+                    return parseShebang(buffer, bytesRead);
+                } else {
+                    // No shebang and no ELF, use standard shell.
+                    return new String[]{TermuxConstants.TERMUX_BIN_PREFIX_DIR_PATH + "/sh"};
                 }
             }
         } catch (IOException e) {
             // Ignore.
         }
 
-        List<String> result = new ArrayList<>();
-        if (interpreter != null) result.add(interpreter);
-        result.add(executable);
-        if (arguments != null) Collections.addAll(result, arguments);
-        return result.toArray(new String[0]);
+        return NO_INTERPRETER;
     }
 
+    /**
+     * Parse the shebang line in buffer, like "#!/usr/bin/env python3" or "#!/bin/sh -e".
+     *
+     * Like the kernel, the interpreter path ends at the first whitespace and the rest of the line
+     * with surrounding whitespace removed is passed as a single optional argument. Interpreters
+     * under /usr and /bin do not exist on Android and are replaced with the binary of the same name
+     * under $PREFIX/bin, like /usr/bin/env -> $PREFIX/bin/env, which will then find "python3"
+     * in $PATH. Other interpreters are left for the kernel to handle.
+     *
+     * @return Returns the interpreter command, or an empty array if the executable should be
+     * executed directly.
+     */
+    @NonNull
+    static String[] parseShebang(@NonNull byte[] buffer, int length) {
+        int lineEnd = 2;
+        while (lineEnd < length && buffer[lineEnd] != '\n') lineEnd++;
+        // The shebang line was too long to find its end, so do not guess the interpreter
+        if (lineEnd == length) return NO_INTERPRETER;
+
+        int start = skipShebangWhitespace(buffer, 2, lineEnd);
+        int end = start;
+        while (end < lineEnd && !isShebangWhitespace(buffer[end])) end++;
+        if (end == start) return NO_INTERPRETER;
+
+        String shebangExecutable = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        if (!shebangExecutable.startsWith("/usr") && !shebangExecutable.startsWith("/bin"))
+            return NO_INTERPRETER;
+
+        String binary = shebangExecutable.substring(shebangExecutable.lastIndexOf('/') + 1);
+        String interpreter = TermuxConstants.TERMUX_BIN_PREFIX_DIR_PATH + "/" + binary;
+
+        int argumentStart = skipShebangWhitespace(buffer, end, lineEnd);
+        int argumentEnd = lineEnd;
+        while (argumentEnd > argumentStart && isShebangWhitespace(buffer[argumentEnd - 1])) argumentEnd--;
+        if (argumentEnd == argumentStart)
+            return new String[]{interpreter};
+
+        return new String[]{interpreter, new String(buffer, argumentStart, argumentEnd - argumentStart, StandardCharsets.UTF_8)};
+    }
+
+    private static int skipShebangWhitespace(@NonNull byte[] buffer, int index, int end) {
+        while (index < end && isShebangWhitespace(buffer[index])) index++;
+        return index;
+    }
+
+    private static boolean isShebangWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+
+
+    /** The cached interpreter command of an executable and the attributes it was read for. */
+    private static final class InterpreterCacheEntry {
+
+        private final long dev;
+        private final long ino;
+        private final long size;
+        private final long lastModifiedTime;
+        private final long lastChangeTime;
+        private final String[] interpreterCommand;
+
+        InterpreterCacheEntry(@NonNull FileAttributes fileAttributes, @NonNull String[] interpreterCommand) {
+            this.dev = fileAttributes.dev();
+            this.ino = fileAttributes.ino();
+            this.size = fileAttributes.size();
+            this.lastModifiedTime = fileAttributes.lastModifiedTime().to(TimeUnit.MICROSECONDS);
+            this.lastChangeTime = fileAttributes.lastChangeTime().to(TimeUnit.MICROSECONDS);
+            this.interpreterCommand = interpreterCommand;
+        }
+
+        boolean matches(@NonNull FileAttributes fileAttributes) {
+            return dev == fileAttributes.dev() && ino == fileAttributes.ino() && size == fileAttributes.size() &&
+                lastModifiedTime == fileAttributes.lastModifiedTime().to(TimeUnit.MICROSECONDS) &&
+                lastChangeTime == fileAttributes.lastChangeTime().to(TimeUnit.MICROSECONDS);
+        }
+
+    }
+
+
+
     /** Clear files under {@link TermuxConstants#TERMUX_TMP_PREFIX_DIR_PATH}. */
     public static void clearTermuxTMPDIR(boolean onlyIfExists) {
         // Existence check before clearing may be required since clearDirectory() will automatically
@@ -97,10 +228,6 @@ public class TermuxShellUtils {
         TermuxAppSharedProperties properties = TermuxAppSharedProperties.getProperties();
         int days = properties.getDeleteTMPDIRFilesOlderThanXDaysOnExit();
 
-        // Disable currently until FileUtils.deleteFilesOlderThanXDays() is fixed.
-        if (days > 0)
-            days = 0;
-
         if (days < 0) {
             Logger.logInfo(LOG_TAG, "Not clearing termux $TMPDIR");
         } else if (days == 0) {
@@ -110,13 +237,41 @@ public class TermuxShellUtils {
                 Logger.logErrorExtended(LOG_TAG, "Failed to clear termux $TMPDIR\n" + error);
             }
         } else {
-            error = FileUtils.deleteFilesOlderThanXDays("$TMPDIR",
-                FileUtils.getCanonicalPath(TermuxConstants.TERMUX_TMP_PREFIX_DIR_PATH, null),
-                TrueFileFilter.INSTANCE, days, true, FileTypes.FILE_TYPE_ANY_FLAGS);
-            if (error != null) {
-                Logger.logErrorExtended(LOG_TAG, "Failed to delete files from termux $TMPDIR older than " + days + " days\n" + error);
-            }
+            deleteTermuxTMPDIRFilesOlderThanXDays(days, FileTypes.FILE_TYPE_ANY_FLAGS, false);
+        }
+    }
+
+    /**
+     * Delete files under {@link TermuxConstants#TERMUX_TMP_PREFIX_DIR_PATH} older than x days,
+     * including under its subdirectories. This is done on exit by {@link #clearTermuxTMPDIR(boolean)}
+     * and periodically by TermuxService while it is running if
+     * {@link TermuxPropertyConstants#KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_PERIODICALLY} is
+     * greater than 0.
+     *
+     * This must not be called on the main thread since $TMPDIR may have a lot of files.
+     *
+     * @param days The x amount of days before which files should be deleted. This must be `>=0`.
+     * @param allowedFileTypeFlags The flags that are matched against the {@link FileType} of the
+     *                             files to see if they should be deleted. While the app is running,
+     *                             only regular files should be deleted, since sockets and fifos may
+     *                             still be in use by running processes.
+     * @param dryRun If files should only be counted instead of deleted.
+     * @return Returns the {@link FileTreeStats} of the files deleted, or that would be deleted
+     * for a dry run, or {@code null} if it failed.
+     */
+    @Nullable
+    public static FileTreeStats deleteTermuxTMPDIRFilesOlderThanXDays(int days, int allowedFileTypeFlags, boolean dryRun) {
+        FileTreeStats fileTreeStats = new FileTreeStats();
+        Error error = FileUtils.deleteFilesOlderThanXDays("$TMPDIR",
+            FileUtils.getCanonicalPath(TermuxConstants.TERMUX_TMP_PREFIX_DIR_PATH, null),
+            TrueFileFilter.INSTANCE, days, true, allowedFileTypeFlags, dryRun, fileTreeStats);
+        if (error != null) {
+            Logger.logErrorExtended(LOG_TAG, "Failed to delete files from termux $TMPDIR older than " + days + " days\n" + error);
+            return null;
         }
+
+        Logger.logInfo(LOG_TAG, (dryRun ? "Found " : "Deleted ") + fileTreeStats + " from termux $TMPDIR older than " + days + " days");
+        return fileTreeStats;
     }
 
 }
@@ -62,6 +62,9 @@ public class TermuxAmSocketServer {
 
     public static final String TITLE = "TermuxAm";
 
+    /** The max number of threads on which am commands are run at the same time. */
+    public static final int CLIENT_THREAD_POOL_SIZE = 4;
+
     /** The static instance for the {@link TermuxAmSocketServer} {@link LocalSocketManager}. */
     private static LocalSocketManager termuxAmSocketServer;
 
@@ -104,6 +107,8 @@ public class TermuxAmSocketServer {
 
         AmSocketServerRunConfig amSocketServerRunConfig = new AmSocketServerRunConfig(TITLE,
             TermuxConstants.TERMUX_APP.TERMUX_AM_SOCKET_FILE_PATH, new TermuxAmSocketServerClient());
+        // Scripts may run am commands in a loop, so reuse threads instead of starting one for every command
+        amSocketServerRunConfig.setClientThreadPoolSize(CLIENT_THREAD_POOL_SIZE);
 
         termuxAmSocketServer = AmSocketServer.start(context, amSocketServerRunConfig);
     }
@@ -113,6 +118,7 @@ public class TermuxAmSocketServer {
      */
     public static synchronized void stop() {
         if (termuxAmSocketServer != null) {
+            Logger.logVerbose(LOG_TAG, termuxAmSocketServer.getClientMetricsLogString());
             Error error = termuxAmSocketServer.stop();
             if (error != null) {
                 termuxAmSocketServer.onError(error);
@@ -9,6 +9,7 @@ import com.termux.shared.file.FileUtils;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.environment.AndroidShellEnvironment;
+import com.termux.shared.shell.command.environment.ShellEnvironmentCache;
 import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
 import com.termux.shared.shell.command.environment.ShellCommandShellEnvironment;
 import com.termux.shared.termux.TermuxBootstrap;
@@ -17,6 +18,10 @@ import com.termux.shared.termux.shell.TermuxShellUtils;
 
 import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Environment for Termux.
@@ -28,6 +33,20 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
     /** Environment variable for the termux {@link TermuxConstants#TERMUX_PREFIX_DIR_PATH}. */
     public static final String ENV_PREFIX = "PREFIX";
 
+    /** The delay in milliseconds after a {@link #writeEnvironmentToFileInBackground(Context)} request
+     * before the environment is written, during which more requests are coalesced. */
+    private static final int ENVIRONMENT_FILE_WRITE_DELAY = 500;
+
+    /** The executor for {@link #writeEnvironmentToFileInBackground(Context)}. Its thread is only
+     * started for the first request. */
+    private static final ScheduledExecutorService ENVIRONMENT_FILE_WRITE_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TermuxEnvironmentFileWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicBoolean ENVIRONMENT_FILE_WRITE_PENDING = new AtomicBoolean();
+    private static final Object ENVIRONMENT_FILE_LOCK = new Object();
+
     public TermuxShellEnvironment() {
         super();
         shellCommandShellEnvironment = new TermuxShellCommandShellEnvironment();
@@ -37,25 +56,44 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
     /** Init {@link TermuxShellEnvironment} constants and caches. */
     public synchronized static void init(@NonNull Context currentPackageContext) {
         TermuxAppShellEnvironment.setTermuxAppEnvironment(currentPackageContext);
+        ShellEnvironmentCache.invalidate();
     }
 
-    /** Init {@link TermuxShellEnvironment} constants and caches. */
-    public synchronized static void writeEnvironmentToFile(@NonNull Context currentPackageContext) {
-        HashMap<String, String> environmentMap = new TermuxShellEnvironment().getEnvironment(currentPackageContext, false);
-        String environmentString = ShellEnvironmentUtils.convertEnvironmentToDotEnvFile(environmentMap);
-
-        // Write environment string to temp file and then move to final location since otherwise
-        // writing may happen while file is being sourced/read
-        Error error = FileUtils.writeTextToFile("termux.env.tmp", TermuxConstants.TERMUX_ENV_TEMP_FILE_PATH,
-            Charset.defaultCharset(), environmentString, false);
-        if (error != null) {
-            Logger.logErrorExtended(LOG_TAG, error.toString());
-            return;
-        }
+    /**
+     * Write the Termux environment to {@link TermuxConstants#TERMUX_ENV_FILE_PATH} in the background.
+     * Requests made within {@link #ENVIRONMENT_FILE_WRITE_DELAY} milliseconds of the first pending
+     * one are coalesced into a single write, so that callers like app startup and bursts of package
+     * update events never block on the file I/O.
+     */
+    public static void writeEnvironmentToFileInBackground(@NonNull Context currentPackageContext) {
+        final Context context = currentPackageContext.getApplicationContext() != null ?
+            currentPackageContext.getApplicationContext() : currentPackageContext;
+
+        if (!ENVIRONMENT_FILE_WRITE_PENDING.compareAndSet(false, true)) return;
+
+        ENVIRONMENT_FILE_WRITE_EXECUTOR.schedule(() -> {
+            ENVIRONMENT_FILE_WRITE_PENDING.set(false);
+            writeEnvironmentToFile(context);
+        }, ENVIRONMENT_FILE_WRITE_DELAY, TimeUnit.MILLISECONDS);
+    }
 
-        error = FileUtils.moveRegularFile("termux.env.tmp", TermuxConstants.TERMUX_ENV_TEMP_FILE_PATH, TermuxConstants.TERMUX_ENV_FILE_PATH, true);
-        if (error != null) {
-            Logger.logErrorExtended(LOG_TAG, error.toString());
+    /**
+     * Write the Termux environment to {@link TermuxConstants#TERMUX_ENV_FILE_PATH}. The file is
+     * atomically replaced with {@link FileUtils#writeTextToFileAtomically(String, String, String, Charset, String)}
+     * so that it is never read while being written, and is not written if the environment has not
+     * changed.
+     */
+    public static void writeEnvironmentToFile(@NonNull Context currentPackageContext) {
+        synchronized (ENVIRONMENT_FILE_LOCK) {
+            HashMap<String, String> environmentMap = new HashMap<>(new TermuxShellEnvironment()
+                .getCachedEnvironment(currentPackageContext, false).getEnvironment());
+            String environmentString = ShellEnvironmentUtils.convertEnvironmentToDotEnvFile(environmentMap);
+
+            Error error = FileUtils.writeTextToFileAtomically("termux.env", TermuxConstants.TERMUX_ENV_FILE_PATH,
+                TermuxConstants.TERMUX_ENV_TEMP_FILE_PATH, Charset.defaultCharset(), environmentString);
+            if (error != null) {
+                Logger.logErrorExtended(LOG_TAG, error.toString());
+            }
         }
     }
 
@@ -95,6 +133,16 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
         return environment;
     }
 
+    /**
+     * The Termux environment is only cached for the Termux app itself, which invalidates the
+     * {@link ShellEnvironmentCache} when plugin apps are installed, updated or uninstalled. Other
+     * apps cannot know when the Termux app is installed, updated or uninstalled in background.
+     */
+    @Override
+    protected boolean isEnvironmentCacheable(@NonNull Context currentPackageContext) {
+        return TermuxConstants.TERMUX_PACKAGE_NAME.equals(currentPackageContext.getPackageName());
+    }
+
 
     @NonNull
     @Override
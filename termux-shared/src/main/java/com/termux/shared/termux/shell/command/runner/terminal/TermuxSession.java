@@ -9,7 +9,6 @@ import androidx.annotation.Nullable;
 import com.google.common.base.Joiner;
 import com.termux.shared.R;
 import com.termux.shared.shell.command.ExecutionCommand;
-import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
 import com.termux.shared.shell.command.environment.UnixShellEnvironment;
 import com.termux.shared.shell.command.result.ResultData;
 import com.termux.shared.errors.Errno;
@@ -20,9 +19,7 @@ import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
 import java.io.File;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 
 /**
  * A class that maintains info for foreground Termux sessions.
@@ -134,13 +131,8 @@ public class TermuxSession {
             executionCommand.commandLabel = processName;
 
         // Setup command environment
-        HashMap<String, String> environment = shellEnvironmentClient.setupShellCommandEnvironment(currentPackageContext,
-            executionCommand);
-        if (additionalEnvironment != null)
-            environment.putAll(additionalEnvironment);
-        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
-        Collections.sort(environmentList);
-        String[] environmentArray = environmentList.toArray(new String[0]);
+        String[] environmentArray = shellEnvironmentClient.setupShellCommandEnviron(currentPackageContext,
+            executionCommand, additionalEnvironment);
 
         if (!executionCommand.setState(ExecutionCommand.ExecutionState.EXECUTING)) {
             executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), currentPackageContext.getString(R.string.error_failed_to_execute_termux_session_command, executionCommand.getCommandIdAndLabelLogString()));
@@ -148,8 +140,8 @@ public class TermuxSession {
             return null;
         }
 
-        Logger.logDebugExtended(LOG_TAG, executionCommand.toString());
-        Logger.logVerboseExtended(LOG_TAG, "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession Environment:\n" +
+        Logger.logDebugExtended(LOG_TAG, executionCommand::toString);
+        Logger.logVerboseExtended(LOG_TAG, () -> "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession Environment:\n" +
             Joiner.on("\n").join(environmentArray));
 
         Logger.logDebug(LOG_TAG, "Running \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession");
@@ -190,6 +182,14 @@ public class TermuxSession {
             return;
         }
 
+        // The actual exit code is unknown, so report a failure instead of a fake exit code
+        if (exitCode == TerminalSession.EXIT_STATUS_SPAWNER_DIED) {
+            mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), "The session spawner died before the \"" +
+                mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession exited, so its exit code is unknown");
+            TermuxSession.processTermuxSessionResult(this, null);
+            return;
+        }
+
         mExecutionCommand.resultData.exitCode = exitCode;
 
         if (this.mSetStdoutOnExit)
@@ -0,0 +1,213 @@
+/*
+ * Host benchmark of the native tree operations in file-tree.cpp.
+ *
+ * Creates a synthetic tree of 20 directories with 20 subdirectories each with 250 small files
+ * (100000 files) in a new temp directory, and prints the time taken to copy and then delete it
+ * with a sequential path based walk, like the java FileUtils falls back to, and with
+ * file_tree_copy() and file_tree_delete() with 1 and [threads] threads. Then prints the time taken
+ * by file_tree_delete_older_than() to count and delete all the files of a copy. Build and run with:
+ *
+ *   c++ -std=c++11 -O2 -pthread -I termux-shared/src/main/cpp -o /tmp/file-tree-benchmark \
+ *       termux-shared/src/test/cpp/file-tree-benchmark.cpp termux-shared/src/main/cpp/file-tree.cpp
+ *   /tmp/file-tree-benchmark 4 3 /dev/shm
+ *
+ * The optional last argument is the directory to create the temp directory in, which defaults to
+ * /tmp. A tmpfs like /dev/shm measures the walk instead of the disk writeback.
+ */
+
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <dirent.h>
+#include <fcntl.h>
+#include <ftw.h>
+#include <string>
+#include <sys/stat.h>
+#include <time.h>
+#include <unistd.h>
+
+#include "file-tree.h"
+
+using namespace std;
+
+#define TOP_DIRECTORIES 20
+#define SUB_DIRECTORIES 20
+#define FILES_PER_DIRECTORY 250
+#define FILE_SIZE 512
+
+static double get_time_ms() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1e3 + ts.tv_nsec / 1e6;
+}
+
+static void check(bool success, const string &message) {
+    if (!success) {
+        perror(message.c_str());
+        exit(1);
+    }
+}
+
+static void create_tree(const string &root_path) {
+    char data[FILE_SIZE];
+    memset(data, 'x', sizeof(data));
+    check(mkdir(root_path.c_str(), 0700) == 0, root_path);
+    for (int i = 0; i < TOP_DIRECTORIES; i++) {
+        string top_path = root_path + "/d" + to_string(i);
+        check(mkdir(top_path.c_str(), 0700) == 0, top_path);
+        for (int j = 0; j < SUB_DIRECTORIES; j++) {
+            string sub_path = top_path + "/s" + to_string(j);
+            check(mkdir(sub_path.c_str(), 0700) == 0, sub_path);
+            for (int k = 0; k < FILES_PER_DIRECTORY; k++) {
+                string file_path = sub_path + "/f" + to_string(k);
+                int fd = open(file_path.c_str(), O_WRONLY | O_CREAT | O_EXCL | O_CLOEXEC, 0600);
+                check(fd != -1 && write(fd, data, sizeof(data)) == (ssize_t) sizeof(data), file_path);
+                close(fd);
+            }
+            string link_path = sub_path + "/link";
+            check(symlink("f0", link_path.c_str()) == 0, link_path);
+        }
+    }
+}
+
+static long count_files(const string &dir_path) {
+    long count = 0;
+    DIR *dir = opendir(dir_path.c_str());
+    check(dir != NULL, dir_path);
+    struct dirent *entry;
+    while ((entry = readdir(dir)) != NULL) {
+        if (strcmp(entry->d_name, ".") == 0 || strcmp(entry->d_name, "..") == 0) continue;
+        string path = dir_path + "/" + entry->d_name;
+        struct stat st;
+        check(lstat(path.c_str(), &st) == 0, path);
+        count += S_ISDIR(st.st_mode) ? count_files(path) : 1;
+    }
+    closedir(dir);
+    return count;
+}
+
+/* Copy like commons-io copyDirectory() with a stat and open of the full path of each file. */
+static void copy_sequential(const string &src_path, const string &dest_path) {
+    struct stat st;
+    check(lstat(src_path.c_str(), &st) == 0, src_path);
+    if (S_ISDIR(st.st_mode)) {
+        check(mkdir(dest_path.c_str(), 0700) == 0, dest_path);
+        DIR *dir = opendir(src_path.c_str());
+        check(dir != NULL, src_path);
+        struct dirent *entry;
+        while ((entry = readdir(dir)) != NULL) {
+            if (strcmp(entry->d_name, ".") == 0 || strcmp(entry->d_name, "..") == 0) continue;
+            copy_sequential(src_path + "/" + entry->d_name, dest_path + "/" + entry->d_name);
+        }
+        closedir(dir);
+    } else if (S_ISLNK(st.st_mode)) {
+        char target[4096];
+        ssize_t length = readlink(src_path.c_str(), target, sizeof(target) - 1);
+        check(length >= 0, src_path);
+        target[length] = '\0';
+        check(symlink(target, dest_path.c_str()) == 0, dest_path);
+    } else {
+        char buffer[8192];
+        int in_fd = open(src_path.c_str(), O_RDONLY | O_CLOEXEC);
+        int out_fd = open(dest_path.c_str(), O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0600);
+        check(in_fd != -1 && out_fd != -1, src_path);
+        ssize_t count;
+        while ((count = read(in_fd, buffer, sizeof(buffer))) > 0)
+            check(write(out_fd, buffer, (size_t) count) == count, dest_path);
+        close(in_fd);
+        close(out_fd);
+    }
+    struct timespec times[2] = {st.st_atim, st.st_mtim};
+    utimensat(AT_FDCWD, dest_path.c_str(), times, AT_SYMLINK_NOFOLLOW);
+}
+
+static int remove_file(const char *path, const struct stat *, int, struct FTW *) {
+    return remove(path);
+}
+
+int main(int argc, char **argv) {
+    int threads = argc > 1 ? atoi(argv[1]) : 4;
+    int iterations = argc > 2 ? atoi(argv[2]) : 3;
+
+    string temp_dir_template = string(argc > 3 ? argv[3] : "/tmp") + "/file-tree-benchmark-XXXXXX";
+    char *temp_dir_path = &temp_dir_template[0];
+    check(mkdtemp(temp_dir_path) != NULL, "mkdtemp");
+    string src_path = string(temp_dir_path) + "/src";
+    string dest_path = string(temp_dir_path) + "/dest";
+
+    double start_ms = get_time_ms();
+    create_tree(src_path);
+    long expected_files = count_files(src_path);
+    printf("created %ld files in %.1f ms\n", expected_files, get_time_ms() - start_ms);
+
+    int thread_counts[] = {1, threads};
+    for (int i = 0; i < iterations; i++) {
+        start_ms = get_time_ms();
+        copy_sequential(src_path, dest_path);
+        double copy_ms = get_time_ms() - start_ms;
+        start_ms = get_time_ms();
+        check(nftw(dest_path.c_str(), remove_file, 64, FTW_DEPTH | FTW_PHYS) == 0, "nftw");
+        double delete_ms = get_time_ms() - start_ms;
+        printf("iteration %d: sequential copy %.1f ms, delete %.1f ms\n", i + 1, copy_ms, delete_ms);
+
+        for (int thread_count : thread_counts) {
+            file_tree_result copy_result;
+            start_ms = get_time_ms();
+            if (file_tree_copy(src_path.c_str(), dest_path.c_str(), thread_count, &copy_result) != 0) {
+                fprintf(stderr, "%s: %s\n", copy_result.error_message.c_str(), strerror(copy_result.error_number));
+                return 1;
+            }
+            copy_ms = get_time_ms() - start_ms;
+            long copied_files = count_files(dest_path);
+            if (copied_files != expected_files) {
+                fprintf(stderr, "copied %ld files instead of %ld\n", copied_files, expected_files);
+                return 1;
+            }
+
+            file_tree_result delete_result;
+            start_ms = get_time_ms();
+            if (file_tree_delete(dest_path.c_str(), false, thread_count, &delete_result) != 0) {
+                fprintf(stderr, "%s: %s\n", delete_result.error_message.c_str(), strerror(delete_result.error_number));
+                return 1;
+            }
+            delete_ms = get_time_ms() - start_ms;
+            check(access(dest_path.c_str(), F_OK) != 0, "delete left " + dest_path);
+
+            printf("iteration %d: %d thread(s) copy %.1f ms (%ld files, %ld directories, %lld bytes), "
+                   "delete %.1f ms (%ld files, %ld directories)\n",
+                   i + 1, thread_count, copy_ms, copy_result.files, copy_result.directories, copy_result.bytes,
+                   delete_ms, delete_result.files, delete_result.directories);
+        }
+    }
+
+    // Files are copied with their times, so a cutoff after now matches all of them
+    struct timespec cutoff_time;
+    clock_gettime(CLOCK_REALTIME, &cutoff_time);
+    cutoff_time.tv_sec += 86400;
+    for (int thread_count : thread_counts) {
+        file_tree_result copy_result;
+        check(file_tree_copy(src_path.c_str(), dest_path.c_str(), thread_count, &copy_result) == 0, "file_tree_copy");
+
+        file_tree_result dry_run_result;
+        start_ms = get_time_ms();
+        check(file_tree_delete_older_than(dest_path.c_str(), &cutoff_time, 0xff, true, true, thread_count, &dry_run_result) == 0,
+              "file_tree_delete_older_than");
+        double dry_run_ms = get_time_ms() - start_ms;
+
+        file_tree_result age_result;
+        start_ms = get_time_ms();
+        check(file_tree_delete_older_than(dest_path.c_str(), &cutoff_time, 0xff, true, false, thread_count, &age_result) == 0,
+              "file_tree_delete_older_than");
+        double age_ms = get_time_ms() - start_ms;
+
+        printf("%d thread(s) delete older than: dry run %.1f ms (%ld files, %lld bytes), delete %.1f ms (%ld files, %lld bytes)\n",
+               thread_count, dry_run_ms, dry_run_result.files, dry_run_result.bytes, age_ms, age_result.files, age_result.bytes);
+
+        file_tree_result delete_result;
+        file_tree_delete(dest_path.c_str(), false, thread_count, &delete_result);
+    }
+
+    file_tree_result result;
+    file_tree_delete(temp_dir_path, false, threads, &result);
+    return 0;
+}
@@ -0,0 +1,76 @@
+package com.termux.shared.android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PackageMetadataCacheTest {
+
+    private static final String TERMUX = "com.termux";
+    private static final String TERMUX_API = "com.termux.api";
+
+    private static final Object METADATA = new Object();
+
+    @Before
+    public void setUp() {
+        PackageMetadataCache.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        PackageMetadataCache.setEnabled(false);
+    }
+
+    private static void put(String type, String packageName, int flags, Object value) {
+        PackageMetadataCache.put(type, packageName, flags, value, PackageMetadataCache.getGeneration());
+    }
+
+    @Test
+    public void testGetAndPut() {
+        assertNull(PackageMetadataCache.get(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0));
+
+        put(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0, METADATA);
+        put(PackageMetadataCache.TYPE_APPLICATION_INFO, TERMUX_API, 0, null);
+
+        assertSame(METADATA, PackageMetadataCache.get(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0));
+        assertNull(PackageMetadataCache.get(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 64));
+        assertNull(PackageMetadataCache.get(PackageMetadataCache.TYPE_APPLICATION_INFO, TERMUX, 0));
+        assertSame(PackageMetadataCache.NOT_INSTALLED, PackageMetadataCache.get(PackageMetadataCache.TYPE_APPLICATION_INFO, TERMUX_API, 0));
+    }
+
+    @Test
+    public void testInvalidatePackage() {
+        put(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0, METADATA);
+        put(PackageMetadataCache.TYPE_APPLICATION_INFO, TERMUX, 0, METADATA);
+        put(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX_API, 0, METADATA);
+
+        PackageMetadataCache.invalidate(TERMUX);
+
+        assertNull(PackageMetadataCache.get(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0));
+        assertNull(PackageMetadataCache.get(PackageMetadataCache.TYPE_APPLICATION_INFO, TERMUX, 0));
+        assertSame(METADATA, PackageMetadataCache.get(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX_API, 0));
+    }
+
+    @Test
+    public void testPutAfterInvalidate() {
+        // Metadata queried before the package changed must not be cached
+        int generation = PackageMetadataCache.getGeneration();
+        PackageMetadataCache.invalidate(TERMUX);
+        PackageMetadataCache.put(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0, METADATA, generation);
+        assertNull(PackageMetadataCache.get(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0));
+    }
+
+    @Test
+    public void testDisabled() {
+        put(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0, METADATA);
+        PackageMetadataCache.setEnabled(false);
+        assertNull(PackageMetadataCache.get(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0));
+
+        put(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0, METADATA);
+        PackageMetadataCache.setEnabled(true);
+        assertNull(PackageMetadataCache.get(PackageMetadataCache.TYPE_PACKAGE_INFO, TERMUX, 0));
+    }
+
+}
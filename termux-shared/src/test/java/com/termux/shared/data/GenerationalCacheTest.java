@@ -0,0 +1,45 @@
+package com.termux.shared.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GenerationalCacheTest {
+
+    @Test
+    public void testPutAndInvalidate() {
+        GenerationalCache<String, String> cache = new GenerationalCache<>();
+        assertTrue(cache.put("a", "1", cache.getGeneration()));
+        assertTrue(cache.put("b", "2", cache.getGeneration()));
+        assertEquals("1", cache.get("a"));
+        assertEquals(2, cache.size());
+
+        cache.invalidate(key -> key.equals("a"));
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+
+        cache.invalidate();
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPutAfterInvalidate() {
+        GenerationalCache<String, String> cache = new GenerationalCache<>();
+
+        // A value computed before an invalidation must not be cached
+        int generation = cache.getGeneration();
+        cache.invalidate();
+        assertFalse(cache.put("a", "1", generation));
+        assertNull(cache.get("a"));
+
+        generation = cache.getGeneration();
+        cache.invalidate(key -> false);
+        assertFalse(cache.put("a", "1", generation));
+        assertNull(cache.get("a"));
+
+        assertTrue(cache.put("a", "1", cache.getGeneration()));
+        assertEquals("1", cache.get("a"));
+    }
+
+}
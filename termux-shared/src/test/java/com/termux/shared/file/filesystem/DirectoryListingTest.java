@@ -0,0 +1,152 @@
+package com.termux.shared.file.filesystem;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DirectoryListingTest {
+
+    private static final String DIR_PATH = "/data/data/com.termux/files/home";
+    private static final long MAX_AGE_MILLIS = 5000;
+
+    private static final int S_IFDIR = 0040000;
+    private static final int S_IFREG = 0100000;
+    private static final int S_IFLNK = 0120000;
+
+    /** Set the {@link NativeDispatcher#STAT_FIELDS} longs of the entry at {@code index} in the order stored by `file-utils.cpp`. */
+    private static void setStats(long[] stats, int index, int mode, long ino, long dev, long size,
+                                 long mtimeSec, long mtimeNsec, boolean writable) {
+        int offset = index * NativeDispatcher.STAT_FIELDS;
+        stats[offset] = mode;
+        stats[offset + 1] = ino;
+        stats[offset + 2] = dev;
+        stats[offset + 4] = 1;
+        stats[offset + 5] = 10123;
+        stats[offset + 6] = 10123;
+        stats[offset + 7] = size;
+        stats[offset + 12] = mtimeSec;
+        stats[offset + 13] = mtimeNsec;
+        stats[offset + NativeDispatcher.STAT_FIELDS - 1] = writable ? 1 : 0;
+    }
+
+    private static DirectoryListing newListing(long dev, long ino, long mtimeSec, long mtimeNsec, long listedTime) {
+        long[] stats = new long[NativeDispatcher.STAT_FIELDS];
+        setStats(stats, 0, S_IFDIR | 0700, ino, dev, 4096, mtimeSec, mtimeNsec, true);
+        return NativeDispatcher.parseDirectoryListing(DIR_PATH, new byte[0], stats, listedTime);
+    }
+
+    private static FileAttributes newDirectoryAttributes(long dev, long ino, long mtimeSec, long mtimeNsec) {
+        long[] stats = new long[NativeDispatcher.STAT_FIELDS];
+        setStats(stats, 0, S_IFDIR | 0700, ino, dev, 4096, mtimeSec, mtimeNsec, true);
+        return FileAttributes.get(DIR_PATH, stats, 0);
+    }
+
+    @Test
+    public void testParseDirectoryListing() {
+        byte[] namesBytes = "a.txt\0sub\0link\0\u00e9t\u00e9\0".getBytes(StandardCharsets.UTF_8);
+        long[] stats = new long[5 * NativeDispatcher.STAT_FIELDS];
+        // The directory itself is stored before the entries
+        setStats(stats, 0, S_IFDIR | 0500, 100, 7, 3452, 1600000000, 0, false);
+        setStats(stats, 1, S_IFREG | 0600, 101, 7, 12, 1600000001, 500000000, true);
+        setStats(stats, 2, S_IFDIR | 0700, 102, 7, 4096, 1600000002, 0, true);
+        setStats(stats, 3, S_IFLNK | 0777, 103, 7, 5, 1600000003, 0, false);
+        setStats(stats, 4, S_IFREG | 0400, 104, 8, 0, 1600000004, 0, false);
+
+        DirectoryListing listing = NativeDispatcher.parseDirectoryListing(DIR_PATH, namesBytes, stats, 1234);
+        assertEquals(DIR_PATH, listing.getDirectoryPath());
+        assertEquals(1234, listing.getListedTime());
+
+        FileAttributes directoryAttributes = listing.getDirectoryAttributes();
+        assertEquals(DIR_PATH, directoryAttributes.file());
+        assertTrue(directoryAttributes.isDirectory());
+        assertEquals(100, directoryAttributes.ino());
+        assertEquals(7, directoryAttributes.dev());
+        assertEquals(3452, directoryAttributes.size());
+        assertEquals(1600000000L, directoryAttributes.lastModifiedTime().to(TimeUnit.SECONDS));
+        assertFalse(listing.isDirectoryWritable());
+
+        assertEquals(4, listing.size());
+        assertEquals("a.txt", listing.getName(0));
+        assertEquals("sub", listing.getName(1));
+        assertEquals("link", listing.getName(2));
+        assertEquals("\u00e9t\u00e9", listing.getName(3));
+
+        FileAttributes fileAttributes = listing.getFileAttributes(0);
+        assertEquals(DIR_PATH + "/a.txt", fileAttributes.file());
+        assertTrue(fileAttributes.isRegularFile());
+        assertEquals(S_IFREG | 0600, fileAttributes.mode());
+        assertEquals(101, fileAttributes.ino());
+        assertEquals(12, fileAttributes.size());
+        assertEquals(1600000001500000L, fileAttributes.lastModifiedTime().to(TimeUnit.MICROSECONDS));
+        assertTrue(listing.isWritable(0));
+
+        assertTrue(listing.getFileAttributes(1).isDirectory());
+        assertEquals(102, listing.getFileAttributes(1).ino());
+        assertTrue(listing.isWritable(1));
+
+        assertTrue(listing.getFileAttributes(2).isSymbolicLink());
+        assertFalse(listing.isWritable(2));
+
+        assertEquals(DIR_PATH + "/\u00e9t\u00e9", listing.getFileAttributes(3).file());
+        assertEquals(8, listing.getFileAttributes(3).dev());
+        assertEquals(1600000004L, listing.getFileAttributes(3).lastModifiedTime().to(TimeUnit.SECONDS));
+        assertFalse(listing.isWritable(3));
+    }
+
+    @Test
+    public void testParseEmptyDirectoryListing() {
+        long[] stats = new long[NativeDispatcher.STAT_FIELDS];
+        setStats(stats, 0, S_IFDIR | 0700, 100, 7, 4096, 1600000000, 0, true);
+
+        DirectoryListing listing = NativeDispatcher.parseDirectoryListing(DIR_PATH, new byte[0], stats, 1234);
+        assertEquals(0, listing.size());
+        assertEquals(100, listing.getDirectoryAttributes().ino());
+        assertTrue(listing.isDirectoryWritable());
+    }
+
+    @Test
+    public void testIsValid() {
+        long mtimeMillis = 1600000000000L;
+        long listedTime = mtimeMillis + 2 * DirectoryListing.RACY_MILLIS;
+        DirectoryListing listing = newListing(7, 100, mtimeMillis / 1000, 0, listedTime);
+
+        // Reused while the directory is not changed and the listing is not too old
+        FileAttributes directoryAttributes = newDirectoryAttributes(7, 100, mtimeMillis / 1000, 0);
+        assertTrue(listing.isValid(directoryAttributes, listedTime, MAX_AGE_MILLIS));
+        assertTrue(listing.isValid(directoryAttributes, listedTime + MAX_AGE_MILLIS - 1, MAX_AGE_MILLIS));
+
+        // Invalidated by age, since files modified in place do not change the mtime of the directory
+        assertFalse(listing.isValid(directoryAttributes, listedTime + MAX_AGE_MILLIS, MAX_AGE_MILLIS));
+
+        // Invalidated by a changed mtime, even by a sub second change
+        assertFalse(listing.isValid(newDirectoryAttributes(7, 100, mtimeMillis / 1000 + 1, 0), listedTime, MAX_AGE_MILLIS));
+        assertFalse(listing.isValid(newDirectoryAttributes(7, 100, mtimeMillis / 1000, 1000), listedTime, MAX_AGE_MILLIS));
+
+        // Invalidated if the directory was replaced by another one with the same mtime
+        assertFalse(listing.isValid(newDirectoryAttributes(7, 101, mtimeMillis / 1000, 0), listedTime, MAX_AGE_MILLIS));
+        assertFalse(listing.isValid(newDirectoryAttributes(8, 100, mtimeMillis / 1000, 0), listedTime, MAX_AGE_MILLIS));
+    }
+
+    @Test
+    public void testIsValidRacyListing() {
+        long mtimeSec = 1600000000L;
+        long mtimeNsec = 250000000L;
+        long mtimeMillis = mtimeSec * 1000 + mtimeNsec / 1000000;
+        FileAttributes directoryAttributes = newDirectoryAttributes(7, 100, mtimeSec, mtimeNsec);
+
+        // A listing within RACY_MILLIS of the last modification may miss entries added in the same
+        // timestamp granularity without changing the mtime, so it is never reused
+        DirectoryListing listing = newListing(7, 100, mtimeSec, mtimeNsec, mtimeMillis);
+        assertFalse(listing.isValid(directoryAttributes, mtimeMillis, MAX_AGE_MILLIS));
+
+        listing = newListing(7, 100, mtimeSec, mtimeNsec, mtimeMillis + DirectoryListing.RACY_MILLIS);
+        assertFalse(listing.isValid(directoryAttributes, mtimeMillis + DirectoryListing.RACY_MILLIS, MAX_AGE_MILLIS));
+
+        listing = newListing(7, 100, mtimeSec, mtimeNsec, mtimeMillis + DirectoryListing.RACY_MILLIS + 1);
+        assertTrue(listing.isValid(directoryAttributes, mtimeMillis + DirectoryListing.RACY_MILLIS + 1, MAX_AGE_MILLIS));
+    }
+
+}
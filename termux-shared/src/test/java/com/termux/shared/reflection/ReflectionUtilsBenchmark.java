@@ -0,0 +1,112 @@
+package com.termux.shared.reflection;
+
+import com.termux.shared.logger.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of getting field values like {@link com.termux.shared.android.PackageUtils} does for
+ * the hidden {@code ApplicationInfo} fields and {@link com.termux.shared.termux.TermuxUtils} does
+ * for the {@code BuildConfig} fields, with a lookup of the field for every call like was done
+ * before, compared to the field cached by {@link ReflectionUtils}. It does not include the hidden
+ * API checks done by android for every lookup.
+ *
+ * It is not run by default, the time per call is printed to stdout, run with:
+ * {@code ./gradlew :termux-shared:testDebugUnitTest -Pbenchmark --tests '*ReflectionUtilsBenchmark' -i}
+ */
+public class ReflectionUtilsBenchmark {
+
+    private static final int WARMUP_CALLS = 20000;
+    private static final int CALLS = 200000;
+
+    @Before
+    public void setUp() {
+        // Do not log the stack traces of the missing members with android.util.Log
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_OFF);
+        ReflectionUtils.clearMemberCache();
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setLogLevel(null, Logger.DEFAULT_LOG_LEVEL);
+        ReflectionUtils.clearMemberCache();
+    }
+
+    @Test
+    public void benchmarkFieldLookup() throws Exception {
+        ReflectionUtilsTest.Target target = new ReflectionUtilsTest.Target();
+        getUncached(target, WARMUP_CALLS);
+        getCached(target, WARMUP_CALLS);
+        getMissingUncached(WARMUP_CALLS / 10);
+        getMissingCached(WARMUP_CALLS);
+
+        long uncachedTime = getUncached(target, CALLS);
+        long cachedTime = getCached(target, CALLS);
+        long missingUncachedTime = getMissingUncached(CALLS / 10) * 10;
+        long missingCachedTime = getMissingCached(CALLS);
+
+        System.out.println(String.format(Locale.US, "%d calls: field lookup %.3f us/call, cached field %.3f us/call, " +
+                "missing field lookup %.3f us/call, cached missing field %.3f us/call", CALLS,
+            uncachedTime / 1e3 / CALLS, cachedTime / 1e3 / CALLS,
+            missingUncachedTime / 1e3 / CALLS, missingCachedTime / 1e3 / CALLS));
+    }
+
+    /** Get the field values with a lookup for every call and return the time taken in nanoseconds. */
+    private static long getUncached(ReflectionUtilsTest.Target target, int calls) throws Exception {
+        long startTime = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < calls; i++) {
+            Field field = ReflectionUtilsTest.Target.class.getDeclaredField("privateFlags");
+            field.setAccessible(true);
+            sum += (Integer) field.get(target);
+            Field staticField = ReflectionUtilsTest.Target.class.getDeclaredField("TERMUX_PACKAGE_VARIANT");
+            staticField.setAccessible(true);
+            sum += ((String) staticField.get(null)).length();
+        }
+        assertEquals(21L * calls, sum);
+        return System.nanoTime() - startTime;
+    }
+
+    /** Get the field values with {@link ReflectionUtils} and return the time taken in nanoseconds. */
+    private static long getCached(ReflectionUtilsTest.Target target, int calls) {
+        long startTime = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < calls; i++) {
+            sum += (Integer) ReflectionUtils.invokeField(ReflectionUtilsTest.Target.class, "privateFlags", target).value;
+            sum += ((String) ReflectionUtils.invokeField(ReflectionUtilsTest.Target.class, "TERMUX_PACKAGE_VARIANT", null).value).length();
+        }
+        assertEquals(21L * calls, sum);
+        return System.nanoTime() - startTime;
+    }
+
+    /** Lookup a missing field and get the stack trace of the failure like was done for every call
+     * and return the time taken in nanoseconds. */
+    private static long getMissingUncached(int calls) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            try {
+                ReflectionUtilsTest.Target.class.getDeclaredField("seInfoUser");
+                fail();
+            } catch (NoSuchFieldException e) {
+                assertNotNull(Logger.getMessageAndStackTraceString("Failed to get \"seInfoUser\" field", e));
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /** Lookup a missing field with {@link ReflectionUtils} and return the time taken in nanoseconds. */
+    private static long getMissingCached(int calls) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < calls; i++)
+            assertNull(ReflectionUtils.getDeclaredField(ReflectionUtilsTest.Target.class, "seInfoUser"));
+        return System.nanoTime() - startTime;
+    }
+
+}
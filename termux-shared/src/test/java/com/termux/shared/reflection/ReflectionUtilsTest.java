@@ -0,0 +1,78 @@
+package com.termux.shared.reflection;
+
+import com.termux.shared.logger.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link ReflectionUtils} member cache.
+ */
+public class ReflectionUtilsTest {
+
+    /** Stand-in for {@code ApplicationInfo} and {@code BuildConfig}. */
+    @SuppressWarnings({"unused", "FieldMayBeFinal"})
+    static class Target {
+        private int privateFlags = 8;
+        private static String TERMUX_PACKAGE_VARIANT = "apt-android-7";
+
+        private String getSeInfo(int userId) {
+            return "default:" + userId;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        // Do not log the stack traces of the missing members with android.util.Log
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_OFF);
+        ReflectionUtils.clearMemberCache();
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setLogLevel(null, Logger.DEFAULT_LOG_LEVEL);
+        ReflectionUtils.clearMemberCache();
+    }
+
+    @Test
+    public void testFieldCache() {
+        Field field = ReflectionUtils.getDeclaredField(Target.class, "privateFlags");
+        assertNotNull(field);
+        assertSame(field, ReflectionUtils.getDeclaredField(Target.class, "privateFlags"));
+
+        ReflectionUtils.FieldInvokeResult result = ReflectionUtils.invokeField(Target.class, "privateFlags", new Target());
+        assertTrue(result.success);
+        assertEquals(8, result.value);
+        assertEquals("apt-android-7", ReflectionUtils.invokeField(Target.class, "TERMUX_PACKAGE_VARIANT", null).value);
+
+        assertNull(ReflectionUtils.getDeclaredField(Target.class, "seInfoUser"));
+        assertNull(ReflectionUtils.getDeclaredField(Target.class, "seInfoUser"));
+        assertFalse(ReflectionUtils.invokeField(Target.class, "seInfoUser", new Target()).success);
+
+        ReflectionUtils.clearMemberCache();
+        assertNotSame(field, ReflectionUtils.getDeclaredField(Target.class, "privateFlags"));
+    }
+
+    @Test
+    public void testMethodCache() {
+        Method method = ReflectionUtils.getDeclaredMethod(Target.class, "getSeInfo", int.class);
+        assertNotNull(method);
+        assertSame(method, ReflectionUtils.getDeclaredMethod(Target.class, "getSeInfo", int.class));
+
+        // Methods are cached by their parameter types too
+        assertNull(ReflectionUtils.getDeclaredMethod(Target.class, "getSeInfo"));
+        assertNull(ReflectionUtils.getDeclaredMethod(Target.class, "getSeInfo", long.class));
+        assertSame(method, ReflectionUtils.getDeclaredMethod(Target.class, "getSeInfo", int.class));
+
+        ReflectionUtils.MethodInvokeResult result = ReflectionUtils.invokeMethod(method, new Target(), 10);
+        assertTrue(result.success);
+        assertEquals("default:10", result.value);
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.termux.shared.shell;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NonBlockingOutputStreamTest {
+
+    /** A stream that blocks every write until released or closed, like a socket whose reader stopped reading. */
+    static class StalledOutputStream extends OutputStream {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final CountDownLatch released = new CountDownLatch(1);
+        volatile boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (closed) throw new IOException("Stream closed");
+            synchronized (written) {
+                written.write(buffer, offset, length);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            released.countDown();
+        }
+    }
+
+    @Test
+    public void testDataIsWrittenInOrder() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        NonBlockingOutputStream stream = new NonBlockingOutputStream(outputStream, 16, 5000, "test");
+        byte[] expected = new byte[1000];
+        for (int i = 0; i < expected.length; i += 10) {
+            for (int j = i; j < i + 10; j++) expected[j] = (byte) j;
+            stream.write(expected, i, 10);
+        }
+        stream.close();
+
+        assertFalse(stream.hasFailed());
+        assertArrayEquals(expected, outputStream.toByteArray());
+    }
+
+    @Test
+    public void testStalledConsumerDoesNotBlockWhileBuffered() throws Exception {
+        StalledOutputStream outputStream = new StalledOutputStream();
+        NonBlockingOutputStream stream = new NonBlockingOutputStream(outputStream, 1024, 60000, "test");
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < 100; i++)
+            stream.write(new byte[10], 0, 10);
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(10));
+
+        outputStream.released.countDown();
+        stream.close();
+        assertFalse(stream.hasFailed());
+        assertEquals(1000, outputStream.written.size());
+    }
+
+    @Test
+    public void testStalledConsumerIsDroppedOnTimeout() throws Exception {
+        StalledOutputStream outputStream = new StalledOutputStream();
+        NonBlockingOutputStream stream = new NonBlockingOutputStream(outputStream, 16, 100, "test");
+
+        stream.write(new byte[16], 0, 16);
+        try {
+            stream.write(new byte[16], 0, 16);
+            fail("Write did not time out");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(stream.hasFailed());
+        assertTrue(waitUntilClosed(outputStream));
+
+        // Later writes fail immediately
+        try {
+            stream.write(new byte[1], 0, 1);
+            fail("Write after failure did not fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCloseTimesOutIfNotDrained() throws Exception {
+        StalledOutputStream outputStream = new StalledOutputStream();
+        NonBlockingOutputStream stream = new NonBlockingOutputStream(outputStream, 16, 100, "test");
+        stream.write(new byte[8], 0, 8);
+
+        try {
+            stream.close();
+            fail("Close did not time out");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(stream.hasFailed());
+        assertTrue(outputStream.closed);
+    }
+
+    @Test
+    public void testFailingConsumer() throws Exception {
+        OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        NonBlockingOutputStream stream = new NonBlockingOutputStream(outputStream, 16, 5000, "test");
+        stream.write(new byte[4], 0, 4);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!stream.hasFailed() && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertTrue(stream.hasFailed());
+        try {
+            stream.write(new byte[4], 0, 4);
+            fail("Write after failure did not fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static boolean waitUntilClosed(StalledOutputStream outputStream) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!outputStream.closed && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        return outputStream.closed;
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.termux.shared.shell;
+
+import com.termux.shared.logger.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OutputCaptureTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        // Do not log the stack traces of the failures with android.util.Log
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_OFF);
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setLogLevel(null, Logger.DEFAULT_LOG_LEVEL);
+    }
+
+    private static void write(OutputCapture capture, String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        capture.write(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testOutputThatFits() {
+        OutputCapture capture = new OutputCapture(4, 6, null);
+        write(capture, "01234");
+        write(capture, "56789");
+        capture.close();
+
+        assertFalse(capture.isTruncated());
+        assertEquals(10, capture.getTotalLength());
+        assertEquals("0123456789", capture.toString());
+        assertNull(capture.getSpillFile());
+    }
+
+    @Test
+    public void testTruncation() {
+        OutputCapture capture = new OutputCapture(4, 6, null);
+        write(capture, "01234567");
+        write(capture, "89AB");
+        write(capture, "CDEF");
+        capture.close();
+
+        assertTrue(capture.isTruncated());
+        assertEquals(16, capture.getTotalLength());
+        assertEquals("0123ABCDEF", new String(capture.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("0123\n(6 bytes truncated)\nABCDEF", capture.toString());
+    }
+
+    @Test
+    public void testTruncationDoesNotSplitCharacters() {
+        // The head ends in the middle of the first two byte character and the tail starts in the middle
+        // of the second one
+        OutputCapture capture = new OutputCapture(4, 3, null);
+        write(capture, "abc\u00e9");
+        for (int i = 0; i < 20; i++)
+            write(capture, "x");
+        write(capture, "\u00e9yz");
+        capture.close();
+
+        assertEquals(29, capture.getTotalLength());
+        assertEquals("abc\n(24 bytes truncated)\nyz", capture.toString());
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        File spillDirectory = mTemporaryFolder.newFolder();
+        OutputCapture capture = new OutputCapture(4, 4, spillDirectory);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String line = "line " + i + "\n";
+            write(capture, line);
+            expected.append(line);
+        }
+        capture.close();
+
+        // The full output is in the spill file, and only the head and tail in memory
+        assertTrue(capture.isTruncated());
+        File spillFile = capture.getSpillFile();
+        assertNotNull(spillFile);
+        assertEquals(spillDirectory, spillFile.getParentFile());
+        assertEquals(expected.toString(), new String(Files.readAllBytes(spillFile.toPath()), StandardCharsets.UTF_8));
+        assertEquals(8, capture.toByteArray().length);
+
+        capture.deleteSpillFile();
+        assertNull(capture.getSpillFile());
+        assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void testNoSpillIfOutputFits() throws Exception {
+        File spillDirectory = mTemporaryFolder.newFolder();
+        OutputCapture capture = new OutputCapture(4, 4, spillDirectory);
+        write(capture, "01234567");
+        capture.close();
+
+        assertNull(capture.getSpillFile());
+        assertArrayEquals(new String[0], spillDirectory.list());
+    }
+
+    @Test
+    public void testNoSpillAfterClose() throws Exception {
+        // A gobbler may still write after the command failed and the capture was closed
+        File spillDirectory = mTemporaryFolder.newFolder();
+        OutputCapture capture = new OutputCapture(4, 4, spillDirectory);
+        capture.close();
+        write(capture, "0123456789");
+        capture.close();
+
+        assertTrue(capture.isTruncated());
+        assertNull(capture.getSpillFile());
+        assertArrayEquals(new String[0], spillDirectory.list());
+    }
+
+    @Test
+    public void testStalledTeeDoesNotBlockReaders() throws Exception {
+        NonBlockingOutputStreamTest.StalledOutputStream teeStream = new NonBlockingOutputStreamTest.StalledOutputStream();
+        OutputCapture capture = new OutputCapture(4, 6, null);
+        capture.setTeeOutputStream(teeStream, 4, 60000);
+        write(capture, "0123");
+
+        // The next write waits for the stalled consumer to read the full tee buffer
+        CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            write(capture, "4567");
+            written.countDown();
+        });
+        writer.start();
+        assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+
+        // Readers of the capture are not blocked while the writer waits
+        long startTime = System.nanoTime();
+        assertEquals("0123", capture.toString());
+        assertFalse(capture.hasTeeFailed());
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(10));
+
+        // Closing while the writer waits does not fail the tee once its output is read
+        teeStream.released.countDown();
+        capture.close();
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+        writer.join();
+        assertEquals("01234567", capture.toString());
+        assertFalse(capture.hasTeeFailed());
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.termux.shared.shell.am;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of the {@link AmSocketServerProtocol} framed protocol compared to one connection for
+ * each command, with a stand-in {@link AmSocketServerProtocol.AmCommandRunner} instead of running
+ * the am commands with termux-am-library.
+ *
+ * A loopback TCP socket is used instead of a local socket so that it can run on the host. It is
+ * not run by default, the commands per second are printed to stdout, run with:
+ * {@code ./gradlew :termux-shared:testDebugUnitTest -Pbenchmark --tests '*AmSocketServerProtocolBenchmark' -i}
+ */
+public class AmSocketServerProtocolBenchmark {
+
+    private static final int WARMUP_COMMANDS = 2000;
+    private static final int COMMANDS = 20000;
+
+    private static final AmSocketServerProtocol.AmCommandRunner STAND_IN_RUNNER = (amCommandString, stdout, stderr) -> {
+        stdout.append("Starting: Intent { ").append(amCommandString).append(" }\n");
+        return amCommandString.endsWith("fail") ? 1 : 0;
+    };
+
+    private ServerSocket mServerSocket;
+    private Thread mServerThread;
+    private final AtomicReference<Throwable> mServerFailure = new AtomicReference<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        mServerThread = new Thread(this::runServer, "AmSocketServerProtocolBenchmark-server");
+        mServerThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServerSocket.close();
+        mServerThread.join(10000);
+        if (mServerFailure.get() != null) throw new AssertionError("Server failed", mServerFailure.get());
+    }
+
+    @Test
+    public void benchmarkOneShotAndFramed() throws Exception {
+        runOneShot(WARMUP_COMMANDS);
+        runFramed(WARMUP_COMMANDS);
+
+        long oneShotTime = runOneShot(COMMANDS);
+        long framedTime = runFramed(COMMANDS);
+
+        System.out.println(String.format(Locale.US, "%d commands: one-shot %.0f commands/s, framed pipelined %.0f commands/s",
+            COMMANDS, COMMANDS / (oneShotTime / 1e9), COMMANDS / (framedTime / 1e9)));
+    }
+
+    /** Run commands with one connection each and return the time taken in nanoseconds. */
+    private long runOneShot(int commands) throws IOException {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < commands; i++) {
+            try (Socket socket = new Socket(mServerSocket.getInetAddress(), mServerSocket.getLocalPort())) {
+                socket.getOutputStream().write(("start " + i).getBytes(StandardCharsets.UTF_8));
+                socket.shutdownOutput();
+
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = socket.getInputStream().read(buffer)) > 0)
+                    result.write(buffer, 0, n);
+                assertEquals("0\0Starting: Intent { start " + i + " }\n\0", result.toString("UTF-8"));
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /** Run commands pipelined on one connection and return the time taken in nanoseconds. */
+    private long runFramed(int commands) throws Exception {
+        long startTime = System.nanoTime();
+        try (Socket socket = connectFramed()) {
+            AtomicReference<Throwable> writerFailure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    OutputStream outputStream = socket.getOutputStream();
+                    for (int i = 0; i < commands; i++)
+                        AmSocketServerProtocol.writeRequest(outputStream, i, "start " + i);
+                    socket.shutdownOutput();
+                } catch (Throwable t) {
+                    writerFailure.set(t);
+                }
+            });
+            writer.start();
+
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            for (int i = 0; i < commands; i++) {
+                AmSocketServerProtocol.Response response = AmSocketServerProtocol.readResponse(inputStream);
+                assertEquals(i, response.requestId);
+                assertEquals("Starting: Intent { start " + i + " }\n", response.stdout);
+            }
+            assertEquals(-1, inputStream.read());
+
+            writer.join();
+            if (writerFailure.get() != null) throw new AssertionError("Writer failed", writerFailure.get());
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private Socket connectFramed() throws IOException {
+        Socket socket = new Socket(mServerSocket.getInetAddress(), mServerSocket.getLocalPort());
+        socket.setTcpNoDelay(true);
+        socket.getOutputStream().write(AmSocketServerProtocol.FRAMED_PROTOCOL_MAGIC);
+        byte[] magic = new byte[AmSocketServerProtocol.FRAMED_PROTOCOL_MAGIC.length];
+        new DataInputStream(socket.getInputStream()).readFully(magic);
+        assertArrayEquals(AmSocketServerProtocol.FRAMED_PROTOCOL_MAGIC, magic);
+        return socket;
+    }
+
+    /**
+     * Accept connections one at a time and serve them like {@link AmSocketServer#processAmClient},
+     * except that the rest of a one-shot am command is read from the stream instead of with
+     * {@link com.termux.shared.net.socket.local.LocalClientSocket#readDataUntilNull}.
+     */
+    private void runServer() {
+        while (!mServerSocket.isClosed()) {
+            try (Socket socket = mServerSocket.accept()) {
+                socket.setTcpNoDelay(true);
+                InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+                OutputStream outputStream = socket.getOutputStream();
+
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                if (AmSocketServer.readFramedProtocolMagic(inputStream, data)) {
+                    outputStream.write(AmSocketServerProtocol.FRAMED_PROTOCOL_MAGIC);
+                    int[] requestCount = new int[1];
+                    assertNull(AmSocketServerProtocol.processRequests(inputStream, outputStream, STAND_IN_RUNNER, requestCount));
+                    continue;
+                }
+
+                int c;
+                while (data.size() > 0 && (c = inputStream.read()) > 0)
+                    data.write(c);
+                StringBuilder stdout = new StringBuilder();
+                StringBuilder stderr = new StringBuilder();
+                int exitCode = STAND_IN_RUNNER.runAmCommand(data.toString("UTF-8"), stdout, stderr);
+                outputStream.write((exitCode + "\0" + stdout + "\0" + stderr).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                if (!mServerSocket.isClosed()) mServerFailure.set(e);
+                return;
+            } catch (Throwable t) {
+                mServerFailure.set(t);
+                return;
+            }
+        }
+    }
+
+}
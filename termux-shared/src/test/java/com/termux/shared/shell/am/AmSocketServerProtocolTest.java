@@ -0,0 +1,163 @@
+package com.termux.shared.shell.am;
+
+import com.termux.shared.errors.Error;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AmSocketServerProtocolTest {
+
+    private static final AmSocketServerProtocol.AmCommandRunner STAND_IN_RUNNER = (amCommandString, stdout, stderr) -> {
+        stdout.append("Starting: Intent { ").append(amCommandString).append(" }\n");
+        if (amCommandString.endsWith("fail")) {
+            stderr.append("failed");
+            return 1;
+        }
+        return 0;
+    };
+
+    private static InputStream stream(byte[]... parts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) bytes.write(part);
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private static byte[] utf8(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] requests(Object... idsAndCommands) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < idsAndCommands.length; i += 2)
+            AmSocketServerProtocol.writeRequest(bytes, (Integer) idsAndCommands[i], (String) idsAndCommands[i + 1]);
+        return bytes.toByteArray();
+    }
+
+    private static List<AmSocketServerProtocol.Response> readResponses(byte[] bytes) throws IOException {
+        List<AmSocketServerProtocol.Response> responses = new ArrayList<>();
+        InputStream inputStream = new ByteArrayInputStream(bytes);
+        while (inputStream.available() > 0)
+            responses.add(AmSocketServerProtocol.readResponse(inputStream));
+        return responses;
+    }
+
+    @Test
+    public void testFramedProtocolMagicIsReadExactly() throws IOException {
+        InputStream inputStream = stream(AmSocketServerProtocol.FRAMED_PROTOCOL_MAGIC, utf8("rest"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        assertTrue(AmSocketServer.readFramedProtocolMagic(inputStream, data));
+        assertEquals(0, data.size());
+        // Nothing after the magic must have been consumed
+        assertEquals('r', inputStream.read());
+    }
+
+    @Test
+    public void testOneShotCommandKeepsItsFirstByte() throws IOException {
+        InputStream inputStream = stream(utf8("start -n com.termux/.app.TermuxActivity\0"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        assertFalse(AmSocketServer.readFramedProtocolMagic(inputStream, data));
+        assertEquals("s", data.toString("UTF-8"));
+        assertEquals('t', inputStream.read());
+    }
+
+    @Test
+    public void testEmptyOneShotCommand() throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        assertFalse(AmSocketServer.readFramedProtocolMagic(stream(new byte[]{0}), data));
+        assertEquals(0, data.size());
+
+        // Same for an empty command that happens to start with the magic but does not match all of it
+        data.reset();
+        assertFalse(AmSocketServer.readFramedProtocolMagic(stream(new byte[]{0, 'A', 'X'}), data));
+        assertEquals(0, data.size());
+
+        // And for a client that closed the connection without sending anything
+        assertFalse(AmSocketServer.readFramedProtocolMagic(stream(), data));
+        assertEquals(0, data.size());
+    }
+
+    @Test
+    public void testResponsesMatchRequests() throws IOException {
+        InputStream inputStream = stream(AmSocketServerProtocol.FRAMED_PROTOCOL_MAGIC,
+            requests(7, "start -n com.termux/.app.TermuxActivity", 8, "broadcast -a fail", -1, "é中", 9, ""));
+        assertTrue(AmSocketServer.readFramedProtocolMagic(inputStream, new ByteArrayOutputStream()));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        int[] requestCount = new int[1];
+        assertNull(AmSocketServerProtocol.processRequests(inputStream, outputStream, STAND_IN_RUNNER, requestCount));
+        assertEquals(4, requestCount[0]);
+
+        List<AmSocketServerProtocol.Response> responses = readResponses(outputStream.toByteArray());
+        assertEquals(4, responses.size());
+
+        assertEquals(7, responses.get(0).requestId);
+        assertEquals(0, responses.get(0).exitCode);
+        assertEquals("Starting: Intent { start -n com.termux/.app.TermuxActivity }\n", responses.get(0).stdout);
+        assertEquals("", responses.get(0).stderr);
+
+        // The stdout and stderr of a request must not leak into the next one
+        assertEquals(8, responses.get(1).requestId);
+        assertEquals(1, responses.get(1).exitCode);
+        assertEquals("failed", responses.get(1).stderr);
+        assertEquals("", responses.get(2).stderr);
+
+        assertEquals(-1, responses.get(2).requestId);
+        assertEquals("Starting: Intent { é中 }\n", responses.get(2).stdout);
+
+        assertEquals(9, responses.get(3).requestId);
+        assertEquals("Starting: Intent {  }\n", responses.get(3).stdout);
+    }
+
+    @Test
+    public void testInvalidCommandLengthIsRejectedWithoutRunning() throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(request);
+        dataOutputStream.writeInt(3);
+        dataOutputStream.writeInt(AmSocketServerProtocol.MAX_COMMAND_LENGTH + 1);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        int[] requestCount = new int[1];
+        Error error = AmSocketServerProtocol.processRequests(stream(requests(1, "start"), request.toByteArray()),
+            outputStream, STAND_IN_RUNNER, requestCount);
+
+        assertNotNull(error);
+        assertTrue(AmSocketServerErrno.ERRNO_INVALID_REQUEST_COMMAND_LENGTH.equalsErrorTypeAndCode(error));
+        assertEquals(1, requestCount[0]);
+        assertEquals(1, readResponses(outputStream.toByteArray()).size());
+    }
+
+    @Test
+    public void testTruncatedRequestIsAnError() throws IOException {
+        byte[] request = requests(1, "start -n com.termux/.app.TermuxActivity");
+        byte[] truncated = new byte[request.length - 1];
+        System.arraycopy(request, 0, truncated, 0, truncated.length);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        int[] requestCount = new int[1];
+        Error error = AmSocketServerProtocol.processRequests(stream(truncated), outputStream, STAND_IN_RUNNER, requestCount);
+
+        assertNotNull(error);
+        assertTrue(AmSocketServerErrno.ERRNO_READ_REQUEST_FAILED_WITH_EXCEPTION.equalsErrorTypeAndCode(error));
+        assertEquals(0, requestCount[0]);
+        assertEquals(0, outputStream.size());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testReadResponseFailsOnClosedConnection() throws IOException {
+        AmSocketServerProtocol.readResponse(stream(new byte[]{0, 0, 0, 1, 0, 0}));
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.termux.shared.shell.command.environment;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of setting up the `environ` of a command by converting and sorting the whole
+ * environment like was done for every command, compared to merging the per command variables into
+ * the `environ` cached by {@link ShellEnvironmentCache}. It does not include the PackageManager and
+ * SELinux queries of the Termux environment that are also skipped when cached since they need a
+ * device.
+ *
+ * It is not run by default, the time per command is printed to stdout, run with:
+ * {@code ./gradlew :termux-shared:testDebugUnitTest -Pbenchmark --tests '*ShellEnvironmentCacheBenchmark' -i}
+ */
+public class ShellEnvironmentCacheBenchmark {
+
+    private static final int WARMUP_COMMANDS = 20000;
+    private static final int COMMANDS = 200000;
+
+    @Test
+    public void benchmarkSetupEnviron() {
+        String[] environ = new ShellEnvironmentCache.CachedEnvironment(ShellEnvironmentCacheTest.getEnvironment()).getEnviron();
+        rebuild(WARMUP_COMMANDS);
+        merge(environ, WARMUP_COMMANDS);
+
+        long rebuildTime = rebuild(COMMANDS);
+        long mergeTime = merge(environ, COMMANDS);
+
+        System.out.println(String.format(Locale.US, "%d commands: rebuild %.2f us/command, merge into cached environ %.2f us/command",
+            COMMANDS, rebuildTime / 1e3 / COMMANDS, mergeTime / 1e3 / COMMANDS));
+    }
+
+    /** Setup environ like was done for every command and return the time taken in nanoseconds. */
+    private static long rebuild(int commands) {
+        long startTime = System.nanoTime();
+        int length = 0;
+        for (int i = 0; i < commands; i++) {
+            HashMap<String, String> environment = ShellEnvironmentCacheTest.getEnvironment();
+            environment.putAll(ShellEnvironmentCacheTest.getShellCommandEnvironment(i));
+            List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+            Collections.sort(environmentList);
+            length += environmentList.toArray(new String[0]).length;
+        }
+        assertEquals(57L * commands, length);
+        return System.nanoTime() - startTime;
+    }
+
+    /** Setup environ from the cached environ and return the time taken in nanoseconds. */
+    private static long merge(String[] environ, int commands) {
+        long startTime = System.nanoTime();
+        int length = 0;
+        for (int i = 0; i < commands; i++)
+            length += ShellEnvironmentUtils.mergeEnvironmentIntoEnviron(environ, ShellEnvironmentCacheTest.getShellCommandEnvironment(i)).length;
+        assertEquals(57L * commands, length);
+        return System.nanoTime() - startTime;
+    }
+
+}
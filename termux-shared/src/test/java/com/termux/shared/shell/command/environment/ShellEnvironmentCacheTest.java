@@ -0,0 +1,77 @@
+package com.termux.shared.shell.command.environment;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link ShellEnvironmentCache} and
+ * {@link ShellEnvironmentUtils#mergeEnvironmentIntoEnviron(String[], java.util.Map)}.
+ */
+public class ShellEnvironmentCacheTest {
+
+    @After
+    public void tearDown() {
+        ShellEnvironmentCache.invalidate();
+    }
+
+    static HashMap<String, String> getEnvironment() {
+        HashMap<String, String> environment = new HashMap<>();
+        for (int i = 0; i < 50; i++)
+            environment.put("TERMUX_APP__VARIABLE_" + i, "/data/data/com.termux/files/value_" + i);
+        environment.put("HOME", "/data/data/com.termux/files/home");
+        environment.put("PATH", "/data/data/com.termux/files/usr/bin");
+        environment.put("TMPDIR", "/data/data/com.termux/files/usr/tmp");
+        return environment;
+    }
+
+    static HashMap<String, String> getShellCommandEnvironment(int id) {
+        HashMap<String, String> environment = new HashMap<>();
+        environment.put("PWD", "/data/data/com.termux/files/home");
+        environment.put("SHELL_CMD__SHELL_ID", String.valueOf(id));
+        environment.put("SHELL_CMD__APP_TERMINAL_SESSION_NUMBER_SINCE_BOOT", String.valueOf(id));
+        environment.put("SHELL_CMD__RUNNER_NAME", "terminal-session");
+        return environment;
+    }
+
+    @Test
+    public void testMergeEnvironmentIntoEnviron() {
+        String[] environ = new ShellEnvironmentCache.CachedEnvironment(getEnvironment()).getEnviron();
+        String[] original = environ.clone();
+
+        HashMap<String, String> shellCommandEnvironment = getShellCommandEnvironment(1);
+        shellCommandEnvironment.put("TMPDIR", "/data/local/tmp");
+        shellCommandEnvironment.put("1INVALID", "value");
+        String[] merged = ShellEnvironmentUtils.mergeEnvironmentIntoEnviron(environ, shellCommandEnvironment);
+
+        HashMap<String, String> environment = getEnvironment();
+        environment.putAll(shellCommandEnvironment);
+        List<String> expected = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+        Collections.sort(expected);
+
+        assertEquals(expected, Arrays.asList(merged));
+        assertTrue(expected.contains("TMPDIR=/data/local/tmp"));
+        assertArrayEquals(original, environ);
+    }
+
+    @Test
+    public void testInvalidate() {
+        int generation = ShellEnvironmentCache.getGeneration();
+        ShellEnvironmentCache.CachedEnvironment cachedEnvironment = ShellEnvironmentCache.put("key", getEnvironment(), generation);
+        assertSame(cachedEnvironment, ShellEnvironmentCache.get("key"));
+
+        ShellEnvironmentCache.invalidate();
+        assertNull(ShellEnvironmentCache.get("key"));
+
+        // An environment built before the invalidate must not be cached
+        assertNotNull(ShellEnvironmentCache.put("key", getEnvironment(), generation));
+        assertNull(ShellEnvironmentCache.get("key"));
+    }
+
+}
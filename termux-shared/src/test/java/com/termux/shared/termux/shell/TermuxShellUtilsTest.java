@@ -0,0 +1,39 @@
+package com.termux.shared.termux.shell;
+
+import com.termux.shared.termux.TermuxConstants;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class TermuxShellUtilsTest {
+
+    private static final String BIN = TermuxConstants.TERMUX_BIN_PREFIX_DIR_PATH;
+
+    private static void assertShebang(String script, String... expected) {
+        byte[] bytes = script.getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(script, expected, TermuxShellUtils.parseShebang(bytes, bytes.length));
+    }
+
+    @Test
+    public void testParseShebang() {
+        assertShebang("#!/bin/sh\necho", BIN + "/sh");
+        assertShebang("#! /usr/bin/bash\n", BIN + "/bash");
+        assertShebang("#!/bin/sh\r\n", BIN + "/sh");
+        assertShebang("#!/bin/sh -e\n", BIN + "/sh", "-e");
+        assertShebang("#!/usr/bin/env python3\n", BIN + "/env", "python3");
+        assertShebang("#!/usr/bin/env -S python3 -u \t\r\n", BIN + "/env", "-S python3 -u");
+    }
+
+    @Test
+    public void testParseShebangWithoutInterpreter() {
+        // Interpreters outside /usr and /bin are left for the kernel
+        assertShebang("#!" + BIN + "/bash\n");
+        // The end of the shebang line was not found
+        assertShebang("#!/bin/sh");
+        assertShebang("#!  \n");
+    }
+
+}